@@ -24,6 +24,7 @@ package fiji.plugin.trackmate;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -144,15 +145,40 @@ public class FeatureModel
 	 * @param value
 	 *            the feature value
 	 */
-	public synchronized void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	public void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
 	{
-		ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
+		edgeFeatureValues.computeIfAbsent( edge, e -> new ConcurrentHashMap<>() ).put( feature, value );
+	}
+
+	/**
+	 * Stores several numerical features for a batch of edges of this model.
+	 * The feature map of each edge is resolved only once for all the features.
+	 * <p>
+	 * Note that no checks are made to ensures that the edges exist in the
+	 * {@link TrackModel}, and that the features are declared in this
+	 * {@link FeatureModel}.
+	 *
+	 * @param edges
+	 *            the edges whose features to update. Only the first
+	 *            <code>n</code> elements are used.
+	 * @param n
+	 *            the number of edges to update.
+	 * @param features
+	 *            the features to store.
+	 * @param values
+	 *            the feature values, one array per feature, in the same order
+	 *            that of the features. Each array must contain at least
+	 *            <code>n</code> elements, in the same order that of the edges.
+	 */
+	public void putEdgeFeatures( final DefaultWeightedEdge[] edges, final int n, final List< String > features, final List< double[] > values )
+	{
+		final int nFeatures = features.size();
+		for ( int i = 0; i < n; i++ )
 		{
-			map = new ConcurrentHashMap<>();
-			edgeFeatureValues.put( edge, map );
+			final ConcurrentHashMap< String, Double > map = edgeFeatureValues.computeIfAbsent( edges[ i ], e -> new ConcurrentHashMap<>( 2 * nFeatures ) );
+			for ( int f = 0; f < nFeatures; f++ )
+				map.put( features.get( f ), Double.valueOf( values.get( f )[ i ] ) );
 		}
-		map.put( feature, value );
 	}
 
 	public Double getEdgeFeature( final DefaultWeightedEdge edge, final String featureName )
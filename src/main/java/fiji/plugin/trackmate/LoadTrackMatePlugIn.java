@@ -26,6 +26,7 @@ import static fiji.plugin.trackmate.gui.Icons.TRACKMATE_ICON;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.io.File;
+import java.io.IOException;
 
 import javax.swing.JFrame;
 
@@ -42,8 +43,12 @@ import fiji.plugin.trackmate.gui.wizard.descriptors.ConfigureViewsDescriptor;
 import fiji.plugin.trackmate.gui.wizard.descriptors.LogPanelDescriptor2;
 import fiji.plugin.trackmate.gui.wizard.descriptors.StartDialogDescriptor;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.ModelJournal;
 import fiji.plugin.trackmate.io.SettingsPersistence;
+import fiji.plugin.trackmate.io.TmBinaryKeys;
+import fiji.plugin.trackmate.io.TmBinaryReader;
 import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlStreamReader;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 import fiji.plugin.trackmate.visualization.ViewUtils;
@@ -182,6 +187,25 @@ public class LoadTrackMatePlugIn extends TrackMatePlugIn
 
 		final TrackMate trackmate = createTrackMate( model, settings );
 
+		/*
+		 * Recover the edits made after the file was last saved, and keep
+		 * journaling them. The replay does not update edge and track
+		 * features.
+		 */
+
+		try
+		{
+			if ( ModelJournal.resume( model, file, logger ).hasReplayed() )
+			{
+				trackmate.computeEdgeFeatures( true );
+				trackmate.computeTrackFeatures( true );
+			}
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not read the autosave journal:\n" + e.getMessage() + '\n' );
+		}
+
 		// Hook actions
 		postRead( trackmate );
 
@@ -284,7 +308,9 @@ public class LoadTrackMatePlugIn extends TrackMatePlugIn
 	 */
 	protected TmXmlReader createReader( final File lFile )
 	{
-		return new TmXmlReader( lFile );
+		if ( lFile.getName().endsWith( "." + TmBinaryKeys.EXTENSION ) )
+			return new TmBinaryReader( lFile );
+		return new TmXmlStreamReader( lFile );
 	}
 
 	/*
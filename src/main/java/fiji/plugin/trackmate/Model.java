@@ -32,6 +32,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureStatistics;
 
 /**
  * The model for the data managed by TrackMate.
@@ -62,6 +63,8 @@ public class Model
 
 	private final FeatureModel featureModel;
 
+	private final FeatureStatistics featureStatistics;
+
 	// TRACKS
 
 	private final TrackModel trackModel;
@@ -130,6 +133,7 @@ public class Model
 	{
 		featureModel = createFeatureModel();
 		trackModel = createTrackModel();
+		featureStatistics = new FeatureStatistics( this );
 	}
 
 	/*
@@ -475,6 +479,18 @@ public class Model
 		return featureModel;
 	}
 
+	/**
+	 * Returns the service that maintains the statistics of the feature values
+	 * of this model. It is registered as a listener of this model, and builds
+	 * its statistics only when they are queried.
+	 *
+	 * @return the feature statistics of this model.
+	 */
+	public FeatureStatistics getFeatureStatistics()
+	{
+		return featureStatistics;
+	}
+
 	/*
 	 * MODEL CHANGE METHODS
 	 */
@@ -903,6 +919,7 @@ public class Model
 			for ( final DefaultWeightedEdge edge : trackModel.edgesRemoved )
 			{
 				event.putEdgeFlag( edge, ModelChangeEvent.FLAG_EDGE_REMOVED );
+				event.putRemovedEdgeEnds( edge, trackModel.edgesRemovedSource.get( edge ), trackModel.edgesRemovedTarget.get( edge ) );
 			}
 			for ( final DefaultWeightedEdge edge : trackModel.edgesModified )
 			{
@@ -952,6 +969,8 @@ public class Model
 			spotsUpdated.clear();
 			trackModel.edgesAdded.clear();
 			trackModel.edgesRemoved.clear();
+			trackModel.edgesRemovedSource.clear();
+			trackModel.edgesRemovedTarget.clear();
 			trackModel.edgesModified.clear();
 			trackModel.tracksUpdated.clear();
 			eventCache.clear();
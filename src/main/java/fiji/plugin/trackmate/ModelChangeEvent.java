@@ -119,6 +119,10 @@ public class ModelChangeEvent extends EventObject {
 	private final HashMap<Spot, Integer> spotFlags = new HashMap<>();
 	/** Modification flag for edges affected by this event. */
 	private final HashMap<DefaultWeightedEdge, Integer> edgeFlags = new HashMap<>();
+	/** For edges removed: the spot they were linking from. */
+	private final HashMap<DefaultWeightedEdge, Spot> removedEdgeSource = new HashMap<>();
+	/** For edges removed: the spot they were linking to. */
+	private final HashMap<DefaultWeightedEdge, Spot> removedEdgeTarget = new HashMap<>();
 	/** The event type for this instance. */
 	private final int eventID;
 	private Set< Integer > trackUpdated = new HashSet<>();
@@ -222,6 +226,36 @@ public class ModelChangeEvent extends EventObject {
 		return fromFrame.get(spot);
 	}
 
+	public void putRemovedEdgeEnds(final DefaultWeightedEdge edge, final Spot source, final Spot target) {
+		removedEdgeSource.put(edge, source);
+		removedEdgeTarget.put(edge, target);
+	}
+
+	/**
+	 * Returns the spot a removed edge was linking from. Removed edges are not
+	 * in the model anymore, so their source cannot be retrieved from it.
+	 *
+	 * @param edge
+	 *            an edge flagged with {@link #FLAG_EDGE_REMOVED}.
+	 * @return the source spot, or <code>null</code> if the edge was not
+	 *         removed in this event.
+	 */
+	public Spot getRemovedEdgeSource(final DefaultWeightedEdge edge) {
+		return removedEdgeSource.get(edge);
+	}
+
+	/**
+	 * Returns the spot a removed edge was linking to.
+	 *
+	 * @param edge
+	 *            an edge flagged with {@link #FLAG_EDGE_REMOVED}.
+	 * @return the target spot, or <code>null</code> if the edge was not
+	 *         removed in this event.
+	 */
+	public Spot getRemovedEdgeTarget(final DefaultWeightedEdge edge) {
+		return removedEdgeTarget.get(edge);
+	}
+
 	public void setSource(final Object source) {
 		this.source = source;
 	}
@@ -33,6 +33,7 @@ import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
+import fiji.plugin.trackmate.features.spot.SpotGaussianFitAnalyzerFactory;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
 import fiji.plugin.trackmate.providers.EdgeAnalyzerProvider;
 import fiji.plugin.trackmate.providers.SpotAnalyzerProvider;
@@ -296,6 +297,10 @@ public class Settings
 
 		// Exception: we add all analyzers, regardless of the persistence.
 		newSettings.addAllAnalyzers();
+		// But keep the opt-in Gaussian fit if it was there.
+		for ( final SpotAnalyzerFactoryBase< ? > factory : spotAnalyzerFactories )
+			if ( factory.getKey().equals( SpotGaussianFitAnalyzerFactory.KEY ) )
+				newSettings.addSpotAnalyzerFactory( 0, new SpotGaussianFitAnalyzerFactory<>() );
 		return newSettings;
 	}
 
@@ -527,14 +532,20 @@ public class Settings
 	/**
 	 * All the spot analyzers, edge analyzers and track analyzers discovered at
 	 * runtime. This method is a convenience for scripting, that simply
-	 * discovers and adds all the analyzers it can find.
+	 * discovers and adds all the analyzers it can find, except the
+	 * {@link SpotGaussianFitAnalyzerFactory} that must be added explicitly.
 	 */
 	public void addAllAnalyzers()
 	{
 		final SpotAnalyzerProvider spotAnalyzerProvider = new SpotAnalyzerProvider( imp == null ? 1 : imp.getNChannels() );
 		final List< String > spotAnalyzerKeys = spotAnalyzerProvider.getKeys();
 		for ( final String key : spotAnalyzerKeys )
+		{
+			// Moves spots, must be added explicitly.
+			if ( key.equals( SpotGaussianFitAnalyzerFactory.KEY ) )
+				continue;
 			addSpotAnalyzerFactory( spotAnalyzerProvider.getFactory( key ) );
+		}
 
 		if ( imp != null && DetectionUtils.is2D( imp ) && detectorFactory != null && detectorFactory.has2Dsegmentation() )
 		{
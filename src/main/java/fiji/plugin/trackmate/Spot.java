@@ -199,13 +199,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	{
 		super( 3 );
 		this.ID = ID;
-		synchronized ( IDcounter )
-		{
-			if ( IDcounter.get() < ID )
-			{
-				IDcounter.set( ID );
-			}
-		}
+		IDcounter.accumulateAndGet( ID, Math::max );
 	}
 
 	/*
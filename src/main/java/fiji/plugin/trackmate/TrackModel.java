@@ -101,6 +101,24 @@ public class TrackModel
 	 */
 	final Set< DefaultWeightedEdge > edgesRemoved = new HashSet<>();
 
+	/**
+	 * For the edges in {@link #edgesRemoved}, the spot they were linking from.
+	 * Removed edges cannot be queried for their source after removal, so we
+	 * store it when the edge is removed.
+	 * <p>
+	 * It is the parent instance responsibility to clear this field when it is
+	 * fit to do so.
+	 */
+	final Map< DefaultWeightedEdge, Spot > edgesRemovedSource = new HashMap<>();
+
+	/**
+	 * For the edges in {@link #edgesRemoved}, the spot they were linking to.
+	 * <p>
+	 * It is the parent instance responsibility to clear this field when it is
+	 * fit to do so.
+	 */
+	final Map< DefaultWeightedEdge, Spot > edgesRemovedTarget = new HashMap<>();
+
 	/**
 	 * The edges that have been modified in this model by changing its cost
 	 * using {@link #setEdgeWeight(DefaultWeightedEdge, double)} or modifying
@@ -225,6 +243,8 @@ public class TrackModel
 		edgesAdded.clear();
 		edgesModified.clear();
 		edgesRemoved.clear();
+		edgesRemovedSource.clear();
+		edgesRemovedTarget.clear();
 		tracksUpdated.clear();
 
 		visibility = trackVisibility;
@@ -672,6 +692,8 @@ public class TrackModel
 		edgesAdded.clear();
 		edgesModified.clear();
 		edgesRemoved.clear();
+		edgesRemovedSource.clear();
+		edgesRemovedTarget.clear();
 		tracksUpdated.clear();
 
 		final Set< Spot > vertexSet = lGraph.vertexSet();
@@ -1120,6 +1142,8 @@ public class TrackModel
 		{
 			// To signal to ModelChangeListeners
 			edgesRemoved.add( event.getEdge() );
+			edgesRemovedSource.put( event.getEdge(), event.getEdgeSource() );
+			edgesRemovedTarget.put( event.getEdge(), event.getEdgeTarget() );
 
 			// To maintain connected sets coherence
 
@@ -26,18 +26,23 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 
 import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultEdge;
@@ -59,6 +64,7 @@ import fiji.plugin.trackmate.graph.GraphUtils;
 import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 import fiji.plugin.trackmate.io.TmXmlWriter;
 import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.util.Threads;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.plugin.Duplicator;
@@ -268,7 +274,9 @@ public class CTCExporter
 	 * Writes the segmentation ground-truth files.
 	 * <p>
 	 * Only exports the spots that have a ROI, and write only the frames that
-	 * have at least one spot with a ROI.
+	 * have at least one spot with a ROI. Frames are rasterized independently,
+	 * using the number of threads of the TrackMate object, and written in
+	 * order on the calling thread.
 	 * 
 	 * @param exportRootFolder
 	 *            the root of the export folder.
@@ -305,25 +313,25 @@ public class CTCExporter
 				imp.getCalibration().pixelDepth,
 				imp.getCalibration().frameInterval
 		};
-		final ImgPlus< UnsignedShortType > labelImg = createLabelImg( dims, calibration );
 
-		// Write labels in.
+		/*
+		 * Labels are numbered in frame order. Determine the first label of
+		 * each frame so that frames can be written independently.
+		 */
+
 		final Model model = trackmate.getModel();
-		final AtomicInteger idGen = new AtomicInteger( 1 );
-		final Set< Integer > framesToWrite = new HashSet<>();
+		final int[] firstID = new int[ ( int ) dims[ 3 ] ];
+		final List< Integer > framesToWrite = new ArrayList<>();
+		int nextID = 1;
 		for ( int frame = 0; frame < dims[ 3 ]; frame++ )
 		{
-			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-			final SpotRoiWriter< UnsignedShortType > spotWriter = new SpotRoiWriter<>( imgCT );
-
+			firstID[ frame ] = nextID;
 			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
-			{
-				if ( spot.getRoi() == null )
-					continue;
-				final int id = idGen.getAndIncrement();
-				spotWriter.write( spot, id );
+				if ( spot.getRoi() != null )
+					nextID++;
+
+			if ( nextID > firstID[ frame ] )
 				framesToWrite.add( Integer.valueOf( frame ) );
-			}
 		}
 
 		/*
@@ -340,15 +348,20 @@ public class CTCExporter
 				: i -> String.format( "man_seg%03d.tif", i );
 				
 		// Only save frames with spots in.
-		for ( final int frame : framesToWrite )
-		{
-			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
+		forEachFrame( framesToWrite, trackmate.getNumThreads(), frame -> {
+			final ImgPlus< UnsignedShortType > imgCT = createFrameLabelImg( dims, calibration );
+			final SpotRoiWriter< UnsignedShortType > spotWriter = new SpotRoiWriter<>( imgCT );
+			int id = firstID[ frame ];
+			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+				if ( spot.getRoi() != null )
+					spotWriter.write( spot, id++ );
+			return imgCT;
+		}, ( frame, imgCT ) -> {
 			final String name = tifNameGen.apply( ( long ) frame );
 			final ImagePlus tp = ImageJFunctions.wrapUnsignedShort( imgCT, name );
-
 			final Path pathTif = Paths.get( exportRootFolder, nameGen.apply( saveId ) + exportType.suffix(), "SEG", name );
 			IJ.saveAsTiff( tp, pathTif.toString() );
-		}
+		} );
 		logger.log( ". Done.\n" );
 	}
 
@@ -395,7 +408,6 @@ public class CTCExporter
 				imp.getCalibration().pixelDepth,
 				imp.getCalibration().frameInterval
 		};
-		final ImgPlus< UnsignedShortType > labelImg = createLabelImg( dims, calibration );
 
 		// Configure the convex branch decomposition.
 		final boolean forbidMiddleLinks = true;
@@ -405,6 +417,16 @@ public class CTCExporter
 		// Map of vertex to their ID in the file. Initially empty.
 		final Map< List< Spot >, Integer > branchID = new HashMap<>();
 
+		/*
+		 * Spots to paint in each frame with their label, in the order of the
+		 * track iteration so that overlapping masks are painted the same way
+		 * whatever the order in which frames are written.
+		 */
+		final Map< Spot, Integer > labels = new HashMap<>();
+		final List< List< Spot > > spotsInFrame = new ArrayList<>();
+		for ( int frame = 0; frame < dims[ 3 ]; frame++ )
+			spotsInFrame.add( new ArrayList<>() );
+
 		final Path path = exportType.getTrackTextFilePath( exportRootFolder, saveId );
 		Files.createDirectories( path.getParent() );
 		logger.log( "Exporting tracking text file to " + path.toString() );
@@ -439,15 +461,16 @@ public class CTCExporter
 					branchID.put( current, Integer.valueOf( currentID ) );
 
 					/*
-					 * Write spot label into output image.
+					 * Collect spot labels for the output images.
 					 */
 
 					for ( final Spot spot : current )
 					{
-						final long frame = spot.getFeature( Spot.FRAME ).longValue();
-						final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-						final SpotRoiWriter< UnsignedShortType > spotRoiWriter = new SpotRoiWriter<>( imgCT );
-						spotRoiWriter.write( spot, currentID );
+						final int frame = spot.getFeature( Spot.FRAME ).intValue();
+						if ( frame < 0 || frame >= spotsInFrame.size() )
+							continue;
+						labels.put( spot, Integer.valueOf( currentID ) );
+						spotsInFrame.get( frame ).add( spot );
 					}
 
 					/*
@@ -477,7 +500,7 @@ public class CTCExporter
 					final int B = startFrame; // track begins
 					final int E = endFrame; // track ends
 					final int P = parentID; // parent ID
-					bw.write( String.format( "%d %d %d %d", L, B, E, P ) );
+					bw.write( L + " " + B + " " + E + " " + P );
 					bw.newLine();
 				}
 			}
@@ -492,14 +515,18 @@ public class CTCExporter
 		final Path pathTif0 = exportType.getTrackTifFilePath( exportRootFolder, saveId, 0, nFrames );
 		logger.log( "Exporting tracking mask files to " + pathTif0.getParent().toString() );
 
-		for ( long frame = 0; frame < dims[ 3 ]; frame++ )
-		{
-			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
+		forEachFrame( allFrames( ( int ) dims[ 3 ] ), trackmate.getNumThreads(), frame -> {
+			final ImgPlus< UnsignedShortType > imgCT = createFrameLabelImg( dims, calibration );
+			final SpotRoiWriter< UnsignedShortType > spotRoiWriter = new SpotRoiWriter<>( imgCT );
+			for ( final Spot spot : spotsInFrame.get( frame ) )
+				spotRoiWriter.write( spot, labels.get( spot ).intValue() );
+			return imgCT;
+		}, ( frame, imgCT ) -> {
 			final Path pathTif = exportType.getTrackTifFilePath( exportRootFolder, saveId, frame, nFrames );
 			final String name = pathTif.getFileName().toString();
 			final ImagePlus tp = ImageJFunctions.wrapUnsignedShort( imgCT, name );
 			IJ.saveAsTiff( tp, pathTif.toString() );
-		}
+		} );
 		logger.log( ". Done.\n" );
 
 		// Return the results folder.
@@ -631,21 +658,25 @@ public class CTCExporter
 	}
 
 	/**
-	 * Creates a new label {@link ImgPlus} suitable to be used to write spot
-	 * labels in. It is initially empty.
+	 * Creates a new label {@link ImgPlus} suitable to be used to write the
+	 * spot labels of a single frame in. It is initially empty.
 	 *
 	 * @param dimensions
-	 *            the desired dimensions of the output image (width, height,
-	 *            nZSlices, nFrames) as a 4 element int array. Spots outside
-	 *            these dimensions are ignored.
+	 *            the dimensions of the movie (width, height, nZSlices, nFrames)
+	 *            as a 4 element long array. Spots outside these dimensions are
+	 *            ignored.
+	 * @param calibration
+	 *            the calibration of the movie, as a 4 element double array.
 	 *
-	 * @return a new {@link ImgPlus}.
+	 * @return a new {@link ImgPlus}, with the Z dimension dropped if the movie
+	 *         is 2D.
 	 */
-	private static final ImgPlus< UnsignedShortType > createLabelImg(
+	private static final ImgPlus< UnsignedShortType > createFrameLabelImg(
 			final long[] dimensions,
 			final double[] calibration )
 	{
-		final Dimensions targetSize = FinalDimensions.wrap( dimensions );
+		final long[] frameDimensions = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1 };
+		final Dimensions targetSize = FinalDimensions.wrap( frameDimensions );
 		final Img< UnsignedShortType > lblImg = Util.getArrayOrCellImgFactory( targetSize, new UnsignedShortType() ).create( targetSize );
 		final AxisType[] axes = new AxisType[] {
 				Axes.X,
@@ -653,6 +684,83 @@ public class CTCExporter
 				Axes.Z,
 				Axes.TIME };
 		final ImgPlus< UnsignedShortType > imgPlus = new ImgPlus<>( lblImg, "LblImg", axes, calibration );
-		return imgPlus;
+		return TMUtils.hyperSlice( imgPlus, 0, 0 );
+	}
+
+	private static List< Integer > allFrames( final int nFrames )
+	{
+		final List< Integer > frames = new ArrayList<>( nFrames );
+		for ( int frame = 0; frame < nFrames; frame++ )
+			frames.add( Integer.valueOf( frame ) );
+		return frames;
+	}
+
+	/**
+	 * Rasterizes the label image of each of the specified frames, and passes
+	 * it to the writer. With more than 1 thread, frames are rasterized
+	 * concurrently, with at most twice the number of threads frames in
+	 * flight.
+	 * <p>
+	 * The writer is always called on the calling thread, in frame order:
+	 * ImageJ images are created and saved there, because IJ and its
+	 * {@link ij.io.FileSaver} are not documented as safe to call from several
+	 * threads at once.
+	 */
+	private static void forEachFrame( final List< Integer > frames, final int numThreads, final IntFunction< ImgPlus< UnsignedShortType > > rasterizer, final FrameWriter writer ) throws IOException
+	{
+		if ( numThreads <= 1 )
+		{
+			for ( final Integer frame : frames )
+				writer.write( frame.intValue(), rasterizer.apply( frame.intValue() ) );
+			return;
+		}
+
+		final ExecutorService executor = Threads.newFixedThreadPool( numThreads );
+		final ArrayDeque< Future< ImgPlus< UnsignedShortType > > > inFlight = new ArrayDeque<>();
+		final ArrayDeque< Integer > inFlightFrames = new ArrayDeque<>();
+		try
+		{
+			for ( final Integer frame : frames )
+			{
+				if ( inFlight.size() >= 2 * numThreads )
+					writer.write( inFlightFrames.poll().intValue(), get( inFlight.poll() ) );
+				inFlight.add( executor.submit( () -> rasterizer.apply( frame.intValue() ) ) );
+				inFlightFrames.add( frame );
+			}
+			while ( !inFlight.isEmpty() )
+				writer.write( inFlightFrames.poll().intValue(), get( inFlight.poll() ) );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static < T > T get( final Future< T > future ) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "CTC export interrupted." );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			throw new IOException( cause );
+		}
+	}
+
+	@FunctionalInterface
+	private static interface FrameWriter
+	{
+		public void write( int frame, ImgPlus< UnsignedShortType > imgCT ) throws IOException;
 	}
 }
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action;
+
+import static fiji.plugin.trackmate.gui.Icons.SAVE_ICON;
+
+import java.awt.Frame;
+import java.io.File;
+
+import javax.swing.ImageIcon;
+
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
+import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.TmBinaryKeys;
+import fiji.plugin.trackmate.io.TmBinaryWriter;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Converts a TrackMate XML file to a binary model file, that loads much
+ * faster.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ConvertToBinaryFileAction extends AbstractTMAction
+{
+
+	public static final String NAME = "Convert a TrackMate XML file to binary";
+
+	public static final String KEY = "CONVERT_TO_BINARY_FILE";
+
+	public static final String INFO_TEXT = "<html>"
+			+ "Convert a TrackMate XML file, specified by the user, <br>"
+			+ "to a binary TrackMate file (<code>." + TmBinaryKeys.EXTENSION + "</code>). "
+			+ "<p>"
+			+ "Binary files contain the same data as XML files, <br>"
+			+ "but are smaller and much faster to load. They can <br>"
+			+ "be opened like XML files with the TrackMate file loader."
+			+ "</html>";
+
+	@Override
+	public void execute( final TrackMate trackmate, final SelectionModel selectionModel, final DisplaySettings displaySettings, final Frame parent )
+	{
+		File file = TMUtils.proposeTrackMateSaveFile( trackmate.getSettings(), logger );
+		if ( null == file )
+		{
+			final File folder = new File( System.getProperty( "user.dir" ) ).getParentFile().getParentFile();
+			file = new File( folder.getPath() + File.separator + "TrackMateData.xml" );
+		}
+
+		final File xmlFile = IOUtils.askForFileForLoading( file, "Convert a TrackMate XML file", parent, logger );
+		if ( null == xmlFile )
+			return;
+
+		String name = xmlFile.getName();
+		if ( name.endsWith( ".gz" ) )
+			name = name.substring( 0, name.length() - 3 );
+		final int dot = name.lastIndexOf( '.' );
+		final String binaryName = ( dot < 0 ? name : name.substring( 0, dot ) ) + "." + TmBinaryKeys.EXTENSION;
+		final File binaryFile = IOUtils.askForFileForSaving( new File( xmlFile.getParentFile(), binaryName ), parent,
+				TmBinaryKeys.EXTENSION, "TrackMate binary files" );
+		if ( null == binaryFile )
+		{
+			logger.log( "Conversion aborted.\n" );
+			return;
+		}
+
+		logger.log( "Converting " + xmlFile + " to binary.\n" );
+		if ( TmBinaryWriter.convert( xmlFile, binaryFile, logger ) )
+			logger.log( "Data saved to: " + binaryFile + '\n' );
+	}
+
+	@Plugin( type = TrackMateActionFactory.class )
+	public static class Factory implements TrackMateActionFactory
+	{
+
+		@Override
+		public String getInfoText()
+		{
+			return INFO_TEXT;
+		}
+
+		@Override
+		public String getName()
+		{
+			return NAME;
+		}
+
+		@Override
+		public String getKey()
+		{
+			return KEY;
+		}
+
+		@Override
+		public TrackMateAction create()
+		{
+			return new ConvertToBinaryFileAction();
+		}
+
+		@Override
+		public ImageIcon getIcon()
+		{
+			return SAVE_ICON;
+		}
+	}
+}
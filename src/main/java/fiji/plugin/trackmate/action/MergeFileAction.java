@@ -42,6 +42,8 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.TmBinaryKeys;
+import fiji.plugin.trackmate.io.TmBinaryReader;
 import fiji.plugin.trackmate.io.TmXmlReader;
 import fiji.plugin.trackmate.util.TMUtils;
 
@@ -81,7 +83,9 @@ public class MergeFileAction extends AbstractTMAction
 		file = tmpFile;
 
 		// Read the file content
-		final TmXmlReader reader = new TmXmlReader( file );
+		final TmXmlReader reader = file.getName().endsWith( "." + TmBinaryKeys.EXTENSION )
+				? new TmBinaryReader( file )
+				: new TmXmlReader( file );
 		if ( !reader.isReadingOk() )
 		{
 			logger.error( reader.getErrorMessage() );
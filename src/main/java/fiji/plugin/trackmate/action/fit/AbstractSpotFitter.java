@@ -67,7 +67,7 @@ public abstract class AbstractSpotFitter implements SpotFitter
 
 	private int numThreads;
 
-	private long processingTime = -1;
+	protected long processingTime = -1;
 
 	@SuppressWarnings( "unchecked" )
 	public AbstractSpotFitter( final ImagePlus imp, final int channel )
@@ -172,8 +172,8 @@ public abstract class AbstractSpotFitter implements SpotFitter
 		final long[] max = new long[ point.numDimensions() ];
 		for ( int d = 0; d < max.length; d++ )
 		{
-			min[ d ] = Math.max( point.getLongPosition( d ) - span[ d ], slice.min( 0 ) );
-			max[ d ] = Math.min( point.getLongPosition( d ) + span[ d ], slice.max( 0 ) );
+			min[ d ] = Math.max( point.getLongPosition( d ) - span[ d ], slice.min( d ) );
+			max[ d ] = Math.min( point.getLongPosition( d ) + span[ d ], slice.max( d ) );
 		}
 
 		// Collect.
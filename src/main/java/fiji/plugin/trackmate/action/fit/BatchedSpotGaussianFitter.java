@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.fit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.FitModel;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.Workspace;
+import fiji.plugin.trackmate.util.Threads;
+import gnu.trove.list.array.TIntArrayList;
+import ij.ImagePlus;
+
+/**
+ * Spot fitter that fits many spots at once with a {@link GaussianFitEngine}.
+ * <p>
+ * Spots are sorted by frame and cut in chunks that do not span several
+ * frames. Each thread owns one workspace and pulls chunks until there is none
+ * left, so that no memory is allocated per fit. Single spots fitted with
+ * {@link #fit(Spot)} reuse a workspace per calling thread.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class BatchedSpotGaussianFitter extends AbstractSpotFitter
+{
+
+	private static final int MIN_CHUNK_SIZE = 16;
+
+	private static final int MAX_CHUNK_SIZE = 1024;
+
+	private final GaussianFitEngine engine;
+
+	/** Workspaces for the single-spot fits, one per calling thread. */
+	private final ThreadLocal< Workspace > workspaces;
+
+	public BatchedSpotGaussianFitter( final ImagePlus imp, final int channel, final FitModel model )
+	{
+		super( imp, channel );
+		this.engine = new GaussianFitEngine( model, calibration );
+		this.workspaces = ThreadLocal.withInitial( engine::createWorkspace );
+	}
+
+	@Override
+	public void process( final Iterable< Spot > spots, final Logger logger )
+	{
+		final int numThreads = getNumThreads();
+		logger.log( String.format( "Starting batched fitting with %d threads.\n", numThreads ) );
+		logger.setStatus( "Spot fitting" );
+		final long start = System.currentTimeMillis();
+
+		// Sort spots by frame.
+		final List< Spot > list = new ArrayList<>();
+		for ( final Spot spot : spots )
+			list.add( spot );
+		list.sort( Comparator.comparingInt( s -> s.getFeature( Spot.FRAME ).intValue() ) );
+		final int nspots = list.size();
+
+		// Chunks within frames.
+		final int chunkSize = Math.max( MIN_CHUNK_SIZE, Math.min( MAX_CHUNK_SIZE, nspots / Math.max( 1, numThreads * 8 ) ) );
+		final TIntArrayList chunkStarts = new TIntArrayList();
+		int frameStart = 0;
+		while ( frameStart < nspots )
+		{
+			final int frame = list.get( frameStart ).getFeature( Spot.FRAME ).intValue();
+			int frameEnd = frameStart;
+			while ( frameEnd < nspots && list.get( frameEnd ).getFeature( Spot.FRAME ).intValue() == frame )
+				frameEnd++;
+			for ( int i = frameStart; i < frameEnd; i += chunkSize )
+				chunkStarts.add( i );
+			frameStart = frameEnd;
+		}
+		chunkStarts.add( nspots );
+		final int nChunks = chunkStarts.size() - 1;
+
+		final AtomicInteger nextChunk = new AtomicInteger( 0 );
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		final List< Callable< Void > > tasks = new ArrayList<>( numThreads );
+		for ( int t = 0; t < numThreads; t++ )
+		{
+			tasks.add( () -> {
+				final Workspace ws = engine.createWorkspace();
+				int chunk;
+				while ( ( chunk = nextChunk.getAndIncrement() ) < nChunks )
+				{
+					final int from = chunkStarts.getQuick( chunk );
+					// Chunk ends at the next chunk start.
+					final int to = chunkStarts.getQuick( chunk + 1 );
+					final int frame = list.get( from ).getFeature( Spot.FRAME ).intValue();
+					for ( int i = from; i < to; i++ )
+						fit( list.get( i ), frame, ws );
+
+					logger.setProgress( ( double ) progress.addAndGet( to - from ) / nspots );
+				}
+				return null;
+			} );
+		}
+
+		final ExecutorService executorService = Threads.newFixedThreadPool( numThreads );
+		try
+		{
+			final List< Future< Void > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+		executorService.shutdown();
+
+		final long stop = System.currentTimeMillis();
+		this.processingTime = stop - start;
+		logger.setStatus( "" );
+		logger.setProgress( 0. );
+		logger.log( String.format( "Fit completed for %d spots in %.1f s.\n", nspots, processingTime / 1000. ) );
+	}
+
+	@Override
+	public void fit( final Spot spot )
+	{
+		fit( spot, spot.getFeature( Spot.FRAME ).intValue(), workspaces.get() );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private void fit( final Spot spot, final int frame, final Workspace ws )
+	{
+		engine.fit( spot, getSlice( frame ), ws );
+	}
+}
@@ -0,0 +1,675 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.fit;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.Spot;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Levenberg-Marquardt engine fitting Gaussians on spots, meant to be called
+ * many times in a row on many spots.
+ * <p>
+ * Contrary to the fitters based on the commons-math optimizer, this engine
+ * does not allocate anything per fit. All the data needed by a fit lives in a
+ * {@link Workspace}, that is reused across all the spots processed by a
+ * thread. The Jacobian is never stored: its analytic expression is directly
+ * accumulated in the normal equations, and the damped system is solved with
+ * a Cholesky decomposition of at most 6 × 6. Iterations are capped, and the
+ * fit exits early as soon as the cost or the parameters stop changing.
+ * <p>
+ * The models are the same as for the {@link SpotGaussianFitter2D},
+ * {@link SpotGaussianFitter2DFixedRadius}, {@link SpotGaussianFitter3D} and
+ * {@link SpotGaussianFitter3DFixedRadius}:
+ *
+ * <pre>
+ f(x) = A × exp( - bXY × ( (x - x₀)² + (y - y₀)² ) - bZ × (z - z₀)² )
+ * </pre>
+ *
+ * fitted over a neighborhood of the spot from which the median has been
+ * subtracted.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class GaussianFitEngine
+{
+
+	/**
+	 * The Gaussian models this engine can fit.
+	 */
+	public static enum FitModel
+	{
+		/** 2D, fits x, y, A, b. */
+		GAUSSIAN_2D( 2, true ),
+		/** 2D, fits x, y, A. The radius is left unchanged. */
+		GAUSSIAN_2D_FIXED_RADIUS( 2, false ),
+		/** 3D, fits x, y, z, A, bXY and bZ. */
+		GAUSSIAN_3D( 3, true ),
+		/** 3D, fits x, y, z, A. The radius is left unchanged. */
+		GAUSSIAN_3D_FIXED_RADIUS( 3, false );
+
+		private final int nDims;
+
+		private final boolean fitRadius;
+
+		private FitModel( final int nDims, final boolean fitRadius )
+		{
+			this.nDims = nDims;
+			this.fitRadius = fitRadius;
+		}
+
+		public int numDimensions()
+		{
+			return nDims;
+		}
+
+		public boolean fitsRadius()
+		{
+			return fitRadius;
+		}
+
+		public int numParameters()
+		{
+			// Position, amplitude, and widths if they are fitted.
+			return nDims + 1 + ( fitRadius ? nDims - 1 : 0 );
+		}
+
+		public static FitModel get( final boolean is2D, final boolean fitRadius )
+		{
+			if ( is2D )
+				return fitRadius ? GAUSSIAN_2D : GAUSSIAN_2D_FIXED_RADIUS;
+			return fitRadius ? GAUSSIAN_3D : GAUSSIAN_3D_FIXED_RADIUS;
+		}
+	}
+
+	public static final int DEFAULT_MAX_ITERATIONS = 200;
+
+	private static final double COST_RELATIVE_TOLERANCE = 1e-10;
+
+	private static final double PARAMETER_RELATIVE_TOLERANCE = 1e-8;
+
+	private static final double INITIAL_LAMBDA = 1e-3;
+
+	private static final double MAX_LAMBDA = 1e12;
+
+	private final FitModel model;
+
+	private final double[] calibration;
+
+	private final int maxIterations;
+
+	public GaussianFitEngine( final FitModel model, final double[] calibration )
+	{
+		this( model, calibration, DEFAULT_MAX_ITERATIONS );
+	}
+
+	public GaussianFitEngine( final FitModel model, final double[] calibration, final int maxIterations )
+	{
+		this.model = model;
+		this.calibration = calibration;
+		this.maxIterations = maxIterations;
+	}
+
+	public FitModel getModel()
+	{
+		return model;
+	}
+
+	/**
+	 * Creates a new workspace for this engine. A workspace must not be shared
+	 * between threads.
+	 *
+	 * @return a new workspace.
+	 */
+	public Workspace createWorkspace()
+	{
+		return new Workspace( model.numParameters() );
+	}
+
+	/**
+	 * Fits the specified spot in the specified image, and updates its position
+	 * and radius (if the model fits the radius) if the fit succeeds.
+	 *
+	 * @param spot
+	 *            the spot to fit.
+	 * @param slice
+	 *            the image to fit in, for the frame and channel of the spot.
+	 * @param ws
+	 *            the workspace of the calling thread.
+	 * @param <T>
+	 *            the pixel type of the image.
+	 * @return <code>true</code> if the spot was updated.
+	 */
+	public < T extends RealType< T > > boolean fit( final Spot spot, final RandomAccessibleInterval< T > slice, final Workspace ws )
+	{
+		final int nDims = model.nDims;
+		ws.amplitude = Double.NaN;
+		ws.rSquared = Double.NaN;
+		final double sigma = spot.getFeature( Spot.RADIUS ) / Math.sqrt( 2. );
+		final double pixelSigmaXY = sigma / calibration[ 0 ];
+		final double pixelSigmaZ = ( nDims > 2 ) ? sigma / calibration[ 2 ] : Double.NaN;
+		final double bXY0 = 1. / ( 2. * pixelSigmaXY * pixelSigmaXY );
+		final double bZ0 = ( nDims > 2 ) ? 1. / ( 2. * pixelSigmaZ * pixelSigmaZ ) : 0.;
+		// Widths cannot go beyond twice their starting value.
+		ws.minBxy = bXY0 / 4.;
+		ws.minBz = bZ0 / 4.;
+		ws.bXY = bXY0;
+		ws.bZ = bZ0;
+
+		/*
+		 * Gather observations, in coordinates local to the rounded spot
+		 * center.
+		 */
+
+		final long spanXY = ( long ) Math.ceil( 2. * pixelSigmaXY ) + 1;
+		final long spanZ = ( nDims > 2 ) ? ( long ) Math.ceil( 2. * pixelSigmaZ ) + 1 : 0;
+		final double[] start = ws.center;
+		final long[] center = ws.lcenter;
+		for ( int d = 0; d < nDims; d++ )
+		{
+			start[ d ] = spot.getDoublePosition( d ) / calibration[ d ];
+			center[ d ] = Math.round( start[ d ] );
+		}
+		final int n = gather( slice, center, spanXY, spanZ, ws );
+		if ( n <= model.numParameters() )
+			return false;
+		clipBackground( ws, n );
+
+		/*
+		 * Initial parameters.
+		 */
+
+		final double[] p = ws.params;
+		for ( int d = 0; d < nDims; d++ )
+			p[ d ] = start[ d ] - center[ d ];
+		double amp = 0.;
+		for ( int i = 0; i < n; i++ )
+			amp = Math.max( amp, ws.values[ i ] );
+		p[ nDims ] = amp;
+		if ( model.fitRadius )
+		{
+			p[ nDims + 1 ] = bXY0;
+			if ( nDims > 2 )
+				p[ nDims + 2 ] = bZ0;
+		}
+
+		/*
+		 * Optimize.
+		 */
+
+		final boolean ok = optimize( ws, n );
+		if ( !ok )
+			return false;
+
+		/*
+		 * Write results.
+		 */
+
+		double mean = 0.;
+		for ( int i = 0; i < n; i++ )
+			mean += ws.values[ i ];
+		mean /= n;
+		double ssTot = 0.;
+		for ( int i = 0; i < n; i++ )
+			ssTot += ( ws.values[ i ] - mean ) * ( ws.values[ i ] - mean );
+		ws.amplitude = p[ nDims ];
+		ws.rSquared = ( ssTot > 0. ) ? 1. - ws.cost / ssTot : Double.NaN;
+
+		for ( int d = 0; d < nDims; d++ )
+			spot.putFeature( Spot.POSITION_FEATURES[ d ], ( p[ d ] + center[ d ] ) * calibration[ d ] );
+		if ( model.fitRadius )
+		{
+			final double fitSigmaXY = 1. / Math.sqrt( 2. * p[ nDims + 1 ] );
+			spot.putFeature( Spot.RADIUS, fitSigmaXY * Math.sqrt( 2. ) * calibration[ 0 ] );
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the damped Gauss-Newton iterations on the observations stored in
+	 * the workspace, starting from the parameters stored in the workspace.
+	 */
+	private boolean optimize( final Workspace ws, final int n )
+	{
+		final int np = model.numParameters();
+		final double[] p = ws.params;
+		final double[] trial = ws.trial;
+		final double[] delta = ws.delta;
+		final double[] jtj = ws.jtj;
+		final double[] a = ws.a;
+
+		double cost = normalEquations( ws, p, n );
+		double lambda = INITIAL_LAMBDA;
+		int iteration = 0;
+		boolean converged = false;
+		while ( iteration < maxIterations && !converged )
+		{
+			iteration++;
+			boolean improved = false;
+			while ( !improved )
+			{
+				// Damped system.
+				System.arraycopy( jtj, 0, a, 0, np * np );
+				for ( int k = 0; k < np; k++ )
+					a[ k * np + k ] += lambda * Math.max( jtj[ k * np + k ], 1e-12 );
+				System.arraycopy( ws.jtr, 0, delta, 0, np );
+				if ( !solve( a, delta, np ) )
+				{
+					lambda *= 10.;
+					if ( lambda > MAX_LAMBDA )
+						break;
+					continue;
+				}
+
+				for ( int k = 0; k < np; k++ )
+					trial[ k ] = p[ k ] + delta[ k ];
+				validate( ws, trial );
+				final double trialCost = cost( ws, trial, n );
+				if ( trialCost < cost )
+				{
+					improved = true;
+					lambda = Math.max( lambda / 10., 1e-12 );
+
+					// Early exit test.
+					boolean smallStep = true;
+					for ( int k = 0; k < np; k++ )
+					{
+						if ( Math.abs( trial[ k ] - p[ k ] ) > PARAMETER_RELATIVE_TOLERANCE * ( Math.abs( p[ k ] ) + PARAMETER_RELATIVE_TOLERANCE ) )
+						{
+							smallStep = false;
+							break;
+						}
+					}
+					converged = smallStep || ( cost - trialCost ) <= COST_RELATIVE_TOLERANCE * cost;
+
+					System.arraycopy( trial, 0, p, 0, np );
+					cost = normalEquations( ws, p, n );
+				}
+				else
+				{
+					lambda *= 10.;
+					if ( lambda > MAX_LAMBDA )
+						break;
+				}
+			}
+			// We cannot decrease the cost anymore: we are at a minimum.
+			if ( !improved )
+				converged = true;
+		}
+
+		ws.iterations = iteration;
+		ws.cost = cost;
+		for ( int k = 0; k < np; k++ )
+			if ( Double.isNaN( p[ k ] ) || Double.isInfinite( p[ k ] ) )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Sets the amplitude and widths to valid values, like the parameter
+	 * validators of the commons-math fitters.
+	 */
+	private void validate( final Workspace ws, final double[] p )
+	{
+		final int nDims = model.nDims;
+		p[ nDims ] = Math.abs( p[ nDims ] );
+		if ( !model.fitRadius )
+			return;
+
+		p[ nDims + 1 ] = Math.max( ws.minBxy, Math.abs( p[ nDims + 1 ] ) );
+		if ( nDims > 2 )
+			p[ nDims + 2 ] = Math.max( ws.minBz, Math.abs( p[ nDims + 2 ] ) );
+	}
+
+	/**
+	 * Computes the cost and accumulates JᵀJ and Jᵀr for the specified
+	 * parameters. The Jacobian is computed analytically.
+	 */
+	private double normalEquations( final Workspace ws, final double[] p, final int n )
+	{
+		final int nDims = model.nDims;
+		final int np = model.numParameters();
+		final boolean fitRadius = model.fitRadius;
+		final double[] jtj = ws.jtj;
+		final double[] jtr = ws.jtr;
+		final double[] j = ws.jrow;
+		Arrays.fill( jtj, 0, np * np, 0. );
+		Arrays.fill( jtr, 0, np, 0. );
+
+		final double x0 = p[ 0 ];
+		final double y0 = p[ 1 ];
+		final double z0 = ( nDims > 2 ) ? p[ 2 ] : 0.;
+		final double A = p[ nDims ];
+		final double bXY = fitRadius ? p[ nDims + 1 ] : ws.bXY;
+		final double bZ = ( nDims > 2 ) ? ( fitRadius ? p[ nDims + 2 ] : ws.bZ ) : 0.;
+
+		double cost = 0.;
+		for ( int i = 0; i < n; i++ )
+		{
+			final double dx = ws.x[ i ] - x0;
+			final double dy = ws.y[ i ] - y0;
+			final double dz = ( nDims > 2 ) ? ws.z[ i ] - z0 : 0.;
+			final double sxy = dx * dx + dy * dy;
+			final double sz = dz * dz;
+			final double E = Math.exp( -bXY * sxy - bZ * sz );
+			final double AE = A * E;
+			final double r = ws.values[ i ] - AE;
+			cost += r * r;
+
+			j[ 0 ] = 2. * AE * bXY * dx;
+			j[ 1 ] = 2. * AE * bXY * dy;
+			if ( nDims > 2 )
+				j[ 2 ] = 2. * AE * bZ * dz;
+			j[ nDims ] = E;
+			if ( fitRadius )
+			{
+				j[ nDims + 1 ] = -AE * sxy;
+				if ( nDims > 2 )
+					j[ nDims + 2 ] = -AE * sz;
+			}
+
+			// Upper triangle only.
+			for ( int k = 0; k < np; k++ )
+			{
+				final double jk = j[ k ];
+				jtr[ k ] += jk * r;
+				final int row = k * np;
+				for ( int l = k; l < np; l++ )
+					jtj[ row + l ] += jk * j[ l ];
+			}
+		}
+		// Mirror.
+		for ( int k = 0; k < np; k++ )
+			for ( int l = 0; l < k; l++ )
+				jtj[ k * np + l ] = jtj[ l * np + k ];
+
+		return cost;
+	}
+
+	private double cost( final Workspace ws, final double[] p, final int n )
+	{
+		final int nDims = model.nDims;
+		final boolean fitRadius = model.fitRadius;
+		final double x0 = p[ 0 ];
+		final double y0 = p[ 1 ];
+		final double z0 = ( nDims > 2 ) ? p[ 2 ] : 0.;
+		final double A = p[ nDims ];
+		final double bXY = fitRadius ? p[ nDims + 1 ] : ws.bXY;
+		final double bZ = ( nDims > 2 ) ? ( fitRadius ? p[ nDims + 2 ] : ws.bZ ) : 0.;
+
+		double cost = 0.;
+		for ( int i = 0; i < n; i++ )
+		{
+			final double dx = ws.x[ i ] - x0;
+			final double dy = ws.y[ i ] - y0;
+			final double dz = ( nDims > 2 ) ? ws.z[ i ] - z0 : 0.;
+			final double r = ws.values[ i ] - A * Math.exp( -bXY * ( dx * dx + dy * dy ) - bZ * dz * dz );
+			cost += r * r;
+		}
+		return cost;
+	}
+
+	/**
+	 * Solves in place <code>A x = b</code> for a symmetric positive definite
+	 * matrix with a Cholesky decomposition. The solution is stored in
+	 * <code>b</code>.
+	 *
+	 * @return <code>false</code> if the matrix is not positive definite.
+	 */
+	private static boolean solve( final double[] a, final double[] b, final int n )
+	{
+		// Decomposition, L stored in the lower triangle.
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int j = 0; j <= i; j++ )
+			{
+				double sum = a[ i * n + j ];
+				for ( int k = 0; k < j; k++ )
+					sum -= a[ i * n + k ] * a[ j * n + k ];
+				if ( i == j )
+				{
+					if ( sum <= 0. || Double.isNaN( sum ) )
+						return false;
+					a[ i * n + i ] = Math.sqrt( sum );
+				}
+				else
+				{
+					a[ i * n + j ] = sum / a[ j * n + j ];
+				}
+			}
+		}
+		// Forward substitution.
+		for ( int i = 0; i < n; i++ )
+		{
+			double sum = b[ i ];
+			for ( int k = 0; k < i; k++ )
+				sum -= a[ i * n + k ] * b[ k ];
+			b[ i ] = sum / a[ i * n + i ];
+		}
+		// Back substitution.
+		for ( int i = n - 1; i >= 0; i-- )
+		{
+			double sum = b[ i ];
+			for ( int k = i + 1; k < n; k++ )
+				sum -= a[ k * n + i ] * b[ k ];
+			b[ i ] = sum / a[ i * n + i ];
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the pixel values around the specified center in the workspace.
+	 * The neighborhood is clipped to the image bounds.
+	 *
+	 * @return the number of pixels collected.
+	 */
+	private < T extends RealType< T > > int gather( final RandomAccessibleInterval< T > slice, final long[] center, final long spanXY, final long spanZ, final Workspace ws )
+	{
+		final int nDims = model.nDims;
+		final long[] min = ws.min;
+		final long[] max = ws.max;
+		for ( int d = 0; d < nDims; d++ )
+		{
+			final long span = ( d < 2 ) ? spanXY : spanZ;
+			min[ d ] = Math.max( center[ d ] - span, slice.min( d ) );
+			max[ d ] = Math.min( center[ d ] + span, slice.max( d ) );
+			if ( max[ d ] < min[ d ] )
+				return 0;
+		}
+		final long minZ = ( nDims > 2 ) ? min[ 2 ] : 0;
+		final long maxZ = ( nDims > 2 ) ? max[ 2 ] : 0;
+		final int size = ( int ) ( ( max[ 0 ] - min[ 0 ] + 1 ) * ( max[ 1 ] - min[ 1 ] + 1 ) * ( maxZ - minZ + 1 ) );
+		ws.ensureCapacity( size );
+
+		@SuppressWarnings( "unchecked" )
+		RandomAccess< T > ra = ( RandomAccess< T > ) ws.ra;
+		if ( ws.raSource != slice )
+		{
+			ra = slice.randomAccess();
+			ws.ra = ra;
+			ws.raSource = slice;
+		}
+
+		int i = 0;
+		for ( long z = minZ; z <= maxZ; z++ )
+		{
+			if ( nDims > 2 )
+				ra.setPosition( z, 2 );
+			for ( long y = min[ 1 ]; y <= max[ 1 ]; y++ )
+			{
+				ra.setPosition( y, 1 );
+				ra.setPosition( min[ 0 ], 0 );
+				for ( long x = min[ 0 ]; x <= max[ 0 ]; x++ )
+				{
+					ws.values[ i ] = ra.get().getRealDouble();
+					ws.x[ i ] = x - center[ 0 ];
+					ws.y[ i ] = y - center[ 1 ];
+					ws.z[ i ] = ( nDims > 2 ) ? z - center[ 2 ] : 0.;
+					i++;
+					ra.fwd( 0 );
+				}
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Removes the median of the observations and clips to 0.
+	 */
+	private static void clipBackground( final Workspace ws, final int n )
+	{
+		final double[] sorted = ws.scratch;
+		System.arraycopy( ws.values, 0, sorted, 0, n );
+		Arrays.sort( sorted, 0, n );
+		final double bg = ( n % 2 == 1 )
+				? sorted[ n / 2 ]
+				: 0.5 * ( sorted[ n / 2 ] + sorted[ n / 2 - 1 ] );
+		for ( int i = 0; i < n; i++ )
+			ws.values[ i ] = Math.max( 0., ws.values[ i ] - bg );
+	}
+
+	/**
+	 * The preallocated storage used by a thread to fit spots. The observation
+	 * arrays grow with the largest neighborhood met so far.
+	 */
+	public static final class Workspace
+	{
+
+		private double[] values = new double[ 0 ];
+
+		private double[] scratch = new double[ 0 ];
+
+		private double[] x = new double[ 0 ];
+
+		private double[] y = new double[ 0 ];
+
+		private double[] z = new double[ 0 ];
+
+		private final double[] params;
+
+		private final double[] trial;
+
+		private final double[] delta;
+
+		private final double[] jrow;
+
+		private final double[] jtj;
+
+		private final double[] jtr;
+
+		private final double[] a;
+
+		private final double[] center = new double[ 3 ];
+
+		private final long[] lcenter = new long[ 3 ];
+
+		private final long[] min = new long[ 3 ];
+
+		private final long[] max = new long[ 3 ];
+
+		private RandomAccess< ? > ra;
+
+		private RandomAccessibleInterval< ? > raSource;
+
+		private double bXY;
+
+		private double bZ;
+
+		private double minBxy;
+
+		private double minBz;
+
+		private int iterations;
+
+		private double cost;
+
+		private double amplitude;
+
+		private double rSquared;
+
+		private Workspace( final int np )
+		{
+			this.params = new double[ np ];
+			this.trial = new double[ np ];
+			this.delta = new double[ np ];
+			this.jrow = new double[ np ];
+			this.jtr = new double[ np ];
+			this.jtj = new double[ np * np ];
+			this.a = new double[ np * np ];
+		}
+
+		private void ensureCapacity( final int size )
+		{
+			if ( values.length >= size )
+				return;
+			values = new double[ size ];
+			scratch = new double[ size ];
+			x = new double[ size ];
+			y = new double[ size ];
+			z = new double[ size ];
+		}
+
+		/**
+		 * Returns the amplitude found by the last successful fit, above the
+		 * background.
+		 *
+		 * @return the amplitude.
+		 */
+		public double getAmplitude()
+		{
+			return amplitude;
+		}
+
+		/**
+		 * Returns the coefficient of determination of the last successful fit.
+		 *
+		 * @return the R² value.
+		 */
+		public double getRSquared()
+		{
+			return rSquared;
+		}
+
+		/**
+		 * Returns the number of iterations used by the last fit.
+		 *
+		 * @return the number of iterations.
+		 */
+		public int getIterations()
+		{
+			return iterations;
+		}
+
+		/**
+		 * Returns the sum of squared residuals of the last fit.
+		 *
+		 * @return the residual cost.
+		 */
+		public double getCost()
+		{
+			return cost;
+		}
+	}
+}
@@ -35,6 +35,7 @@ import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.FitModel;
 import fiji.plugin.trackmate.detection.DetectionUtils;
 import fiji.plugin.trackmate.gui.GuiUtils;
 import fiji.plugin.trackmate.gui.Icons;
@@ -121,26 +122,10 @@ public class SpotFitterController
 				// 1-based to 0-based.
 				final int channel = gui.getSelectedChannel() - 1;
 				final int index = gui.getSelectedFitIndex();
-				final SpotFitter fitter;
-				// Stupid and harsh:
-				if ( DetectionUtils.is2D( imp ) )
-				{
-					if ( index == 0 )
-						fitter = new SpotGaussianFitter2D( imp, channel );
-					else if ( index == 1 )
-						fitter = new SpotGaussianFitter2DFixedRadius( imp, channel );
-					else
-						throw new IllegalArgumentException( "Index points to an unknown fit model: " + index );
-				}
-				else
-				{
-					if ( index == 0 )
-						fitter = new SpotGaussianFitter3D( imp, channel );
-					else if ( index == 1 )
-						fitter = new SpotGaussianFitter3DFixedRadius( imp, channel );
-					else
-						throw new IllegalArgumentException( "Index points to an unknown fit model: " + index );
-				}
+				if ( index != 0 && index != 1 )
+					throw new IllegalArgumentException( "Index points to an unknown fit model: " + index );
+				final FitModel model = FitModel.get( DetectionUtils.is2D( imp ), index == 0 );
+				final SpotFitter fitter = new BatchedSpotGaussianFitter( imp, channel, model );
 				fitter.setNumThreads( trackmate.getNumThreads() );
 
 				// Get spots to fit.
@@ -21,6 +21,7 @@
  */
 package fiji.plugin.trackmate.features;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -32,7 +33,9 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.edges.BufferedEdgeAnalyzer;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeBufferPipeline;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 /**
@@ -141,6 +144,12 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 		if ( doLogIt )
 			logger.log( "Computing edge features:\n", Logger.BLUE_COLOR );
 
+		/*
+		 * Consecutive analyzers that can work on an edge buffer are fused in a
+		 * single chunked pass over the edges. The others are run one after the
+		 * other, keeping the order in which they are given.
+		 */
+		final List< BufferedEdgeAnalyzer > fused = new ArrayList<>();
 		for ( final EdgeAnalyzer analyzer : analyzers )
 		{
 			if ( isCanceled() )
@@ -151,11 +160,52 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 				// Skip manual features.
 				continue;
 			}
+
+			if ( analyzer instanceof BufferedEdgeAnalyzer )
+			{
+				fused.add( ( BufferedEdgeAnalyzer ) analyzer );
+				continue;
+			}
+
+			processFused( fused, edges, doLogIt );
+
 			analyzer.setNumThreads( numThreads );
 			analyzer.process( edges, model );
 			if ( doLogIt )
 				logger.log( "  - " + analyzer.getName() + " in " + analyzer.getProcessingTime() + " ms.\n" );
 		}
+
+		if ( isCanceled() )
+			return;
+		processFused( fused, edges, doLogIt );
+	}
+
+	/**
+	 * Runs the specified buffered analyzers in a single chunked pass over the
+	 * edges, then clears the list.
+	 */
+	private void processFused( final List< BufferedEdgeAnalyzer > fused, final Collection< DefaultWeightedEdge > edges, final boolean doLogIt )
+	{
+		if ( fused.isEmpty() )
+			return;
+
+		final long start = System.currentTimeMillis();
+		EdgeBufferPipeline.process( edges, model, fused, numThreads );
+		final long end = System.currentTimeMillis();
+
+		if ( doLogIt )
+		{
+			final StringBuilder str = new StringBuilder( "  - " );
+			for ( int i = 0; i < fused.size(); i++ )
+			{
+				if ( i > 0 )
+					str.append( ", " );
+				str.append( fused.get( i ).getName() );
+			}
+			str.append( " in " + ( end - start ) + " ms.\n" );
+			model.getLogger().log( str.toString() );
+		}
+		fused.clear();
 	}
 
 	// --- org.scijava.Cancelable methods ---
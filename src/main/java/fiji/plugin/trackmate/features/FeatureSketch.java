@@ -0,0 +1,491 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * A compact, mergeable summary of the distribution of a feature.
+ * <p>
+ * The sketch keeps the exact count, min, max and sum of the values it has
+ * seen, plus a fine histogram of fixed resolution. The fine histogram lives on
+ * an aligned grid whose bin width is a power of two, and which is coarsened by
+ * a factor of two (or more) when a value falls out of its range. Two sketches
+ * can therefore always be merged exactly: bins of the finer grid nest in bins
+ * of the coarser one. Quantiles, display histograms and Otsu thresholds are
+ * derived from the fine histogram, and are exact up to the fine bin width,
+ * which is <code>(max - min) / resolution</code> at worst times 2.
+ * <p>
+ * Values can also be removed, so that the sketch can follow a collection that
+ * changes. After removals, the min and max are bounds that are tight up to
+ * the fine bin width.
+ * <p>
+ * NaN and infinite values are ignored.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class FeatureSketch
+{
+
+	/**
+	 * Default number of fine bins.
+	 */
+	public static final int DEFAULT_RESOLUTION = 1024;
+
+	private final int resolution;
+
+	private long count;
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	private double sum;
+
+	/**
+	 * Lower bound of the fine grid. Always a multiple of {@link #width}.
+	 */
+	private double lo;
+
+	/**
+	 * Width of the fine bins. Always a power of two.
+	 */
+	private double width;
+
+	private long[] bins;
+
+	public FeatureSketch()
+	{
+		this( DEFAULT_RESOLUTION );
+	}
+
+	public FeatureSketch( final int resolution )
+	{
+		if ( resolution < 2 )
+			throw new IllegalArgumentException( "Sketch resolution must be at least 2, was " + resolution );
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Creates a sketch summarizing the specified values.
+	 *
+	 * @param values
+	 *            the values.
+	 * @return a new sketch.
+	 */
+	public static FeatureSketch of( final double[] values )
+	{
+		final FeatureSketch sketch = new FeatureSketch();
+		if ( values != null )
+			for ( final double v : values )
+				sketch.add( v );
+		return sketch;
+	}
+
+	/*
+	 * UPDATE.
+	 */
+
+	/**
+	 * Adds a value to this sketch. NaN and infinite values are ignored.
+	 *
+	 * @param v
+	 *            the value to add.
+	 */
+	public void add( final double v )
+	{
+		if ( Double.isNaN( v ) || Double.isInfinite( v ) )
+			return;
+
+		if ( bins == null )
+		{
+			// Fine grid centered on the first value, ~2^-20 of its magnitude.
+			width = Math.scalb( 1., Math.max( Math.getExponent( v ) - 20, -1000 ) );
+			lo = Math.floor( v / width ) * width - ( resolution / 2 ) * width;
+			bins = new long[ resolution ];
+		}
+
+		count++;
+		sum += v;
+		if ( v < min )
+			min = v;
+		if ( v > max )
+			max = v;
+
+		int index = ( int ) Math.floor( ( v - lo ) / width );
+		if ( index < 0 || index >= resolution )
+		{
+			coarsen( min, max );
+			index = ( int ) Math.floor( ( v - lo ) / width );
+		}
+		bins[ Math.min( Math.max( index, 0 ), resolution - 1 ) ]++;
+	}
+
+	/**
+	 * Removes a value previously added to this sketch. NaN and infinite
+	 * values, and values out of range or that fall in an empty bin, are
+	 * ignored.
+	 * <p>
+	 * The fine grid is never refined after a removal. If the removal empties
+	 * the bin of the min or the max, these are then only known up to the fine
+	 * bin width: they are set to the edge of the first or last non-empty bin,
+	 * clamped to their previous value.
+	 *
+	 * @param v
+	 *            the value to remove.
+	 * @return <code>true</code> if the value was removed.
+	 */
+	public boolean remove( final double v )
+	{
+		if ( count == 0 || !( v >= min && v <= max ) )
+			return false;
+
+		final int index = binIndex( v );
+		if ( bins[ index ] == 0 )
+			return false;
+
+		bins[ index ]--;
+		count--;
+		sum -= v;
+		if ( count == 0 )
+		{
+			min = Double.POSITIVE_INFINITY;
+			max = Double.NEGATIVE_INFINITY;
+			sum = 0.;
+			bins = null;
+			return true;
+		}
+
+		if ( bins[ index ] > 0 )
+			return true;
+
+		// The bin of the min or max may have been emptied.
+		if ( lo + index * width <= min )
+		{
+			int i = index;
+			while ( bins[ i ] == 0 )
+				i++;
+			min = Math.max( lo + i * width, min );
+		}
+		if ( lo + ( index + 1 ) * width >= max )
+		{
+			int i = index;
+			while ( bins[ i ] == 0 )
+				i--;
+			max = Math.min( lo + ( i + 1 ) * width, max );
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the content of the specified sketch to this one. The two sketches
+	 * do not need to have been built on the same range.
+	 *
+	 * @param other
+	 *            the sketch to merge in this one. Unchanged.
+	 */
+	public void merge( final FeatureSketch other )
+	{
+		if ( other.count == 0 )
+			return;
+		if ( other.resolution != resolution )
+			throw new IllegalArgumentException( "Cannot merge sketches of different resolutions: " + resolution + " and " + other.resolution );
+
+		if ( count == 0 )
+		{
+			lo = other.lo;
+			width = other.width;
+			bins = other.bins.clone();
+		}
+		else
+		{
+			if ( other.width > width )
+				regrid( other.width, Math.min( min, other.min ), Math.max( max, other.max ) );
+			else
+				coarsen( Math.min( min, other.min ), Math.max( max, other.max ) );
+			rebin( other.bins, other.lo, other.width, bins, lo, width );
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min( min, other.min );
+		max = Math.max( max, other.max );
+	}
+
+	/**
+	 * Returns a copy of this sketch.
+	 *
+	 * @return a new sketch.
+	 */
+	public FeatureSketch copy()
+	{
+		final FeatureSketch copy = new FeatureSketch( resolution );
+		copy.merge( this );
+		return copy;
+	}
+
+	/*
+	 * GETTERS.
+	 */
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the smallest value added, or {@link Double#POSITIVE_INFINITY} if
+	 * the sketch is empty.
+	 */
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * Returns the largest value added, or {@link Double#NEGATIVE_INFINITY} if
+	 * the sketch is empty.
+	 */
+	public double getMax()
+	{
+		return max;
+	}
+
+	/**
+	 * Returns the mean of the values added, or NaN if the sketch is empty.
+	 */
+	public double getMean()
+	{
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * Returns an estimate of the specified quantile, interpolated linearly
+	 * within fine bins.
+	 *
+	 * @param p
+	 *            the quantile, between 0 and 1.
+	 * @return the quantile estimate, or NaN if the sketch is empty.
+	 */
+	public double getQuantile( final double p )
+	{
+		if ( count == 0 )
+			return Double.NaN;
+		if ( p <= 0. )
+			return min;
+		if ( p >= 1. )
+			return max;
+
+		final double target = p * count;
+		long cumsum = 0;
+		for ( int i = 0; i < resolution; i++ )
+		{
+			final long c = bins[ i ];
+			if ( c == 0 )
+				continue;
+			if ( cumsum + c >= target )
+			{
+				final double start = Math.max( lo + i * width, min );
+				final double end = Math.min( lo + ( i + 1 ) * width, max );
+				final double q = start + ( end - start ) * ( target - cumsum ) / c;
+				return Math.min( Math.max( q, min ), max );
+			}
+			cumsum += c;
+		}
+		return max;
+	}
+
+	/**
+	 * Returns an estimate of the number of values strictly below the specified
+	 * threshold, assuming values are uniformly distributed within fine bins.
+	 *
+	 * @param threshold
+	 *            the threshold.
+	 * @return the number of values below the threshold.
+	 */
+	public long countBelow( final double threshold )
+	{
+		if ( count == 0 || threshold <= min )
+			return 0;
+		if ( threshold > max )
+			return count;
+
+		final double pos = ( threshold - lo ) / width;
+		final int index = Math.min( ( int ) Math.floor( pos ), resolution - 1 );
+		long below = 0;
+		for ( int i = 0; i < index; i++ )
+			below += bins[ i ];
+		final double start = Math.max( lo + index * width, min );
+		final double end = Math.min( lo + ( index + 1 ) * width, max );
+		final double fraction = end > start ? ( threshold - start ) / ( end - start ) : 0.;
+		below += Math.round( bins[ index ] * Math.min( Math.max( fraction, 0. ), 1. ) );
+		return Math.min( below, count );
+	}
+
+	/**
+	 * Returns a histogram of the values with the specified number of bins of
+	 * equal width, spanning <code>[min, max]</code>. The max belongs to the
+	 * last bin.
+	 *
+	 * @param nBins
+	 *            the number of bins.
+	 * @return a new <code>long[]</code> array.
+	 */
+	public long[] histogram( final int nBins )
+	{
+		final long[] hist = new long[ nBins ];
+		if ( count == 0 || nBins == 0 )
+			return hist;
+
+		final double range = max - min;
+		if ( range <= 0. )
+		{
+			hist[ 0 ] = count;
+			return hist;
+		}
+
+		final double binWidth = range / nBins;
+		for ( int i = 0; i < resolution; i++ )
+		{
+			final long c = bins[ i ];
+			if ( c == 0 )
+				continue;
+			final double center = Math.min( Math.max( lo + ( i + 0.5 ) * width, min ), max );
+			final int index = Math.min( ( int ) Math.floor( ( center - min ) / binWidth ), nBins - 1 );
+			hist[ index ] += c;
+		}
+		return hist;
+	}
+
+	/**
+	 * Returns the optimal bin number for a histogram of the values, using the
+	 * Freedman and Diaconis rule (bin_space = 2*IQR/n^(1/3)), bounded by the
+	 * specified numbers. Mirrors
+	 * {@link TMUtils#getNBins(double[], int, int)}.
+	 *
+	 * @param minBinNumber
+	 *            a minimal number of bins.
+	 * @param maxBinNumber
+	 *            a maximal number of bins.
+	 * @return a number of bins.
+	 */
+	public int getNBins( final int minBinNumber, final int maxBinNumber )
+	{
+		final double iqr = getQuantile( 0.75 ) - getQuantile( 0.25 );
+		final double binWidth = 2 * iqr * Math.pow( count, -0.33 );
+		final double range = count == 0 ? 1. : max - min;
+		int nBin = ( int ) ( range / binWidth + 1 );
+		if ( nBin > maxBinNumber )
+			nBin = maxBinNumber;
+		else if ( nBin < minBinNumber )
+			nBin = minBinNumber;
+		return nBin;
+	}
+
+	/**
+	 * Returns a threshold for the values, using an Otsu histogram thresholding
+	 * method. Mirrors {@link TMUtils#otsuThreshold(double[])}.
+	 *
+	 * @return the threshold.
+	 */
+	public double otsuThreshold()
+	{
+		final int nBins = getNBins( 8, 256 );
+		final long[] hist = histogram( nBins );
+		final int thresholdIndex = TMUtils.otsuThresholdIndex( hist, count );
+		if ( count == 0 )
+			return 1. / nBins * thresholdIndex;
+		return min + ( max - min ) / nBins * thresholdIndex;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "%s[n=%d, min=%g, max=%g, mean=%g]",
+				getClass().getSimpleName(), count, min, max, getMean() );
+	}
+
+	/*
+	 * PRIVATE METHODS.
+	 */
+
+	private int binIndex( final double v )
+	{
+		return Math.min( Math.max( ( int ) Math.floor( ( v - lo ) / width ), 0 ), resolution - 1 );
+	}
+
+	/**
+	 * Makes the fine grid cover the specified range, doubling its width if
+	 * needed.
+	 */
+	private void coarsen( final double newMin, final double newMax )
+	{
+		if ( newMin >= lo && ( newMax - lo ) / width < resolution )
+			return;
+		regrid( width, newMin, newMax );
+	}
+
+	/**
+	 * Moves the fine grid to the specified width, or a coarser one if the
+	 * range is not covered. The range is centered on the new grid so that
+	 * it can grow on both sides before the next move.
+	 */
+	private void regrid( final double newWidth, final double newMin, final double newMax )
+	{
+		double w = newWidth;
+		while ( newMax - newMin >= ( resolution - 2 ) * w )
+			w *= 2.;
+		final double slack = resolution * w - ( newMax - newMin );
+		final double newLo = Math.floor( ( newMin - slack / 2. ) / w ) * w;
+		final long[] newBins = new long[ resolution ];
+		rebin( bins, lo, width, newBins, newLo, w );
+		bins = newBins;
+		lo = newLo;
+		width = w;
+	}
+
+	/**
+	 * Accumulates the source bins in the target bins. The target width must
+	 * be a multiple of the source width, and both grids aligned on their
+	 * width, so that each source bin falls in exactly one target bin.
+	 */
+	private static void rebin( final long[] src, final double srcLo, final double srcWidth, final long[] target, final double targetLo, final double targetWidth )
+	{
+		for ( int i = 0; i < src.length; i++ )
+		{
+			if ( src[ i ] == 0 )
+				continue;
+			final double center = srcLo + ( i + 0.5 ) * srcWidth;
+			final int j = ( int ) Math.floor( ( center - targetLo ) / targetWidth );
+			target[ Math.min( Math.max( j, 0 ), target.length - 1 ) ] += src[ i ];
+		}
+	}
+
+	/**
+	 * Exposes the fine bins, for tests.
+	 */
+	long[] fineBins()
+	{
+		return bins == null ? new long[ resolution ] : Arrays.copyOf( bins, resolution );
+	}
+}
@@ -0,0 +1,778 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * A service that maintains {@link FeatureSketch}es of the feature values of a
+ * {@link Model}, so that histograms, min and max and thresholds can be
+ * retrieved without collecting all the values of a feature.
+ * <p>
+ * Sketches are built lazily, for all the declared features of a target at
+ * once, in a single pass over the objects of the model. They are then kept
+ * up to date by listening to model changes. The values accumulated for each
+ * object are remembered, so that removed, modified and moved objects can be
+ * subtracted from the sketches. Added and modified objects are accumulated
+ * the next time the sketches are queried, so that their feature values are
+ * current. Edges and tracks are updated per changed track. Global changes
+ * (new detection, new tracking, new features, filtering) invalidate the
+ * sketches of the affected targets, which are rebuilt on the next query.
+ * <p>
+ * The instance of a model is obtained with
+ * {@link Model#getFeatureStatistics()}.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class FeatureStatistics implements ModelChangeListener
+{
+
+	private final Model model;
+
+	private final Map< TrackMateObject, Entry< ? > > all = new EnumMap<>( TrackMateObject.class );
+
+	private final Map< TrackMateObject, Entry< ? > > visible = new EnumMap<>( TrackMateObject.class );
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Creates a statistics service for the specified model, and registers it
+	 * as a listener of the model.
+	 *
+	 * @param model
+	 *            the model.
+	 */
+	public FeatureStatistics( final Model model )
+	{
+		this.model = model;
+		model.addModelChangeListener( this );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns a sketch of the values of the specified feature.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @param target
+	 *            the type of objects the feature is defined on.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the visible objects are
+	 *            considered.
+	 * @return a copy of the sketch, that can be modified by the caller.
+	 */
+	public synchronized FeatureSketch getSketch( final String feature, final TrackMateObject target, final boolean visibleOnly )
+	{
+		if ( target == TrackMateObject.DEFAULT )
+			return new FeatureSketch();
+
+		final Entry< ? > entry = entry( target, visibleOnly );
+		FeatureSketch sketch = entry.sketches.get( feature );
+		if ( sketch == null )
+		{
+			// Undeclared feature: compute it on its own.
+			sketch = compute( model, feature, target, visibleOnly );
+			entry.sketches.put( feature, sketch );
+		}
+		return sketch.copy();
+	}
+
+	/**
+	 * Returns the <code>[min, max]</code> of the values of the specified
+	 * feature. Returns <code>[+inf, -inf]</code> if there are no values.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @param target
+	 *            the type of objects the feature is defined on.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the visible objects are
+	 *            considered.
+	 * @return a new <code>double[]</code> array of length 2.
+	 */
+	public synchronized double[] getMinMax( final String feature, final TrackMateObject target, final boolean visibleOnly )
+	{
+		final FeatureSketch sketch = getSketch( feature, target, visibleOnly );
+		return new double[] { sketch.getMin(), sketch.getMax() };
+	}
+
+	/**
+	 * Discards all the sketches. They will be rebuilt on the next query. Call
+	 * this method after modifying the model without notifying its listeners.
+	 */
+	public synchronized void invalidate()
+	{
+		all.clear();
+		visible.clear();
+	}
+
+	/**
+	 * Sets the number of threads used to rebuild the spot sketches.
+	 *
+	 * @param numThreads
+	 *            the number of threads.
+	 */
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.SPOTS_COMPUTED:
+			invalidate();
+			break;
+
+		case ModelChangeEvent.SPOTS_FILTERED:
+			visible.remove( TrackMateObject.SPOTS );
+			break;
+
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			invalidateTracks( all );
+			invalidateTracks( visible );
+			break;
+
+		case ModelChangeEvent.TRACKS_VISIBILITY_CHANGED:
+			invalidateTracks( visible );
+			break;
+
+		case ModelChangeEvent.FEATURES_COMPUTED:
+			invalidate();
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			if ( event.getSpots().isEmpty() && event.getEdges().isEmpty() )
+			{
+				// Unspecified modification.
+				invalidate();
+				break;
+			}
+
+			final Set< Integer > tracksUpdated = event.getTrackUpdated() == null
+					? new HashSet<>()
+					: event.getTrackUpdated();
+			for ( final Map< TrackMateObject, Entry< ? > > cache : Arrays.asList( all, visible ) )
+			{
+				spotsChanged( get( cache, TrackMateObject.SPOTS ), event );
+				edgesChanged( get( cache, TrackMateObject.EDGES ), event, tracksUpdated );
+				tracksChanged( get( cache, TrackMateObject.TRACKS ), event, tracksUpdated );
+			}
+			break;
+		}
+
+		default:
+			invalidate();
+			break;
+		}
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Builds the sketches of the specified features in a single pass over the
+	 * objects of the model, without caching them.
+	 *
+	 * @param model
+	 *            the model.
+	 * @param features
+	 *            the feature keys.
+	 * @param target
+	 *            the type of objects the features are defined on.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the visible objects are
+	 *            considered.
+	 * @param numThreads
+	 *            the number of threads to use for spots.
+	 * @return a new map from feature key to sketch.
+	 */
+	public static Map< String, FeatureSketch > compute( final Model model, final Collection< String > features, final TrackMateObject target, final boolean visibleOnly, final int numThreads )
+	{
+		final String[] keys = features.toArray( new String[ features.size() ] );
+		final FeatureSketch[] sketches;
+		switch ( target )
+		{
+		case DEFAULT:
+			sketches = newSketches( keys.length );
+			break;
+
+		case SPOTS:
+			sketches = computeSpots( model.getSpots(), keys, visibleOnly, numThreads, null );
+			break;
+
+		case EDGES:
+		{
+			sketches = newSketches( keys.length );
+			final FeatureModel fm = model.getFeatureModel();
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final Integer trackID : trackModel.unsortedTrackIDs( visibleOnly ) )
+				for ( final DefaultWeightedEdge edge : trackModel.trackEdges( trackID ) )
+					for ( int i = 0; i < keys.length; i++ )
+						add( sketches[ i ], fm.getEdgeFeature( edge, keys[ i ] ) );
+			break;
+		}
+
+		case TRACKS:
+		{
+			sketches = newSketches( keys.length );
+			final FeatureModel fm = model.getFeatureModel();
+			for ( final Integer trackID : model.getTrackModel().unsortedTrackIDs( visibleOnly ) )
+				for ( int i = 0; i < keys.length; i++ )
+					add( sketches[ i ], fm.getTrackFeature( trackID, keys[ i ] ) );
+			break;
+		}
+
+		default:
+			throw new IllegalArgumentException( "Unknown object type: " + target );
+		}
+
+		final Map< String, FeatureSketch > map = new HashMap<>( keys.length );
+		for ( int i = 0; i < keys.length; i++ )
+			map.put( keys[ i ], sketches[ i ] );
+		return map;
+	}
+
+	/**
+	 * Builds the sketch of a single feature, without caching it.
+	 *
+	 * @param model
+	 *            the model.
+	 * @param feature
+	 *            the feature key.
+	 * @param target
+	 *            the type of objects the feature is defined on.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the visible objects are
+	 *            considered.
+	 * @return a new sketch.
+	 */
+	public static FeatureSketch compute( final Model model, final String feature, final TrackMateObject target, final boolean visibleOnly )
+	{
+		final List< String > single = new ArrayList<>( 1 );
+		single.add( feature );
+		return compute( model, single, target, visibleOnly, 1 ).get( feature );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private Entry< ? > entry( final TrackMateObject target, final boolean visibleOnly )
+	{
+		final Map< TrackMateObject, Entry< ? > > cache = visibleOnly ? visible : all;
+		Entry< ? > entry = cache.get( target );
+		if ( entry != null )
+		{
+			flush( target, entry );
+			if ( entry.size == size( target ) && entry.owner == owner( target ) )
+				return entry;
+		}
+
+		// (Re)build all the declared features at once.
+		entry = build( target, visibleOnly );
+		cache.put( target, entry );
+		return entry;
+	}
+
+	private Entry< ? > build( final TrackMateObject target, final boolean visibleOnly )
+	{
+		final Collection< String > features = declaredFeatures( target );
+		final String[] keys = features.toArray( new String[ features.size() ] );
+		final FeatureModel fm = model.getFeatureModel();
+		final TrackModel trackModel = model.getTrackModel();
+		switch ( target )
+		{
+		case SPOTS:
+		{
+			final Map< Spot, double[] > recorded = new ConcurrentHashMap<>();
+			final FeatureSketch[] sketches = computeSpots( model.getSpots(), keys, visibleOnly, numThreads, recorded );
+			return new Entry<>( keys, sketches, recorded, owner( target ), size( target ), visibleOnly );
+		}
+
+		case EDGES:
+		{
+			final Entry< DefaultWeightedEdge > entry = new Entry<>( keys, newSketches( keys.length ), new HashMap<>(), owner( target ), size( target ), visibleOnly );
+			for ( final Integer trackID : trackModel.unsortedTrackIDs( visibleOnly ) )
+				for ( final DefaultWeightedEdge edge : trackModel.trackEdges( trackID ) )
+					entry.add( edge, edgeValues( fm, edge, keys ) );
+			return entry;
+		}
+
+		case TRACKS:
+		{
+			final Entry< Integer > entry = new Entry<>( keys, newSketches( keys.length ), new HashMap<>(), owner( target ), size( target ), visibleOnly );
+			for ( final Integer trackID : trackModel.unsortedTrackIDs( visibleOnly ) )
+				entry.add( trackID, trackValues( fm, trackID, keys ) );
+			return entry;
+		}
+
+		default:
+			return new Entry<>( keys, newSketches( keys.length ), new HashMap<>(), owner( target ), size( target ), visibleOnly );
+		}
+	}
+
+	/**
+	 * Accumulates the objects added or modified since the last query.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void flush( final TrackMateObject target, final Entry< ? > entry )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final TrackModel trackModel = model.getTrackModel();
+		switch ( target )
+		{
+		case SPOTS:
+		{
+			final Entry< Spot > e = ( Entry< Spot > ) entry;
+			for ( final Spot spot : e.pending )
+			{
+				e.remove( spot );
+				if ( e.visibleOnly && !isVisible( spot ) )
+					continue;
+				e.add( spot, spotValues( spot, e.keys ) );
+			}
+			e.pending.clear();
+			break;
+		}
+
+		case EDGES:
+		{
+			final Entry< DefaultWeightedEdge > e = ( Entry< DefaultWeightedEdge > ) entry;
+			for ( final DefaultWeightedEdge edge : e.pending )
+			{
+				e.remove( edge );
+				final Integer trackID = trackModel.trackIDOf( edge );
+				if ( trackID == null || ( e.visibleOnly && !trackModel.isVisible( trackID ) ) )
+					continue;
+				e.add( edge, edgeValues( fm, edge, e.keys ) );
+			}
+			e.pending.clear();
+			break;
+		}
+
+		case TRACKS:
+		{
+			final Entry< Integer > e = ( Entry< Integer > ) entry;
+			if ( !e.sweep )
+				break;
+
+			// Tracks may have disappeared without being reported.
+			final Iterator< Map.Entry< Integer, double[] > > it = e.recorded.entrySet().iterator();
+			while ( it.hasNext() )
+			{
+				final Map.Entry< Integer, double[] > recorded = it.next();
+				if ( trackModel.trackEdges( recorded.getKey() ) == null )
+				{
+					e.subtract( recorded.getValue() );
+					it.remove();
+				}
+			}
+			for ( final Integer trackID : e.pending )
+			{
+				e.remove( trackID );
+				if ( trackModel.trackEdges( trackID ) == null || ( e.visibleOnly && !trackModel.isVisible( trackID ) ) )
+					continue;
+				e.add( trackID, trackValues( fm, trackID, e.keys ) );
+			}
+			e.pending.clear();
+			e.sweep = false;
+			e.size = size( target );
+			break;
+		}
+
+		default:
+			break;
+		}
+	}
+
+	private static void spotsChanged( final Entry< Spot > entry, final ModelChangeEvent event )
+	{
+		if ( entry == null || event.getSpots().isEmpty() )
+			return;
+
+		entry.retainDeclared();
+		for ( final Spot spot : event.getSpots() )
+		{
+			switch ( event.getSpotFlag( spot ) )
+			{
+			case ModelChangeEvent.FLAG_SPOT_ADDED:
+				entry.pending.add( spot );
+				entry.size++;
+				break;
+
+			case ModelChangeEvent.FLAG_SPOT_REMOVED:
+				entry.pending.remove( spot );
+				entry.remove( spot );
+				entry.size--;
+				break;
+
+			default:
+				// Modified or moved: the recorded values are stale.
+				entry.remove( spot );
+				entry.pending.add( spot );
+				break;
+			}
+		}
+	}
+
+	private void edgesChanged( final Entry< DefaultWeightedEdge > entry, final ModelChangeEvent event, final Set< Integer > tracksUpdated )
+	{
+		if ( entry == null || ( event.getEdges().isEmpty() && tracksUpdated.isEmpty() ) )
+			return;
+
+		entry.retainDeclared();
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			switch ( event.getEdgeFlag( edge ) )
+			{
+			case ModelChangeEvent.FLAG_EDGE_ADDED:
+				entry.pending.add( edge );
+				entry.size++;
+				break;
+
+			case ModelChangeEvent.FLAG_EDGE_REMOVED:
+				entry.pending.remove( edge );
+				entry.remove( edge );
+				entry.size--;
+				break;
+
+			default:
+				entry.remove( edge );
+				entry.pending.add( edge );
+				break;
+			}
+		}
+
+		if ( entry.visibleOnly )
+		{
+			// Edges are visible with their track, which may have been merged
+			// with or split from a track of different visibility.
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final Integer trackID : tracksUpdated )
+			{
+				final Set< DefaultWeightedEdge > edges = trackModel.trackEdges( trackID );
+				if ( edges != null )
+					entry.pending.addAll( edges );
+			}
+		}
+	}
+
+	private static void tracksChanged( final Entry< Integer > entry, final ModelChangeEvent event, final Set< Integer > tracksUpdated )
+	{
+		if ( entry == null || ( event.getEdges().isEmpty() && tracksUpdated.isEmpty() ) )
+			return;
+
+		entry.retainDeclared();
+		entry.pending.addAll( tracksUpdated );
+		entry.sweep = true;
+	}
+
+	private Collection< String > declaredFeatures( final TrackMateObject target )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		switch ( target )
+		{
+		case SPOTS:
+			return fm.getSpotFeatures();
+		case EDGES:
+			return fm.getEdgeFeatures();
+		case TRACKS:
+			return fm.getTrackFeatures();
+		default:
+			return new ArrayList<>();
+		}
+	}
+
+	/**
+	 * The object that holds the collection of the target. Used to detect
+	 * changes that were made without notifying listeners.
+	 */
+	private Object owner( final TrackMateObject target )
+	{
+		return target == TrackMateObject.SPOTS ? model.getSpots() : model.getTrackModel();
+	}
+
+	/**
+	 * The total number of objects of the target. Used to detect changes that
+	 * were made without notifying listeners.
+	 */
+	private long size( final TrackMateObject target )
+	{
+		switch ( target )
+		{
+		case SPOTS:
+			return model.getSpots().getNSpots( false );
+		case EDGES:
+			return model.getTrackModel().edgeSet().size();
+		case TRACKS:
+			return model.getTrackModel().nTracks( false );
+		default:
+			return 0;
+		}
+	}
+
+	private static void invalidateTracks( final Map< TrackMateObject, Entry< ? > > cache )
+	{
+		cache.remove( TrackMateObject.EDGES );
+		cache.remove( TrackMateObject.TRACKS );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static < O > Entry< O > get( final Map< TrackMateObject, Entry< ? > > cache, final TrackMateObject target )
+	{
+		return ( Entry< O > ) cache.get( target );
+	}
+
+	private static boolean isVisible( final Spot spot )
+	{
+		final Double visibility = spot.getFeature( SpotCollection.VISIBILITY );
+		return visibility != null && visibility.doubleValue() > 0.;
+	}
+
+	private static double[] spotValues( final Spot spot, final String[] keys )
+	{
+		final double[] values = new double[ keys.length ];
+		for ( int i = 0; i < keys.length; i++ )
+			values[ i ] = toDouble( spot.getFeature( keys[ i ] ) );
+		return values;
+	}
+
+	private static double[] edgeValues( final FeatureModel fm, final DefaultWeightedEdge edge, final String[] keys )
+	{
+		final double[] values = new double[ keys.length ];
+		for ( int i = 0; i < keys.length; i++ )
+			values[ i ] = toDouble( fm.getEdgeFeature( edge, keys[ i ] ) );
+		return values;
+	}
+
+	private static double[] trackValues( final FeatureModel fm, final Integer trackID, final String[] keys )
+	{
+		final double[] values = new double[ keys.length ];
+		for ( int i = 0; i < keys.length; i++ )
+			values[ i ] = toDouble( fm.getTrackFeature( trackID, keys[ i ] ) );
+		return values;
+	}
+
+	private static double toDouble( final Double val )
+	{
+		return val == null ? Double.NaN : val.doubleValue();
+	}
+
+	/**
+	 * Sketches the spots, frame by frame in parallel. If
+	 * <code>recorded</code> is not <code>null</code>, the values accumulated
+	 * for each spot are stored in it.
+	 */
+	private static FeatureSketch[] computeSpots( final SpotCollection spots, final String[] keys, final boolean visibleOnly, final int numThreads, final Map< Spot, double[] > recorded )
+	{
+		final Integer[] frames = spots.keySet().toArray( new Integer[ 0 ] );
+		final int nWorkers = Math.max( 1, Math.min( numThreads, frames.length ) );
+		if ( nWorkers == 1 )
+		{
+			final FeatureSketch[] sketches = newSketches( keys.length );
+			for ( final Spot spot : spots.iterable( visibleOnly ) )
+				accumulate( sketches, keys, spot, recorded );
+			return sketches;
+		}
+
+		// Each worker sketches whole frames, then sketches are merged.
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final List< Callable< FeatureSketch[] > > tasks = new ArrayList<>( nWorkers );
+		for ( int t = 0; t < nWorkers; t++ )
+		{
+			tasks.add( () -> {
+				final FeatureSketch[] sketches = newSketches( keys.length );
+				int f;
+				while ( ( f = ai.getAndIncrement() ) < frames.length )
+				{
+					final Iterator< Spot > it = spots.iterator( frames[ f ], visibleOnly );
+					while ( it.hasNext() )
+						accumulate( sketches, keys, it.next(), recorded );
+				}
+				return sketches;
+			} );
+		}
+
+		final FeatureSketch[] merged = newSketches( keys.length );
+		final ExecutorService executors = Threads.newFixedThreadPool( nWorkers );
+		try
+		{
+			for ( final Future< FeatureSketch[] > future : executors.invokeAll( tasks ) )
+			{
+				final FeatureSketch[] sketches = future.get();
+				for ( int i = 0; i < keys.length; i++ )
+					merged[ i ].merge( sketches[ i ] );
+			}
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			executors.shutdown();
+		}
+		return merged;
+	}
+
+	private static void accumulate( final FeatureSketch[] sketches, final String[] keys, final Spot spot, final Map< Spot, double[] > recorded )
+	{
+		if ( recorded == null )
+		{
+			for ( int i = 0; i < keys.length; i++ )
+				add( sketches[ i ], spot.getFeature( keys[ i ] ) );
+			return;
+		}
+		final double[] values = spotValues( spot, keys );
+		recorded.put( spot, values );
+		for ( int i = 0; i < keys.length; i++ )
+			sketches[ i ].add( values[ i ] );
+	}
+
+	private static FeatureSketch[] newSketches( final int n )
+	{
+		final FeatureSketch[] sketches = new FeatureSketch[ n ];
+		for ( int i = 0; i < n; i++ )
+			sketches[ i ] = new FeatureSketch();
+		return sketches;
+	}
+
+	private static final void add( final FeatureSketch sketch, final Double val )
+	{
+		if ( val != null )
+			sketch.add( val.doubleValue() );
+	}
+
+	/**
+	 * The sketches of all the declared features of a target, the values
+	 * accumulated in them for each object, and the objects added or modified
+	 * since they were last queried.
+	 * <p>
+	 * The values are remembered because the model notifies listeners after
+	 * the feature values of modified objects have changed: the old values
+	 * cannot be read back from the model to be subtracted. This costs one
+	 * <code>double</code> per object and declared feature.
+	 */
+	private static final class Entry< O >
+	{
+
+		private final String[] keys;
+
+		private final FeatureSketch[] declared;
+
+		/**
+		 * The declared sketches, plus the sketches of undeclared features
+		 * computed on demand. The latter are dropped on the first change.
+		 */
+		private final Map< String, FeatureSketch > sketches;
+
+		private final Map< O, double[] > recorded;
+
+		private final Set< O > pending = new HashSet<>();
+
+		private final Object owner;
+
+		private long size;
+
+		private final boolean visibleOnly;
+
+		/**
+		 * Whether objects may have disappeared without being reported. Only
+		 * used for tracks.
+		 */
+		private boolean sweep;
+
+		private Entry( final String[] keys, final FeatureSketch[] declared, final Map< O, double[] > recorded, final Object owner, final long size, final boolean visibleOnly )
+		{
+			this.keys = keys;
+			this.declared = declared;
+			this.recorded = recorded;
+			this.owner = owner;
+			this.size = size;
+			this.visibleOnly = visibleOnly;
+			this.sketches = new HashMap<>( keys.length );
+			for ( int i = 0; i < keys.length; i++ )
+				sketches.put( keys[ i ], declared[ i ] );
+		}
+
+		private void add( final O o, final double[] values )
+		{
+			recorded.put( o, values );
+			for ( int i = 0; i < keys.length; i++ )
+				declared[ i ].add( values[ i ] );
+		}
+
+		private void remove( final O o )
+		{
+			final double[] values = recorded.remove( o );
+			if ( values != null )
+				subtract( values );
+		}
+
+		private void subtract( final double[] values )
+		{
+			for ( int i = 0; i < keys.length; i++ )
+				declared[ i ].remove( values[ i ] );
+		}
+
+		private void retainDeclared()
+		{
+			if ( sketches.size() > keys.length )
+				sketches.keySet().retainAll( Arrays.asList( keys ) );
+		}
+	}
+}
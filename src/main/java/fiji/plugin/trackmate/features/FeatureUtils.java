@@ -409,18 +409,7 @@ public class FeatureUtils
 		case SPOTS:
 		case TRACKS:
 		{
-			final double[] values = collectFeatureValues( feature, type, model, true );
-			double min = Double.POSITIVE_INFINITY;
-			double max = Double.NEGATIVE_INFINITY;
-			for ( final double val : values )
-			{
-				if ( val < min )
-					min = val;
-
-				if ( val > max )
-					max = val;
-			}
-			return new double[] { min, max };
+			return model.getFeatureStatistics().getMinMax( feature, type, true );
 		}
 
 		default:
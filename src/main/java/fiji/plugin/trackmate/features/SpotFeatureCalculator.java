@@ -40,6 +40,7 @@ import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
+import fiji.plugin.trackmate.features.spot.SpotMorphologyAnalyzer;
 import fiji.plugin.trackmate.util.Threads;
 import fiji.plugin.trackmate.util.TMUtils;
 import net.imagej.ImgPlus;
@@ -199,14 +200,21 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 
 					for ( int channel = 0; channel < settings.imp.getNChannels(); channel++ )
 					{
+						final List< SpotAnalyzer< ? > > analyzers = new ArrayList<>( analyzerFactories.size() );
 						for ( final SpotAnalyzerFactoryBase< ? > factory : analyzerFactories )
+						{
+							@SuppressWarnings( "unchecked" )
+							final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( img, frame, channel );
+							analyzers.add( analyzer );
+						}
+						// Walk each spot contour once for all shape features.
+						SpotMorphologyAnalyzer.fuse( analyzers );
+
+						for ( final SpotAnalyzer< ? > analyzer : analyzers )
 						{
 							if ( isCanceled() )
 								return null;
 
-
-							@SuppressWarnings( "unchecked" )
-							final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( img, frame, channel );
 							// Fine-tune multithreading if we can.
 							if ( analyzer instanceof MultiThreaded )
 								( ( MultiThreaded ) analyzer ).setNumThreads( threadsPerFrame );
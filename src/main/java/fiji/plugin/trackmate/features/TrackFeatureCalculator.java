@@ -21,6 +21,7 @@
  */
 package fiji.plugin.trackmate.features;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -31,7 +32,9 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.track.BufferedTrackAnalyzer;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackBufferPipeline;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 /**
@@ -139,6 +142,12 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 			logger.log( "Computing track features:\n", Logger.BLUE_COLOR );
 		}
 
+		/*
+		 * Consecutive analyzers that can work on a track buffer are fused in a
+		 * single pass over the tracks. The others are run one after the other,
+		 * keeping the order in which they are given.
+		 */
+		final List< BufferedTrackAnalyzer > fused = new ArrayList<>();
 		for ( final TrackAnalyzer analyzer : analyzers )
 		{
 			if ( isCanceled() )
@@ -150,6 +159,14 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 				continue;
 			}
 
+			if ( analyzer instanceof BufferedTrackAnalyzer && analyzer.isLocal() )
+			{
+				fused.add( ( BufferedTrackAnalyzer ) analyzer );
+				continue;
+			}
+
+			processFused( fused, trackIDs, doLogIt );
+
 			analyzer.setNumThreads( numThreads );
 			if ( analyzer.isLocal() )
 			{
@@ -162,8 +179,39 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 
 			if ( doLogIt )
 				logger.log( "  - " + analyzer.getName() + " in " + analyzer.getProcessingTime() + " ms.\n" );
+		}
+
+		if ( isCanceled() )
+			return;
+		processFused( fused, trackIDs, doLogIt );
+	}
 
+	/**
+	 * Runs the specified buffered analyzers in a single pass over the tracks,
+	 * then clears the list.
+	 */
+	private void processFused( final List< BufferedTrackAnalyzer > fused, final Collection< Integer > trackIDs, final boolean doLogIt )
+	{
+		if ( fused.isEmpty() )
+			return;
+
+		final long start = System.currentTimeMillis();
+		TrackBufferPipeline.process( trackIDs, model, fused, numThreads );
+		final long end = System.currentTimeMillis();
+
+		if ( doLogIt )
+		{
+			final StringBuilder str = new StringBuilder( "  - " );
+			for ( int i = 0; i < fused.size(); i++ )
+			{
+				if ( i > 0 )
+					str.append( ", " );
+				str.append( fused.get( i ).getName() );
+			}
+			str.append( " in " + ( end - start ) + " ms.\n" );
+			model.getLogger().log( str.toString() );
 		}
+		fused.clear();
 	}
 
 	// --- org.scijava.Cancelable methods ---
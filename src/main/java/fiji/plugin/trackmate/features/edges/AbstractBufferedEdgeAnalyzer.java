@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.edges;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Model;
+
+/**
+ * Base class for {@link BufferedEdgeAnalyzer}s. When run on its own, the
+ * analyzer goes through the {@link EdgeBufferPipeline}, so that edges are
+ * processed in chunks and written in bulk to the feature model.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public abstract class AbstractBufferedEdgeAnalyzer extends AbstractEdgeAnalyzer implements BufferedEdgeAnalyzer
+{
+
+	private long processingTime;
+
+	public AbstractBufferedEdgeAnalyzer(
+			final String key,
+			final String name,
+			final List< String > features,
+			final Map< String, String > featureNames,
+			final Map< String, String > featureShortNames,
+			final Map< String, Dimension > featureDimensions,
+			final Map< String, Boolean > isInts )
+	{
+		super( key, name, features, featureNames, featureShortNames, featureDimensions, isInts );
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void process( final Collection< DefaultWeightedEdge > edges, final Model model )
+	{
+		final long start = System.currentTimeMillis();
+		EdgeBufferPipeline.process( edges, model, Collections.singletonList( this ), getNumThreads() );
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+	}
+
+	@Override
+	protected void analyze( final DefaultWeightedEdge edge, final Model model )
+	{
+		final EdgeBuffer buffer = new EdgeBuffer( model.getTrackModel(), 1 );
+		buffer.load( new DefaultWeightedEdge[] { edge }, 0, 1 );
+		analyze( buffer );
+		buffer.flush( model.getFeatureModel() );
+	}
+}
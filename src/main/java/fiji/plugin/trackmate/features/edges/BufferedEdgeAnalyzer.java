@@ -0,0 +1,53 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.edges;
+
+/**
+ * Interface for {@link EdgeAnalyzer}s that can compute their features from an
+ * {@link EdgeBuffer} alone, that is: from the source and target spots of each
+ * edge, resolved once, and from the single predecessor of each edge.
+ * <p>
+ * Consecutive analyzers of this kind are fused by the
+ * {@link EdgeBufferPipeline}: edges are split in chunks processed in parallel,
+ * each chunk is read once into a buffer, all the analyzers write their values
+ * in the buffer feature columns, and the chunk is then written in bulk to the
+ * feature model.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public interface BufferedEdgeAnalyzer extends EdgeAnalyzer
+{
+
+	/**
+	 * Computes the features of all the edges loaded in the specified buffer,
+	 * and stores them in the buffer columns obtained with
+	 * {@link EdgeBuffer#column(String)}.
+	 * <p>
+	 * This method will be called concurrently for different chunks, with
+	 * different buffers.
+	 *
+	 * @param buffer
+	 *            the buffer containing the edges to analyze.
+	 */
+	public void analyze( EdgeBuffer buffer );
+
+}
@@ -25,18 +25,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class DirectionalChangeAnalyzer extends AbstractEdgeAnalyzer
+public class DirectionalChangeAnalyzer extends AbstractBufferedEdgeAnalyzer
 {
 
 	public static final String KEY = "Directional change";
@@ -63,74 +58,78 @@ public class DirectionalChangeAnalyzer extends AbstractEdgeAnalyzer
 	}
 
 	@Override
-	protected void analyze( final DefaultWeightedEdge edge, final Model model )
+	public void analyze( final EdgeBuffer buffer )
 	{
-		final FeatureModel featureModel = model.getFeatureModel();
-		
+		buffer.resolvePredecessors();
+
+		final int n = buffer.size();
+		final boolean[] forward = buffer.forward();
+		final boolean[] hasPredecessor = buffer.hasPredecessor();
+		final double[] sx = buffer.sourceX();
+		final double[] sy = buffer.sourceY();
+		final double[] sz = buffer.sourceZ();
+		final double[] st = buffer.sourceT();
+		final double[] tx = buffer.targetX();
+		final double[] ty = buffer.targetY();
+		final double[] tz = buffer.targetZ();
+		final double[] tt = buffer.targetT();
+		final double[] px = buffer.predecessorX();
+		final double[] py = buffer.predecessorY();
+		final double[] pz = buffer.predecessorZ();
+		final double[] rates = buffer.column( DIRECTIONAL_CHANGE_RATE );
+
 		// Storage array for 3D angle calculation.
 		final double[] out = new double[ 3 ];
 
-		Spot source = model.getTrackModel().getEdgeSource( edge );
-		Spot target = model.getTrackModel().getEdgeTarget( edge );
-
-		// Some edges maybe improperly oriented.
-		if ( source.diffTo( target, Spot.FRAME ) > 0. )
+		for ( int i = 0; i < n; i++ )
 		{
-			final Spot tmp = target;
-			target = source;
-			source = tmp;
-		}
-
-		/*
-		 * Edge absolute angle.
-		 */
-
-		final double dx2 = target.diffTo( source, Spot.POSITION_X );
-		final double dy2 = target.diffTo( source, Spot.POSITION_Y );
-		final double dz2 = target.diffTo( source, Spot.POSITION_Z );
-
-		/*
-		 * Rate of directional change. We need to fetch the predecessor edge,
-		 * via the source.
-		 */
-
-		final Set< DefaultWeightedEdge > sourceEdges = model.getTrackModel().edgesOf( source );
-		int nPredecessors = 0;
-		Spot predecessor = null;
-		for ( final DefaultWeightedEdge sourceEdge : sourceEdges )
-		{
-			Spot other = model.getTrackModel().getEdgeTarget( sourceEdge );
-			if ( other.equals( source ) )
-				other = model.getTrackModel().getEdgeSource( sourceEdge );
+			/*
+			 * We work only if there is only one predecessor. The directional
+			 * change is anyway not defined in case of branching.
+			 */
+			if ( !hasPredecessor[ i ] )
+			{
+				rates[ i ] = Double.NaN;
+				continue;
+			}
 
-			if ( other.diffTo( source, Spot.FRAME ) < 0. )
+			// Some edges maybe improperly oriented.
+			final double x0, y0, z0, t0, x1, y1, z1, t1;
+			if ( forward[ i ] )
 			{
-				// This is a predecessor edge.
-				nPredecessors++;
-				predecessor = other;
+				x0 = sx[ i ];
+				y0 = sy[ i ];
+				z0 = sz[ i ];
+				t0 = st[ i ];
+				x1 = tx[ i ];
+				y1 = ty[ i ];
+				z1 = tz[ i ];
+				t1 = tt[ i ];
+			}
+			else
+			{
+				x0 = tx[ i ];
+				y0 = ty[ i ];
+				z0 = tz[ i ];
+				t0 = tt[ i ];
+				x1 = sx[ i ];
+				y1 = sy[ i ];
+				z1 = sz[ i ];
+				t1 = st[ i ];
 			}
-		}
 
-		/*
-		 * We work only if there is only one predecessor. The directional change
-		 * is anyway not defined in case of branching.
-		 */
-		if ( nPredecessors != 1 )
-		{
-			featureModel.putEdgeFeature( edge, DIRECTIONAL_CHANGE_RATE, Double.NaN );
-			return;
+			// Vectors.
+			final double dx1 = x0 - px[ i ];
+			final double dy1 = y0 - py[ i ];
+			final double dz1 = z0 - pz[ i ];
+			final double dx2 = x1 - x0;
+			final double dy2 = y1 - y0;
+			final double dz2 = z1 - z0;
+
+			crossProduct( dx1, dy1, dz1, dx2, dy2, dz2, out );
+			final double deltaAlpha = Math.atan2( norm( out ), dotProduct( dx1, dy1, dz1, dx2, dy2, dz2 ) );
+			rates[ i ] = deltaAlpha / ( t1 - t0 );
 		}
-
-		// Vectors.
-		final double dx1 = source.diffTo( predecessor, Spot.POSITION_X );
-		final double dy1 = source.diffTo( predecessor, Spot.POSITION_Y );
-		final double dz1 = source.diffTo( predecessor, Spot.POSITION_Z );
-
-		crossProduct( dx1, dy1, dz1, dx2, dy2, dz2, out );
-		final double deltaAlpha = Math.atan2( norm( out ), dotProduct( dx1, dy1, dz1, dx2, dy2, dz2 ) );
-		final double angleSpeed = deltaAlpha / target.diffTo( source, Spot.POSITION_T );
-
-		featureModel.putEdgeFeature( edge, DIRECTIONAL_CHANGE_RATE, Double.valueOf( angleSpeed ) );
 	}
 
 	private static final double dotProduct( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2 )
@@ -0,0 +1,430 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.edges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * A primitive, reusable buffer that stores a chunk of edges, with their source
+ * and target spots resolved once.
+ * <p>
+ * For each edge of the chunk, the buffer stores the source and target spots as
+ * they are in the graph, their positions, times and frames, the edge weight,
+ * and whether the edge is oriented forward in time. The single predecessor of
+ * the earliest spot of each edge is resolved on demand, see
+ * {@link #resolvePredecessors()}.
+ * <p>
+ * {@link BufferedEdgeAnalyzer}s write their results in feature columns
+ * obtained with {@link #column(String)}. All the columns of a chunk are then
+ * written in bulk into the {@link FeatureModel} with {@link #flush(FeatureModel)}.
+ * <p>
+ * Instances are not thread-safe, but are meant to be reused across chunks by a
+ * single thread. The arrays returned by the getters are the internal storage
+ * of the buffer: only the first {@link #size()} elements are valid.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class EdgeBuffer
+{
+
+	private final TrackModel trackModel;
+
+	private int size;
+
+	private DefaultWeightedEdge[] edges;
+
+	private Spot[] sources;
+
+	private Spot[] targets;
+
+	private double[] weights;
+
+	private double[] sx;
+
+	private double[] sy;
+
+	private double[] sz;
+
+	private double[] st;
+
+	private double[] sframe;
+
+	private double[] tx;
+
+	private double[] ty;
+
+	private double[] tz;
+
+	private double[] tt;
+
+	private double[] tframe;
+
+	private boolean[] forward;
+
+	private double[] px;
+
+	private double[] py;
+
+	private double[] pz;
+
+	private boolean[] hasPredecessor;
+
+	private boolean predecessorsResolved;
+
+	/*
+	 * Feature columns.
+	 */
+
+	private final List< String > columnFeatures = new ArrayList<>();
+
+	private final List< double[] > columns = new ArrayList<>();
+
+	private int nActiveColumns;
+
+	public EdgeBuffer( final TrackModel trackModel, final int capacity )
+	{
+		this.trackModel = trackModel;
+		ensureCapacity( capacity );
+	}
+
+	/**
+	 * Reads the specified range of edges into this buffer, replacing its
+	 * previous content.
+	 *
+	 * @param edgeArray
+	 *            the edges to read from.
+	 * @param from
+	 *            the index of the first edge to read, inclusive.
+	 * @param to
+	 *            the index of the last edge to read, exclusive.
+	 * @return this buffer.
+	 */
+	public EdgeBuffer load( final DefaultWeightedEdge[] edgeArray, final int from, final int to )
+	{
+		size = to - from;
+		ensureCapacity( size );
+		predecessorsResolved = false;
+		nActiveColumns = 0;
+
+		for ( int i = 0; i < size; i++ )
+		{
+			final DefaultWeightedEdge edge = edgeArray[ from + i ];
+			final Spot source = trackModel.getEdgeSource( edge );
+			final Spot target = trackModel.getEdgeTarget( edge );
+			edges[ i ] = edge;
+			sources[ i ] = source;
+			targets[ i ] = target;
+			weights[ i ] = trackModel.getEdgeWeight( edge );
+
+			sx[ i ] = valueOf( source, Spot.POSITION_X );
+			sy[ i ] = valueOf( source, Spot.POSITION_Y );
+			sz[ i ] = valueOf( source, Spot.POSITION_Z );
+			st[ i ] = valueOf( source, Spot.POSITION_T );
+			sframe[ i ] = valueOf( source, Spot.FRAME );
+
+			tx[ i ] = valueOf( target, Spot.POSITION_X );
+			ty[ i ] = valueOf( target, Spot.POSITION_Y );
+			tz[ i ] = valueOf( target, Spot.POSITION_Z );
+			tt[ i ] = valueOf( target, Spot.POSITION_T );
+			tframe[ i ] = valueOf( target, Spot.FRAME );
+
+			// Some edges maybe improperly oriented.
+			forward[ i ] = !( sframe[ i ] - tframe[ i ] > 0. );
+		}
+		return this;
+	}
+
+	/**
+	 * Resolves, for each edge of the buffer, the predecessor of its earliest
+	 * spot. An edge has a predecessor if its earliest spot is linked to exactly
+	 * one spot in a previous frame. This is done at most once per chunk, and
+	 * only when an analyzer requires it.
+	 */
+	public void resolvePredecessors()
+	{
+		if ( predecessorsResolved )
+			return;
+
+		for ( int i = 0; i < size; i++ )
+		{
+			final Spot source = forward[ i ] ? sources[ i ] : targets[ i ];
+			final double frame = forward[ i ] ? sframe[ i ] : tframe[ i ];
+			final Set< DefaultWeightedEdge > sourceEdges = trackModel.edgesOf( source );
+			int nPredecessors = 0;
+			Spot predecessor = null;
+			for ( final DefaultWeightedEdge sourceEdge : sourceEdges )
+			{
+				Spot other = trackModel.getEdgeTarget( sourceEdge );
+				if ( other.equals( source ) )
+					other = trackModel.getEdgeSource( sourceEdge );
+
+				if ( valueOf( other, Spot.FRAME ) - frame < 0. )
+				{
+					nPredecessors++;
+					predecessor = other;
+				}
+			}
+
+			hasPredecessor[ i ] = ( nPredecessors == 1 );
+			if ( hasPredecessor[ i ] )
+			{
+				px[ i ] = valueOf( predecessor, Spot.POSITION_X );
+				py[ i ] = valueOf( predecessor, Spot.POSITION_Y );
+				pz[ i ] = valueOf( predecessor, Spot.POSITION_Z );
+			}
+			else
+			{
+				px[ i ] = Double.NaN;
+				py[ i ] = Double.NaN;
+				pz[ i ] = Double.NaN;
+			}
+		}
+		predecessorsResolved = true;
+	}
+
+	/**
+	 * Returns the storage column for the specified feature in the current
+	 * chunk. The column is filled with {@link Double#NaN} when it is first
+	 * requested for a chunk, and will be written to the feature model when
+	 * the buffer is flushed.
+	 *
+	 * @param feature
+	 *            the feature to store.
+	 * @return the column, with at least {@link #size()} elements.
+	 */
+	public double[] column( final String feature )
+	{
+		for ( int c = 0; c < nActiveColumns; c++ )
+			if ( columnFeatures.get( c ).equals( feature ) )
+				return columns.get( c );
+
+		// Reuse an array from a previous chunk if we can.
+		final double[] column;
+		if ( nActiveColumns < columns.size() )
+		{
+			column = columns.get( nActiveColumns );
+			columnFeatures.set( nActiveColumns, feature );
+		}
+		else
+		{
+			column = new double[ edges.length ];
+			columns.add( column );
+			columnFeatures.add( feature );
+		}
+		Arrays.fill( column, 0, size, Double.NaN );
+		nActiveColumns++;
+		return column;
+	}
+
+	/**
+	 * Writes all the feature columns of the current chunk into the specified
+	 * feature model.
+	 *
+	 * @param fm
+	 *            the feature model to write to.
+	 */
+	public void flush( final FeatureModel fm )
+	{
+		if ( nActiveColumns == 0 )
+			return;
+		fm.putEdgeFeatures( edges, size, columnFeatures.subList( 0, nActiveColumns ), columns.subList( 0, nActiveColumns ) );
+		nActiveColumns = 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public DefaultWeightedEdge[] edges()
+	{
+		return edges;
+	}
+
+	/**
+	 * Returns the source spots of the edges, as they are in the graph.
+	 *
+	 * @return the source spot array.
+	 */
+	public Spot[] sources()
+	{
+		return sources;
+	}
+
+	/**
+	 * Returns the target spots of the edges, as they are in the graph.
+	 *
+	 * @return the target spot array.
+	 */
+	public Spot[] targets()
+	{
+		return targets;
+	}
+
+	public double[] weights()
+	{
+		return weights;
+	}
+
+	public double[] sourceX()
+	{
+		return sx;
+	}
+
+	public double[] sourceY()
+	{
+		return sy;
+	}
+
+	public double[] sourceZ()
+	{
+		return sz;
+	}
+
+	public double[] sourceT()
+	{
+		return st;
+	}
+
+	public double[] sourceFrame()
+	{
+		return sframe;
+	}
+
+	public double[] targetX()
+	{
+		return tx;
+	}
+
+	public double[] targetY()
+	{
+		return ty;
+	}
+
+	public double[] targetZ()
+	{
+		return tz;
+	}
+
+	public double[] targetT()
+	{
+		return tt;
+	}
+
+	public double[] targetFrame()
+	{
+		return tframe;
+	}
+
+	/**
+	 * Returns whether each edge goes forward in time, that is whether its
+	 * source frame is not after its target frame.
+	 *
+	 * @return the orientation array.
+	 */
+	public boolean[] forward()
+	{
+		return forward;
+	}
+
+	/**
+	 * Returns whether the earliest spot of each edge has exactly one
+	 * predecessor. Only valid after {@link #resolvePredecessors()} has been
+	 * called.
+	 *
+	 * @return the predecessor flag array.
+	 */
+	public boolean[] hasPredecessor()
+	{
+		return hasPredecessor;
+	}
+
+	/**
+	 * Returns the X position of the predecessor of the earliest spot of each
+	 * edge, or {@link Double#NaN} if there is not a single one. Only valid
+	 * after {@link #resolvePredecessors()} has been called.
+	 *
+	 * @return the predecessor X array.
+	 */
+	public double[] predecessorX()
+	{
+		return px;
+	}
+
+	public double[] predecessorY()
+	{
+		return py;
+	}
+
+	public double[] predecessorZ()
+	{
+		return pz;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static final double valueOf( final Spot spot, final String feature )
+	{
+		final Double val = spot.getFeature( feature );
+		return ( null == val ) ? Double.NaN : val.doubleValue();
+	}
+
+	private void ensureCapacity( final int capacity )
+	{
+		if ( null != edges && edges.length >= capacity )
+			return;
+
+		final int c = Math.max( 1, capacity );
+		edges = new DefaultWeightedEdge[ c ];
+		sources = new Spot[ c ];
+		targets = new Spot[ c ];
+		weights = new double[ c ];
+		sx = new double[ c ];
+		sy = new double[ c ];
+		sz = new double[ c ];
+		st = new double[ c ];
+		sframe = new double[ c ];
+		tx = new double[ c ];
+		ty = new double[ c ];
+		tz = new double[ c ];
+		tt = new double[ c ];
+		tframe = new double[ c ];
+		forward = new boolean[ c ];
+		px = new double[ c ];
+		py = new double[ c ];
+		pz = new double[ c ];
+		hasPredecessor = new boolean[ c ];
+		columns.clear();
+		columnFeatures.clear();
+	}
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.edges;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * Computes the features of several {@link BufferedEdgeAnalyzer}s in a single
+ * pass over the edges.
+ * <p>
+ * The edges are split in chunks of equal size, that are handed out to a fixed
+ * number of workers. Each worker owns an {@link EdgeBuffer} that it reuses
+ * across chunks: a chunk is read once from the model into the buffer, all the
+ * analyzers are run on it in the order they are given, and the resulting
+ * feature columns are written in bulk to the feature model.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class EdgeBufferPipeline
+{
+
+	/**
+	 * Smallest number of edges in a chunk.
+	 */
+	private static final int MIN_CHUNK_SIZE = 256;
+
+	/**
+	 * Largest number of edges in a chunk. Bounds the memory used by the
+	 * buffers.
+	 */
+	private static final int MAX_CHUNK_SIZE = 16384;
+
+	/**
+	 * How many chunks we aim for, per thread, for load balancing.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	private EdgeBufferPipeline()
+	{}
+
+	/**
+	 * Computes the features of the specified analyzers for the specified
+	 * edges.
+	 *
+	 * @param edges
+	 *            the edges to analyze.
+	 * @param model
+	 *            the model containing the edges.
+	 * @param analyzers
+	 *            the analyzers to run, in order.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 */
+	public static void process( final Collection< DefaultWeightedEdge > edges, final Model model, final List< ? extends BufferedEdgeAnalyzer > analyzers, final int numThreads )
+	{
+		if ( edges.isEmpty() || analyzers.isEmpty() )
+			return;
+
+		final DefaultWeightedEdge[] edgeArray = edges.toArray( new DefaultWeightedEdge[ edges.size() ] );
+		final int nEdges = edgeArray.length;
+		final int nThreads = Math.max( 1, numThreads );
+		final int chunkSize = Math.min( MAX_CHUNK_SIZE, Math.max( MIN_CHUNK_SIZE, ( nEdges + nThreads * CHUNKS_PER_THREAD - 1 ) / ( nThreads * CHUNKS_PER_THREAD ) ) );
+		final int nChunks = ( nEdges + chunkSize - 1 ) / chunkSize;
+		final int nWorkers = Math.min( nThreads, nChunks );
+		final FeatureModel fm = model.getFeatureModel();
+
+		if ( nWorkers == 1 )
+		{
+			final EdgeBuffer buffer = new EdgeBuffer( model.getTrackModel(), Math.min( chunkSize, nEdges ) );
+			for ( int chunk = 0; chunk < nChunks; chunk++ )
+				analyze( edgeArray, chunk, chunkSize, buffer, analyzers, fm );
+			return;
+		}
+
+		final AtomicInteger nextChunk = new AtomicInteger( 0 );
+		final List< Callable< Void > > tasks = new ArrayList<>( nWorkers );
+		for ( int i = 0; i < nWorkers; i++ )
+		{
+			tasks.add( () -> {
+				final EdgeBuffer buffer = new EdgeBuffer( model.getTrackModel(), chunkSize );
+				int chunk;
+				while ( ( chunk = nextChunk.getAndIncrement() ) < nChunks )
+					analyze( edgeArray, chunk, chunkSize, buffer, analyzers, fm );
+				return null;
+			} );
+		}
+
+		final ExecutorService executorService = Threads.newFixedThreadPool( nWorkers );
+		try
+		{
+			final List< Future< Void > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+		executorService.shutdown();
+	}
+
+	private static void analyze(
+			final DefaultWeightedEdge[] edgeArray,
+			final int chunk,
+			final int chunkSize,
+			final EdgeBuffer buffer,
+			final List< ? extends BufferedEdgeAnalyzer > analyzers,
+			final FeatureModel fm )
+	{
+		final int from = chunk * chunkSize;
+		final int to = Math.min( edgeArray.length, from + chunkSize );
+		try
+		{
+			buffer.load( edgeArray, from, to );
+			for ( final BufferedEdgeAnalyzer analyzer : analyzers )
+				analyzer.analyze( buffer );
+			buffer.flush( fm );
+		}
+		catch ( final RuntimeException e )
+		{
+			// Do not let one faulty chunk prevent the others to be analyzed.
+			e.printStackTrace();
+		}
+	}
+}
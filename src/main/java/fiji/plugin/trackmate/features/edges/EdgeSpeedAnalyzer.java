@@ -26,16 +26,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeSpeedAnalyzer extends AbstractEdgeAnalyzer
+public class EdgeSpeedAnalyzer extends AbstractBufferedEdgeAnalyzer
 {
 
 	public static final String KEY = "Edge speed";
@@ -72,20 +68,29 @@ public class EdgeSpeedAnalyzer extends AbstractEdgeAnalyzer
 	}
 
 	@Override
-	protected void analyze( final DefaultWeightedEdge edge, final Model model )
+	public void analyze( final EdgeBuffer buffer )
 	{
-		final FeatureModel featureModel = model.getFeatureModel();
-		final Spot source = model.getTrackModel().getEdgeSource( edge );
-		final Spot target = model.getTrackModel().getEdgeTarget( edge );
+		final int n = buffer.size();
+		final double[] sx = buffer.sourceX();
+		final double[] sy = buffer.sourceY();
+		final double[] sz = buffer.sourceZ();
+		final double[] st = buffer.sourceT();
+		final double[] tx = buffer.targetX();
+		final double[] ty = buffer.targetY();
+		final double[] tz = buffer.targetZ();
+		final double[] tt = buffer.targetT();
+		final double[] speeds = buffer.column( SPEED );
+		final double[] displacements = buffer.column( DISPLACEMENT );
 
-		final double dx = target.diffTo( source, Spot.POSITION_X );
-		final double dy = target.diffTo( source, Spot.POSITION_Y );
-		final double dz = target.diffTo( source, Spot.POSITION_Z );
-		final double dt = target.diffTo( source, Spot.POSITION_T );
-		final double D = Math.sqrt( dx * dx + dy * dy + dz * dz );
-		final double S = D / Math.abs( dt );
-
-		featureModel.putEdgeFeature( edge, SPEED, S );
-		featureModel.putEdgeFeature( edge, DISPLACEMENT, D );
+		for ( int i = 0; i < n; i++ )
+		{
+			final double dx = tx[ i ] - sx[ i ];
+			final double dy = ty[ i ] - sy[ i ];
+			final double dz = tz[ i ] - sz[ i ];
+			final double dt = tt[ i ] - st[ i ];
+			final double D = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			speeds[ i ] = D / Math.abs( dt );
+			displacements[ i ] = D;
+		}
 	}
 }
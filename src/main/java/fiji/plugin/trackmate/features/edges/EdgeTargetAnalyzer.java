@@ -26,16 +26,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTargetAnalyzer extends AbstractEdgeAnalyzer
+public class EdgeTargetAnalyzer extends AbstractBufferedEdgeAnalyzer
 {
 
 	public static final String KEY = "Edge target";
@@ -78,15 +75,23 @@ public class EdgeTargetAnalyzer extends AbstractEdgeAnalyzer
 	}
 
 	@Override
-	protected void analyze( final DefaultWeightedEdge edge, final Model model )
+	public void analyze( final EdgeBuffer buffer )
 	{
-		final FeatureModel featureModel = model.getFeatureModel();
-		// Edge weight
-		featureModel.putEdgeFeature( edge, EDGE_COST, model.getTrackModel().getEdgeWeight( edge ) );
-		// Source & target name & ID
-		final Spot source = model.getTrackModel().getEdgeSource( edge );
-		featureModel.putEdgeFeature( edge, SPOT_SOURCE_ID, Double.valueOf( source.ID() ) );
-		final Spot target = model.getTrackModel().getEdgeTarget( edge );
-		featureModel.putEdgeFeature( edge, SPOT_TARGET_ID, Double.valueOf( target.ID() ) );
+		final int n = buffer.size();
+		final double[] weights = buffer.weights();
+		final Spot[] sources = buffer.sources();
+		final Spot[] targets = buffer.targets();
+		final double[] costs = buffer.column( EDGE_COST );
+		final double[] sourceIDs = buffer.column( SPOT_SOURCE_ID );
+		final double[] targetIDs = buffer.column( SPOT_TARGET_ID );
+
+		for ( int i = 0; i < n; i++ )
+		{
+			// Edge weight
+			costs[ i ] = weights[ i ];
+			// Source & target ID
+			sourceIDs[ i ] = sources[ i ].ID();
+			targetIDs[ i ] = targets[ i ].ID();
+		}
 	}
 }
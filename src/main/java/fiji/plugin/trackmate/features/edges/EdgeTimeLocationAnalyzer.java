@@ -26,16 +26,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTimeLocationAnalyzer extends AbstractEdgeAnalyzer
+public class EdgeTimeLocationAnalyzer extends AbstractBufferedEdgeAnalyzer
 {
 
 	public static final String KEY = "Edge location";
@@ -84,20 +80,28 @@ public class EdgeTimeLocationAnalyzer extends AbstractEdgeAnalyzer
 	}
 
 	@Override
-	protected void analyze( final DefaultWeightedEdge edge, final Model model )
+	public void analyze( final EdgeBuffer buffer )
 	{
-		final FeatureModel featureModel = model.getFeatureModel();
-		final Spot source = model.getTrackModel().getEdgeSource( edge );
-		final Spot target = model.getTrackModel().getEdgeTarget( edge );
+		final int n = buffer.size();
+		final double[] sx = buffer.sourceX();
+		final double[] sy = buffer.sourceY();
+		final double[] sz = buffer.sourceZ();
+		final double[] st = buffer.sourceT();
+		final double[] tx = buffer.targetX();
+		final double[] ty = buffer.targetY();
+		final double[] tz = buffer.targetZ();
+		final double[] tt = buffer.targetT();
+		final double[] times = buffer.column( TIME );
+		final double[] xs = buffer.column( X_LOCATION );
+		final double[] ys = buffer.column( Y_LOCATION );
+		final double[] zs = buffer.column( Z_LOCATION );
 
-		final double x = 0.5 * ( source.getFeature( Spot.POSITION_X ) + target.getFeature( Spot.POSITION_X ) );
-		final double y = 0.5 * ( source.getFeature( Spot.POSITION_Y ) + target.getFeature( Spot.POSITION_Y ) );
-		final double z = 0.5 * ( source.getFeature( Spot.POSITION_Z ) + target.getFeature( Spot.POSITION_Z ) );
-		final double t = 0.5 * ( source.getFeature( Spot.POSITION_T ) + target.getFeature( Spot.POSITION_T ) );
-
-		featureModel.putEdgeFeature( edge, TIME, t );
-		featureModel.putEdgeFeature( edge, X_LOCATION, x );
-		featureModel.putEdgeFeature( edge, Y_LOCATION, y );
-		featureModel.putEdgeFeature( edge, Z_LOCATION, z );
+		for ( int i = 0; i < n; i++ )
+		{
+			times[ i ] = 0.5 * ( st[ i ] + tt[ i ] );
+			xs[ i ] = 0.5 * ( sx[ i ] + tx[ i ] );
+			ys[ i ] = 0.5 * ( sy[ i ] + ty[ i ] );
+			zs[ i ] = 0.5 * ( sz[ i ] + tz[ i ] );
+		}
 	}
 }
@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Base class for the analyzers that compute features from the spot
+ * {@link fiji.plugin.trackmate.SpotRoi} shape.
+ * <p>
+ * Spots are processed in chunks by a fixed number of workers, and each worker
+ * owns a {@link SpotMorphologyKernel} that it reuses for all its spots.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public abstract class AbstractSpotMorphologyAnalyzer< T extends RealType< T > > extends AbstractSpotFeatureAnalyzer< T >
+{
+
+	private static final int CHUNK_SIZE = 256;
+
+	protected final boolean is2D;
+
+	private long processingTime;
+
+	public AbstractSpotMorphologyAnalyzer( final boolean is2D )
+	{
+		this.is2D = is2D;
+	}
+
+	/**
+	 * Stores the features of the specified spot. If the image is 2D and the
+	 * spot has a ROI, the kernel has already been computed on this ROI.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @param kernel
+	 *            the kernel of the calling thread.
+	 */
+	protected abstract void putFeatures( Spot spot, SpotMorphologyKernel kernel );
+
+	/**
+	 * Computes the features of the specified spot, using the specified kernel
+	 * for the polygon computations.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @param kernel
+	 *            the kernel of the calling thread.
+	 */
+	protected void process( final Spot spot, final SpotMorphologyKernel kernel )
+	{
+		final SpotRoi roi = spot.getRoi();
+		if ( is2D && roi != null )
+			kernel.compute( roi );
+		putFeatures( spot, kernel );
+	}
+
+	@Override
+	public void process( final Spot spot )
+	{
+		process( spot, new SpotMorphologyKernel() );
+	}
+
+	@Override
+	public void process( final Iterable< Spot > spots )
+	{
+		final long start = System.currentTimeMillis();
+		final List< Spot > list = new ArrayList<>();
+		for ( final Spot spot : spots )
+			list.add( spot );
+
+		final int nspots = list.size();
+		final int nTasks = Math.max( 1, Math.min( getNumThreads(), ( nspots + CHUNK_SIZE - 1 ) / CHUNK_SIZE ) );
+		final AtomicInteger next = new AtomicInteger( 0 );
+		final List< Callable< Void > > tasks = new ArrayList<>( nTasks );
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			tasks.add( () -> {
+				final SpotMorphologyKernel kernel = new SpotMorphologyKernel();
+				int from;
+				while ( ( from = next.getAndAdd( CHUNK_SIZE ) ) < nspots )
+				{
+					final int to = Math.min( nspots, from + CHUNK_SIZE );
+					for ( int i = from; i < to; i++ )
+					{
+						try
+						{
+							process( list.get( i ), kernel );
+						}
+						catch ( final Exception e )
+						{
+							e.printStackTrace();
+						}
+					}
+				}
+				return null;
+			} );
+		}
+
+		final ExecutorService executorService = Threads.newFixedThreadPool( nTasks );
+		try
+		{
+			final List< Future< Void > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+
+		executorService.shutdown();
+		processingTime = System.currentTimeMillis() - start;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+}
@@ -21,118 +21,219 @@
  */
 package fiji.plugin.trackmate.features.spot;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 import fiji.plugin.trackmate.SpotRoi;
 
 /**
- * Adapted from a code by Kirill Artemov,
- * https://github.com/DoctorGester/cia-stats.
+ * Convex hull of polygons, with Andrew's monotone chain algorithm.
+ * <p>
+ * The hull is computed on primitive arrays, so that callers that process
+ * many polygons can reuse their buffers. Adapted from a code by Kirill
+ * Artemov, https://github.com/DoctorGester/cia-stats.
  */
 public final class ConvexHull
 {
 
-	private static List< Point > makeHull( final List< Point > points )
+	private ConvexHull()
+	{}
+
+	/**
+	 * Computes the convex hull of the first <code>n</code> points of the
+	 * specified coordinate arrays, and stores it in the hull arrays. Input
+	 * arrays are not modified.
+	 *
+	 * @param x
+	 *            the X coordinates of the points.
+	 * @param y
+	 *            the Y coordinates of the points.
+	 * @param n
+	 *            the number of points.
+	 * @param sx
+	 *            scratch array of size at least <code>n</code>, used to sort
+	 *            the X coordinates.
+	 * @param sy
+	 *            scratch array of size at least <code>n</code>, used to sort
+	 *            the Y coordinates.
+	 * @param hx
+	 *            the array in which to store the X coordinates of the hull. Must
+	 *            be of size at least <code>n + 1</code>.
+	 * @param hy
+	 *            the array in which to store the Y coordinates of the hull. Must
+	 *            be of size at least <code>n + 1</code>.
+	 * @return the number of points in the hull.
+	 */
+	public static int convexHull( final double[] x, final double[] y, final int n, final double[] sx, final double[] sy, final double[] hx, final double[] hy )
 	{
-		final List< Point > newPoints = new ArrayList<>( points );
-		Collections.sort( newPoints );
-		return makeHullPresorted( newPoints );
-	}
+		System.arraycopy( x, 0, sx, 0, n );
+		System.arraycopy( y, 0, sy, 0, n );
+		// The hull arrays are free until the sort is done.
+		sort( sx, sy, n, hx, hy );
 
-	private static List< Point > makeHullPresorted( final List< Point > points )
-	{
-		if ( points.size() <= 1 )
-			return new ArrayList<>( points );
+		if ( n <= 1 )
+		{
+			System.arraycopy( sx, 0, hx, 0, n );
+			System.arraycopy( sy, 0, hy, 0, n );
+			return n;
+		}
 
-		final List< Point > upperHull = new ArrayList<>();
-		for ( final Point p : points )
+		// Upper chain.
+		int k = 0;
+		for ( int i = 0; i < n; i++ )
 		{
-			while ( upperHull.size() >= 2 )
-			{
-				final Point q = upperHull.get( upperHull.size() - 1 );
-				final Point r = upperHull.get( upperHull.size() - 2 );
-				if ( ( q.x - r.x ) * ( p.y - r.y ) >= ( q.y - r.y ) * ( p.x - r.x ) )
-					upperHull.remove( upperHull.size() - 1 );
-				else
-					break;
-			}
-			upperHull.add( p );
+			while ( k >= 2 && cross( hx, hy, k, sx[ i ], sy[ i ] ) >= 0 )
+				k--;
+			hx[ k ] = sx[ i ];
+			hy[ k ] = sy[ i ];
+			k++;
 		}
-		upperHull.remove( upperHull.size() - 1 );
 
-		final List< Point > lowerHull = new ArrayList<>();
-		for ( int i = points.size() - 1; i >= 0; i-- )
+		// Lower chain.
+		final int t = k + 1;
+		for ( int i = n - 2; i >= 0; i-- )
 		{
-			final Point p = points.get( i );
-			while ( lowerHull.size() >= 2 )
-			{
-				final Point q = lowerHull.get( lowerHull.size() - 1 );
-				final Point r = lowerHull.get( lowerHull.size() - 2 );
-				if ( ( q.x - r.x ) * ( p.y - r.y ) >= ( q.y - r.y ) * ( p.x - r.x ) )
-					lowerHull.remove( lowerHull.size() - 1 );
-				else
-					break;
-			}
-			lowerHull.add( p );
+			while ( k >= t && cross( hx, hy, k, sx[ i ], sy[ i ] ) >= 0 )
+				k--;
+			hx[ k ] = sx[ i ];
+			hy[ k ] = sy[ i ];
+			k++;
 		}
-		lowerHull.remove( lowerHull.size() - 1 );
 
-		if ( !( upperHull.size() == 1 && upperHull.equals( lowerHull ) ) )
-			upperHull.addAll( lowerHull );
-		return upperHull;
+		// Last point is the first one.
+		k--;
+		// All points identical.
+		if ( k == 2 && hx[ 0 ] == hx[ 1 ] && hy[ 0 ] == hy[ 1 ] )
+			k = 1;
+		return k;
 	}
 
-	private static final class Point implements Comparable< Point >
+	public static SpotRoi convexHull( final SpotRoi roi )
 	{
+		final int n = roi.x.length;
+		final double[] sx = new double[ n ];
+		final double[] sy = new double[ n ];
+		final double[] hx = new double[ n + 1 ];
+		final double[] hy = new double[ n + 1 ];
+		final int nh = convexHull( roi.x, roi.y, n, sx, sy, hx, hy );
+		final double[] xhull = new double[ nh ];
+		final double[] yhull = new double[ nh ];
+		System.arraycopy( hx, 0, xhull, 0, nh );
+		System.arraycopy( hy, 0, yhull, 0, nh );
+		return new SpotRoi( xhull, yhull );
+	}
 
-		public final double x;
+	/**
+	 * Cross product of the last two points of the hull with the candidate
+	 * point.
+	 */
+	private static double cross( final double[] hx, final double[] hy, final int k, final double px, final double py )
+	{
+		final double rx = hx[ k - 2 ];
+		final double ry = hy[ k - 2 ];
+		return ( hx[ k - 1 ] - rx ) * ( py - ry ) - ( hy[ k - 1 ] - ry ) * ( px - rx );
+	}
 
-		public final double y;
+	/**
+	 * Sorts points by X then Y, in place, with a natural merge sort. Polygon
+	 * vertices are made of a few monotone runs, so this is close to linear for
+	 * spot contours.
+	 */
+	private static void sort( final double[] x, final double[] y, final int n, final double[] tx, final double[] ty )
+	{
+		while ( true )
+		{
+			int start = 0;
+			int nRuns = 0;
+			while ( start < n )
+			{
+				final int mid = run( x, y, start, n );
+				nRuns++;
+				if ( mid == n )
+					break;
+				final int end = run( x, y, mid, n );
+				merge( x, y, start, mid, end, tx, ty );
+				start = end;
+			}
+			if ( nRuns <= 1 )
+				return;
+		}
+	}
 
-		public Point( final double x, final double y )
+	/**
+	 * Returns the end of the ascending run starting at the specified index.
+	 * Descending runs are reversed.
+	 */
+	private static int run( final double[] x, final double[] y, final int start, final int n )
+	{
+		int end = start + 1;
+		if ( end >= n )
+			return n;
+		if ( compare( x, y, end, start ) < 0 )
 		{
-			this.x = x;
-			this.y = y;
+			while ( end < n && compare( x, y, end, end - 1 ) < 0 )
+				end++;
+			for ( int i = start, j = end - 1; i < j; i++, j-- )
+				swap( x, y, i, j );
 		}
+		else
+		{
+			while ( end < n && compare( x, y, end, end - 1 ) >= 0 )
+				end++;
+		}
+		return end;
+	}
 
-		@Override
-		public boolean equals( final Object obj )
+	private static void merge( final double[] x, final double[] y, final int start, final int mid, final int end, final double[] tx, final double[] ty )
+	{
+		// Already in order.
+		if ( compare( x, y, mid - 1, mid ) <= 0 )
+			return;
+
+		int i = start;
+		int j = mid;
+		int k = start;
+		while ( i < mid && j < end )
 		{
-			if ( !( obj instanceof Point ) )
-				return false;
+			if ( compare( x, y, j, i ) < 0 )
+			{
+				tx[ k ] = x[ j ];
+				ty[ k ] = y[ j ];
+				j++;
+			}
 			else
 			{
-				final Point other = ( Point ) obj;
-				return x == other.x && y == other.y;
+				tx[ k ] = x[ i ];
+				ty[ k ] = y[ i ];
+				i++;
 			}
+			k++;
 		}
+		// Remaining of the second run is already in place.
+		final int rem = mid - i;
+		System.arraycopy( x, i, tx, k, rem );
+		System.arraycopy( y, i, ty, k, rem );
+		k += rem;
+		System.arraycopy( tx, start, x, start, k - start );
+		System.arraycopy( ty, start, y, start, k - start );
+	}
 
-		@Override
-		public int compareTo( final Point other )
-		{
-			if ( x != other.x )
-				return Double.compare( x, other.x );
-			else
-				return Double.compare( y, other.y );
-		}
+	private static int compare( final double[] x, final double[] y, final int i, final int j )
+	{
+		return compare( x[ i ], y[ i ], x[ j ], y[ j ] );
 	}
 
-	public static SpotRoi convexHull( final SpotRoi roi )
+	private static int compare( final double x1, final double y1, final double x2, final double y2 )
 	{
-		final List< Point > points = new ArrayList<>( roi.x.length );
-		for ( int i = 0; i < roi.x.length; i++ )
-			points.add( new Point( roi.x[ i ], roi.y[ i ] ) );
-
-		final List< Point > hull = makeHull( points );
-		final double[] xhull = new double[ hull.size() ];
-		final double[] yhull = new double[ hull.size() ];
-		for ( int i = 0; i < yhull.length; i++ )
-		{
-			xhull[ i ] = hull.get( i ).x;
-			yhull[ i ] = hull.get( i ).y;
-		}
-		return new SpotRoi( xhull, yhull );
+		if ( x1 != x2 )
+			return Double.compare( x1, x2 );
+		return Double.compare( y1, y2 );
+	}
+
+	private static void swap( final double[] x, final double[] y, final int i, final int j )
+	{
+		final double tx = x[ i ];
+		x[ i ] = x[ j ];
+		x[ j ] = tx;
+		final double ty = y[ i ];
+		y[ i ] = y[ j ];
+		y[ j ] = ty;
 	}
 }
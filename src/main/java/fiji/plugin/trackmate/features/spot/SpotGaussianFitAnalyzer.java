@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.Workspace;
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Refines the position of spots in one frame with a Gaussian fit, and stores
+ * the fit amplitude and quality as features.
+ * <p>
+ * The spot positions are changed in place, without firing model events, and
+ * the features that depend on them are not recomputed. This analyzer is meant
+ * to be a stage of the detection pipeline, run when spot features are first
+ * computed. It must not be used once tracks exist: edge and track features
+ * such as velocities and displacements would then be stale.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SpotGaussianFitAnalyzer< T extends RealType< T > > implements SpotAnalyzer< T >, MultiThreaded, Benchmark
+{
+
+	private static final int CHUNK_SIZE = 64;
+
+	private final RandomAccessibleInterval< T > img;
+
+	private final GaussianFitEngine engine;
+
+	private int numThreads;
+
+	private long processingTime;
+
+	public SpotGaussianFitAnalyzer( final RandomAccessibleInterval< T > img, final GaussianFitEngine engine )
+	{
+		this.img = img;
+		this.engine = engine;
+		setNumThreads();
+	}
+
+	@Override
+	public void process( final Iterable< Spot > spots )
+	{
+		final long start = System.currentTimeMillis();
+		final List< Spot > list = new ArrayList<>();
+		for ( final Spot spot : spots )
+			list.add( spot );
+
+		final int nspots = list.size();
+		final int nTasks = Math.max( 1, Math.min( numThreads, ( nspots + CHUNK_SIZE - 1 ) / CHUNK_SIZE ) );
+		final AtomicInteger next = new AtomicInteger( 0 );
+		final Callable< Void > worker = () -> {
+			final Workspace ws = engine.createWorkspace();
+			int from;
+			while ( ( from = next.getAndAdd( CHUNK_SIZE ) ) < nspots )
+			{
+				final int to = Math.min( nspots, from + CHUNK_SIZE );
+				for ( int i = from; i < to; i++ )
+					process( list.get( i ), ws );
+			}
+			return null;
+		};
+
+		/*
+		 * The calling thread is always one of the workers. The spot feature
+		 * calculator already processes frames in parallel and gives us 1
+		 * thread per frame, unless there are fewer frames than threads. So
+		 * extra threads are only created in the latter case, and the total
+		 * stays within the budget of the calculator.
+		 */
+		if ( nTasks == 1 )
+		{
+			runWorker( worker );
+		}
+		else
+		{
+			final ExecutorService executorService = Threads.newFixedThreadPool( nTasks - 1 );
+			try
+			{
+				final List< Future< Void > > futures = new ArrayList<>( nTasks - 1 );
+				for ( int t = 1; t < nTasks; t++ )
+					futures.add( executorService.submit( worker ) );
+				runWorker( worker );
+				for ( final Future< Void > future : futures )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				e.printStackTrace();
+			}
+			finally
+			{
+				executorService.shutdown();
+			}
+		}
+		processingTime = System.currentTimeMillis() - start;
+	}
+
+	private static void runWorker( final Callable< Void > worker )
+	{
+		try
+		{
+			worker.call();
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void process( final Spot spot, final Workspace ws )
+	{
+		if ( engine.fit( spot, img, ws ) )
+		{
+			spot.putFeature( SpotGaussianFitAnalyzerFactory.FIT_AMPLITUDE, ws.getAmplitude() );
+			spot.putFeature( SpotGaussianFitAnalyzerFactory.FIT_R2, ws.getRSquared() );
+		}
+		else
+		{
+			spot.putFeature( SpotGaussianFitAnalyzerFactory.FIT_AMPLITUDE, Double.NaN );
+			spot.putFeature( SpotGaussianFitAnalyzerFactory.FIT_R2, Double.NaN );
+		}
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		setNumThreads( Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ) );
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+}
@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.FitModel;
+import fiji.plugin.trackmate.detection.DetectionUtils;
+import fiji.plugin.trackmate.util.TMUtils;
+import net.imagej.ImgPlus;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A spot analyzer that refines the position of spots by fitting a Gaussian
+ * with a fixed radius on the first channel of the image.
+ * <p>
+ * Because it moves spots, this analyzer is not added by
+ * {@link fiji.plugin.trackmate.Settings#addAllAnalyzers()}. It has to be added
+ * explicitly to the settings, preferably as the first spot analyzer so that
+ * the other ones use the refined positions:
+ *
+ * <pre>
+ * settings.addSpotAnalyzerFactory( 0, new SpotGaussianFitAnalyzerFactory&lt;&gt;() );
+ * </pre>
+ *
+ * The radius of spots is kept fixed so that computing features several times
+ * on the same spots gives the same result.
+ *
+ * @author Jean-Yves Tinevez
+ */
+@Plugin( type = SpotAnalyzerFactory.class, priority = Priority.VERY_HIGH, visible = false )
+public class SpotGaussianFitAnalyzerFactory< T extends RealType< T > & NativeType< T > > implements SpotAnalyzerFactory< T >
+{
+
+	public static final String KEY = "Spot Gaussian fit";
+
+	public static final String FIT_AMPLITUDE = "GAUSSIAN_FIT_AMPLITUDE";
+
+	public static final String FIT_R2 = "GAUSSIAN_FIT_R2";
+
+	private static final List< String > FEATURES = Arrays.asList( new String[] { FIT_AMPLITUDE, FIT_R2 } );
+
+	private static final Map< String, String > FEATURE_NAMES = new LinkedHashMap<>( 2 );
+
+	private static final Map< String, String > FEATURE_SHORT_NAMES = new LinkedHashMap<>( 2 );
+
+	private static final Map< String, Dimension > FEATURE_DIMENSIONS = new LinkedHashMap<>( 2 );
+
+	private static final Map< String, Boolean > IS_INT = new LinkedHashMap<>( 2 );
+
+	static
+	{
+		FEATURE_NAMES.put( FIT_AMPLITUDE, "Gaussian fit amplitude" );
+		FEATURE_NAMES.put( FIT_R2, "Gaussian fit R²" );
+		FEATURE_SHORT_NAMES.put( FIT_AMPLITUDE, "Fit amp." );
+		FEATURE_SHORT_NAMES.put( FIT_R2, "Fit R²" );
+		FEATURE_DIMENSIONS.put( FIT_AMPLITUDE, Dimension.INTENSITY );
+		FEATURE_DIMENSIONS.put( FIT_R2, Dimension.NONE );
+		IS_INT.put( FIT_AMPLITUDE, Boolean.FALSE );
+		IS_INT.put( FIT_R2, Boolean.FALSE );
+	}
+
+	private static final String INFO_TEXT = "<html>"
+			+ "Refines the position of spots with a Gaussian fit on the first "
+			+ "channel. The spot radius is left unchanged. "
+			+ "<p>"
+			+ "Spots are moved without updating the model, so this analyzer "
+			+ "must only be used before tracking. Edge and track features "
+			+ "computed on moved spots would be stale."
+			+ "</html>";
+
+	@Override
+	public SpotAnalyzer< T > getAnalyzer( final ImgPlus< T > img, final int frame, final int channel )
+	{
+		// Only fit once per frame.
+		if ( channel != 0 )
+			return SpotAnalyzer.dummyAnalyzer();
+
+		final ImgPlus< T > imgTC = TMUtils.hyperSlice( img, channel, frame );
+		final FitModel model = FitModel.get( DetectionUtils.is2D( img ), false );
+		final GaussianFitEngine engine = new GaussianFitEngine( model, TMUtils.getSpatialCalibration( img ) );
+		return new SpotGaussianFitAnalyzer<>( imgTC, engine );
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		return FEATURES;
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		return FEATURE_SHORT_NAMES;
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		return FEATURE_NAMES;
+	}
+
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		return FEATURE_DIMENSIONS;
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		return IS_INT;
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return INFO_TEXT;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getName()
+	{
+		return KEY;
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.Spot;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Runs several morphology analyzers in a single pass: the
+ * {@link SpotMorphologyKernel} is computed once per spot, and each analyzer
+ * stores its features from this shared result.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SpotMorphologyAnalyzer< T extends RealType< T > > extends AbstractSpotMorphologyAnalyzer< T >
+{
+
+	private final List< AbstractSpotMorphologyAnalyzer< ? > > analyzers;
+
+	public SpotMorphologyAnalyzer( final boolean is2D, final List< AbstractSpotMorphologyAnalyzer< ? > > analyzers )
+	{
+		super( is2D );
+		this.analyzers = analyzers;
+	}
+
+	@Override
+	protected void putFeatures( final Spot spot, final SpotMorphologyKernel kernel )
+	{
+		for ( final AbstractSpotMorphologyAnalyzer< ? > analyzer : analyzers )
+			analyzer.putFeatures( spot, kernel );
+	}
+
+	/**
+	 * Fuses the morphology analyzers of the specified list, so that the spot
+	 * contours are walked only once. If there are at least 2 of them, the
+	 * first one is replaced by a {@link SpotMorphologyAnalyzer} running all of
+	 * them, and the others by dummy analyzers. The list size and the order of
+	 * the other analyzers are unchanged.
+	 *
+	 * @param analyzers
+	 *            the analyzers to run on the spots of a frame. Modified in
+	 *            place.
+	 */
+	public static void fuse( final List< SpotAnalyzer< ? > > analyzers )
+	{
+		final List< AbstractSpotMorphologyAnalyzer< ? > > morphology = new ArrayList<>();
+		int first = -1;
+		for ( int i = 0; i < analyzers.size(); i++ )
+		{
+			if ( analyzers.get( i ) instanceof AbstractSpotMorphologyAnalyzer )
+			{
+				if ( first < 0 )
+					first = i;
+				morphology.add( ( AbstractSpotMorphologyAnalyzer< ? > ) analyzers.get( i ) );
+				analyzers.set( i, SpotAnalyzer.DUMMY_ANALYZER );
+			}
+		}
+		if ( morphology.isEmpty() )
+			return;
+
+		if ( morphology.size() == 1 )
+			analyzers.set( first, morphology.get( 0 ) );
+		else
+			analyzers.set( first, new SpotMorphologyAnalyzer<>( morphology.get( 0 ).is2D, morphology ) );
+	}
+}
@@ -0,0 +1,677 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import fiji.plugin.trackmate.SpotRoi;
+
+/**
+ * Computes the shape descriptors of a {@link SpotRoi} polygon without
+ * allocating anything once it has been warmed up.
+ * <p>
+ * A single pass over the polygon vertices accumulates its area, perimeter and
+ * all the moments of the vertices up to order 4. The ellipse fit is then
+ * derived in closed form from these moments, and the convex hull is computed
+ * with a monotone chain in scratch buffers owned by the kernel. The hull and
+ * the ellipse are only computed if they are requested.
+ * <p>
+ * Instances are not thread-safe: use one kernel per thread, and reuse it for
+ * all the spots processed by this thread.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public final class SpotMorphologyKernel
+{
+
+	private static final double MACHEPS = 2.2204e-16;
+
+	private static final double[][] BINOMIAL = new double[][] {
+			{ 1 },
+			{ 1, 1 },
+			{ 1, 2, 1 },
+			{ 1, 3, 3, 1 },
+			{ 1, 4, 6, 4, 1 } };
+
+	/*
+	 * Scratch buffers.
+	 */
+
+	private double[] sx = new double[ 0 ];
+
+	private double[] sy = new double[ 0 ];
+
+	private double[] hx = new double[ 1 ];
+
+	private double[] hy = new double[ 1 ];
+
+	/**
+	 * Central moments of the vertices, <code>m[ p ][ q ] = ∑ u^p v^q</code>.
+	 */
+	private final double[][] m = new double[ 5 ][ 5 ];
+
+	/**
+	 * Raw moments of the vertices, relative to the first vertex.
+	 */
+	private final double[][] r = new double[ 5 ][ 5 ];
+
+	private final double[] powU = new double[ 5 ];
+
+	private final double[] powV = new double[ 5 ];
+
+	private final double[] s1 = new double[ 9 ];
+
+	private final double[] s2 = new double[ 9 ];
+
+	private final double[] s3inv = new double[ 9 ];
+
+	private final double[] t = new double[ 9 ];
+
+	private final double[] mm = new double[ 9 ];
+
+	private final double[] nn = new double[ 9 ];
+
+	private final double[] roots = new double[ 3 ];
+
+	private final double[] vec = new double[ 3 ];
+
+	private final double[] quad = new double[ 6 ];
+
+	/*
+	 * Current polygon.
+	 */
+
+	private double[] x;
+
+	private double[] y;
+
+	private int n;
+
+	private double area;
+
+	private double perimeter;
+
+	private double xC;
+
+	private double yC;
+
+	private double convexArea;
+
+	private boolean hullDone;
+
+	private boolean ellipseDone;
+
+	private double ex0;
+
+	private double ey0;
+
+	private double major;
+
+	private double minor;
+
+	private double theta;
+
+	/**
+	 * Sets the polygon to analyze and runs the single pass over its vertices.
+	 *
+	 * @param roi
+	 *            the polygon.
+	 */
+	public void compute( final SpotRoi roi )
+	{
+		compute( roi.x, roi.y, roi.x.length );
+	}
+
+	/**
+	 * Sets the polygon to analyze and runs the single pass over its vertices.
+	 * The coordinates arrays are not copied and must not be modified until the
+	 * results have been read.
+	 *
+	 * @param x
+	 *            the X coordinates of the polygon vertices.
+	 * @param y
+	 *            the Y coordinates of the polygon vertices.
+	 * @param n
+	 *            the number of vertices.
+	 */
+	public void compute( final double[] x, final double[] y, final int n )
+	{
+		this.x = x;
+		this.y = y;
+		this.n = n;
+		this.hullDone = false;
+		this.ellipseDone = false;
+
+		for ( int p = 0; p < 5; p++ )
+			for ( int q = 0; q + p < 5; q++ )
+				r[ p ][ q ] = 0.;
+
+		if ( n == 0 )
+		{
+			area = 0.;
+			perimeter = 0.;
+			xC = Double.NaN;
+			yC = Double.NaN;
+			return;
+		}
+
+		// Shift to the first vertex to limit cancellations.
+		final double xs = x[ 0 ];
+		final double ys = y[ 0 ];
+		double a = 0.;
+		double l = 0.;
+		for ( int i = 0; i < n; i++ )
+		{
+			final int j = ( i == n - 1 ) ? 0 : i + 1;
+			final double xi = x[ i ];
+			final double yi = y[ i ];
+			final double xj = x[ j ];
+			final double yj = y[ j ];
+
+			// Area & perimeter.
+			a += xi * yj - xj * yi;
+			final double dx = xj - xi;
+			final double dy = yj - yi;
+			l += Math.sqrt( dx * dx + dy * dy );
+
+			// Moments.
+			final double u = xi - xs;
+			final double v = yi - ys;
+			final double u2 = u * u;
+			final double v2 = v * v;
+			r[ 0 ][ 0 ] += 1.;
+			r[ 1 ][ 0 ] += u;
+			r[ 0 ][ 1 ] += v;
+			r[ 2 ][ 0 ] += u2;
+			r[ 1 ][ 1 ] += u * v;
+			r[ 0 ][ 2 ] += v2;
+			r[ 3 ][ 0 ] += u2 * u;
+			r[ 2 ][ 1 ] += u2 * v;
+			r[ 1 ][ 2 ] += u * v2;
+			r[ 0 ][ 3 ] += v2 * v;
+			r[ 4 ][ 0 ] += u2 * u2;
+			r[ 3 ][ 1 ] += u2 * u * v;
+			r[ 2 ][ 2 ] += u2 * v2;
+			r[ 1 ][ 3 ] += u * v2 * v;
+			r[ 0 ][ 4 ] += v2 * v2;
+		}
+		area = Math.abs( a / 2. );
+		perimeter = ( n < 2 ) ? 0. : l;
+		final double mu = r[ 1 ][ 0 ] / n;
+		final double mv = r[ 0 ][ 1 ] / n;
+		xC = xs + mu;
+		yC = ys + mv;
+		centralMoments( mu, mv );
+	}
+
+	/**
+	 * Returns the area of the polygon.
+	 *
+	 * @return the area.
+	 */
+	public double getArea()
+	{
+		return area;
+	}
+
+	/**
+	 * Returns the perimeter of the polygon.
+	 *
+	 * @return the perimeter.
+	 */
+	public double getPerimeter()
+	{
+		return perimeter;
+	}
+
+	/**
+	 * Returns the area of the convex hull of the polygon.
+	 *
+	 * @return the convex area.
+	 */
+	public double getConvexArea()
+	{
+		if ( !hullDone )
+			computeHull();
+		return convexArea;
+	}
+
+	/**
+	 * Returns the X coordinate of the center of the fitted ellipse.
+	 *
+	 * @return the ellipse center X.
+	 */
+	public double getEllipseX0()
+	{
+		if ( !ellipseDone )
+			fitEllipse();
+		return ex0;
+	}
+
+	/**
+	 * Returns the Y coordinate of the center of the fitted ellipse.
+	 *
+	 * @return the ellipse center Y.
+	 */
+	public double getEllipseY0()
+	{
+		if ( !ellipseDone )
+			fitEllipse();
+		return ey0;
+	}
+
+	/**
+	 * Returns the semi-major axis of the fitted ellipse.
+	 *
+	 * @return the major axis.
+	 */
+	public double getEllipseMajor()
+	{
+		if ( !ellipseDone )
+			fitEllipse();
+		return major;
+	}
+
+	/**
+	 * Returns the semi-minor axis of the fitted ellipse.
+	 *
+	 * @return the minor axis.
+	 */
+	public double getEllipseMinor()
+	{
+		if ( !ellipseDone )
+			fitEllipse();
+		return minor;
+	}
+
+	/**
+	 * Returns the angle of the major axis of the fitted ellipse with the X
+	 * axis, in radians.
+	 *
+	 * @return the ellipse angle.
+	 */
+	public double getEllipseTheta()
+	{
+		if ( !ellipseDone )
+			fitEllipse();
+		return theta;
+	}
+
+	/*
+	 * CONVEX HULL.
+	 */
+
+	private void computeHull()
+	{
+		if ( sx.length < n )
+		{
+			sx = new double[ n ];
+			sy = new double[ n ];
+			hx = new double[ n + 1 ];
+			hy = new double[ n + 1 ];
+		}
+		final int nh = ConvexHull.convexHull( x, y, n, sx, sy, hx, hy );
+		double a = 0.;
+		for ( int i = 0; i < nh; i++ )
+		{
+			final int j = ( i == nh - 1 ) ? 0 : i + 1;
+			a += hx[ i ] * hy[ j ] - hx[ j ] * hy[ i ];
+		}
+		convexArea = Math.abs( a / 2. );
+		hullDone = true;
+	}
+
+	/*
+	 * ELLIPSE FIT.
+	 */
+
+	private void centralMoments( final double mu, final double mv )
+	{
+		powU[ 0 ] = 1.;
+		powV[ 0 ] = 1.;
+		for ( int i = 1; i < 5; i++ )
+		{
+			powU[ i ] = powU[ i - 1 ] * -mu;
+			powV[ i ] = powV[ i - 1 ] * -mv;
+		}
+		for ( int p = 0; p < 5; p++ )
+		{
+			for ( int q = 0; q + p < 5; q++ )
+			{
+				double sum = 0.;
+				for ( int i = 0; i <= p; i++ )
+				{
+					final double ci = BINOMIAL[ p ][ i ] * powU[ p - i ];
+					for ( int j = 0; j <= q; j++ )
+						sum += ci * BINOMIAL[ q ][ j ] * powV[ q - j ] * r[ i ][ j ];
+				}
+				m[ p ][ q ] = sum;
+			}
+		}
+		// Exact by construction.
+		m[ 1 ][ 0 ] = 0.;
+		m[ 0 ][ 1 ] = 0.;
+	}
+
+	/**
+	 * Direct least-square ellipse fit, as in the former implementation ported
+	 * from BoneJ, but with the scatter matrices built from the moments and all
+	 * the 3 × 3 algebra done in closed form.
+	 */
+	private void fitEllipse()
+	{
+		ellipseDone = true;
+
+		// S1 = D1ᵀ D1, D1 rows are [ u², uv, v² ].
+		set( s1, m[ 4 ][ 0 ], m[ 3 ][ 1 ], m[ 2 ][ 2 ],
+				m[ 3 ][ 1 ], m[ 2 ][ 2 ], m[ 1 ][ 3 ],
+				m[ 2 ][ 2 ], m[ 1 ][ 3 ], m[ 0 ][ 4 ] );
+		// S2 = D1ᵀ D2, D2 rows are [ u, v, 1 ].
+		set( s2, m[ 3 ][ 0 ], m[ 2 ][ 1 ], m[ 2 ][ 0 ],
+				m[ 2 ][ 1 ], m[ 1 ][ 2 ], m[ 1 ][ 1 ],
+				m[ 1 ][ 2 ], m[ 0 ][ 3 ], m[ 0 ][ 2 ] );
+		// S3 = D2ᵀ D2 is block diagonal because moments are centered.
+		pinvS3( m[ 2 ][ 0 ], m[ 1 ][ 1 ], m[ 0 ][ 2 ], m[ 0 ][ 0 ] );
+
+		// T = - S3⁺ S2ᵀ
+		for ( int i = 0; i < 3; i++ )
+			for ( int j = 0; j < 3; j++ )
+			{
+				double sum = 0.;
+				for ( int k = 0; k < 3; k++ )
+					sum += s3inv[ i * 3 + k ] * s2[ j * 3 + k ];
+				t[ i * 3 + j ] = -sum;
+			}
+
+		// M = S1 + S2 T
+		for ( int i = 0; i < 3; i++ )
+			for ( int j = 0; j < 3; j++ )
+			{
+				double sum = s1[ i * 3 + j ];
+				for ( int k = 0; k < 3; k++ )
+					sum += s2[ i * 3 + k ] * t[ k * 3 + j ];
+				mm[ i * 3 + j ] = sum;
+			}
+
+		// N = C⁻¹ M
+		for ( int j = 0; j < 3; j++ )
+		{
+			nn[ j ] = mm[ 6 + j ] / 2.;
+			nn[ 3 + j ] = -mm[ 3 + j ];
+			nn[ 6 + j ] = mm[ j ] / 2.;
+		}
+
+		// Eigenvector of N satisfying the ellipse constraint 4ac - b² > 0.
+		final int nRoots = realEigenvalues( nn, roots );
+		boolean found = false;
+		for ( int i = 0; i < nRoots; i++ )
+		{
+			if ( !eigenvector( nn, roots[ i ], vec ) )
+				continue;
+			if ( 4. * vec[ 0 ] * vec[ 2 ] - vec[ 1 ] * vec[ 1 ] > 0. )
+			{
+				found = true;
+				break;
+			}
+		}
+		if ( !found )
+		{
+			ex0 = Double.NaN;
+			ey0 = Double.NaN;
+			major = Double.NaN;
+			minor = Double.NaN;
+			theta = Double.NaN;
+			return;
+		}
+
+		final double[] a = quad;
+		a[ 0 ] = vec[ 0 ];
+		a[ 1 ] = vec[ 1 ];
+		a[ 2 ] = vec[ 2 ];
+		for ( int i = 0; i < 3; i++ )
+			a[ 3 + i ] = t[ i * 3 ] * vec[ 0 ] + t[ i * 3 + 1 ] * vec[ 1 ] + t[ i * 3 + 2 ] * vec[ 2 ];
+
+		// Back to polygon coordinates.
+		final double a4 = a[ 3 ] - 2 * a[ 0 ] * xC - a[ 1 ] * yC;
+		final double a5 = a[ 4 ] - 2 * a[ 2 ] * yC - a[ 1 ] * xC;
+		final double a6 = a[ 5 ] + a[ 0 ] * xC * xC + a[ 2 ] * yC * yC + a[ 1 ] * xC * yC - a[ 3 ] * xC - a[ 4 ] * yC;
+		a[ 3 ] = a4;
+		a[ 4 ] = a5;
+		a[ 5 ] = a6;
+
+		// Normalize, with a sign such that A + C > 0.
+		double norm = 0.;
+		for ( int i = 0; i < 6; i++ )
+			norm += a[ i ] * a[ i ];
+		norm = Math.sqrt( norm );
+		if ( a[ 0 ] + a[ 2 ] < 0. )
+			norm = -norm;
+		for ( int i = 0; i < 6; i++ )
+			a[ i ] /= norm;
+
+		quadraticToCartesian( a );
+	}
+
+	/**
+	 * Convert to cartesian coordinates for the ellipse. We always have major
+	 * &gt; minor. theta in radians measure the angle of the ellipse long axis
+	 * with the x axis, and positive means counter-clockwise.
+	 * <p>
+	 * Formulas from
+	 * https://en.wikipedia.org/wiki/Ellipse#In_Cartesian_coordinates
+	 */
+	private void quadraticToCartesian( final double[] Q )
+	{
+		final double A = Q[ 0 ];
+		final double B = Q[ 1 ];
+		final double C = Q[ 2 ];
+		final double D = Q[ 3 ];
+		final double E = Q[ 4 ];
+		final double F = Q[ 5 ];
+
+		final double term1 = 2 * ( A * E * E
+				+ C * D * D
+				- B * D * E
+				+ ( B * B - 4 * A * C ) * F );
+		final double term2 = ( A + C );
+		final double term3 = Math.sqrt( ( A - C ) * ( A - C ) + B * B );
+		final double term4 = B * B - 4 * A * C;
+
+		double a = -Math.sqrt( term1 * ( term2 + term3 ) ) / term4;
+		double b = -Math.sqrt( term1 * ( term2 - term3 ) ) / term4;
+
+		ex0 = ( 2 * C * D - B * E ) / term4;
+		ey0 = ( 2 * A * E - B * D ) / term4;
+
+		double th;
+		if ( B != 0 )
+			th = Math.atan( 1. / B * ( C - A - term3 ) );
+		else if ( A < 0 )
+			th = 0;
+		else
+			th = Math.PI / 2.;
+
+		if ( b > a )
+		{
+			final double btemp = b;
+			b = a;
+			a = btemp;
+			th = th + Math.PI / 2.;
+			if ( th > Math.PI )
+				th = th - Math.PI;
+		}
+		major = a;
+		minor = b;
+		theta = th;
+	}
+
+	/**
+	 * Moore–Penrose pseudo-inverse of the block-diagonal matrix [[ sxx, sxy, 0
+	 * ], [ sxy, syy, 0 ], [ 0, 0, n ]], with the same tolerance as the SVD
+	 * implementation.
+	 */
+	private void pinvS3( final double sxx, final double sxy, final double syy, final double n )
+	{
+		// Eigen decomposition of the symmetric 2 × 2 block.
+		final double half = ( sxx + syy ) / 2.;
+		final double d = Math.sqrt( ( sxx - syy ) * ( sxx - syy ) / 4. + sxy * sxy );
+		final double l1 = half + d;
+		final double l2 = half - d;
+		final double c;
+		final double s;
+		if ( sxy != 0. )
+		{
+			final double vx = l1 - syy;
+			final double vy = sxy;
+			final double vn = Math.sqrt( vx * vx + vy * vy );
+			c = vx / vn;
+			s = vy / vn;
+		}
+		else if ( sxx >= syy )
+		{
+			c = 1.;
+			s = 0.;
+		}
+		else
+		{
+			c = 0.;
+			s = 1.;
+		}
+
+		final double max = Math.max( Math.max( Math.abs( l1 ), Math.abs( l2 ) ), Math.abs( n ) );
+		final double tol = 3 * max * MACHEPS;
+		final double i1 = ( Math.abs( l1 ) >= tol && l1 != 0. ) ? 1. / l1 : 0.;
+		final double i2 = ( Math.abs( l2 ) >= tol && l2 != 0. ) ? 1. / l2 : 0.;
+		final double in = ( Math.abs( n ) >= tol && n != 0. ) ? 1. / n : 0.;
+		set( s3inv,
+				i1 * c * c + i2 * s * s, ( i1 - i2 ) * c * s, 0.,
+				( i1 - i2 ) * c * s, i1 * s * s + i2 * c * c, 0.,
+				0., 0., in );
+	}
+
+	/**
+	 * Real eigenvalues of a 3 × 3 matrix, from its characteristic polynomial.
+	 *
+	 * @return the number of real eigenvalues stored, in ascending order.
+	 */
+	private static int realEigenvalues( final double[] a, final double[] out )
+	{
+		final double tr = a[ 0 ] + a[ 4 ] + a[ 8 ];
+		final double minors = a[ 0 ] * a[ 4 ] - a[ 1 ] * a[ 3 ]
+				+ a[ 0 ] * a[ 8 ] - a[ 2 ] * a[ 6 ]
+				+ a[ 4 ] * a[ 8 ] - a[ 5 ] * a[ 7 ];
+		final double det = a[ 0 ] * ( a[ 4 ] * a[ 8 ] - a[ 5 ] * a[ 7 ] )
+				- a[ 1 ] * ( a[ 3 ] * a[ 8 ] - a[ 5 ] * a[ 6 ] )
+				+ a[ 2 ] * ( a[ 3 ] * a[ 7 ] - a[ 4 ] * a[ 6 ] );
+
+		// λ³ - tr λ² + minors λ - det = 0, depressed with λ = z + tr / 3.
+		final double shift = tr / 3.;
+		final double p = minors - tr * tr / 3.;
+		final double q = -2. * tr * tr * tr / 27. + tr * minors / 3. - det;
+		final double disc = q * q / 4. + p * p * p / 27.;
+		if ( disc > 0. )
+		{
+			final double sq = Math.sqrt( disc );
+			out[ 0 ] = Math.cbrt( -q / 2. + sq ) + Math.cbrt( -q / 2. - sq ) + shift;
+			return 1;
+		}
+		if ( p == 0. )
+		{
+			out[ 0 ] = shift;
+			return 1;
+		}
+		final double rho = 2. * Math.sqrt( -p / 3. );
+		final double arg = Math.max( -1., Math.min( 1., 3. * q / ( p * rho ) ) );
+		final double phi = Math.acos( arg ) / 3.;
+		out[ 0 ] = rho * Math.cos( phi - 2. * Math.PI * 2. / 3. ) + shift;
+		out[ 1 ] = rho * Math.cos( phi - 2. * Math.PI / 3. ) + shift;
+		out[ 2 ] = rho * Math.cos( phi ) + shift;
+		return 3;
+	}
+
+	/**
+	 * Eigenvector of a 3 × 3 matrix for the specified eigenvalue, as the
+	 * largest cross product of the rows of A - λI.
+	 *
+	 * @return <code>false</code> if no eigenvector could be found.
+	 */
+	private static boolean eigenvector( final double[] a, final double lambda, final double[] out )
+	{
+		final double r00 = a[ 0 ] - lambda, r01 = a[ 1 ], r02 = a[ 2 ];
+		final double r10 = a[ 3 ], r11 = a[ 4 ] - lambda, r12 = a[ 5 ];
+		final double r20 = a[ 6 ], r21 = a[ 7 ], r22 = a[ 8 ] - lambda;
+
+		double best = 0.;
+		for ( int k = 0; k < 3; k++ )
+		{
+			final double ax, ay, az, bx, by, bz;
+			if ( k == 0 )
+			{
+				ax = r00; ay = r01; az = r02;
+				bx = r10; by = r11; bz = r12;
+			}
+			else if ( k == 1 )
+			{
+				ax = r00; ay = r01; az = r02;
+				bx = r20; by = r21; bz = r22;
+			}
+			else
+			{
+				ax = r10; ay = r11; az = r12;
+				bx = r20; by = r21; bz = r22;
+			}
+			final double cx = ay * bz - az * by;
+			final double cy = az * bx - ax * bz;
+			final double cz = ax * by - ay * bx;
+			final double norm = cx * cx + cy * cy + cz * cz;
+			if ( norm > best )
+			{
+				best = norm;
+				out[ 0 ] = cx;
+				out[ 1 ] = cy;
+				out[ 2 ] = cz;
+			}
+		}
+		if ( best == 0. || Double.isNaN( best ) )
+			return false;
+
+		final double norm = Math.sqrt( best );
+		out[ 0 ] /= norm;
+		out[ 1 ] /= norm;
+		out[ 2 ] /= norm;
+		return true;
+	}
+
+	private static void set( final double[] mat,
+			final double m00, final double m01, final double m02,
+			final double m10, final double m11, final double m12,
+			final double m20, final double m21, final double m22 )
+	{
+		mat[ 0 ] = m00;
+		mat[ 1 ] = m01;
+		mat[ 2 ] = m02;
+		mat[ 3 ] = m10;
+		mat[ 4 ] = m11;
+		mat[ 5 ] = m12;
+		mat[ 6 ] = m20;
+		mat[ 7 ] = m21;
+		mat[ 8 ] = m22;
+	}
+}
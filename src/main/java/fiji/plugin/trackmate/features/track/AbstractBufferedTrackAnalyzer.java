@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Model;
+
+/**
+ * Base class for {@link BufferedTrackAnalyzer}s. When run on its own, the
+ * analyzer goes through the {@link TrackBufferPipeline}, so that each track is
+ * read once into a reusable {@link TrackBuffer}.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public abstract class AbstractBufferedTrackAnalyzer extends AbstractTrackAnalyzer implements BufferedTrackAnalyzer
+{
+
+	private long processingTime;
+
+	public AbstractBufferedTrackAnalyzer(
+			final String key,
+			final String name,
+			final List< String > features,
+			final Map< String, String > featureNames,
+			final Map< String, String > featureShortNames,
+			final Map< String, Dimension > featureDimensions,
+			final Map< String, Boolean > isInts )
+	{
+		super( key, name, features, featureNames, featureShortNames, featureDimensions, isInts );
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+		final long start = System.currentTimeMillis();
+		TrackBufferPipeline.process( trackIDs, model, Collections.singletonList( this ), getNumThreads() );
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model )
+	{
+		analyze( trackID, new TrackBuffer().load( trackID, model ), model.getFeatureModel() );
+	}
+}
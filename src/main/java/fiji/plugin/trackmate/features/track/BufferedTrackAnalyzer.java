@@ -0,0 +1,57 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import fiji.plugin.trackmate.FeatureModel;
+
+/**
+ * Interface for {@link TrackAnalyzer}s that can compute their features from a
+ * {@link TrackBuffer} alone, that is: from the positions, times and qualities
+ * of the track spots sorted by frame, and from the length, velocity and
+ * directional change rate of the track edges.
+ * <p>
+ * Consecutive analyzers of this kind are fused by the
+ * {@link TrackBufferPipeline}: each track is read once from the model into a
+ * buffer, and all the analyzers reduce over this buffer in turn.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public interface BufferedTrackAnalyzer extends TrackAnalyzer
+{
+
+	/**
+	 * Computes the features of the track loaded in the specified buffer, and
+	 * stores them in the specified feature model.
+	 * <p>
+	 * This method will be called concurrently for different tracks, with
+	 * different buffers.
+	 *
+	 * @param trackID
+	 *            the ID of the track loaded in the buffer.
+	 * @param buffer
+	 *            the buffer containing the track spots and edges.
+	 * @param fm
+	 *            the feature model to store the features in.
+	 */
+	public void analyze( Integer trackID, TrackBuffer buffer, FeatureModel fm );
+
+}
@@ -0,0 +1,416 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.DirectionalChangeAnalyzer;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A primitive, reusable buffer that stores the spots and edges of a single
+ * track, read once from the model.
+ * <p>
+ * The spots of the track are stored sorted by ascending frame, in parallel
+ * arrays of positions, times and qualities. The edges are stored as pairs of
+ * indices in these arrays, together with their length, their velocity and
+ * their rate of directional change. {@link BufferedTrackAnalyzer}s can then
+ * reduce over these arrays without re-walking the track model.
+ * <p>
+ * Instances are not thread-safe, but are meant to be reused across tracks by
+ * a single thread. The arrays returned by the getters are the internal storage
+ * of the buffer: they may be larger than the number of spots or edges in the
+ * track, and their content is overwritten by the next call to
+ * {@link #load(Integer, Model)}. Spot features that are not set (for instance
+ * the time or the quality) are stored as {@link Double#NaN}.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TrackBuffer
+{
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int nSpots;
+
+	private int nEdges;
+
+	private Spot[] spots;
+
+	private double[] frames;
+
+	private double[] x;
+
+	private double[] y;
+
+	private double[] z;
+
+	private double[] t;
+
+	private double[] quality;
+
+	private int[] edgeSources;
+
+	private int[] edgeTargets;
+
+	private double[] edgeLengths;
+
+	private double[] edgeVelocities;
+
+	private double[] edgeDirectionalChangeRates;
+
+	private double[] sortedEdgeVelocities;
+
+	private boolean edgeVelocitiesSorted;
+
+	/*
+	 * Sorting scratch space.
+	 */
+
+	private double[] keys;
+
+	private int[] order;
+
+	private int[] orderTmp;
+
+	private Spot[] spotsTmp;
+
+	private final TObjectIntHashMap< Spot > indices = new TObjectIntHashMap<>( DEFAULT_CAPACITY, 0.5f, -1 );
+
+	public TrackBuffer()
+	{
+		ensureSpotCapacity( DEFAULT_CAPACITY );
+		ensureEdgeCapacity( DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Reads the spots and edges of the specified track into this buffer,
+	 * replacing its previous content.
+	 *
+	 * @param trackID
+	 *            the ID of the track to read.
+	 * @param model
+	 *            the model to read the track from.
+	 * @return this buffer.
+	 */
+	public TrackBuffer load( final Integer trackID, final Model model )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+
+		/*
+		 * Spots, sorted by frame.
+		 */
+
+		final Set< Spot > trackSpots = trackModel.trackSpots( trackID );
+		nSpots = trackSpots.size();
+		ensureSpotCapacity( nSpots );
+		int n = 0;
+		for ( final Spot spot : trackSpots )
+		{
+			spotsTmp[ n ] = spot;
+			keys[ n ] = valueOf( spot, Spot.FRAME );
+			order[ n ] = n;
+			n++;
+		}
+		sortOrder( keys, order, orderTmp, 0, nSpots );
+
+		indices.clear();
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final Spot spot = spotsTmp[ order[ i ] ];
+			spotsTmp[ order[ i ] ] = null;
+			spots[ i ] = spot;
+			frames[ i ] = keys[ order[ i ] ];
+			indices.put( spot, i );
+			x[ i ] = spot.getFeature( Spot.POSITION_X ).doubleValue();
+			y[ i ] = spot.getFeature( Spot.POSITION_Y ).doubleValue();
+			z[ i ] = spot.getFeature( Spot.POSITION_Z ).doubleValue();
+			t[ i ] = valueOf( spot, Spot.POSITION_T );
+			quality[ i ] = valueOf( spot, Spot.QUALITY );
+		}
+
+		/*
+		 * Edges.
+		 */
+
+		final Set< DefaultWeightedEdge > trackEdges = trackModel.trackEdges( trackID );
+		nEdges = ( null == trackEdges ) ? 0 : trackEdges.size();
+		ensureEdgeCapacity( nEdges );
+		edgeVelocitiesSorted = false;
+		if ( nEdges > 0 )
+		{
+			int e = 0;
+			for ( final DefaultWeightedEdge edge : trackEdges )
+			{
+				final int source = indices.get( trackModel.getEdgeSource( edge ) );
+				final int target = indices.get( trackModel.getEdgeTarget( edge ) );
+				edgeSources[ e ] = source;
+				edgeTargets[ e ] = target;
+
+				final double dx = x[ target ] - x[ source ];
+				final double dy = y[ target ] - y[ source ];
+				final double dz = z[ target ] - z[ source ];
+				final double length = Math.sqrt( dx * dx + dy * dy + dz * dz );
+				edgeLengths[ e ] = length;
+				edgeVelocities[ e ] = length / Math.abs( t[ target ] - t[ source ] );
+
+				final Double rate = fm.getEdgeFeature( edge, DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
+				edgeDirectionalChangeRates[ e ] = ( null == rate ) ? Double.NaN : rate.doubleValue();
+				e++;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the number of spots in the track currently loaded.
+	 *
+	 * @return the number of spots.
+	 */
+	public int nSpots()
+	{
+		return nSpots;
+	}
+
+	/**
+	 * Returns the number of edges in the track currently loaded.
+	 *
+	 * @return the number of edges.
+	 */
+	public int nEdges()
+	{
+		return nEdges;
+	}
+
+	/**
+	 * Returns the spots of the track, sorted by ascending frame.
+	 *
+	 * @return the spot array. Only the first {@link #nSpots()} elements are
+	 *         valid.
+	 */
+	public Spot[] spots()
+	{
+		return spots;
+	}
+
+	public double[] frames()
+	{
+		return frames;
+	}
+
+	public double[] x()
+	{
+		return x;
+	}
+
+	public double[] y()
+	{
+		return y;
+	}
+
+	public double[] z()
+	{
+		return z;
+	}
+
+	public double[] t()
+	{
+		return t;
+	}
+
+	/**
+	 * Returns the spot qualities.
+	 *
+	 * @return the quality array. Only the first {@link #nSpots()} elements are
+	 *         valid.
+	 */
+	public double[] quality()
+	{
+		return quality;
+	}
+
+	/**
+	 * Returns the index of the source spot of each edge, in the spot arrays.
+	 *
+	 * @return the edge source array. Only the first {@link #nEdges()} elements
+	 *         are valid.
+	 */
+	public int[] edgeSources()
+	{
+		return edgeSources;
+	}
+
+	/**
+	 * Returns the index of the target spot of each edge, in the spot arrays.
+	 *
+	 * @return the edge target array. Only the first {@link #nEdges()} elements
+	 *         are valid.
+	 */
+	public int[] edgeTargets()
+	{
+		return edgeTargets;
+	}
+
+	public double[] edgeLengths()
+	{
+		return edgeLengths;
+	}
+
+	/**
+	 * Returns the velocity of each edge, that is its length divided by the
+	 * absolute time difference between its source and target.
+	 *
+	 * @return the edge velocity array. Only the first {@link #nEdges()}
+	 *         elements are valid.
+	 */
+	public double[] edgeVelocities()
+	{
+		return edgeVelocities;
+	}
+
+	/**
+	 * Returns the edge velocities sorted in ascending order. The sorted copy is
+	 * computed on the first call after a {@link #load(Integer, Model)} and
+	 * shared by subsequent calls.
+	 *
+	 * @return the sorted edge velocity array. Only the first {@link #nEdges()}
+	 *         elements are valid.
+	 */
+	public double[] sortedEdgeVelocities()
+	{
+		if ( !edgeVelocitiesSorted )
+		{
+			System.arraycopy( edgeVelocities, 0, sortedEdgeVelocities, 0, nEdges );
+			Arrays.sort( sortedEdgeVelocities, 0, nEdges );
+			edgeVelocitiesSorted = true;
+		}
+		return sortedEdgeVelocities;
+	}
+
+	/**
+	 * Returns the rate of directional change of each edge, as computed by the
+	 * {@link DirectionalChangeAnalyzer}. Edges for which this feature is not
+	 * computed are stored as {@link Double#NaN}.
+	 *
+	 * @return the rate array. Only the first {@link #nEdges()} elements are
+	 *         valid.
+	 */
+	public double[] edgeDirectionalChangeRates()
+	{
+		return edgeDirectionalChangeRates;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static final double valueOf( final Spot spot, final String feature )
+	{
+		final Double val = spot.getFeature( feature );
+		return ( null == val ) ? Double.NaN : val.doubleValue();
+	}
+
+	private void ensureSpotCapacity( final int capacity )
+	{
+		if ( null != spots && spots.length >= capacity )
+			return;
+
+		final int size = Math.max( capacity, null == spots ? 0 : spots.length * 2 );
+		spots = new Spot[ size ];
+		spotsTmp = new Spot[ size ];
+		frames = new double[ size ];
+		x = new double[ size ];
+		y = new double[ size ];
+		z = new double[ size ];
+		t = new double[ size ];
+		quality = new double[ size ];
+		keys = new double[ size ];
+		order = new int[ size ];
+		orderTmp = new int[ size ];
+	}
+
+	private void ensureEdgeCapacity( final int capacity )
+	{
+		if ( null != edgeSources && edgeSources.length >= capacity )
+			return;
+
+		final int size = Math.max( capacity, null == edgeSources ? 0 : edgeSources.length * 2 );
+		edgeSources = new int[ size ];
+		edgeTargets = new int[ size ];
+		edgeLengths = new double[ size ];
+		edgeVelocities = new double[ size ];
+		sortedEdgeVelocities = new double[ size ];
+		edgeDirectionalChangeRates = new double[ size ];
+	}
+
+	/**
+	 * Stable merge sort of the index array <code>order</code> in the range
+	 * <code>[from, to[</code>, by ascending values of <code>keys</code>. The
+	 * keys are indexed by the content of <code>order</code>.
+	 */
+	private static void sortOrder( final double[] keys, final int[] order, final int[] tmp, final int from, final int to )
+	{
+		final int length = to - from;
+		if ( length < 16 )
+		{
+			// Insertion sort.
+			for ( int i = from + 1; i < to; i++ )
+			{
+				final int o = order[ i ];
+				final double k = keys[ o ];
+				int j = i - 1;
+				while ( j >= from && keys[ order[ j ] ] > k )
+				{
+					order[ j + 1 ] = order[ j ];
+					j--;
+				}
+				order[ j + 1 ] = o;
+			}
+			return;
+		}
+
+		final int mid = ( from + to ) >>> 1;
+		sortOrder( keys, order, tmp, from, mid );
+		sortOrder( keys, order, tmp, mid, to );
+		if ( keys[ order[ mid - 1 ] ] <= keys[ order[ mid ] ] )
+			return;
+
+		System.arraycopy( order, from, tmp, from, length );
+		int i = from;
+		int j = mid;
+		for ( int k = from; k < to; k++ )
+		{
+			if ( j >= to || ( i < mid && keys[ tmp[ i ] ] <= keys[ tmp[ j ] ] ) )
+				order[ k ] = tmp[ i++ ];
+			else
+				order[ k ] = tmp[ j++ ];
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * Computes the features of several {@link BufferedTrackAnalyzer}s in a single
+ * traversal of the tracks.
+ * <p>
+ * Tracks are distributed over a fixed number of workers. Each worker owns a
+ * {@link TrackBuffer} that it reuses across tracks: a track is read once from
+ * the model into the buffer, then all the analyzers are run on it, in the
+ * order they are given. Analyzers that depend on the features of other
+ * analyzers must therefore be given after them.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TrackBufferPipeline
+{
+
+	private TrackBufferPipeline()
+	{}
+
+	/**
+	 * Computes the features of the specified analyzers for the specified
+	 * tracks.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the tracks to analyze.
+	 * @param model
+	 *            the model containing the tracks.
+	 * @param analyzers
+	 *            the analyzers to run, in order.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 */
+	public static void process( final Collection< Integer > trackIDs, final Model model, final List< ? extends BufferedTrackAnalyzer > analyzers, final int numThreads )
+	{
+		if ( trackIDs.isEmpty() || analyzers.isEmpty() )
+			return;
+
+		final FeatureModel fm = model.getFeatureModel();
+		final int nWorkers = Math.max( 1, Math.min( numThreads, trackIDs.size() ) );
+		if ( nWorkers == 1 )
+		{
+			final TrackBuffer buffer = new TrackBuffer();
+			for ( final Integer trackID : trackIDs )
+				analyze( trackID, model, fm, buffer, analyzers );
+			return;
+		}
+
+		/*
+		 * Tracks are handed out one by one from a shared iterator, so that
+		 * workers stay balanced even when track sizes vary a lot.
+		 */
+		final Iterator< Integer > it = trackIDs.iterator();
+		final List< Callable< Void > > tasks = new ArrayList<>( nWorkers );
+		for ( int i = 0; i < nWorkers; i++ )
+		{
+			tasks.add( () -> {
+				final TrackBuffer buffer = new TrackBuffer();
+				while ( true )
+				{
+					final Integer trackID;
+					synchronized ( it )
+					{
+						if ( !it.hasNext() )
+							return null;
+						trackID = it.next();
+					}
+					analyze( trackID, model, fm, buffer, analyzers );
+				}
+			} );
+		}
+
+		final ExecutorService executorService = Threads.newFixedThreadPool( nWorkers );
+		try
+		{
+			final List< Future< Void > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+		executorService.shutdown();
+	}
+
+	private static void analyze( final Integer trackID, final Model model, final FeatureModel fm, final TrackBuffer buffer, final List< ? extends BufferedTrackAnalyzer > analyzers )
+	{
+		try
+		{
+			buffer.load( trackID, model );
+			for ( final BufferedTrackAnalyzer analyzer : analyzers )
+				analyzer.analyze( trackID, buffer, fm );
+		}
+		catch ( final RuntimeException e )
+		{
+			// Do not let one faulty track prevent the others to be analyzed.
+			e.printStackTrace();
+		}
+	}
+}
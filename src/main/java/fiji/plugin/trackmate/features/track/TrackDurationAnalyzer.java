@@ -25,17 +25,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackDurationAnalyzer extends AbstractTrackAnalyzer
+public class TrackDurationAnalyzer extends AbstractBufferedTrackAnalyzer
 {
 
 	public static final String KEY = "Track duration";
@@ -84,37 +81,38 @@ public class TrackDurationAnalyzer extends AbstractTrackAnalyzer
 	}
 
 	@Override
-	protected void analyze( final Integer trackID, final Model model )
+	public void analyze( final Integer trackID, final TrackBuffer buffer, final FeatureModel fm )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-
-		// I love brute force.
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		final int nspots = buffer.nSpots();
+		final double[] ts = buffer.t();
 		double minT = Double.POSITIVE_INFINITY;
 		double maxT = Double.NEGATIVE_INFINITY;
-		Double t;
-		Spot startSpot = null;
-		Spot endSpot = null;
-		for ( final Spot spot : track )
+		int start = -1;
+		int end = -1;
+		for ( int i = 0; i < nspots; i++ )
 		{
-			t = spot.getFeature( Spot.POSITION_T );
+			final double t = ts[ i ];
 			if ( t < minT )
 			{
 				minT = t;
-				startSpot = spot;
+				start = i;
 			}
 			if ( t > maxT )
 			{
 				maxT = t;
-				endSpot = spot;
+				end = i;
 			}
 		}
-		if ( null == startSpot || null == endSpot )
+		if ( start < 0 || end < 0 )
 			return;
 
+		final double dx = buffer.x()[ end ] - buffer.x()[ start ];
+		final double dy = buffer.y()[ end ] - buffer.y()[ start ];
+		final double dz = buffer.z()[ end ] - buffer.z()[ start ];
+
 		fm.putTrackFeature( trackID, TRACK_DURATION, ( maxT - minT ) );
 		fm.putTrackFeature( trackID, TRACK_START, minT );
 		fm.putTrackFeature( trackID, TRACK_STOP, maxT );
-		fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
+		fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( dx * dx + dy * dy + dz * dz ) );
 	}
 }
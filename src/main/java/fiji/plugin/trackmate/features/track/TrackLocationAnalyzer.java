@@ -25,17 +25,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackLocationAnalyzer extends AbstractTrackAnalyzer
+public class TrackLocationAnalyzer extends AbstractBufferedTrackAnalyzer
 {
 
 	public static final String KEY = "Track location";
@@ -78,22 +75,22 @@ public class TrackLocationAnalyzer extends AbstractTrackAnalyzer
 	}
 
 	@Override
-	protected void analyze( final Integer trackID, final Model model )
+	public void analyze( final Integer trackID, final TrackBuffer buffer, final FeatureModel fm )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		final int nspots = buffer.nSpots();
+		final double[] xs = buffer.x();
+		final double[] ys = buffer.y();
+		final double[] zs = buffer.z();
 
 		double x = 0.;
 		double y = 0.;
 		double z = 0.;
-
-		for ( final Spot spot : track )
+		for ( int i = 0; i < nspots; i++ )
 		{
-			x += spot.getFeature( Spot.POSITION_X );
-			y += spot.getFeature( Spot.POSITION_Y );
-			z += spot.getFeature( Spot.POSITION_Z );
+			x += xs[ i ];
+			y += ys[ i ];
+			z += zs[ i ];
 		}
-		final int nspots = track.size();
 		x /= nspots;
 		y /= nspots;
 		z /= nspots;
@@ -27,27 +27,18 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
 import javax.swing.ImageIcon;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.features.edges.DirectionalChangeAnalyzer;
-import fiji.plugin.trackmate.util.Threads;
 
 @Plugin( type = TrackAnalyzer.class, priority = Priority.LOW )
-public class TrackMotilityAnalyzer implements TrackAnalyzer
+public class TrackMotilityAnalyzer implements BufferedTrackAnalyzer
 {
 
 	public static final String KEY = "Track motility analysis";
@@ -219,93 +210,65 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 			return;
 
 		final long start = System.currentTimeMillis();
-
-		// Create tasks.
-		final List< Callable< Void > > tasks = new ArrayList<>( trackIDs.size() );
-		for ( final Integer trackID : trackIDs )
-		{
-			final Callable< Void > task = new Callable< Void >()
-			{
-
-				@Override
-				public Void call() throws Exception
-				{
-					analyze( trackID, model );
-					return null;
-				}
-			};
-			tasks.add( task );
-		}
-
-		final ExecutorService executorService = Threads.newFixedThreadPool( numThreads );
-		List< Future< Void > > futures;
-		try
-		{
-			futures = executorService.invokeAll( tasks );
-			for ( final Future< Void > future : futures )
-				future.get();
-		}
-		catch ( InterruptedException | ExecutionException e )
-		{
-			e.printStackTrace();
-		}
-		executorService.shutdown();
-
+		TrackBufferPipeline.process( trackIDs, model, Collections.singletonList( this ), numThreads );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
 
-	private static final void analyze( final Integer trackID, final Model model )
+	@Override
+	public void analyze( final Integer trackID, final TrackBuffer buffer, final FeatureModel fm )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-
 		/*
-		 * Get the first spot (lowest FRAME).
+		 * The first spot (lowest FRAME) is the first one of the buffer.
 		 */
 
-		final List< Spot > spots = new ArrayList<>( model.getTrackModel().trackSpots( trackID ) );
-		Collections.sort( spots, Spot.frameComparator );
-		final Spot first = spots.get( 0 );
+		final double[] xs = buffer.x();
+		final double[] ys = buffer.y();
+		final double[] zs = buffer.z();
+		final double x0 = xs[ 0 ];
+		final double y0 = ys[ 0 ];
+		final double z0 = zs[ 0 ];
 
 		/*
 		 * Iterate over edges.
 		 */
 
-		final Set< DefaultWeightedEdge > edges = model.getTrackModel().trackEdges( trackID );
+		final int nEdges = buffer.nEdges();
+		final int[] targets = buffer.edgeTargets();
+		final double[] lengths = buffer.edgeLengths();
+		final double[] rates = buffer.edgeDirectionalChangeRates();
 
 		double totalDistance = 0.;
 		double maxDistanceSq = Double.NEGATIVE_INFINITY;
-		double maxDistance = 0.;
 		double sumAngleSpeed = 0.;
 		int nAngleSpeed = 0;
 
-		for ( final DefaultWeightedEdge edge : edges )
+		for ( int e = 0; e < nEdges; e++ )
 		{
 			// Total distance traveled.
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
-			final double d = Math.sqrt( source.squareDistanceTo( target ) );
-			totalDistance += d;
+			totalDistance += lengths[ e ];
 
 			// Max distance traveled.
-			final double dToFirstSq = first.squareDistanceTo( target );
+			final int target = targets[ e ];
+			final double dx = xs[ target ] - x0;
+			final double dy = ys[ target ] - y0;
+			final double dz = zs[ target ] - z0;
+			final double dToFirstSq = dx * dx + dy * dy + dz * dz;
 			if ( dToFirstSq > maxDistanceSq )
-			{
 				maxDistanceSq = dToFirstSq;
-				maxDistance = Math.sqrt( maxDistanceSq );
-			}
 
 			/*
 			 * Mean rate of directional change. We depend on the edge feature
 			 */
 
-			final Double val = fm.getEdgeFeature( edge, DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
-			if ( null != val && !val.isNaN() )
+			final double val = rates[ e ];
+			if ( !Double.isNaN( val ) )
 			{
-				sumAngleSpeed += val.doubleValue();
+				sumAngleSpeed += val;
 				nAngleSpeed++;
 			}
 		}
+		final double maxDistance = ( nEdges == 0 ) ? 0. : Math.sqrt( maxDistanceSq );
 
 		/*
 		 * Compute features.
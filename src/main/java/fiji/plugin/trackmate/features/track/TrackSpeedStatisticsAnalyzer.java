@@ -25,20 +25,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.TMUtils;
-import net.imglib2.util.Util;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackSpeedStatisticsAnalyzer extends AbstractTrackAnalyzer
+public class TrackSpeedStatisticsAnalyzer extends AbstractBufferedTrackAnalyzer
 {
 
 	public static final String KEY = "Track speed";
@@ -93,28 +87,30 @@ public class TrackSpeedStatisticsAnalyzer extends AbstractTrackAnalyzer
 	}
 
 	@Override
-	protected void analyze( final Integer trackID, final Model model )
+	public void analyze( final Integer trackID, final TrackBuffer buffer, final FeatureModel fm )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-		final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-		final double[] speeds = new double[ track.size() ];
-		int n = 0;
-		for ( final DefaultWeightedEdge edge : track )
+		final int n = buffer.nEdges();
+		if ( n == 0 )
+			return;
+
+		final double[] speeds = buffer.sortedEdgeVelocities();
+		double sum = 0.;
+		for ( int i = 0; i < n; i++ )
+			sum += speeds[ i ];
+		final double mean = sum / n;
+
+		double variance = 0.;
+		for ( int i = 0; i < n; i++ )
 		{
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
-			final double d2 = source.squareDistanceTo( target );
-			final double dt = source.diffTo( target, Spot.POSITION_T );
-			final double val = Math.sqrt( d2 ) / Math.abs( dt );
-			speeds[ n++ ] = val;
+			final double dv = speeds[ i ] - mean;
+			variance += dv * dv;
 		}
+		variance /= ( n - 1 );
+		final double std = Math.sqrt( variance );
 
-		Util.quicksort( speeds, 0, track.size() - 1 );
-		final double median = speeds[ track.size() / 2 ];
+		final double median = speeds[ n / 2 ];
 		final double min = speeds[ 0 ];
-		final double max = speeds[ track.size() - 1 ];
-		final double mean = Util.average( speeds );
-		final double std = TMUtils.standardDeviation( speeds );
+		final double max = speeds[ n - 1 ];
 
 		fm.putTrackFeature( trackID, TRACK_MEDIAN_SPEED, median );
 		fm.putTrackFeature( trackID, TRACK_MIN_SPEED, min );
@@ -24,18 +24,14 @@ package fiji.plugin.trackmate.features.track;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackSpotQualityFeatureAnalyzer extends AbstractTrackAnalyzer
+public class TrackSpotQualityFeatureAnalyzer extends AbstractBufferedTrackAnalyzer
 {
 
 	public static final String KEY = "Track quality";
@@ -53,16 +49,21 @@ public class TrackSpotQualityFeatureAnalyzer extends AbstractTrackAnalyzer
 	}
 
 	@Override
-	protected void analyze( final Integer trackID, final Model model )
+	public void analyze( final Integer trackID, final TrackBuffer buffer, final FeatureModel fm )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-		final double mean = track
-				.stream()
-				.filter( Objects::nonNull )
-				.mapToDouble( s -> s.getFeature( Spot.QUALITY ).doubleValue() )
-				.average()
-				.getAsDouble();
+		final int nspots = buffer.nSpots();
+		final double[] qualities = buffer.quality();
+		double sum = 0.;
+		int n = 0;
+		for ( int i = 0; i < nspots; i++ )
+		{
+			final double q = qualities[ i ];
+			if ( Double.isNaN( q ) )
+				continue;
+			sum += q;
+			n++;
+		}
+		final double mean = ( n == 0 ) ? Double.NaN : sum / n;
 		fm.putTrackFeature( trackID, TRACK_MEAN_QUALITY, Double.valueOf( mean ) );
 	}
 }
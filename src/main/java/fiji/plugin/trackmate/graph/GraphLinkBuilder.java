@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * Collects weighted links produced concurrently by several tasks, and merges
+ * them into a graph in a single pass.
+ * <p>
+ * Each task owns one {@link Links} buffer, identified by its index, in which
+ * it records links as primitive <code>(sourceSlot, targetSlot, cost)</code>
+ * triplets. Slots are indices in the source and target lists the buffer was
+ * created with. Tasks therefore never touch the graph nor share any lock.
+ * Once all tasks are done, {@link #addTo(Graph)} adds the links to the graph,
+ * buffer after buffer in index order, so that the resulting graph does not
+ * depend on the order in which tasks completed.
+ *
+ * @param <V>
+ *            the type of the graph vertices.
+ * @author Jean-Yves Tinevez
+ */
+public class GraphLinkBuilder< V >
+{
+
+	private final AtomicReferenceArray< Links< V > > buffers;
+
+	/**
+	 * Creates a builder for the specified number of tasks.
+	 *
+	 * @param nBuffers
+	 *            the number of link buffers, typically one per task.
+	 */
+	public GraphLinkBuilder( final int nBuffers )
+	{
+		this.buffers = new AtomicReferenceArray<>( nBuffers );
+	}
+
+	/**
+	 * Creates and registers the link buffer at the specified index. Each
+	 * index must be claimed by at most one task.
+	 *
+	 * @param index
+	 *            the index of the buffer, which sets its position in the
+	 *            merge order.
+	 * @param sources
+	 *            the list the source slots of the buffer refer to.
+	 * @param targets
+	 *            the list the target slots of the buffer refer to.
+	 * @param capacity
+	 *            the expected number of links.
+	 * @return a new, empty link buffer.
+	 */
+	public Links< V > links( final int index, final List< ? extends V > sources, final List< ? extends V > targets, final int capacity )
+	{
+		final Links< V > links = new Links<>( sources, targets, capacity );
+		buffers.set( index, links );
+		return links;
+	}
+
+	/**
+	 * Returns the total number of links currently stored in this builder.
+	 *
+	 * @return the number of links.
+	 */
+	public int getNLinks()
+	{
+		int n = 0;
+		for ( int i = 0; i < buffers.length(); i++ )
+		{
+			final Links< V > links = buffers.get( i );
+			if ( links != null )
+				n += links.size;
+		}
+		return n;
+	}
+
+	/**
+	 * Adds all the links of this builder to the specified graph. The end
+	 * points of each link are added as vertices if they are not already in
+	 * the graph. Links between vertices already linked in the graph are
+	 * ignored.
+	 * <p>
+	 * This method must be called once all the tasks writing to this builder
+	 * are done, for instance after all their futures have returned.
+	 *
+	 * @param graph
+	 *            the graph to add links to.
+	 */
+	public void addTo( final Graph< V, DefaultWeightedEdge > graph )
+	{
+		for ( int i = 0; i < buffers.length(); i++ )
+		{
+			final Links< V > links = buffers.get( i );
+			if ( links == null )
+				continue;
+
+			for ( int l = 0; l < links.size; l++ )
+			{
+				final V source = links.sources.get( links.sourceSlots[ l ] );
+				final V target = links.targets.get( links.targetSlots[ l ] );
+				graph.addVertex( source );
+				graph.addVertex( target );
+				final DefaultWeightedEdge edge = graph.addEdge( source, target );
+				if ( edge != null )
+					graph.setEdgeWeight( edge, links.costs[ l ] );
+			}
+		}
+	}
+
+	/**
+	 * A buffer of links owned by a single task.
+	 *
+	 * @param <V>
+	 *            the type of the graph vertices.
+	 */
+	public static final class Links< V >
+	{
+
+		private final List< ? extends V > sources;
+
+		private final List< ? extends V > targets;
+
+		private int[] sourceSlots;
+
+		private int[] targetSlots;
+
+		private double[] costs;
+
+		private int size;
+
+		private Links( final List< ? extends V > sources, final List< ? extends V > targets, final int capacity )
+		{
+			this.sources = sources;
+			this.targets = targets;
+			final int c = Math.max( 1, capacity );
+			this.sourceSlots = new int[ c ];
+			this.targetSlots = new int[ c ];
+			this.costs = new double[ c ];
+		}
+
+		/**
+		 * Records a link.
+		 *
+		 * @param sourceSlot
+		 *            the index of the source in the source list.
+		 * @param targetSlot
+		 *            the index of the target in the target list.
+		 * @param cost
+		 *            the link cost, used as edge weight.
+		 */
+		public void add( final int sourceSlot, final int targetSlot, final double cost )
+		{
+			if ( size == costs.length )
+			{
+				final int capacity = 2 * size;
+				sourceSlots = Arrays.copyOf( sourceSlots, capacity );
+				targetSlots = Arrays.copyOf( targetSlots, capacity );
+				costs = Arrays.copyOf( costs, capacity );
+			}
+			sourceSlots[ size ] = sourceSlot;
+			targetSlots[ size ] = targetSlot;
+			costs[ size ] = cost;
+			size++;
+		}
+
+		/**
+		 * Returns the number of links in this buffer.
+		 *
+		 * @return the number of links.
+		 */
+		public int size()
+		{
+			return size;
+		}
+	}
+}
@@ -22,7 +22,6 @@
 package fiji.plugin.trackmate.gui.components;
 
 import static fiji.plugin.trackmate.features.FeatureUtils.collectFeatureKeys;
-import static fiji.plugin.trackmate.features.FeatureUtils.collectFeatureValues;
 import static fiji.plugin.trackmate.features.FeatureUtils.nObjects;
 import static fiji.plugin.trackmate.gui.Fonts.BIG_FONT;
 import static fiji.plugin.trackmate.gui.Fonts.SMALL_FONT;
@@ -60,6 +59,7 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureSketch;
 import fiji.plugin.trackmate.gui.GuiUtils;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import fiji.plugin.trackmate.util.OnRequestUpdater;
@@ -286,8 +286,8 @@ public class FilterGuiPanel extends JPanel implements ChangeListener
 	public void addFilterPanel( final FeatureFilter filter )
 	{
 		final Map< String, String > featureNames = collectFeatureKeys( target, model, settings );
-		final Function< String, double[] > valueCollector = ( featureKey ) -> collectFeatureValues( featureKey, target, model, false );
-		final FilterPanel tp = new FilterPanel( featureNames, valueCollector, filter );
+		final Function< String, FeatureSketch > sketchCollector = ( featureKey ) -> model.getFeatureStatistics().getSketch( featureKey, target, false );
+		final FilterPanel tp = new FilterPanel( featureNames, sketchCollector, filter );
 
 		tp.addChangeListener( this );
 		final Component strut = Box.createVerticalStrut( 5 );
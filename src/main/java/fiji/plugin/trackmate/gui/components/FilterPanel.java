@@ -69,9 +69,9 @@ import org.jfree.chart.renderer.xy.StandardXYBarPainter;
 import org.jfree.chart.renderer.xy.XYBarRenderer;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureSketch;
 import fiji.plugin.trackmate.gui.GuiUtils;
 import fiji.plugin.trackmate.util.Threads;
-import fiji.plugin.trackmate.util.TMUtils;
 import fiji.util.NumberParser;
 
 /**
@@ -110,7 +110,13 @@ public class FilterPanel extends javax.swing.JPanel
 
 	private double threshold;
 
-	private final Function< String, double[] > valueCollector;
+	private final Function< String, FeatureSketch > sketchCollector;
+
+	/**
+	 * The sketch of the feature currently selected. <code>null</code> until
+	 * the first refresh.
+	 */
+	private FeatureSketch sketch;
 
 	private final XYTextSimpleAnnotation annotation;
 
@@ -127,12 +133,25 @@ public class FilterPanel extends javax.swing.JPanel
 	 * CONSTRUCTOR
 	 */
 
+	/**
+	 * Creates a filter panel.
+	 *
+	 * @param keyNames
+	 *            the map of feature keys to feature names.
+	 * @param sketchCollector
+	 *            a function that returns the sketch of the values of a
+	 *            feature, used to draw the histogram and compute the
+	 *            auto-threshold. Called only when the feature selection
+	 *            changes or when the panel is refreshed.
+	 * @param filter
+	 *            the initial filter.
+	 */
 	public FilterPanel(
 			final Map< String, String > keyNames,
-			final Function< String, double[] > valueCollector,
+			final Function< String, FeatureSketch > sketchCollector,
 			final FeatureFilter filter )
 	{
-		this.valueCollector = valueCollector;
+		this.sketchCollector = sketchCollector;
 
 		final Dimension panelSize = new java.awt.Dimension( 250, 140 );
 		final Dimension panelMaxSize = new java.awt.Dimension( 1000, 140 );
@@ -172,7 +191,7 @@ public class FilterPanel extends javax.swing.JPanel
 		 * Create histogram plot.
 		 */
 
-		final LogHistogramDataset dataset = new LogHistogramDataset();
+		final SketchHistogramDataset dataset = new SketchHistogramDataset();
 		final JFreeChart chart = ChartFactory.createHistogram( null, null, null, dataset, PlotOrientation.VERTICAL, false, false, false );
 
 		plot = chart.getXYPlot();
@@ -340,21 +359,19 @@ public class FilterPanel extends javax.swing.JPanel
 	{
 		final double old = threshold;
 		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
+		sketch = sketchCollector.apply( key );
 
-		final LogHistogramDataset dataset;
-		if ( null == values || 0 == values.length )
+		final SketchHistogramDataset dataset = new SketchHistogramDataset();
+		if ( null == sketch || 0 == sketch.getCount() )
 		{
-			dataset = new LogHistogramDataset();
 			annotation.setLocation( 0.5f, 0.5f );
 			annotation.setText( "No data" );
 		}
 		else
 		{
-			final int nBins = TMUtils.getNBins( values, 8, 100 );
-			dataset = new LogHistogramDataset();
+			final int nBins = sketch.getNBins( 8, 100 );
 			if ( nBins > 1 )
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
+				dataset.addSeries( DATA_SERIES_NAME, sketch, nBins );
 		}
 		plot.setDataset( dataset );
 		threshold = old;
@@ -375,12 +392,11 @@ public class FilterPanel extends javax.swing.JPanel
 	private void comboBoxSelectionChanged()
 	{
 		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
+		sketch = sketchCollector.apply( key );
 
-		final LogHistogramDataset dataset;
-		if ( null == values || 0 == values.length )
+		final SketchHistogramDataset dataset = new SketchHistogramDataset();
+		if ( null == sketch || 0 == sketch.getCount() )
 		{
-			dataset = new LogHistogramDataset();
 			threshold = Double.NaN;
 			annotation.setLocation( 0.5f, 0.5f );
 			annotation.setText( "No data" );
@@ -388,11 +404,9 @@ public class FilterPanel extends javax.swing.JPanel
 		}
 		else
 		{
-			final int nBins = TMUtils.getNBins( values, 8, 100 );
-			dataset = new LogHistogramDataset();
-
+			final int nBins = sketch.getNBins( 8, 100 );
 			if ( nBins > 1 )
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
+				dataset.addSeries( DATA_SERIES_NAME, sketch, nBins );
 		}
 		plot.setDataset( dataset );
 		resetAxes();
@@ -401,11 +415,10 @@ public class FilterPanel extends javax.swing.JPanel
 
 	private void autoThreshold()
 	{
-		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
-		if ( null != values && values.length > 0 )
+		final FeatureSketch current = currentSketch();
+		if ( null != current && current.getCount() > 0 )
 		{
-			threshold = TMUtils.otsuThreshold( values );
+			threshold = current.otsuThreshold();
 			redrawThresholdMarker();
 		}
 	}
@@ -416,11 +429,16 @@ public class FilterPanel extends javax.swing.JPanel
 		return plot.getDomainAxis().java2DToValue( mouseEvent.getX(), plotArea, plot.getDomainAxisEdge() );
 	}
 
+	private FeatureSketch currentSketch()
+	{
+		if ( null == sketch )
+			sketch = sketchCollector.apply( ( String ) cmbboxFeatureKeys.getSelectedItem() );
+		return sketch;
+	}
+
 	private void redrawThresholdMarker()
 	{
-		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
-		if ( null == values )
+		if ( null == currentSketch() )
 			return;
 
 		if ( rdbtnAbove.isSelected() )
@@ -37,6 +37,7 @@ import javax.swing.SpringLayout;
 
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureSketch;
 import fiji.plugin.trackmate.util.OnRequestUpdater;
 
 public class InitFilterPanel extends JPanel
@@ -50,23 +51,29 @@ public class InitFilterPanel extends JPanel
 
 	private final OnRequestUpdater updater;
 
-	private final Function< String, double[] > valueCollector;
+	private final Function< String, FeatureSketch > sketchCollector;
 
 	private final FilterPanel filterPanel;
 
 	private final JLabel lblSelectedSpots;
 
-	private double[] values;
+	/**
+	 * The quality sketch, used to count the selected spots. The count is exact
+	 * up to the spots that share the fine bin of the threshold.
+	 */
+	private FeatureSketch sketch;
 
 	/**
 	 * Default constructor, initialize component.
 	 *
 	 * @param filter
-	 * @param valueCollector
+	 * @param sketchCollector
+	 *            returns the sketch used to draw the quality histogram and
+	 *            to count the selected spots.
 	 */
-	public InitFilterPanel( final FeatureFilter filter, final Function< String, double[] > valueCollector )
+	public InitFilterPanel( final FeatureFilter filter, final Function< String, FeatureSketch > sketchCollector )
 	{
-		this.valueCollector = valueCollector;
+		this.sketchCollector = sketchCollector;
 		this.updater = new OnRequestUpdater( () -> thresholdChanged() );
 
 		final BorderLayout thisLayout = new BorderLayout();
@@ -112,7 +119,7 @@ public class InitFilterPanel extends JPanel
 		final HashMap< String, String > keyNames = new HashMap<>( 1 );
 		keyNames.put( Spot.QUALITY, Spot.FEATURE_NAMES.get( Spot.QUALITY ) );
 
-		filterPanel = new FilterPanel( keyNames, valueCollector, filter );
+		filterPanel = new FilterPanel( keyNames, sketchCollector, filter );
 		filterPanel.cmbboxFeatureKeys.setEnabled( false );
 		filterPanel.rdbtnAbove.setEnabled( false );
 		filterPanel.rdbtnBelow.setEnabled( false );
@@ -129,7 +136,7 @@ public class InitFilterPanel extends JPanel
 
 	public void refresh()
 	{
-		values = valueCollector.apply( Spot.QUALITY );
+		sketch = sketchCollector.apply( Spot.QUALITY );
 		filterPanel.refresh();
 		updater.doUpdate();
 	}
@@ -152,22 +159,12 @@ public class InitFilterPanel extends JPanel
 		final double threshold = filter.value;
 		final boolean isAbove = filter.isAbove;
 
-		if ( null == values )
+		if ( null == sketch )
 			return;
-		final int nspots = values.length;
-		int nselected = 0;
-		if ( isAbove )
-		{
-			for ( final double val : values )
-				if ( val > threshold )
-					nselected++;
-		}
-		else
-		{
-			for ( final double val : values )
-				if ( val < threshold )
-					nselected++;
-		}
+		final long nspots = sketch.getCount();
+		final long nselected = isAbove
+				? nspots - sketch.countBelow( threshold )
+				: sketch.countBelow( threshold );
 		lblSelectedSpots.setText( String.format( SELECTED_SPOT_STRING, nselected, nspots ) );
 	}
 }
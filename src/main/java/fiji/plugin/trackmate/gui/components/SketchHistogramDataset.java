@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.gui.components;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.data.xy.AbstractIntervalXYDataset;
+
+import fiji.plugin.trackmate.features.FeatureSketch;
+
+/**
+ * A histogram dataset built from {@link FeatureSketch}es rather than from
+ * the values themselves, so that its cost does not depend on the number of
+ * values. Like {@link LogHistogramDataset}, it returns the log of the count in
+ * each bin (plus one), so as to have a logarithmic plot.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SketchHistogramDataset extends AbstractIntervalXYDataset
+{
+
+	private static final long serialVersionUID = 1L;
+
+	private final List< Comparable< ? > > keys = new ArrayList<>();
+
+	private final List< double[] > starts = new ArrayList<>();
+
+	private final List< double[] > ends = new ArrayList<>();
+
+	private final List< double[] > logCounts = new ArrayList<>();
+
+	/**
+	 * Adds a series to this dataset, with bins of equal width spanning the
+	 * range of the sketch.
+	 *
+	 * @param key
+	 *            the series key.
+	 * @param sketch
+	 *            the sketch to plot.
+	 * @param nBins
+	 *            the number of bins.
+	 */
+	public void addSeries( final Comparable< ? > key, final FeatureSketch sketch, final int nBins )
+	{
+		final long[] hist = sketch.histogram( nBins );
+		final double min = sketch.getMin();
+		final double binWidth = ( sketch.getMax() - min ) / nBins;
+		final double[] s = new double[ nBins ];
+		final double[] e = new double[ nBins ];
+		final double[] y = new double[ nBins ];
+		for ( int i = 0; i < nBins; i++ )
+		{
+			s[ i ] = min + i * binWidth;
+			e[ i ] = ( i == nBins - 1 ) ? sketch.getMax() : min + ( i + 1 ) * binWidth;
+			y[ i ] = Math.log( 1 + hist[ i ] );
+		}
+		keys.add( key );
+		starts.add( s );
+		ends.add( e );
+		logCounts.add( y );
+		fireDatasetChanged();
+	}
+
+	@Override
+	public int getSeriesCount()
+	{
+		return keys.size();
+	}
+
+	@Override
+	public Comparable< ? > getSeriesKey( final int series )
+	{
+		return keys.get( series );
+	}
+
+	@Override
+	public int getItemCount( final int series )
+	{
+		return logCounts.get( series ).length;
+	}
+
+	@Override
+	public Number getX( final int series, final int item )
+	{
+		return 0.5 * ( starts.get( series )[ item ] + ends.get( series )[ item ] );
+	}
+
+	@Override
+	public Number getY( final int series, final int item )
+	{
+		return logCounts.get( series )[ item ];
+	}
+
+	@Override
+	public Number getStartX( final int series, final int item )
+	{
+		return starts.get( series )[ item ];
+	}
+
+	@Override
+	public Number getEndX( final int series, final int item )
+	{
+		return ends.get( series )[ item ];
+	}
+
+	@Override
+	public Number getStartY( final int series, final int item )
+	{
+		return getY( series, item );
+	}
+
+	@Override
+	public Number getEndY( final int series, final int item )
+	{
+		return getY( series, item );
+	}
+}
@@ -27,7 +27,7 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.features.FeatureFilter;
-import fiji.plugin.trackmate.features.FeatureUtils;
+import fiji.plugin.trackmate.features.FeatureSketch;
 import fiji.plugin.trackmate.gui.components.InitFilterPanel;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import fiji.plugin.trackmate.gui.wizard.WizardPanelDescriptor;
@@ -44,9 +44,9 @@ public class InitFilterDescriptor extends WizardPanelDescriptor
 	{
 		super( KEY );
 		this.trackmate = trackmate;
-		final Function< String, double[] > valuesCollector = key -> FeatureUtils.collectFeatureValues(
-				Spot.QUALITY, TrackMateObject.SPOTS, trackmate.getModel(), false );
-		this.targetPanel = new InitFilterPanel( filter, valuesCollector );
+		final Function< String, FeatureSketch > sketchCollector = key -> trackmate.getModel().getFeatureStatistics()
+				.getSketch( Spot.QUALITY, TrackMateObject.SPOTS, false );
+		this.targetPanel = new InitFilterPanel( filter, sketchCollector );
 	}
 
 	@Override
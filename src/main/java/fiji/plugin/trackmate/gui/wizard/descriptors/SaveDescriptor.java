@@ -35,6 +35,7 @@ import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.wizard.WizardPanelDescriptor;
 import fiji.plugin.trackmate.gui.wizard.WizardSequence;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.ModelJournal;
 import fiji.plugin.trackmate.io.TmXmlWriter;
 import fiji.plugin.trackmate.util.TMUtils;
 
@@ -110,5 +111,11 @@ public class SaveDescriptor extends WizardPanelDescriptor
 			logger.error( "Input/Output error:\n" + e.getMessage() + '\n' );
 			return;
 		}
+
+		/*
+		 * Journal the edits made from now on, until the next save.
+		 */
+
+		ModelJournal.start( trackmate.getModel(), file, logger );
 	}
 }
@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+/**
+ * Fast parsing of the decimal numbers found in TrackMate files.
+ * <p>
+ * Numbers with a mantissa of at most 2<sup>53</sup> and a decimal exponent
+ * of at most 22 in magnitude are parsed directly from their characters: the
+ * mantissa and the power of ten it is scaled by are both exact doubles, so a
+ * single multiplication or division gives the correctly rounded result. This covers
+ * integer features and most of the values written in files. All other
+ * strings (longer mantissas, large exponents, <code>NaN</code>,
+ * <code>Infinity</code>, malformed numbers) are delegated to
+ * {@link Double#parseDouble(String)}, so the results are always identical to
+ * it.
+ *
+ * @author Jean-Yves Tinevez
+ */
+final class AsciiDoubleParser
+{
+
+	/** Largest mantissa that is exactly represented as a double. */
+	private static final long MAX_EXACT_MANTISSA = 1l << 53;
+
+	/** Powers of ten that are exactly represented as doubles. */
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+			1e21, 1e22 };
+
+	private AsciiDoubleParser()
+	{}
+
+	/**
+	 * Parses the specified string as a double.
+	 *
+	 * @param str
+	 *            the string to parse.
+	 * @return the same value as {@link Double#parseDouble(String)}.
+	 * @throws NumberFormatException
+	 *             if the string is not a number.
+	 */
+	static double parseDouble( final String str )
+	{
+		final int length = str.length();
+		int i = 0;
+		boolean negative = false;
+		if ( i < length && ( str.charAt( i ) == '-' || str.charAt( i ) == '+' ) )
+		{
+			negative = str.charAt( i ) == '-';
+			i++;
+		}
+
+		// Mantissa, ignoring the decimal point.
+		long mantissa = 0l;
+		int nDigits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+		boolean inFraction = false;
+		for ( ; i < length; i++ )
+		{
+			final char c = str.charAt( i );
+			if ( c == '.' && !inFraction )
+			{
+				inFraction = true;
+				continue;
+			}
+			if ( c < '0' || c > '9' )
+				break;
+
+			hasDigits = true;
+			if ( inFraction )
+				exponent--;
+			if ( mantissa == 0l && c == '0' )
+				continue;
+			if ( ++nDigits > 16 )
+				return Double.parseDouble( str );
+			mantissa = 10l * mantissa + ( c - '0' );
+		}
+		if ( !hasDigits )
+			return Double.parseDouble( str );
+
+		// Exponent.
+		if ( i < length && ( str.charAt( i ) == 'E' || str.charAt( i ) == 'e' ) )
+		{
+			i++;
+			boolean negativeExponent = false;
+			if ( i < length && ( str.charAt( i ) == '-' || str.charAt( i ) == '+' ) )
+			{
+				negativeExponent = str.charAt( i ) == '-';
+				i++;
+			}
+			if ( i == length )
+				return Double.parseDouble( str );
+			int exp = 0;
+			for ( ; i < length; i++ )
+			{
+				final char c = str.charAt( i );
+				if ( c < '0' || c > '9' || exp > 1000 )
+					return Double.parseDouble( str );
+				exp = 10 * exp + ( c - '0' );
+			}
+			exponent += negativeExponent ? -exp : exp;
+		}
+		if ( i != length )
+			return Double.parseDouble( str );
+
+		if ( mantissa == 0l )
+			return negative ? -0d : 0d;
+		if ( mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22 )
+			return Double.parseDouble( str );
+
+		final double value = exponent < 0
+				? mantissa / POWERS_OF_TEN[ -exponent ]
+				: mantissa * POWERS_OF_TEN[ exponent ];
+		return negative ? -value : value;
+	}
+}
@@ -22,27 +22,47 @@
 package fiji.plugin.trackmate.io;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import com.opencsv.CSVWriter;
+import org.jgrapht.graph.DefaultWeightedEdge;
 
 import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.util.TMUtils;
-
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * Exports the spot, edge and track features of a model to CSV files.
+ * <p>
+ * Rows are written straight from the model through a buffered writer, without
+ * building a table in memory first, so that these methods can be used on large
+ * models and from scripts, without a GUI. The rows can optionally be formatted
+ * in parallel, by chunks, while keeping the order they would have when written
+ * by a single thread.
+ *
+ * @author Jean-Yves Tinevez
+ */
 public class CSVExporter
 {
 
@@ -51,6 +71,19 @@ public class CSVExporter
 	 */
 	public static final String MISSING_STR = "ø";
 
+	private static final char SEPARATOR = ',';
+
+	private static final char ESCAPE = '"';
+
+	private static final String LINE_END = "\n";
+
+	/**
+	 * Maximal number of rows formatted together.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
 	/**
 	 * Exports the spots in the specified model to a CSV file.
 	 * <p>
@@ -86,57 +119,38 @@ public class CSVExporter
 	 */
 	public static final void exportSpots( final String csvFile, final Model model, final boolean visibleOnly ) throws IOException
 	{
-		final TrackModel tm = model.getTrackModel();
-		final Set< Integer > trackIDs = tm.trackIDs( visibleOnly );
-		final List< String > features = new ArrayList<>( model.getFeatureModel().getSpotFeatures() );
-
-		// Function to return a feature value.
-		final Map< String, Boolean > isInt = model.getFeatureModel().getSpotFeatureIsInt();
-		final BiFunction< Spot, String, Number > featureVal = ( s, f ) -> {
-			final Double obj = s.getFeature( f );
-			if ( obj == null )
-				return null;
-
-			if ( isInt.getOrDefault( f, Boolean.FALSE ) )
-				return obj.intValue();
-			else
-				return obj;
-		};
-
-		/*
-		 * Extra columns.
-		 */
+		exportSpots( csvFile, model, visibleOnly, 1 );
+	}
 
-		// Spot name function.
-		final Function< Spot, String > labelFun = ( s ) -> s.getName();
-		// Spot id function/
-		final Function< Spot, String > idFun = ( s ) -> Integer.toString( s.ID() );
-		// Track id function.
-		final Function< Spot, String > trackIdFun = ( s ) -> {
-			final Integer trackID = tm.trackIDOf( s );
-			if ( trackID == null )
-				return MISSING_STR;
-			else
-				return Integer.toString( trackID );
-		};
-		// Track name function.
-		final Function< Spot, String > trackNameFun = ( s ) -> {
-			final Integer trackID = tm.trackIDOf( s );
-			if ( trackID == null )
-				return MISSING_STR;
-			else
-				return tm.name( trackID );
-		};
-		// Track visibility function.
-		final Function< Spot, String > trackVisiblityFun = ( s ) -> {
-			final Integer trackID = tm.trackIDOf( s );
-			if ( trackID == null || !tm.isVisible( trackID ) )
-				return "0";
-			else
-				return "1";
-		};
+	/**
+	 * Exports the spots in the specified model to a CSV file, possibly
+	 * formatting the rows with several threads.
+	 * <p>
+	 * The table is the same as the one written by
+	 * {@link #exportSpots(String, Model, boolean)}. The spots in tracks are
+	 * written track by track, sorted by frame. The spots not in tracks are
+	 * written afterwards, frame by frame.
+	 * 
+	 * @param csvFile
+	 *            the path of the file to export to.
+	 * @param model
+	 *            the model to export.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the spots in visible tracks will be
+	 *            exported. Otherwise all spots are exported.
+	 * @param numThreads
+	 *            the number of threads to use to format the rows. If 1 or less,
+	 *            the rows are formatted in the calling thread.
+	 * @throws IOException
+	 *             if something wrong happens while writing to the CSV file.
+	 */
+	public static final void exportSpots( final String csvFile, final Model model, final boolean visibleOnly, final int numThreads ) throws IOException
+	{
+		final TrackModel tm = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > features = new ArrayList<>( fm.getSpotFeatures() );
+		final boolean[] isInt = isInt( features, fm.getSpotFeatureIsInt() );
 
-		final List< Function< Spot, String > > extraFuns = Arrays.asList( idFun, labelFun, trackIdFun, trackNameFun, trackVisiblityFun );
 		final String[][] extraHeaders = new String[][] {
 				{ "ID", "ID", "ID", "" },
 				{ "LABEL", "Label", "Label", "" },
@@ -145,62 +159,276 @@ public class CSVExporter
 				{ "TRACK_VISIBLE", "Track visibility", "Track visibility", "" }
 		};
 
-		try (CSVWriter writer = new CSVWriter( new FileWriter( new File( csvFile ) ),
-				CSVWriter.DEFAULT_SEPARATOR,
-				CSVWriter.NO_QUOTE_CHARACTER,
-				CSVWriter.DEFAULT_ESCAPE_CHARACTER,
-				CSVWriter.DEFAULT_LINE_END ))
+		final RowFormatter< Spot > formatter = ( spot, trackID, row ) -> {
+			row.append( spot.ID() );
+			row.append( SEPARATOR );
+			appendText( spot.getName(), row );
+			row.append( SEPARATOR );
+			if ( trackID == null )
+			{
+				row.append( MISSING_STR ).append( SEPARATOR );
+				row.append( MISSING_STR ).append( SEPARATOR );
+				row.append( '0' );
+			}
+			else
+			{
+				row.append( trackID.intValue() ).append( SEPARATOR );
+				appendText( tm.name( trackID ), row );
+				row.append( SEPARATOR );
+				row.append( tm.isVisible( trackID ) ? '1' : '0' );
+			}
+			for ( int i = 0; i < isInt.length; i++ )
+			{
+				row.append( SEPARATOR );
+				appendValue( spot.getFeature( features.get( i ) ), isInt[ i ], row );
+			}
+		};
+
+		try (final Writer out = new BufferedWriter( new FileWriter( new File( csvFile ) ), BUFFER_SIZE ))
 		{
-			// Header.
-			writeHeaderSpots( writer, model, extraHeaders );
+			writeHeader( out, features, fm.getSpotFeatureNames(), fm.getSpotFeatureShortNames(),
+					units( features, fm.getSpotFeatureDimensions(), model ), extraHeaders );
 
-			final SpotWriter spotWriter = new SpotWriter( writer, features, featureVal, extraFuns );
+			try (final ChunkWriter< Spot > writer = new ChunkWriter<>( out, formatter, numThreads ))
+			{
+				// Spots in tracks.
+				for ( final Integer trackID : tm.trackIDs( visibleOnly ) )
+				{
+					final List< Spot > spots = new ArrayList<>( tm.trackSpots( trackID ) );
+					spots.sort( Spot.frameComparator );
+					writer.write( spots, trackID );
+				}
 
-			// Spots in tracks.
-			for ( final Integer trackID : trackIDs )
+				// Possibly spots not in tracks, frame by frame.
+				if ( !visibleOnly )
+				{
+					for ( final Integer frame : model.getSpots().keySet() )
+					{
+						final List< Spot > spots = new ArrayList<>();
+						for ( final Spot spot : model.getSpots().iterable( frame, false ) )
+							if ( tm.trackIDOf( spot ) == null )
+								spots.add( spot );
+
+						writer.write( spots, null );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Exports the edges in the specified model to a CSV file.
+	 * 
+	 * @param csvFile
+	 *            the path of the file to export to.
+	 * @param model
+	 *            the model to export.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the edges in visible tracks will be
+	 *            exported. Otherwise all edges are exported.
+	 * @throws IOException
+	 *             if something wrong happens while writing to the CSV file.
+	 * @see #exportEdges(String, Model, boolean, int)
+	 */
+	public static final void exportEdges( final String csvFile, final Model model, final boolean visibleOnly ) throws IOException
+	{
+		exportEdges( csvFile, model, visibleOnly, 1 );
+	}
+
+	/**
+	 * Exports the edges in the specified model to a CSV file.
+	 * <p>
+	 * The table contains the edges, one edge per line, written track by track
+	 * and sorted by the frame of their source spot. All the declared edge
+	 * feature values are exported, one feature per column. Additionally, the
+	 * following columns are added:
+	 * <ol start="0">
+	 * <li>The edge label, made of the names of its source and target spots.
+	 * <li>The ID of the track the edge belongs to.
+	 * <li>The name of the track the edge belongs to.
+	 * </ol>
+	 * 
+	 * The table has the same 4-line header as the spot table.
+	 * 
+	 * @param csvFile
+	 *            the path of the file to export to.
+	 * @param model
+	 *            the model to export.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the edges in visible tracks will be
+	 *            exported. Otherwise all edges are exported.
+	 * @param numThreads
+	 *            the number of threads to use to format the rows. If 1 or less,
+	 *            the rows are formatted in the calling thread.
+	 * @throws IOException
+	 *             if something wrong happens while writing to the CSV file.
+	 */
+	public static final void exportEdges( final String csvFile, final Model model, final boolean visibleOnly, final int numThreads ) throws IOException
+	{
+		final TrackModel tm = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > features = new ArrayList<>( fm.getEdgeFeatures() );
+		final boolean[] isInt = isInt( features, fm.getEdgeFeatureIsInt() );
+
+		final String[][] extraHeaders = new String[][] {
+				{ "LABEL", "Label", "Label", "" },
+				{ "TRACK_ID", "Track ID", "Track ID", "" },
+				{ "TRACK_NAME", "Track name", "Track name", "" }
+		};
+
+		final RowFormatter< DefaultWeightedEdge > formatter = ( edge, trackID, row ) -> {
+			appendText( tm.getEdgeSource( edge ).getName() + " → " + tm.getEdgeTarget( edge ).getName(), row );
+			row.append( SEPARATOR );
+			row.append( trackID.intValue() ).append( SEPARATOR );
+			appendText( tm.name( trackID ), row );
+			for ( int i = 0; i < isInt.length; i++ )
 			{
-				final List< Spot > spots = new ArrayList<>( tm.trackSpots( trackID ) );
-				spots.sort( Spot.frameComparator );
-				for ( final Spot spot : spots )
-					spotWriter.write( spot );
+				row.append( SEPARATOR );
+				appendValue( fm.getEdgeFeature( edge, features.get( i ) ), isInt[ i ], row );
 			}
+		};
+
+		final Comparator< DefaultWeightedEdge > bySourceFrame =
+				( e1, e2 ) -> Spot.frameComparator.compare( tm.getEdgeSource( e1 ), tm.getEdgeSource( e2 ) );
+
+		try (final Writer out = new BufferedWriter( new FileWriter( new File( csvFile ) ), BUFFER_SIZE ))
+		{
+			writeHeader( out, features, fm.getEdgeFeatureNames(), fm.getEdgeFeatureShortNames(),
+					units( features, fm.getEdgeFeatureDimensions(), model ), extraHeaders );
 
-			// Possibly spots not in tracks.
-			if ( !visibleOnly )
+			try (final ChunkWriter< DefaultWeightedEdge > writer = new ChunkWriter<>( out, formatter, numThreads ))
 			{
-				for ( final Spot spot : model.getSpots().iterable( false ) )
+				for ( final Integer trackID : tm.trackIDs( visibleOnly ) )
 				{
-					if ( tm.trackIDOf( spot ) != null )
-						continue; // Already done abobe.
-
-					spotWriter.write( spot );
+					final List< DefaultWeightedEdge > edges = new ArrayList<>( tm.trackEdges( trackID ) );
+					edges.sort( bySourceFrame );
+					writer.write( edges, trackID );
 				}
 			}
 		}
 	}
 
-	private static void writeHeaderSpots( final CSVWriter writer, final Model model, final String[][] extra )
+	/**
+	 * Exports the tracks in the specified model to a CSV file.
+	 * <p>
+	 * The table contains the tracks, one track per line. All the declared
+	 * track feature values are exported, one feature per column. Additionally,
+	 * the following columns are added:
+	 * <ol start="0">
+	 * <li>The track name.
+	 * <li>Whether the track is visible. 1 if visible, 0 otherwise.
+	 * </ol>
+	 * 
+	 * The table has the same 4-line header as the spot table.
+	 * 
+	 * @param csvFile
+	 *            the path of the file to export to.
+	 * @param model
+	 *            the model to export.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the visible tracks will be
+	 *            exported. Otherwise all tracks are exported.
+	 * @throws IOException
+	 *             if something wrong happens while writing to the CSV file.
+	 */
+	public static final void exportTracks( final String csvFile, final Model model, final boolean visibleOnly ) throws IOException
+	{
+		final TrackModel tm = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > features = new ArrayList<>( fm.getTrackFeatures() );
+		final boolean[] isInt = isInt( features, fm.getTrackFeatureIsInt() );
+
+		final String[][] extraHeaders = new String[][] {
+				{ "LABEL", "Label", "Label", "" },
+				{ "TRACK_VISIBLE", "Track visibility", "Track visibility", "" }
+		};
+
+		final RowFormatter< Integer > formatter = ( id, trackID, row ) -> {
+			appendText( tm.name( id ), row );
+			row.append( SEPARATOR );
+			row.append( tm.isVisible( id ) ? '1' : '0' );
+			for ( int i = 0; i < isInt.length; i++ )
+			{
+				row.append( SEPARATOR );
+				appendValue( fm.getTrackFeature( id, features.get( i ) ), isInt[ i ], row );
+			}
+		};
+
+		try (final Writer out = new BufferedWriter( new FileWriter( new File( csvFile ) ), BUFFER_SIZE ))
+		{
+			writeHeader( out, features, fm.getTrackFeatureNames(), fm.getTrackFeatureShortNames(),
+					units( features, fm.getTrackFeatureDimensions(), model ), extraHeaders );
+
+			try (final ChunkWriter< Integer > writer = new ChunkWriter<>( out, formatter, 1 ))
+			{
+				writer.write( new ArrayList<>( tm.trackIDs( visibleOnly ) ), null );
+			}
+		}
+	}
+
+	/*
+	 * Formatting.
+	 */
+
+	private static boolean[] isInt( final List< String > features, final Map< String, Boolean > isInts )
+	{
+		final boolean[] isInt = new boolean[ features.size() ];
+		for ( int i = 0; i < isInt.length; i++ )
+			isInt[ i ] = isInts.getOrDefault( features.get( i ), Boolean.FALSE );
+		return isInt;
+	}
+
+	private static Map< String, String > units( final List< String > features, final Map< String, Dimension > dimensions, final Model model )
 	{
-		final List< String > features = new ArrayList<>( model.getFeatureModel().getSpotFeatures() );
-		final Map< String, String > featureNames = model.getFeatureModel().getSpotFeatureNames();
-		final Map< String, String > featureShortNames = model.getFeatureModel().getSpotFeatureShortNames();
 		final Map< String, String > featureUnits = new HashMap<>();
 		for ( final String feature : features )
 		{
-			final Dimension dimension = model.getFeatureModel().getSpotFeatureDimensions().get( feature );
+			final Dimension dimension = dimensions.get( feature );
 			final String units = TMUtils.getUnitsFor( dimension, model.getSpaceUnits(), model.getTimeUnits() );
 			featureUnits.put( feature, units );
 		}
-		writeHeader( writer, features, featureNames, featureShortNames, featureUnits, extra );
+		return featureUnits;
+	}
+
+	/**
+	 * Appends a feature value, formatted as an int if the feature is integer,
+	 * and the way {@link Double#toString(double)} formats it otherwise.
+	 */
+	private static void appendValue( final Double val, final boolean isInt, final StringBuilder row )
+	{
+		if ( val == null )
+			row.append( MISSING_STR );
+		else if ( isInt )
+			row.append( val.intValue() );
+		else
+			row.append( val.doubleValue() );
+	}
+
+	/**
+	 * Appends a text field. Like the OpenCSV writer with no quote character,
+	 * the separator, the escape character and the new lines are escaped.
+	 */
+	private static void appendText( final String str, final StringBuilder row )
+	{
+		if ( str == null )
+			return;
+
+		for ( int i = 0; i < str.length(); i++ )
+		{
+			final char c = str.charAt( i );
+			if ( c == ESCAPE || c == SEPARATOR || c == '\n' )
+				row.append( ESCAPE );
+			row.append( c );
+		}
 	}
 
 	private static void writeHeader(
-			final CSVWriter writer,
+			final Writer writer,
 			final List< String > features,
 			final Map< String, String > featureNames,
 			final Map< String, String > featureShortNames,
 			final Map< String, String > featureUnits,
-			final String[][] extra )
+			final String[][] extra ) throws IOException
 	{
 
 		final int columnShift = extra.length;
@@ -230,7 +458,7 @@ public class CSVExporter
 			content[ i ] = extra[ i ][ 0 ];
 		for ( int i = columnShift; i < content.length; i++ )
 			content[ i ] = features.get( i - columnShift );
-		writer.writeNext( content );
+		writeLine( writer, content );
 
 		// Header 2nd line.
 		if ( !skipSecondLine )
@@ -239,7 +467,7 @@ public class CSVExporter
 				content[ i ] = extra[ i ][ 1 ];
 			for ( int i = columnShift; i < content.length; i++ )
 				content[ i ] = featureNames.get( features.get( i - columnShift ) );
-			writer.writeNext( content );
+			writeLine( writer, content );
 		}
 
 		// Header 3rd line.
@@ -249,7 +477,7 @@ public class CSVExporter
 				content[ i ] = extra[ i ][ 2 ];
 			for ( int i = columnShift; i < content.length; i++ )
 				content[ i ] = featureShortNames.get( features.get( i - columnShift ) );
-			writer.writeNext( content );
+			writeLine( writer, content );
 		}
 
 		// Header 4th line.
@@ -262,46 +490,154 @@ public class CSVExporter
 			final String unitsStr = ( units == null || units.isEmpty() ) ? "" : "(" + units + ")";
 			content[ i ] = unitsStr;
 		}
-		writer.writeNext( content );
+		writeLine( writer, content );
 	}
 
-	private static class SpotWriter
+	private static void writeLine( final Writer writer, final String[] content ) throws IOException
 	{
+		final StringBuilder line = new StringBuilder();
+		for ( int i = 0; i < content.length; i++ )
+		{
+			if ( i > 0 )
+				line.append( SEPARATOR );
+			appendText( content[ i ], line );
+		}
+		line.append( LINE_END );
+		writer.write( line.toString() );
+	}
 
-		private final CSVWriter writer;
+	/**
+	 * Formats one row of a table.
+	 */
+	@FunctionalInterface
+	private static interface RowFormatter< O >
+	{
 
-		private final List< String > features;
+		/**
+		 * Appends the row of the specified object, without line end.
+		 * 
+		 * @param o
+		 *            the object to format.
+		 * @param trackID
+		 *            the ID of the track the object belongs to, or
+		 *            <code>null</code> if it is not in a track or if this is
+		 *            not relevant.
+		 * @param row
+		 *            the builder to append to.
+		 */
+		public void format( O o, Integer trackID, StringBuilder row );
+	}
 
-		private final List< Function< Spot, String > > extraFuns;
+	/**
+	 * Formats the rows of a table by chunks and writes them in the order the
+	 * chunks are given. With more than 1 thread, chunks are formatted
+	 * concurrently, with a bounded number of chunks in flight so that memory
+	 * does not grow with the model size.
+	 */
+	private static final class ChunkWriter< O > implements Closeable
+	{
+
+		private final Writer out;
+
+		private final RowFormatter< O > formatter;
+
+		private final ExecutorService executor;
 
-		private final String[] content;
+		private final int maxInFlight;
 
-		private final BiFunction< Spot, String, Number > featureVal;
+		private final ArrayDeque< Future< StringBuilder > > inFlight = new ArrayDeque<>();
 
-		private final int columnShift;
+		private final ConcurrentLinkedQueue< StringBuilder > pool = new ConcurrentLinkedQueue<>();
 
-		public SpotWriter( final CSVWriter writer, final List< String > features, final BiFunction< Spot, String, Number > featureVal, final List< Function< Spot, String > > extraFuns )
+		private char[] chars = new char[ BUFFER_SIZE ];
+
+		public ChunkWriter( final Writer out, final RowFormatter< O > formatter, final int numThreads )
 		{
-			this.writer = writer;
-			this.features = features;
-			this.featureVal = featureVal;
-			this.extraFuns = extraFuns;
-			this.columnShift = extraFuns.size();
-			final int nCols = columnShift + features.size();
-			this.content = new String[ nCols ];
+			this.out = out;
+			this.formatter = formatter;
+			this.executor = numThreads > 1 ? Threads.newFixedThreadPool( numThreads ) : null;
+			this.maxInFlight = 2 * numThreads;
 		}
 
-		public void write( final Spot spot )
+		/**
+		 * Writes the rows of the specified objects, possibly in several
+		 * chunks. The list must not be modified until this writer is closed.
+		 */
+		public void write( final List< O > objects, final Integer trackID ) throws IOException
 		{
-			for ( int i = 0; i < columnShift; i++ )
-				content[ i ] = extraFuns.get( i ).apply( spot );
-			for ( int i = columnShift; i < content.length; i++ )
+			for ( int start = 0; start < objects.size(); start += CHUNK_SIZE )
 			{
-				final Object val = featureVal.apply( spot, features.get( i - columnShift ) );
-				content[ i ] = ( val == null ) ? MISSING_STR : val.toString();
+				final List< O > chunk = objects.subList( start, Math.min( objects.size(), start + CHUNK_SIZE ) );
+				if ( executor == null )
+				{
+					flush( format( chunk, trackID ) );
+					continue;
+				}
+
+				if ( inFlight.size() >= maxInFlight )
+					flush( get( inFlight.poll() ) );
+				inFlight.add( executor.submit( () -> format( chunk, trackID ) ) );
 			}
+		}
+
+		private StringBuilder format( final List< O > chunk, final Integer trackID )
+		{
+			StringBuilder rows = pool.poll();
+			if ( rows == null )
+				rows = new StringBuilder( BUFFER_SIZE );
+			for ( final O o : chunk )
+			{
+				formatter.format( o, trackID, rows );
+				rows.append( LINE_END );
+			}
+			return rows;
+		}
+
+		private void flush( final StringBuilder rows ) throws IOException
+		{
+			final int length = rows.length();
+			if ( chars.length < length )
+				chars = new char[ length ];
+			rows.getChars( 0, length, chars, 0 );
+			out.write( chars, 0, length );
+			rows.setLength( 0 );
+			pool.add( rows );
+		}
+
+		private static StringBuilder get( final Future< StringBuilder > future ) throws IOException
+		{
+			try
+			{
+				return future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "CSV export interrupted." );
+			}
+			catch ( final ExecutionException e )
+			{
+				throw new IOException( "Problem formatting CSV rows: " + e.getCause().getMessage(), e.getCause() );
+			}
+		}
 
-			writer.writeNext( content );
+		/**
+		 * Writes the chunks still in flight and stops the formatting threads.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if ( executor == null )
+				return;
+			try
+			{
+				while ( !inFlight.isEmpty() )
+					flush( get( inFlight.poll() ) );
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
 		}
 	}
 
@@ -33,11 +33,18 @@ import java.awt.Component;
 import java.awt.FileDialog;
 import java.awt.Frame;
 import java.awt.HeadlessException;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
@@ -74,6 +81,79 @@ public class IOUtils
 		return ILLEGAL_SURROGATE_PAIRS.matcher( cleaned ).replaceAll( "" );
 	}
 
+	/**
+	 * The extension of gzip-compressed TrackMate XML files.
+	 */
+	public static final String XML_GZ_EXTENSION = "xml.gz";
+
+	/**
+	 * The extensions of the TrackMate files that can be loaded.
+	 */
+	private static final String[] LOADING_EXTENSIONS = new String[] { "xml", XML_GZ_EXTENSION, TmBinaryKeys.EXTENSION };
+
+	/**
+	 * Returns <code>true</code> if the specified file starts with the gzip
+	 * magic bytes.
+	 *
+	 * @param file
+	 *            the file to inspect.
+	 * @return <code>true</code> if the file is gzip-compressed.
+	 */
+	public static boolean isGzipFile( final File file )
+	{
+		try (final InputStream is = new FileInputStream( file ))
+		{
+			return is.read() == 0x1f && is.read() == 0x8b;
+		}
+		catch ( final IOException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Opens a buffered input stream on the specified file. Gzip-compressed
+	 * files are detected from their magic bytes and decompressed on the fly.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return a new input stream.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static InputStream openInputStream( final File file ) throws IOException
+	{
+		if ( isGzipFile( file ) )
+			return new BufferedInputStream( new GZIPInputStream( new FileInputStream( file ), 1 << 16 ), 1 << 16 );
+		return new BufferedInputStream( new FileInputStream( file ), 1 << 16 );
+	}
+
+	/**
+	 * Opens an output stream on the specified file. If the file name ends with
+	 * <code>.gz</code>, the data is gzip-compressed in parallel.
+	 *
+	 * @param file
+	 *            the file to write.
+	 * @return a new output stream.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static OutputStream openOutputStream( final File file ) throws IOException
+	{
+		final OutputStream os = new FileOutputStream( file );
+		if ( !file.getName().endsWith( ".gz" ) )
+			return os;
+		try
+		{
+			return new ParallelGZIPOutputStream( os );
+		}
+		catch ( final IOException e )
+		{
+			os.close();
+			throw e;
+		}
+	}
+
 	public static final boolean canReadFile( final String path, final StringBuilder errorHolder )
 	{
 		if ( path.isEmpty() )
@@ -114,22 +194,55 @@ public class IOUtils
 	 *         "cancel" button.
 	 */
 	public static File askForFileForSaving( final File file, final Frame parent )
+	{
+		return askForFileForSaving( file, parent, "XML files", new String[] { "xml", XML_GZ_EXTENSION } );
+	}
+
+	/**
+	 * Prompts the user for a file with the specified extension to save to.
+	 *
+	 * @param file
+	 *            a default file, will be used to display a default choice in
+	 *            the file chooser.
+	 * @param parent
+	 *            the {@link Frame} to lock on this dialog. It can be
+	 *            <code>null</code>; in that case, native dialogs will not be
+	 *            used on Macs.
+	 * @param extension
+	 *            the file extension, without the dot.
+	 * @param description
+	 *            the description of the file type, used in the file chooser
+	 *            filter.
+	 * @return the selected file, or <code>null</code> if the user pressed the
+	 *         "cancel" button.
+	 */
+	public static File askForFileForSaving( final File file, final Frame parent, final String extension, final String description )
+	{
+		return askForFileForSaving( file, parent, description, new String[] { extension } );
+	}
+
+	/**
+	 * Prompts the user for a file to save to. The first extension is appended
+	 * to the selected file name on Macs if it does not end with any of the
+	 * specified extensions.
+	 */
+	private static File askForFileForSaving( final File file, final Frame parent, final String description, final String[] extensions )
 	{
 		if ( IJ.isMacintosh() && parent != null )
 		{
 			// use the native file dialog on the mac
-			final FileDialog dialog = new FileDialog( parent, "Save to a XML file", FileDialog.SAVE );
+			final FileDialog dialog = new FileDialog( parent, "Save to a " + description.replaceFirst( "s$", "" ), FileDialog.SAVE );
 			dialog.setIconImage( TRACKMATE_ICON.getImage() );
 			dialog.setDirectory( file.getParent() );
 			dialog.setFile( file.getName() );
-			final FilenameFilter filter = ( dir, name ) -> name.endsWith( ".xml" );
+			final FilenameFilter filter = ( dir, name ) -> hasExtension( name, extensions );
 			dialog.setFilenameFilter( filter );
 			dialog.setVisible( true );
 			String selectedFile = dialog.getFile();
 			if ( null == selectedFile )
 				return null;
-			if ( !selectedFile.endsWith( ".xml" ) )
-				selectedFile += ".xml";
+			if ( !hasExtension( selectedFile, extensions ) )
+				selectedFile += "." + extensions[ 0 ];
 			return new File( dialog.getDirectory(), selectedFile );
 		}
 		else
@@ -147,7 +260,7 @@ public class IOUtils
 				}
 			};
 			fileChooser.setSelectedFile( file );
-			final FileNameExtensionFilter filter = new FileNameExtensionFilter( "XML files", "xml" );
+			final FileNameExtensionFilter filter = new FileNameExtensionFilter( description, lastExtensions( extensions ) );
 			fileChooser.setFileFilter( filter );
 
 			final int returnVal = fileChooser.showSaveDialog( parent );
@@ -159,7 +272,32 @@ public class IOUtils
 	}
 
 	/**
-	 * Prompts the user for a xml file to load from.
+	 * Returns <code>true</code> if the file name ends with one of the
+	 * specified extensions.
+	 */
+	private static boolean hasExtension( final String name, final String[] extensions )
+	{
+		for ( final String extension : extensions )
+			if ( name.endsWith( "." + extension ) )
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the last component of the specified extensions, as
+	 * {@link FileNameExtensionFilter} only checks the text after the last dot.
+	 */
+	private static String[] lastExtensions( final String[] extensions )
+	{
+		final String[] lasts = new String[ extensions.length ];
+		for ( int i = 0; i < extensions.length; i++ )
+			lasts[ i ] = extensions[ i ].substring( extensions[ i ].lastIndexOf( '.' ) + 1 );
+		return lasts;
+	}
+
+	/**
+	 * Prompts the user for a TrackMate file to load from: xml, compressed xml
+	 * or binary.
 	 *
 	 * @param file
 	 *            a default file, will be used to display a default choice in
@@ -188,7 +326,7 @@ public class IOUtils
 				@Override
 				public boolean accept( final File dir, final String name )
 				{
-					return name.endsWith( ".xml" );
+					return hasExtension( name, LOADING_EXTENSIONS );
 				}
 			};
 			dialog.setFilenameFilter( filter );
@@ -199,7 +337,7 @@ public class IOUtils
 				logger.log( "Load data aborted.\n" );
 				return null;
 			}
-			if ( !selectedFile.endsWith( ".xml" ) )
+			if ( !hasExtension( selectedFile, LOADING_EXTENSIONS ) )
 				selectedFile += ".xml";
 			file = new File( dialog.getDirectory(), selectedFile );
 		}
@@ -219,7 +357,7 @@ public class IOUtils
 			};
 			fileChooser.setName( title );
 			fileChooser.setSelectedFile( file );
-			final FileNameExtensionFilter filter = new FileNameExtensionFilter( "XML files", "xml" );
+			final FileNameExtensionFilter filter = new FileNameExtensionFilter( "TrackMate files", lastExtensions( LOADING_EXTENSIONS ) );
 			fileChooser.setFileFilter( filter );
 
 			final int returnVal = fileChooser.showOpenDialog( parent );
@@ -0,0 +1,905 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * An append-only journal of the edits made to a {@link Model} since it was
+ * last saved.
+ * <p>
+ * The journal listens to the model and, at the end of each transaction,
+ * appends one record with the spots and edges that were added, removed, moved
+ * or modified. Writing a record costs in proportion to the edit, not to the
+ * model size. If Fiji crashes before the next save, the edits are recovered by
+ * replaying the journal on top of the last saved file with
+ * {@link #resume(Model, File, Logger)}.
+ * <p>
+ * Records are serialized in memory on the thread that ends the transaction,
+ * often the EDT, and written to disk by a single background thread, shared by
+ * all the journals so that a journal restarted on the same file never races
+ * the one it replaces. Opening and closing journals is done on this thread
+ * too, so {@link #start(Model, File, Logger)} and {@link #close()} do not
+ * block. Each record is checksummed, so that a record truncated by a crash is
+ * ignored.
+ * After {@link #COMPACTION_THRESHOLD} records, the journal is rewritten to a
+ * single record holding the net changes.
+ * <p>
+ * Only spots and edges are journaled. Track visibility and names are not, and
+ * edge and track features are not recomputed by the replay: callers must
+ * recompute them when {@link #hasReplayed()} returns <code>true</code>.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ModelJournal implements ModelChangeListener, Closeable
+{
+
+	/**
+	 * The extension appended to the name of the saved file to build the name
+	 * of its journal file.
+	 */
+	public static final String EXTENSION = "journal";
+
+	/**
+	 * The number of records after which the journal is compacted.
+	 */
+	public static final int COMPACTION_THRESHOLD = 1000;
+
+	/** "TMJOURNL" in ASCII. */
+	private static final long MAGIC = 0x544D4A4F55524E4Cl;
+
+	private static final int VERSION = 1;
+
+	/** Magic, version, length and last modification time of the base file. */
+	private static final int HEADER_SIZE = 8 + 4 + 8 + 8;
+
+	private static final byte DEFINE_KEY = 0;
+
+	private static final byte PUT_SPOT = 1;
+
+	private static final byte REMOVE_SPOT = 2;
+
+	private static final byte PUT_EDGE = 3;
+
+	private static final byte REMOVE_EDGE = 4;
+
+	/**
+	 * Opens, writes, compacts and closes the journal files, in the order of
+	 * the events.
+	 */
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor( r -> {
+		final Thread thread = new Thread( r, "TrackMate journal writer" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private final Model model;
+
+	private final File file;
+
+	private final Logger logger;
+
+	/** Feature key to index. Only accessed by the thread firing events. */
+	private final Map< String, Integer > keyIndices;
+
+	/**
+	 * Only accessed by the writer thread. <code>null</code> if the journal file
+	 * could not be opened.
+	 */
+	private FileChannel channel;
+
+	/** Only accessed by the writer thread. */
+	private int nRecords;
+
+	private int compactionThreshold = COMPACTION_THRESHOLD;
+
+	/** Whether changes were replayed on the model when resuming. */
+	private boolean replayed;
+
+	private ModelJournal( final Model model, final File file, final Logger logger, final FileChannel channel, final int nRecords, final Map< String, Integer > keyIndices )
+	{
+		this.model = model;
+		this.file = file;
+		this.logger = logger;
+		this.channel = channel;
+		this.nRecords = nRecords;
+		this.keyIndices = keyIndices;
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Returns the journal file of the specified TrackMate file.
+	 *
+	 * @param file
+	 *            the TrackMate file.
+	 * @return the journal file, next to it.
+	 */
+	public static File journalFileFor( final File file )
+	{
+		return new File( file.getPath() + '.' + EXTENSION );
+	}
+
+	/**
+	 * Starts a new, empty journal for a model that has just been saved to the
+	 * specified file. An existing journal file is overwritten, and journals
+	 * previously attached to the model are closed.
+	 * <p>
+	 * The journal file is created by the writer thread, after the pending
+	 * writes of the closed journals, and this method returns without waiting
+	 * for it. Errors creating it are reported to the logger.
+	 *
+	 * @param model
+	 *            the model to journal.
+	 * @param file
+	 *            the file the model was saved to.
+	 * @param logger
+	 *            a logger to report writing errors.
+	 * @return the new journal, listening to the model.
+	 */
+	public static ModelJournal start( final Model model, final File file, final Logger logger )
+	{
+		stop( model );
+		final File journalFile = journalFileFor( file );
+		final long baseLength = file.length();
+		final long baseLastModified = file.lastModified();
+		final ModelJournal journal = new ModelJournal( model, journalFile, logger, null, 0, new HashMap<>() );
+		WRITER.execute( () -> journal.create( baseLength, baseLastModified ) );
+		model.addModelChangeListener( journal );
+		return journal;
+	}
+
+	/**
+	 * Replays the journal of the specified file, if any, on a model that has
+	 * just been loaded from this file, then keeps journaling the model. A
+	 * journal that was not started for this version of the file is discarded.
+	 * <p>
+	 * This method waits for the pending writes of the closed journals before
+	 * reading the journal file, so it should not be called on the EDT. The
+	 * edge and track features of the model are not updated for the replayed
+	 * changes: they must be recomputed if {@link #hasReplayed()} returns
+	 * <code>true</code> on the returned journal.
+	 *
+	 * @param model
+	 *            the model loaded from the file.
+	 * @param file
+	 *            the TrackMate file.
+	 * @param logger
+	 *            a logger to report replay and writing errors.
+	 * @return the journal, listening to the model.
+	 * @throws IOException
+	 *             if the journal file cannot be read or written.
+	 */
+	public static ModelJournal resume( final Model model, final File file, final Logger logger ) throws IOException
+	{
+		awaitPendingWrites();
+		final File journalFile = journalFileFor( file );
+		if ( !journalFile.exists() )
+			return start( model, file, logger );
+
+		final Contents contents = read( journalFile );
+		if ( contents.baseLength != file.length() || contents.baseLastModified != file.lastModified() )
+		{
+			logger.log( "The autosave journal " + journalFile + " does not match the file " + file + ". Discarding it.\n" );
+			return start( model, file, logger );
+		}
+
+		stop( model );
+		if ( contents.nRecords > 0 )
+		{
+			contents.changes.applyTo( model );
+			logger.log( "Recovered changes to " + contents.changes.size() + " spots and edges from the autosave journal.\n" );
+		}
+
+		final FileChannel channel = FileChannel.open( journalFile.toPath(), StandardOpenOption.WRITE );
+		// Drop a record truncated by a crash.
+		channel.truncate( contents.length );
+		channel.position( contents.length );
+		final Map< String, Integer > keyIndices = new HashMap<>();
+		contents.changes.keys.forEach( ( index, key ) -> keyIndices.put( key, index ) );
+		final ModelJournal journal = new ModelJournal( model, journalFile, logger, channel, contents.nRecords, keyIndices );
+		journal.replayed = contents.nRecords > 0;
+		model.addModelChangeListener( journal );
+		return journal;
+	}
+
+	/**
+	 * Closes all the journals listening to the specified model.
+	 *
+	 * @param model
+	 *            the model.
+	 */
+	public static void stop( final Model model )
+	{
+		for ( final ModelChangeListener listener : new ArrayList<>( model.getModelChangeListener() ) )
+			if ( listener instanceof ModelJournal )
+				( ( ModelJournal ) listener ).close();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+			return;
+
+		final byte[] record;
+		try
+		{
+			record = serialize( event );
+		}
+		catch ( final IOException e )
+		{
+			// Cannot happen when writing to a byte array.
+			throw new UncheckedIOException( e );
+		}
+		if ( record.length > 0 )
+			WRITER.execute( () -> append( record ) );
+	}
+
+	/**
+	 * Stops listening to the model. The pending records are written and the
+	 * journal file is closed by the writer thread: this method does not wait
+	 * for them.
+	 */
+	@Override
+	public void close()
+	{
+		model.removeModelChangeListener( this );
+		WRITER.execute( () -> {
+			if ( null == channel )
+				return;
+			try
+			{
+				channel.close();
+			}
+			catch ( final IOException e )
+			{
+				logger.error( "Could not close the autosave journal " + file + ":\n" + e.getMessage() + '\n' );
+			}
+			channel = null;
+		} );
+	}
+
+	/**
+	 * Returns the journal file.
+	 *
+	 * @return the journal file.
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Returns whether changes recorded in the journal file were replayed on
+	 * the model by {@link #resume(Model, File, Logger)}.
+	 *
+	 * @return <code>true</code> if the model was changed when resuming.
+	 */
+	public boolean hasReplayed()
+	{
+		return replayed;
+	}
+
+	void setCompactionThreshold( final int compactionThreshold )
+	{
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Waits until the writer thread has run all the tasks submitted so far.
+	 */
+	static void awaitPendingWrites()
+	{
+		try
+		{
+			WRITER.submit( () -> {} ).get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch ( final ExecutionException e )
+		{
+			// Cannot happen, the task does nothing.
+			throw new RuntimeException( e.getCause() );
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private byte[] serialize( final ModelChangeEvent event ) throws IOException
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream( bytes );
+
+		// Removals first, then additions and modifications.
+		final List< DefaultWeightedEdge > edgesPut = new ArrayList<>();
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			if ( trackModel.edgeSet().contains( edge ) )
+			{
+				edgesPut.add( edge );
+				continue;
+			}
+			final Spot source = event.getRemovedEdgeSource( edge );
+			final Spot target = event.getRemovedEdgeTarget( edge );
+			if ( null == source || null == target )
+				continue;
+			out.writeByte( REMOVE_EDGE );
+			out.writeInt( source.ID() );
+			out.writeInt( target.ID() );
+		}
+
+		/*
+		 * The flag only tells the last change made to a spot during the
+		 * transaction. A spot removed then added back is flagged as removed,
+		 * but it is in the graph.
+		 */
+		final List< Spot > spotsPut = new ArrayList<>();
+		for ( final Spot spot : event.getSpots() )
+		{
+			if ( ModelChangeEvent.FLAG_SPOT_REMOVED == event.getSpotFlag( spot ) && !trackModel.vertexSet().contains( spot ) )
+			{
+				out.writeByte( REMOVE_SPOT );
+				out.writeInt( spot.ID() );
+			}
+			else
+			{
+				spotsPut.add( spot );
+			}
+		}
+
+		for ( final Spot spot : spotsPut )
+			SpotState.of( spot, keyIndices, out ).write( spot.ID(), out );
+
+		for ( final DefaultWeightedEdge edge : edgesPut )
+			new EdgeState(
+					trackModel.getEdgeSource( edge ).ID(),
+					trackModel.getEdgeTarget( edge ).ID(),
+					trackModel.getEdgeWeight( edge ),
+					false ).write( out );
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Creates the journal file, with an empty header. Runs on the writer
+	 * thread.
+	 */
+	private void create( final long baseLength, final long baseLastModified )
+	{
+		try
+		{
+			final FileChannel newChannel = FileChannel.open( file.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+			try
+			{
+				writeHeader( newChannel, baseLength, baseLastModified );
+			}
+			catch ( final IOException e )
+			{
+				newChannel.close();
+				throw e;
+			}
+			channel = newChannel;
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not start the autosave journal " + file + ":\n" + e.getMessage() + '\n' );
+		}
+	}
+
+	private void append( final byte[] record )
+	{
+		if ( null == channel )
+			return;
+		try
+		{
+			writeRecord( channel, record );
+			if ( ++nRecords >= compactionThreshold )
+				compact();
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Could not write to the autosave journal " + file + ":\n" + e.getMessage() + '\n' );
+		}
+	}
+
+	/**
+	 * Rewrites the journal file as a single record of the net changes, in a
+	 * temporary file moved over the journal when complete.
+	 */
+	private void compact() throws IOException
+	{
+		final Contents contents = read( file );
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream( bytes );
+		contents.changes.write( out );
+		out.flush();
+
+		final File tmp = new File( file.getPath() + ".tmp" );
+		try (final FileChannel tmpChannel = FileChannel.open( tmp.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ))
+		{
+			writeHeader( tmpChannel, contents.baseLength, contents.baseLastModified );
+			writeRecord( tmpChannel, bytes.toByteArray() );
+			tmpChannel.force( false );
+		}
+		channel.close();
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+		nRecords = 1;
+	}
+
+	private static void writeHeader( final FileChannel channel, final long baseLength, final long baseLastModified ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE );
+		buffer.putLong( MAGIC ).putInt( VERSION ).putLong( baseLength ).putLong( baseLastModified );
+		buffer.flip();
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	/**
+	 * A record is its length, the payload, and the CRC32 of the payload.
+	 */
+	private static void writeRecord( final FileChannel channel, final byte[] payload ) throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		crc.update( payload );
+		final ByteBuffer buffer = ByteBuffer.allocate( payload.length + 8 );
+		buffer.putInt( payload.length ).put( payload ).putInt( ( int ) crc.getValue() );
+		buffer.flip();
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	/**
+	 * Reads a journal file, up to the first incomplete or corrupted record.
+	 */
+	private static Contents read( final File file ) throws IOException
+	{
+		final Contents contents = new Contents();
+		final long fileLength = file.length();
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ))
+		{
+			if ( fileLength < HEADER_SIZE || in.readLong() != MAGIC )
+				throw new IOException( "Not a TrackMate journal file: " + file );
+			final int version = in.readInt();
+			if ( version > VERSION )
+				throw new IOException( "Unsupported TrackMate journal version: " + version );
+			contents.baseLength = in.readLong();
+			contents.baseLastModified = in.readLong();
+
+			final CRC32 crc = new CRC32();
+			long position = HEADER_SIZE;
+			while ( position + 8 <= fileLength )
+			{
+				final int length = in.readInt();
+				if ( length < 0 || position + 8 + length > fileLength )
+					break;
+				final byte[] payload = new byte[ length ];
+				in.readFully( payload );
+				final int checksum = in.readInt();
+				crc.reset();
+				crc.update( payload );
+				if ( ( int ) crc.getValue() != checksum )
+					break;
+
+				contents.changes.read( payload );
+				contents.nRecords++;
+				position += 8 + length;
+			}
+			contents.length = position;
+		}
+		catch ( final EOFException e )
+		{
+			throw new IOException( "Truncated TrackMate journal header: " + file );
+		}
+		return contents;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class Contents
+	{
+
+		private long baseLength;
+
+		private long baseLastModified;
+
+		private int nRecords;
+
+		/** Length of the valid part of the file. */
+		private long length;
+
+		private final Changes changes = new Changes();
+	}
+
+	/**
+	 * The net changes described by a sequence of records. Later changes to a
+	 * spot or an edge replace earlier ones.
+	 */
+	private static final class Changes
+	{
+
+		private final Map< Integer, String > keys = new TreeMap<>();
+
+		/** Spot ID to last state. */
+		private final Map< Integer, SpotState > spots = new LinkedHashMap<>();
+
+		/** Unordered pair of spot IDs to last state. */
+		private final Map< Long, EdgeState > edges = new LinkedHashMap<>();
+
+		private int size()
+		{
+			return spots.size() + edges.size();
+		}
+
+		private void read( final byte[] payload ) throws IOException
+		{
+			final DataInputStream in = new DataInputStream( new ByteArrayInputStream( payload ) );
+			while ( in.available() > 0 )
+			{
+				final byte op = in.readByte();
+				switch ( op )
+				{
+				case DEFINE_KEY:
+				{
+					final int index = in.readInt();
+					keys.put( index, in.readUTF() );
+					break;
+				}
+				case PUT_SPOT:
+				{
+					final int id = in.readInt();
+					spots.put( id, SpotState.read( in ) );
+					break;
+				}
+				case REMOVE_SPOT:
+					spots.put( in.readInt(), SpotState.REMOVED );
+					break;
+				case PUT_EDGE:
+				case REMOVE_EDGE:
+				{
+					final int source = in.readInt();
+					final int target = in.readInt();
+					final boolean removed = op == REMOVE_EDGE;
+					final double weight = removed ? Double.NaN : in.readDouble();
+					edges.put( edgeKey( source, target ), new EdgeState( source, target, weight, removed ) );
+					break;
+				}
+				default:
+					throw new IOException( "Unknown operation in TrackMate journal: " + op );
+				}
+			}
+		}
+
+		private void write( final DataOutputStream out ) throws IOException
+		{
+			for ( final Map.Entry< Integer, String > entry : keys.entrySet() )
+			{
+				out.writeByte( DEFINE_KEY );
+				out.writeInt( entry.getKey() );
+				out.writeUTF( entry.getValue() );
+			}
+			for ( final EdgeState edge : edges.values() )
+				if ( edge.removed )
+					edge.write( out );
+			for ( final Map.Entry< Integer, SpotState > entry : spots.entrySet() )
+				if ( entry.getValue() == SpotState.REMOVED )
+					SpotState.REMOVED.write( entry.getKey(), out );
+			for ( final Map.Entry< Integer, SpotState > entry : spots.entrySet() )
+				if ( entry.getValue() != SpotState.REMOVED )
+					entry.getValue().write( entry.getKey(), out );
+			for ( final EdgeState edge : edges.values() )
+				if ( !edge.removed )
+					edge.write( out );
+		}
+
+		private void applyTo( final Model model )
+		{
+			final TrackModel trackModel = model.getTrackModel();
+			final Map< Integer, Spot > spotsByID = new HashMap<>();
+			for ( final Spot spot : model.getSpots().iterable( false ) )
+				spotsByID.put( spot.ID(), spot );
+
+			model.beginUpdate();
+			try
+			{
+				for ( final EdgeState edge : edges.values() )
+				{
+					if ( !edge.removed )
+						continue;
+					final Spot source = spotsByID.get( edge.source );
+					final Spot target = spotsByID.get( edge.target );
+					if ( null != source && null != target && trackModel.containsEdge( source, target ) )
+						model.removeEdge( source, target );
+				}
+
+				for ( final Map.Entry< Integer, SpotState > entry : spots.entrySet() )
+				{
+					if ( entry.getValue() != SpotState.REMOVED )
+						continue;
+					final Spot spot = spotsByID.remove( entry.getKey() );
+					if ( null != spot )
+						model.removeSpot( spot );
+				}
+
+				for ( final Map.Entry< Integer, SpotState > entry : spots.entrySet() )
+				{
+					final SpotState state = entry.getValue();
+					if ( state == SpotState.REMOVED )
+						continue;
+
+					Spot spot = spotsByID.get( entry.getKey() );
+					if ( null == spot )
+					{
+						spot = new Spot( entry.getKey().intValue() );
+						spotsByID.put( entry.getKey(), spot );
+						model.addSpotTo( spot, state.frame );
+					}
+					else
+					{
+						final Double fromFrame = spot.getFeature( Spot.FRAME );
+						if ( null != fromFrame && fromFrame.intValue() != state.frame )
+							model.moveSpotFrom( spot, fromFrame.intValue(), state.frame );
+						model.updateFeatures( spot );
+					}
+					for ( int i = 0; i < state.keys.length; i++ )
+						spot.putFeature( keys.get( state.keys[ i ] ), state.values[ i ] );
+					if ( null != state.name )
+						spot.setName( state.name );
+					spot.setRoi( null == state.roiX ? null : new SpotRoi( state.roiX, state.roiY ) );
+				}
+
+				for ( final EdgeState edge : edges.values() )
+				{
+					if ( edge.removed )
+						continue;
+					final Spot source = spotsByID.get( edge.source );
+					final Spot target = spotsByID.get( edge.target );
+					if ( null == source || null == target )
+						continue;
+					if ( trackModel.containsEdge( source, target ) )
+						model.setEdgeWeight( trackModel.getEdge( source, target ), edge.weight );
+					else
+						model.addEdge( source, target, edge.weight );
+				}
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+		}
+
+		private static Long edgeKey( final int source, final int target )
+		{
+			final int a = Math.min( source, target );
+			final int b = Math.max( source, target );
+			return Long.valueOf( ( ( long ) a << 32 ) | ( b & 0xFFFFFFFFl ) );
+		}
+	}
+
+	private static final class SpotState
+	{
+
+		private static final SpotState REMOVED = new SpotState( 0, null, new int[ 0 ], new double[ 0 ], null, null );
+
+		private final int frame;
+
+		private final String name;
+
+		private final int[] keys;
+
+		private final double[] values;
+
+		private final double[] roiX;
+
+		private final double[] roiY;
+
+		private SpotState( final int frame, final String name, final int[] keys, final double[] values, final double[] roiX, final double[] roiY )
+		{
+			this.frame = frame;
+			this.name = name;
+			this.keys = keys;
+			this.values = values;
+			this.roiX = roiX;
+			this.roiY = roiY;
+		}
+
+		/**
+		 * Snapshots a spot. Feature keys not seen before are given an index,
+		 * and defined in the output before the spot is written.
+		 */
+		private static SpotState of( final Spot spot, final Map< String, Integer > keyIndices, final DataOutputStream out ) throws IOException
+		{
+			final Map< String, Double > features = spot.getFeatures();
+			final int[] keys = new int[ features.size() ];
+			final double[] values = new double[ features.size() ];
+			int n = 0;
+			for ( final Map.Entry< String, Double > entry : features.entrySet() )
+			{
+				if ( null == entry.getValue() )
+					continue;
+				Integer index = keyIndices.get( entry.getKey() );
+				if ( null == index )
+				{
+					index = Integer.valueOf( keyIndices.size() );
+					keyIndices.put( entry.getKey(), index );
+					out.writeByte( DEFINE_KEY );
+					out.writeInt( index.intValue() );
+					out.writeUTF( entry.getKey() );
+				}
+				keys[ n ] = index.intValue();
+				values[ n ] = entry.getValue().doubleValue();
+				n++;
+			}
+			final Double frame = spot.getFeature( Spot.FRAME );
+			final SpotRoi roi = spot.getRoi();
+			return new SpotState(
+					null == frame ? 0 : frame.intValue(),
+					spot.getName(),
+					Arrays.copyOf( keys, n ),
+					Arrays.copyOf( values, n ),
+					null == roi ? null : roi.x.clone(),
+					null == roi ? null : roi.y.clone() );
+		}
+
+		private static SpotState read( final DataInputStream in ) throws IOException
+		{
+			final int frame = in.readInt();
+			final String name = in.readBoolean() ? in.readUTF() : null;
+			final int nFeatures = in.readInt();
+			final int[] keys = new int[ nFeatures ];
+			final double[] values = new double[ nFeatures ];
+			for ( int i = 0; i < nFeatures; i++ )
+			{
+				keys[ i ] = in.readInt();
+				values[ i ] = in.readDouble();
+			}
+			final int nPoints = in.readInt();
+			double[] roiX = null;
+			double[] roiY = null;
+			if ( nPoints >= 0 )
+			{
+				roiX = new double[ nPoints ];
+				roiY = new double[ nPoints ];
+				for ( int i = 0; i < nPoints; i++ )
+					roiX[ i ] = in.readDouble();
+				for ( int i = 0; i < nPoints; i++ )
+					roiY[ i ] = in.readDouble();
+			}
+			return new SpotState( frame, name, keys, values, roiX, roiY );
+		}
+
+		private void write( final int id, final DataOutputStream out ) throws IOException
+		{
+			if ( this == REMOVED )
+			{
+				out.writeByte( REMOVE_SPOT );
+				out.writeInt( id );
+				return;
+			}
+			out.writeByte( PUT_SPOT );
+			out.writeInt( id );
+			out.writeInt( frame );
+			out.writeBoolean( null != name );
+			if ( null != name )
+				out.writeUTF( name );
+			out.writeInt( keys.length );
+			for ( int i = 0; i < keys.length; i++ )
+			{
+				out.writeInt( keys[ i ] );
+				out.writeDouble( values[ i ] );
+			}
+			if ( null == roiX )
+			{
+				out.writeInt( -1 );
+				return;
+			}
+			out.writeInt( roiX.length );
+			for ( final double x : roiX )
+				out.writeDouble( x );
+			for ( final double y : roiY )
+				out.writeDouble( y );
+		}
+	}
+
+	private static final class EdgeState
+	{
+
+		private final int source;
+
+		private final int target;
+
+		private final double weight;
+
+		private final boolean removed;
+
+		private EdgeState( final int source, final int target, final double weight, final boolean removed )
+		{
+			this.source = source;
+			this.target = target;
+			this.weight = weight;
+			this.removed = removed;
+		}
+
+		private void write( final DataOutputStream out ) throws IOException
+		{
+			out.writeByte( removed ? REMOVE_EDGE : PUT_EDGE );
+			out.writeInt( source );
+			out.writeInt( target );
+			if ( !removed )
+				out.writeDouble( weight );
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * The part of a saved model to load: a frame range, a bounding box and a set
+ * of track IDs. Spots are loaded if they are in the frame range and in the
+ * bounding box and, if track IDs are specified, if they belong to one of these
+ * tracks. Edges are loaded if both their spots are, and track features are
+ * loaded for the tracks that have at least one edge loaded.
+ * <p>
+ * By default, a subset contains the whole model.
+ *
+ * <pre>
+ * final ModelSubset subset = new ModelSubset()
+ * 		.frames( 100, 149 )
+ * 		.tracks( Arrays.asList( 3, 12 ) );
+ * final Model model = new TmXmlStreamReader( file, subset ).getModel();
+ * </pre>
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ModelSubset
+{
+
+	private int minFrame = Integer.MIN_VALUE;
+
+	private int maxFrame = Integer.MAX_VALUE;
+
+	private final double[] min = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+	private final double[] max = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+
+	private Set< Integer > trackIDs = null;
+
+	/**
+	 * Restricts this subset to a frame range.
+	 *
+	 * @param minFrame
+	 *            the first frame to load, inclusive.
+	 * @param maxFrame
+	 *            the last frame to load, inclusive.
+	 * @return this subset.
+	 */
+	public ModelSubset frames( final int minFrame, final int maxFrame )
+	{
+		this.minFrame = minFrame;
+		this.maxFrame = maxFrame;
+		return this;
+	}
+
+	/**
+	 * Restricts this subset to a bounding box, in physical units. Bounds are
+	 * inclusive.
+	 *
+	 * @return this subset.
+	 */
+	public ModelSubset box( final double xmin, final double ymin, final double zmin, final double xmax, final double ymax, final double zmax )
+	{
+		min[ 0 ] = xmin;
+		min[ 1 ] = ymin;
+		min[ 2 ] = zmin;
+		max[ 0 ] = xmax;
+		max[ 1 ] = ymax;
+		max[ 2 ] = zmax;
+		return this;
+	}
+
+	/**
+	 * Restricts this subset to the spots and edges of the specified tracks,
+	 * as they are saved in the file.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the tracks to load.
+	 * @return this subset.
+	 */
+	public ModelSubset tracks( final Collection< Integer > trackIDs )
+	{
+		this.trackIDs = new HashSet<>( trackIDs );
+		return this;
+	}
+
+	/**
+	 * Returns the IDs of the tracks to load, or <code>null</code> if this
+	 * subset is not restricted to some tracks.
+	 *
+	 * @return the track IDs, unmodifiable.
+	 */
+	public Set< Integer > getTrackIDs()
+	{
+		return ( null == trackIDs ) ? null : Collections.unmodifiableSet( trackIDs );
+	}
+
+	/**
+	 * Returns <code>true</code> if this subset is restricted to some tracks.
+	 */
+	boolean hasTrackIDs()
+	{
+		return null != trackIDs;
+	}
+
+	boolean containsTrack( final int trackID )
+	{
+		return null == trackIDs || trackIDs.contains( trackID );
+	}
+
+	boolean containsFrame( final int frame )
+	{
+		return frame >= minFrame && frame <= maxFrame;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified spot is in the frame range
+	 * and in the bounding box of this subset. Track IDs are not tested.
+	 */
+	boolean contains( final Spot spot, final int frame )
+	{
+		if ( !containsFrame( frame ) )
+			return false;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final Double x = spot.getFeature( Spot.POSITION_FEATURES[ d ] );
+			if ( null != x && ( x.doubleValue() < min[ d ] || x.doubleValue() > max[ d ] ) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if some spots in the specified frame range and
+	 * bounding box might be in this subset. Track IDs are not tested.
+	 */
+	boolean overlaps( final int fromFrame, final int toFrame, final double[] bmin, final double[] bmax )
+	{
+		if ( toFrame < minFrame || fromFrame > maxFrame )
+			return false;
+		for ( int d = 0; d < 3; d++ )
+			if ( bmax[ d ] < min[ d ] || bmin[ d ] > max[ d ] )
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,260 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * An output stream that writes data in the gzip format, compressing blocks of
+ * data in parallel.
+ * <p>
+ * The data is cut in blocks that are deflated independently on several
+ * threads, then written in order. Each block is primed with the last 32 kB of
+ * the previous block, and all blocks but the last are ended with a sync
+ * flush, so that the blocks form a single deflate stream. The output is a
+ * standard gzip file that can be read by {@link java.util.zip.GZIPInputStream}
+ * or any gzip tool.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream
+{
+
+	/** Size of the blocks compressed in parallel. */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	/** Size of the deflate window. */
+	private static final int DICTIONARY_SIZE = 1 << 15;
+
+	/** Gzip header: magic, deflate method, no flags, no time, unknown OS. */
+	private static final byte[] HEADER = new byte[] { 0x1f, ( byte ) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, ( byte ) 0xff };
+
+	private final ExecutorService executors;
+
+	/** Maximal number of blocks being compressed at any time. */
+	private final int maxInFlight;
+
+	private final ArrayDeque< Future< byte[] > > inFlight = new ArrayDeque<>();
+
+	private final CRC32 crc = new CRC32();
+
+	private long size = 0l;
+
+	private byte[] block = new byte[ BLOCK_SIZE ];
+
+	private int blockLength = 0;
+
+	/** The last block submitted, used as dictionary for the next one. */
+	private byte[] previous = null;
+
+	private boolean closed = false;
+
+	/**
+	 * Creates a new parallel gzip output stream, using as many threads as
+	 * there are processors.
+	 *
+	 * @param out
+	 *            the output stream to write the compressed data to.
+	 * @throws IOException
+	 *             if the gzip header cannot be written.
+	 */
+	public ParallelGZIPOutputStream( final OutputStream out ) throws IOException
+	{
+		this( out, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Creates a new parallel gzip output stream.
+	 *
+	 * @param out
+	 *            the output stream to write the compressed data to.
+	 * @param numThreads
+	 *            the number of threads to compress with.
+	 * @throws IOException
+	 *             if the gzip header cannot be written.
+	 */
+	public ParallelGZIPOutputStream( final OutputStream out, final int numThreads ) throws IOException
+	{
+		super( out );
+		final int nThreads = Math.max( 1, numThreads );
+		this.executors = Threads.newFixedThreadPool( nThreads );
+		this.maxInFlight = 2 * nThreads;
+		out.write( HEADER );
+	}
+
+	@Override
+	public void write( final int b ) throws IOException
+	{
+		if ( blockLength == BLOCK_SIZE )
+			submit( false );
+		block[ blockLength++ ] = ( byte ) b;
+	}
+
+	@Override
+	public void write( final byte[] b, int off, int len ) throws IOException
+	{
+		while ( len > 0 )
+		{
+			if ( blockLength == BLOCK_SIZE )
+				submit( false );
+			final int n = Math.min( len, BLOCK_SIZE - blockLength );
+			System.arraycopy( b, off, block, blockLength, n );
+			blockLength += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes the compressed blocks that are done. Data still being buffered
+	 * or compressed is not flushed, as this would degrade compression.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		while ( !inFlight.isEmpty() && inFlight.peekFirst().isDone() )
+			out.write( take() );
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if ( closed )
+			return;
+		closed = true;
+		try
+		{
+			submit( true );
+			while ( !inFlight.isEmpty() )
+				out.write( take() );
+
+			// Trailer: CRC32 and uncompressed size modulo 2^32, little-endian.
+			final byte[] trailer = new byte[ 8 ];
+			writeIntLE( trailer, 0, ( int ) crc.getValue() );
+			writeIntLE( trailer, 4, ( int ) size );
+			out.write( trailer );
+			out.flush();
+		}
+		finally
+		{
+			executors.shutdownNow();
+			out.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Submits the current block for compression, waiting for the oldest
+	 * block to be written if too many are in flight.
+	 */
+	private void submit( final boolean last ) throws IOException
+	{
+		final byte[] data = ( blockLength == block.length ) ? block : Arrays.copyOf( block, blockLength );
+		final int length = blockLength;
+		crc.update( data, 0, length );
+		size += length;
+
+		final byte[] dictionary = previous;
+		previous = data;
+		block = new byte[ BLOCK_SIZE ];
+		blockLength = 0;
+
+		while ( inFlight.size() >= maxInFlight )
+			out.write( take() );
+		inFlight.addLast( executors.submit( () -> deflate( data, length, dictionary, last ) ) );
+	}
+
+	private byte[] take() throws IOException
+	{
+		try
+		{
+			return inFlight.removeFirst().get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( e.getMessage() );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new IOException( e.getCause() );
+		}
+	}
+
+	private static byte[] deflate( final byte[] data, final int length, final byte[] dictionary, final boolean last )
+	{
+		final Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+		try
+		{
+			if ( null != dictionary )
+			{
+				final int dictionaryLength = Math.min( DICTIONARY_SIZE, dictionary.length );
+				deflater.setDictionary( dictionary, dictionary.length - dictionaryLength, dictionaryLength );
+			}
+			deflater.setInput( data, 0, length );
+			if ( last )
+				deflater.finish();
+
+			byte[] buffer = new byte[ Math.max( 64, length / 2 ) ];
+			int n = 0;
+			while ( true )
+			{
+				if ( n == buffer.length )
+					buffer = Arrays.copyOf( buffer, 2 * buffer.length );
+				n += last
+						? deflater.deflate( buffer, n, buffer.length - n )
+						: deflater.deflate( buffer, n, buffer.length - n, Deflater.SYNC_FLUSH );
+				if ( last ? deflater.finished() : n < buffer.length )
+					break;
+			}
+			return Arrays.copyOf( buffer, n );
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private static void writeIntLE( final byte[] bytes, final int offset, final int val )
+	{
+		bytes[ offset ] = ( byte ) val;
+		bytes[ offset + 1 ] = ( byte ) ( val >>> 8 );
+		bytes[ offset + 2 ] = ( byte ) ( val >>> 16 );
+		bytes[ offset + 3 ] = ( byte ) ( val >>> 24 );
+	}
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+/**
+ * Contains the constants of the TrackMate binary model file format.
+ * <p>
+ * A binary model file is made of:
+ * <ol>
+ * <li>a header of {@link #HEADER_SIZE} bytes: the {@link #MAGIC} number, the
+ * {@link #VERSION} of the format, and the offset and length of the metadata
+ * block.
+ * <li>the columns, each aligned on 8 bytes. A column stores one typed value
+ * per spot, per edge or per track, in little-endian order.
+ * <li>the metadata block: physical units, feature declarations, the number of
+ * spots, edges and tracks, the position of each column, and the non-model
+ * part of the TrackMate XML document (log, settings, GUI state, display
+ * settings).
+ * </ol>
+ * Feature columns store <code>double</code>s and come with a presence column,
+ * a bit-set of <code>long</code>s, that tells whether the feature has a value
+ * for each object. A column is memory-mapped as a single buffer when it is
+ * read, so it cannot be larger than {@link #MAX_COLUMN_SIZE} bytes.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TmBinaryKeys
+{
+
+	/**
+	 * The file extension for TrackMate binary model files.
+	 */
+	public static final String EXTENSION = "tmb";
+
+	/** "TMBINARY" in ASCII. */
+	static final long MAGIC = 0x544D42494E415259l;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 32;
+
+	/** The maximal size of a column in bytes, the maximal size of a buffer. */
+	static final long MAX_COLUMN_SIZE = Integer.MAX_VALUE;
+
+	/*
+	 * SPOT COLUMNS.
+	 */
+
+	/** <code>int</code>, the spot IDs. */
+	static final String SPOT_ID_COLUMN = "spots/id";
+
+	/** <code>int</code>, the frame of each spot. */
+	static final String SPOT_FRAME_COLUMN = "spots/frame";
+
+	/**
+	 * <code>int</code>, the number of ROI points of each spot, or -1 if the
+	 * spot has no ROI.
+	 */
+	static final String SPOT_ROI_N_COLUMN = "spots/roi.n";
+
+	/** <code>double</code>, the interleaved X and Y of all the ROI points. */
+	static final String SPOT_ROI_XY_COLUMN = "spots/roi.xy";
+
+	static final String SPOT_NAME_COLUMN = "spots/name";
+
+	static final String SPOT_FEATURE_COLUMN = "spots/feature/";
+
+	/*
+	 * EDGE COLUMNS.
+	 */
+
+	/** <code>int</code>, the ID of the source spot of each edge. */
+	static final String EDGE_SOURCE_COLUMN = "edges/source";
+
+	/** <code>int</code>, the ID of the target spot of each edge. */
+	static final String EDGE_TARGET_COLUMN = "edges/target";
+
+	/** <code>double</code>, the weight of each edge. */
+	static final String EDGE_WEIGHT_COLUMN = "edges/weight";
+
+	/** <code>int</code>, the ID of the track each edge belongs to. */
+	static final String EDGE_TRACK_COLUMN = "edges/track";
+
+	static final String EDGE_FEATURE_COLUMN = "edges/feature/";
+
+	/*
+	 * TRACK COLUMNS.
+	 */
+
+	/** <code>int</code>, the track IDs. */
+	static final String TRACK_ID_COLUMN = "tracks/id";
+
+	/** <code>byte</code>, 1 if the track is visible, 0 otherwise. */
+	static final String TRACK_VISIBLE_COLUMN = "tracks/visible";
+
+	static final String TRACK_NAME_COLUMN = "tracks/name";
+
+	static final String TRACK_FEATURE_COLUMN = "tracks/feature/";
+
+	/*
+	 * COLUMN SUFFIXES.
+	 */
+
+	/** <code>long</code>, the bit-set of values present in a feature column. */
+	static final String PRESENCE_SUFFIX = ".present";
+
+	/**
+	 * <code>int</code>, for string columns: the start of each string in the
+	 * bytes column, plus the total length.
+	 */
+	static final String OFFSETS_SUFFIX = ".offsets";
+
+	/** <code>byte</code>, for string columns: the UTF-8 bytes of the strings. */
+	static final String BYTES_SUFFIX = ".bytes";
+
+	private TmBinaryKeys()
+	{}
+}
@@ -0,0 +1,460 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryKeys.BYTES_SUFFIX;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_FEATURE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_SOURCE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_TARGET_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_TRACK_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_WEIGHT_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.HEADER_SIZE;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MAGIC;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MAX_COLUMN_SIZE;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.OFFSETS_SUFFIX;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.PRESENCE_SUFFIX;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_FEATURE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_FRAME_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ID_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_NAME_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ROI_N_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ROI_XY_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_FEATURE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_ID_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_NAME_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_VISIBLE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.VERSION;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROOT_ELEMENT_KEY;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+
+/**
+ * A {@link TmXmlReader} that reads binary model files written by
+ * {@link TmBinaryWriter}.
+ * <p>
+ * The constructor only reads the header and the metadata block of the file.
+ * The log, settings, GUI state and display settings are stored there as XML,
+ * so that all the methods of {@link TmXmlReader} work unchanged on them. The
+ * model columns are memory-mapped and read when {@link #getModel()} is called.
+ *
+ * @author Jean-Yves Tinevez
+ * @see TmBinaryKeys
+ */
+public class TmBinaryReader extends TmXmlReader
+{
+
+	/** Offset and length of each column in the file, per column name. */
+	private final Map< String, long[] > columns = new HashMap<>();
+
+	private boolean hasModel;
+
+	private String spaceUnits;
+
+	private String timeUnits;
+
+	private final List< Declarations > declarations = new ArrayList<>( 3 );
+
+	private int nSpots;
+
+	private int nEdges;
+
+	private int nTracks;
+
+	/**
+	 * Initialize this reader to read the file given in argument.
+	 */
+	public TmBinaryReader( final File file )
+	{
+		super( file, new Element( ROOT_ELEMENT_KEY ) );
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			readMeta( channel );
+		}
+		catch ( final IOException e )
+		{
+			ok = false;
+			logger.error( "Problem reading " + file.getName()
+					+ ".\nError message is:\n" + e.getLocalizedMessage() + '\n' );
+		}
+		catch ( final JDOMException e )
+		{
+			ok = false;
+			logger.error( "Problem parsing " + file.getName() + ", it is not a valid TrackMate binary file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n' );
+		}
+	}
+
+	/**
+	 * Returns the model saved in the file, or <code>null</code> if a saved
+	 * model cannot be found in the file.
+	 *
+	 * @return a new {@link Model}.
+	 */
+	@Override
+	public Model getModel()
+	{
+		if ( !hasModel )
+			return null;
+
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			final Model model = createModel();
+			model.setPhysicalUnits( spaceUnits, timeUnits );
+			final FeatureModel fm = model.getFeatureModel();
+			final Declarations spotDeclarations = declarations.get( 0 );
+			final Declarations edgeDeclarations = declarations.get( 1 );
+			final Declarations trackDeclarations = declarations.get( 2 );
+			fm.declareSpotFeatures( spotDeclarations.features, spotDeclarations.names, spotDeclarations.shortNames, spotDeclarations.dimensions, spotDeclarations.isInt );
+			fm.declareEdgeFeatures( edgeDeclarations.features, edgeDeclarations.names, edgeDeclarations.shortNames, edgeDeclarations.dimensions, edgeDeclarations.isInt );
+			fm.declareTrackFeatures( trackDeclarations.features, trackDeclarations.names, trackDeclarations.shortNames, trackDeclarations.dimensions, trackDeclarations.isInt );
+
+			model.setSpots( readSpotColumns( channel ), false );
+			readTrackColumns( channel, model );
+			return model;
+		}
+		catch ( final IOException e )
+		{
+			ok = false;
+			logger.error( "Problem reading " + file.getName()
+					+ ".\nError message is:\n" + e.getLocalizedMessage() + '\n' );
+			return null;
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void readMeta( final FileChannel channel ) throws IOException, JDOMException
+	{
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+		while ( header.hasRemaining() )
+			if ( channel.read( header, header.position() ) < 0 )
+				break;
+		header.flip();
+		if ( header.remaining() < HEADER_SIZE || header.getLong() != MAGIC )
+		{
+			ok = false;
+			logger.error( "Problem parsing " + file.getName() + ", it is not a valid TrackMate binary file.\n" );
+			return;
+		}
+		final int version = header.getInt();
+		if ( version > VERSION )
+		{
+			ok = false;
+			logger.error( "Problem parsing " + file.getName() + ", binary file version " + version
+					+ " is not supported by this version of TrackMate.\n" );
+			return;
+		}
+		header.getInt(); // flags, unused.
+		final long metaOffset = header.getLong();
+		final long metaLength = header.getLong();
+
+		if ( metaOffset < HEADER_SIZE || metaLength < 0 || metaOffset > channel.size() - metaLength )
+			throw new IOException( "Bad position for the metadata block in file." );
+		if ( metaLength > MAX_COLUMN_SIZE )
+			throw new IOException( "Metadata block is too large to be read: " + metaLength + " bytes." );
+
+		final ByteBuffer meta = channel.map( FileChannel.MapMode.READ_ONLY, metaOffset, metaLength );
+		final byte[] bytes = new byte[ meta.remaining() ];
+		meta.get( bytes );
+		final DataInputStream dis = new DataInputStream( new ByteArrayInputStream( bytes ) );
+
+		// Non-model part of the document.
+		final int xmlLength = dis.readInt();
+		if ( xmlLength < 0 || xmlLength > dis.available() )
+			throw new IOException( "Bad length for the XML block in file: " + xmlLength + " bytes." );
+		final byte[] xml = new byte[ xmlLength ];
+		dis.readFully( xml );
+		final Element xmlRoot = new SAXBuilder().build( new ByteArrayInputStream( xml ) ).getRootElement();
+		for ( final Attribute attribute : xmlRoot.getAttributes() )
+			root.setAttribute( attribute.getName(), attribute.getValue() );
+		root.addContent( xmlRoot.removeContent() );
+
+		hasModel = dis.readBoolean();
+		if ( hasModel )
+		{
+			spaceUnits = dis.readUTF();
+			timeUnits = dis.readUTF();
+			for ( int i = 0; i < 3; i++ )
+				declarations.add( new Declarations( dis ) );
+		}
+
+		nSpots = dis.readInt();
+		nEdges = dis.readInt();
+		nTracks = dis.readInt();
+		final int nColumns = dis.readInt();
+		for ( int i = 0; i < nColumns; i++ )
+			columns.put( dis.readUTF(), new long[] { dis.readLong(), dis.readLong() } );
+	}
+
+	private SpotCollection readSpotColumns( final FileChannel channel ) throws IOException
+	{
+		final IntBuffer ids = map( channel, SPOT_ID_COLUMN ).asIntBuffer();
+		final IntBuffer frames = map( channel, SPOT_FRAME_COLUMN ).asIntBuffer();
+		final IntBuffer roiNs = map( channel, SPOT_ROI_N_COLUMN ).asIntBuffer();
+		final DoubleBuffer roiXY = map( channel, SPOT_ROI_XY_COLUMN ).asDoubleBuffer();
+		final String[] names = readStrings( channel, SPOT_NAME_COLUMN, nSpots );
+
+		cache = new ConcurrentHashMap<>( Math.max( 16, nSpots ) );
+		final Spot[] spots = new Spot[ nSpots ];
+		final Map< Integer, Set< Spot > > content = new HashMap<>();
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final int ID = ids.get( i );
+			final Spot spot = new Spot( ID );
+			final String name = names[ i ];
+			spot.setName( name.isEmpty() ? "ID" + ID : name );
+
+			final int roiN = roiNs.get( i );
+			if ( roiN >= 0 )
+			{
+				final double[] xrois = new double[ roiN ];
+				final double[] yrois = new double[ roiN ];
+				for ( int j = 0; j < roiN; j++ )
+				{
+					xrois[ j ] = roiXY.get();
+					yrois[ j ] = roiXY.get();
+				}
+				spot.setRoi( new SpotRoi( xrois, yrois ) );
+			}
+
+			spots[ i ] = spot;
+			cache.put( ID, spot );
+			content.computeIfAbsent( frames.get( i ), f -> new HashSet<>() ).add( spot );
+		}
+
+		// Features, one column at a time.
+		for ( final String column : columns.keySet() )
+		{
+			if ( !column.startsWith( SPOT_FEATURE_COLUMN ) || column.endsWith( PRESENCE_SUFFIX ) )
+				continue;
+			final String feature = column.substring( SPOT_FEATURE_COLUMN.length() );
+			final DoubleBuffer values = map( channel, column ).asDoubleBuffer();
+			final LongBuffer presence = map( channel, column + PRESENCE_SUFFIX ).asLongBuffer();
+			for ( int i = 0; i < nSpots; i++ )
+				if ( isPresent( presence, i ) )
+					spots[ i ].putFeature( feature, Double.valueOf( values.get( i ) ) );
+		}
+		return SpotCollection.fromMap( content );
+	}
+
+	private void readTrackColumns( final FileChannel channel, final Model model ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+
+		// Tracks.
+		final IntBuffer trackIDs = map( channel, TRACK_ID_COLUMN ).asIntBuffer();
+		final ByteBuffer visible = map( channel, TRACK_VISIBLE_COLUMN );
+		final String[] trackNames = readStrings( channel, TRACK_NAME_COLUMN, nTracks );
+		final Map< Integer, Set< Spot > > trackSpots = new HashMap<>( nTracks );
+		final Map< Integer, Set< DefaultWeightedEdge > > trackEdges = new HashMap<>( nTracks );
+		final Map< Integer, Boolean > visibility = new HashMap<>( nTracks );
+		final Map< Integer, String > names = new HashMap<>( nTracks );
+		for ( int i = 0; i < nTracks; i++ )
+		{
+			final Integer trackID = Integer.valueOf( trackIDs.get( i ) );
+			trackSpots.put( trackID, new HashSet<>() );
+			trackEdges.put( trackID, new HashSet<>() );
+			visibility.put( trackID, Boolean.valueOf( visible.get( i ) != 0 ) );
+			names.put( trackID, trackNames[ i ].isEmpty() ? "Unnamed" : trackNames[ i ] );
+		}
+
+		// Edges.
+		final IntBuffer sources = map( channel, EDGE_SOURCE_COLUMN ).asIntBuffer();
+		final IntBuffer targets = map( channel, EDGE_TARGET_COLUMN ).asIntBuffer();
+		final DoubleBuffer weights = map( channel, EDGE_WEIGHT_COLUMN ).asDoubleBuffer();
+		final IntBuffer edgeTracks = map( channel, EDGE_TRACK_COLUMN ).asIntBuffer();
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final DefaultWeightedEdge[] edges = new DefaultWeightedEdge[ nEdges ];
+		for ( int i = 0; i < nEdges; i++ )
+		{
+			final int sourceID = sources.get( i );
+			final int targetID = targets.get( i );
+			final Integer trackID = Integer.valueOf( edgeTracks.get( i ) );
+			final Spot sourceSpot = cache.get( sourceID );
+			final Spot targetSpot = cache.get( targetID );
+			if ( null == sourceSpot || null == targetSpot || sourceSpot.equals( targetSpot ) || !trackEdges.containsKey( trackID ) )
+			{
+				logger.error( "Bad edge found for track " + trackID + ": " + sourceID + " → " + targetID + ".\n" );
+				ok = false;
+				continue;
+			}
+
+			graph.addVertex( sourceSpot );
+			graph.addVertex( targetSpot );
+			final DefaultWeightedEdge edge = graph.addEdge( sourceSpot, targetSpot );
+			if ( edge == null )
+			{
+				logger.error( "Bad edge found for track " + trackID + "\n" );
+				ok = false;
+				continue;
+			}
+			graph.setEdgeWeight( edge, weights.get( i ) );
+			edges[ i ] = edge;
+			trackEdges.get( trackID ).add( edge );
+			trackSpots.get( trackID ).add( sourceSpot );
+			trackSpots.get( trackID ).add( targetSpot );
+		}
+
+		for ( final String column : columns.keySet() )
+		{
+			if ( !column.startsWith( EDGE_FEATURE_COLUMN ) || column.endsWith( PRESENCE_SUFFIX ) )
+				continue;
+			final String feature = column.substring( EDGE_FEATURE_COLUMN.length() );
+			final DoubleBuffer values = map( channel, column ).asDoubleBuffer();
+			final LongBuffer presence = map( channel, column + PRESENCE_SUFFIX ).asLongBuffer();
+			for ( int i = 0; i < nEdges; i++ )
+				if ( null != edges[ i ] && isPresent( presence, i ) )
+					fm.putEdgeFeature( edges[ i ], feature, Double.valueOf( values.get( i ) ) );
+		}
+
+		model.getTrackModel().from( graph, trackSpots, trackEdges, visibility, names );
+
+		for ( final String column : columns.keySet() )
+		{
+			if ( !column.startsWith( TRACK_FEATURE_COLUMN ) || column.endsWith( PRESENCE_SUFFIX ) )
+				continue;
+			final String feature = column.substring( TRACK_FEATURE_COLUMN.length() );
+			final DoubleBuffer values = map( channel, column ).asDoubleBuffer();
+			final LongBuffer presence = map( channel, column + PRESENCE_SUFFIX ).asLongBuffer();
+			for ( int i = 0; i < nTracks; i++ )
+				if ( isPresent( presence, i ) )
+					fm.putTrackFeature( Integer.valueOf( trackIDs.get( i ) ), feature, Double.valueOf( values.get( i ) ) );
+		}
+	}
+
+	private String[] readStrings( final FileChannel channel, final String column, final int n ) throws IOException
+	{
+		final IntBuffer offsets = map( channel, column + OFFSETS_SUFFIX ).asIntBuffer();
+		final ByteBuffer bytes = map( channel, column + BYTES_SUFFIX );
+		final String[] strings = new String[ n ];
+		byte[] buffer = new byte[ 64 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final int start = offsets.get( i );
+			final int length = offsets.get( i + 1 ) - start;
+			if ( length > buffer.length )
+				buffer = new byte[ Math.max( length, 2 * buffer.length ) ];
+			bytes.position( start );
+			bytes.get( buffer, 0, length );
+			strings[ i ] = new String( buffer, 0, length, StandardCharsets.UTF_8 );
+		}
+		return strings;
+	}
+
+	private ByteBuffer map( final FileChannel channel, final String column ) throws IOException
+	{
+		final long[] location = columns.get( column );
+		if ( null == location )
+			throw new IOException( "Missing column " + column + " in file." );
+		if ( location[ 0 ] < 0 || location[ 1 ] < 0 )
+			throw new IOException( "Bad position for column " + column + " in file." );
+		if ( location[ 1 ] > MAX_COLUMN_SIZE )
+			throw new IOException( "Column " + column + " is too large to be read: " + location[ 1 ] + " bytes." );
+		return channel.map( FileChannel.MapMode.READ_ONLY, location[ 0 ], location[ 1 ] ).order( ByteOrder.LITTLE_ENDIAN );
+	}
+
+	private static boolean isPresent( final LongBuffer presence, final int i )
+	{
+		return ( presence.get( i >>> 6 ) & ( 1l << ( i & 63 ) ) ) != 0;
+	}
+
+	/**
+	 * Feature declarations for one kind of model object.
+	 */
+	private static final class Declarations
+	{
+
+		private final Collection< String > features;
+
+		private final Map< String, String > names;
+
+		private final Map< String, String > shortNames;
+
+		private final Map< String, Dimension > dimensions;
+
+		private final Map< String, Boolean > isInt;
+
+		private Declarations( final DataInputStream dis ) throws IOException
+		{
+			final int n = dis.readInt();
+			if ( n < 0 || n > dis.available() )
+				throw new IOException( "Bad number of feature declarations in file: " + n + "." );
+			features = new ArrayList<>( n );
+			names = new HashMap<>( n );
+			shortNames = new HashMap<>( n );
+			dimensions = new HashMap<>( n );
+			isInt = new HashMap<>( n );
+			for ( int i = 0; i < n; i++ )
+			{
+				final String feature = dis.readUTF();
+				features.add( feature );
+				names.put( feature, dis.readUTF() );
+				shortNames.put( feature, dis.readUTF() );
+				final String dimension = dis.readUTF();
+				try
+				{
+					dimensions.put( feature, Dimension.valueOf( dimension ) );
+				}
+				catch ( final IllegalArgumentException e )
+				{
+					throw new IOException( "Unknown dimension " + dimension + " for feature " + feature + " in file." );
+				}
+				isInt.put( feature, Boolean.valueOf( dis.readBoolean() ) );
+			}
+		}
+	}
+}
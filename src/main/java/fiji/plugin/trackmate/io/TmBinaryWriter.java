@@ -0,0 +1,576 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryKeys.BYTES_SUFFIX;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_FEATURE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_SOURCE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_TARGET_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_TRACK_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_WEIGHT_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.HEADER_SIZE;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MAGIC;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MAX_COLUMN_SIZE;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.OFFSETS_SUFFIX;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.PRESENCE_SUFFIX;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_FEATURE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_FRAME_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ID_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_NAME_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ROI_N_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ROI_XY_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_FEATURE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_ID_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_NAME_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.TRACK_VISIBLE_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.VERSION;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * Writes TrackMate sessions to a binary model file, described in
+ * {@link TmBinaryKeys}.
+ * <p>
+ * This writer is used like {@link TmXmlWriter}. The log, settings, GUI state
+ * and display settings appended to it are written as XML in the metadata block
+ * of the file. The model is written as typed columns, directly from the model
+ * objects.
+ *
+ * @author Jean-Yves Tinevez
+ * @see TmBinaryReader
+ */
+public class TmBinaryWriter extends TmXmlWriter
+{
+
+	private final File file;
+
+	private Model model;
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter( final File file )
+	{
+		this( file, new Logger.StringBuilderLogger() );
+	}
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the file to write to, will be overwritten.
+	 * @param logger
+	 *            a logger to report progress to.
+	 */
+	public TmBinaryWriter( final File file, final Logger logger )
+	{
+		super( file, logger );
+		this.file = file;
+	}
+
+	/**
+	 * Converts a TrackMate XML file to a binary model file. Settings are
+	 * copied as they are, without being instantiated, so that no image is
+	 * required.
+	 *
+	 * @param xmlFile
+	 *            the TrackMate XML file to read.
+	 * @param binaryFile
+	 *            the binary model file to write.
+	 * @param logger
+	 *            a logger to report progress and errors to.
+	 * @return <code>true</code> if the conversion succeeded.
+	 */
+	public static boolean convert( final File xmlFile, final File binaryFile, final Logger logger )
+	{
+		final TmXmlStreamReader reader = new TmXmlStreamReader( xmlFile );
+		final Model model = reader.getModel();
+		if ( !reader.isReadingOk() )
+		{
+			logger.error( "Problem reading " + xmlFile + ":\n" + reader.getErrorMessage() );
+			return false;
+		}
+
+		final TmBinaryWriter writer = new TmBinaryWriter( binaryFile, logger );
+		for ( final Element child : reader.root.getChildren() )
+			if ( !child.getName().equals( MODEL_ELEMENT_KEY ) )
+				writer.root.addContent( child.clone() );
+		if ( null != model )
+			writer.appendModel( model );
+
+		try
+		{
+			writer.writeToFile();
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Problem writing " + binaryFile + ":\n" + e.getMessage() + '\n' );
+			return false;
+		}
+	}
+
+	@Override
+	public void appendModel( final Model model )
+	{
+		this.model = model;
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException
+	{
+		logger.log( "  Writing to binary file.\n" );
+		try (final FileChannel channel = FileChannel.open( file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+				final Output out = new Output( channel ))
+		{
+			final Map< String, long[] > columns = new LinkedHashMap<>();
+			int nSpots = 0;
+			int nEdges = 0;
+			int nTracks = 0;
+			if ( null != model )
+			{
+				nSpots = writeSpots( out, columns );
+				final int[] counts = writeTracks( out, columns );
+				nEdges = counts[ 0 ];
+				nTracks = counts[ 1 ];
+			}
+
+			// Metadata block.
+			final byte[] meta = meta( columns, nSpots, nEdges, nTracks );
+			out.align();
+			final long metaOffset = out.position();
+			out.put( meta );
+			out.flush();
+
+			// Header.
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+			header.putLong( MAGIC ).putInt( VERSION ).putInt( 0 ).putLong( metaOffset ).putLong( meta.length );
+			header.flip();
+			long position = 0;
+			while ( header.hasRemaining() )
+				position += channel.write( header, position );
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int writeSpots( final Output out, final Map< String, long[] > columns ) throws IOException
+	{
+		final SpotCollection sc = model.getSpots();
+		final int n = sc.getNSpots( false );
+		final Spot[] spots = new Spot[ n ];
+		final int[] frames = new int[ n ];
+		final Set< String > features = new LinkedHashSet<>();
+		int index = 0;
+		for ( final int frame : sc.keySet() )
+		{
+			for ( final Iterator< Spot > it = sc.iterator( frame, false ); it.hasNext(); )
+			{
+				final Spot spot = it.next();
+				spots[ index ] = spot;
+				frames[ index ] = frame;
+				features.addAll( spot.getFeatures().keySet() );
+				index++;
+			}
+		}
+
+		writeIntColumn( out, columns, SPOT_ID_COLUMN, n, i -> spots[ i ].ID() );
+		writeIntColumn( out, columns, SPOT_FRAME_COLUMN, n, i -> frames[ i ] );
+		writeStringColumn( out, columns, SPOT_NAME_COLUMN, n, i -> spots[ i ].getName() );
+		writeIntColumn( out, columns, SPOT_ROI_N_COLUMN, n, i -> ( null == spots[ i ].getRoi() ) ? -1 : spots[ i ].getRoi().x.length );
+
+		begin( out, columns, SPOT_ROI_XY_COLUMN );
+		for ( final Spot spot : spots )
+		{
+			final SpotRoi roi = spot.getRoi();
+			if ( null == roi )
+				continue;
+			for ( int i = 0; i < roi.x.length; i++ )
+			{
+				out.putDouble( roi.x[ i ] );
+				out.putDouble( roi.y[ i ] );
+			}
+		}
+		end( out, columns, SPOT_ROI_XY_COLUMN );
+
+		for ( final String feature : features )
+			writeFeatureColumn( out, columns, SPOT_FEATURE_COLUMN + feature, n, i -> spots[ i ].getFeature( feature ) );
+
+		logger.log( "  Added " + n + " spots.\n" );
+		return n;
+	}
+
+	/**
+	 * Writes the edge and track columns. Returns the number of edges and
+	 * tracks written.
+	 */
+	private int[] writeTracks( final Output out, final Map< String, long[] > columns ) throws IOException
+	{
+		final TrackModel tm = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+
+		// Tracks without edges are not saved, like in XML files.
+		final List< Integer > trackIDs = new ArrayList<>();
+		final List< DefaultWeightedEdge > edges = new ArrayList<>();
+		final List< Integer > edgeTracks = new ArrayList<>();
+		for ( final Integer trackID : tm.trackIDs( false ) )
+		{
+			final Set< DefaultWeightedEdge > track = tm.trackEdges( trackID );
+			if ( track.isEmpty() )
+				continue;
+			trackIDs.add( trackID );
+			for ( final DefaultWeightedEdge edge : track )
+			{
+				edges.add( edge );
+				edgeTracks.add( trackID );
+			}
+		}
+		final int nEdges = edges.size();
+		final int nTracks = trackIDs.size();
+
+		// Edges are written forward in time.
+		final boolean[] forward = new boolean[ nEdges ];
+		for ( int i = 0; i < nEdges; i++ )
+		{
+			final DefaultWeightedEdge edge = edges.get( i );
+			forward[ i ] = tm.getEdgeTarget( edge ).getFeature( Spot.FRAME ).intValue() >= tm.getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
+		}
+		writeIntColumn( out, columns, EDGE_SOURCE_COLUMN, nEdges, i -> forward[ i ]
+				? tm.getEdgeSource( edges.get( i ) ).ID()
+				: tm.getEdgeTarget( edges.get( i ) ).ID() );
+		writeIntColumn( out, columns, EDGE_TARGET_COLUMN, nEdges, i -> forward[ i ]
+				? tm.getEdgeTarget( edges.get( i ) ).ID()
+				: tm.getEdgeSource( edges.get( i ) ).ID() );
+		writeDoubleColumn( out, columns, EDGE_WEIGHT_COLUMN, nEdges, i -> tm.getEdgeWeight( edges.get( i ) ) );
+		writeIntColumn( out, columns, EDGE_TRACK_COLUMN, nEdges, i -> edgeTracks.get( i ).intValue() );
+		for ( final String feature : fm.getEdgeFeatures() )
+			writeFeatureColumn( out, columns, EDGE_FEATURE_COLUMN + feature, nEdges, i -> fm.getEdgeFeature( edges.get( i ), feature ) );
+
+		writeIntColumn( out, columns, TRACK_ID_COLUMN, nTracks, i -> trackIDs.get( i ).intValue() );
+		begin( out, columns, TRACK_VISIBLE_COLUMN );
+		for ( final Integer trackID : trackIDs )
+			out.putByte( tm.isVisible( trackID ) ? ( byte ) 1 : ( byte ) 0 );
+		end( out, columns, TRACK_VISIBLE_COLUMN );
+		writeStringColumn( out, columns, TRACK_NAME_COLUMN, nTracks, i -> tm.name( trackIDs.get( i ) ) );
+		for ( final String feature : fm.getTrackFeatures() )
+			writeFeatureColumn( out, columns, TRACK_FEATURE_COLUMN + feature, nTracks, i -> fm.getTrackFeature( trackIDs.get( i ), feature ) );
+
+		logger.log( "  Added " + nTracks + " tracks and " + nEdges + " edges.\n" );
+		return new int[] { nEdges, nTracks };
+	}
+
+	private byte[] meta( final Map< String, long[] > columns, final int nSpots, final int nEdges, final int nTracks ) throws IOException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream( bos );
+
+		// Non-model part of the document.
+		final byte[] xml = new XMLOutputter( Format.getCompactFormat() ).outputString( root ).getBytes( StandardCharsets.UTF_8 );
+		dos.writeInt( xml.length );
+		dos.write( xml );
+
+		dos.writeBoolean( null != model );
+		if ( null != model )
+		{
+			writeString( dos, model.getSpaceUnits() );
+			writeString( dos, model.getTimeUnits() );
+			final FeatureModel fm = model.getFeatureModel();
+			writeDeclarations( dos, fm.getSpotFeatures(), fm.getSpotFeatureNames(), fm.getSpotFeatureShortNames(), fm.getSpotFeatureDimensions(), fm.getSpotFeatureIsInt() );
+			writeDeclarations( dos, fm.getEdgeFeatures(), fm.getEdgeFeatureNames(), fm.getEdgeFeatureShortNames(), fm.getEdgeFeatureDimensions(), fm.getEdgeFeatureIsInt() );
+			writeDeclarations( dos, fm.getTrackFeatures(), fm.getTrackFeatureNames(), fm.getTrackFeatureShortNames(), fm.getTrackFeatureDimensions(), fm.getTrackFeatureIsInt() );
+		}
+
+		dos.writeInt( nSpots );
+		dos.writeInt( nEdges );
+		dos.writeInt( nTracks );
+		dos.writeInt( columns.size() );
+		for ( final Map.Entry< String, long[] > column : columns.entrySet() )
+		{
+			dos.writeUTF( column.getKey() );
+			dos.writeLong( column.getValue()[ 0 ] );
+			dos.writeLong( column.getValue()[ 1 ] );
+		}
+		dos.flush();
+		return bos.toByteArray();
+	}
+
+	private static void writeDeclarations(
+			final DataOutputStream dos,
+			final Collection< String > features,
+			final Map< String, String > featureNames,
+			final Map< String, String > featureShortNames,
+			final Map< String, Dimension > featureDimensions,
+			final Map< String, Boolean > featureIsInt ) throws IOException
+	{
+		dos.writeInt( features.size() );
+		for ( final String feature : features )
+		{
+			writeString( dos, feature );
+			writeString( dos, featureNames.get( feature ) );
+			writeString( dos, featureShortNames.get( feature ) );
+			writeString( dos, featureDimensions.get( feature ).name() );
+			dos.writeBoolean( featureIsInt.get( feature ).booleanValue() );
+		}
+	}
+
+	private static void writeString( final DataOutputStream dos, final String str ) throws IOException
+	{
+		dos.writeUTF( ( null == str ) ? "" : str );
+	}
+
+	/*
+	 * COLUMNS.
+	 */
+
+	private static void begin( final Output out, final Map< String, long[] > columns, final String name ) throws IOException
+	{
+		out.align();
+		columns.put( name, new long[] { out.position(), 0l } );
+	}
+
+	private static void end( final Output out, final Map< String, long[] > columns, final String name ) throws IOException
+	{
+		final long[] column = columns.get( name );
+		column[ 1 ] = out.position() - column[ 0 ];
+		if ( column[ 1 ] > MAX_COLUMN_SIZE )
+			throw tooLarge( name, column[ 1 ] );
+	}
+
+	private static IOException tooLarge( final String name, final long size )
+	{
+		return new IOException( "Column " + name + " is too large for the binary format: " + size
+				+ " bytes, the maximum is " + MAX_COLUMN_SIZE + " bytes." );
+	}
+
+	private static void writeIntColumn( final Output out, final Map< String, long[] > columns, final String name, final int n, final IntUnaryOperator values ) throws IOException
+	{
+		begin( out, columns, name );
+		for ( int i = 0; i < n; i++ )
+			out.putInt( values.applyAsInt( i ) );
+		end( out, columns, name );
+	}
+
+	private static void writeDoubleColumn( final Output out, final Map< String, long[] > columns, final String name, final int n, final IntToDoubleFunction values ) throws IOException
+	{
+		begin( out, columns, name );
+		for ( int i = 0; i < n; i++ )
+			out.putDouble( values.applyAsDouble( i ) );
+		end( out, columns, name );
+	}
+
+	/**
+	 * Writes a feature column and its presence column. Missing values are
+	 * stored as NaN in the feature column.
+	 */
+	private static void writeFeatureColumn( final Output out, final Map< String, long[] > columns, final String name, final int n, final IntFunction< Double > values ) throws IOException
+	{
+		writeDoubleColumn( out, columns, name, n, i -> {
+			final Double val = values.apply( i );
+			return ( null == val ) ? Double.NaN : val.doubleValue();
+		} );
+
+		final String presence = name + PRESENCE_SUFFIX;
+		begin( out, columns, presence );
+		long word = 0l;
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( null != values.apply( i ) )
+				word |= 1l << ( i & 63 );
+			if ( ( i & 63 ) == 63 )
+			{
+				out.putLong( word );
+				word = 0l;
+			}
+		}
+		if ( ( n & 63 ) != 0 )
+			out.putLong( word );
+		end( out, columns, presence );
+	}
+
+	/**
+	 * Writes a string column: an offsets column and a bytes column. Null
+	 * strings are written as empty strings. The offsets are <code>int</code>s,
+	 * checked not to overflow before they are written.
+	 */
+	private static void writeStringColumn( final Output out, final Map< String, long[] > columns, final String name, final int n, final IntFunction< String > values ) throws IOException
+	{
+		final String offsets = name + OFFSETS_SUFFIX;
+		begin( out, columns, offsets );
+		long offset = 0l;
+		for ( int i = 0; i < n; i++ )
+		{
+			out.putInt( ( int ) offset );
+			final String str = values.apply( i );
+			if ( null != str )
+				offset += str.getBytes( StandardCharsets.UTF_8 ).length;
+			if ( offset > MAX_COLUMN_SIZE )
+				throw tooLarge( name + BYTES_SUFFIX, offset );
+		}
+		out.putInt( ( int ) offset );
+		end( out, columns, offsets );
+
+		final String bytes = name + BYTES_SUFFIX;
+		begin( out, columns, bytes );
+		for ( int i = 0; i < n; i++ )
+		{
+			final String str = values.apply( i );
+			if ( null != str )
+				out.put( str.getBytes( StandardCharsets.UTF_8 ) );
+		}
+		end( out, columns, bytes );
+	}
+
+	/**
+	 * Buffered, little-endian output to a file channel, that keeps track of
+	 * the position in the file.
+	 */
+	private static final class Output implements Closeable
+	{
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect( 1 << 16 ).order( ByteOrder.LITTLE_ENDIAN );
+
+		/** Position in the file of the start of the buffer. */
+		private long flushed = HEADER_SIZE;
+
+		private Output( final FileChannel channel ) throws IOException
+		{
+			this.channel = channel;
+			channel.position( HEADER_SIZE );
+		}
+
+		private long position()
+		{
+			return flushed + buffer.position();
+		}
+
+		private void ensure( final int nBytes ) throws IOException
+		{
+			if ( buffer.remaining() < nBytes )
+				flush();
+		}
+
+		private void putByte( final byte val ) throws IOException
+		{
+			ensure( 1 );
+			buffer.put( val );
+		}
+
+		private void putInt( final int val ) throws IOException
+		{
+			ensure( 4 );
+			buffer.putInt( val );
+		}
+
+		private void putLong( final long val ) throws IOException
+		{
+			ensure( 8 );
+			buffer.putLong( val );
+		}
+
+		private void putDouble( final double val ) throws IOException
+		{
+			ensure( 8 );
+			buffer.putDouble( val );
+		}
+
+		private void put( final byte[] bytes ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < bytes.length )
+			{
+				if ( !buffer.hasRemaining() )
+					flush();
+				final int length = Math.min( buffer.remaining(), bytes.length - offset );
+				buffer.put( bytes, offset, length );
+				offset += length;
+			}
+		}
+
+		/**
+		 * Pads the output so that the next value starts on a multiple of 8
+		 * bytes.
+		 */
+		private void align() throws IOException
+		{
+			while ( ( position() & 7 ) != 0 )
+				putByte( ( byte ) 0 );
+		}
+
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while ( buffer.hasRemaining() )
+				flushed += channel.write( buffer );
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			flush();
+		}
+	}
+}
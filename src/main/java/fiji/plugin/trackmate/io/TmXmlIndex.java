@@ -0,0 +1,295 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * The index of the model element of a TrackMate XML file, saved next to it.
+ * <p>
+ * The index stores the byte offsets of the sections of the model element, of
+ * each frame of the spot collection and of each track, with the frame range
+ * and the bounding box of the spots they contain. It lets
+ * {@link TmXmlStreamReader} parse only the parts of the file a
+ * {@link ModelSubset} needs.
+ * <p>
+ * The index records the length and the modification time of the XML file it
+ * was written for, and is ignored if they do not match anymore. Compressed
+ * files are not indexed, since they cannot be read from an offset.
+ *
+ * @author Jean-Yves Tinevez
+ */
+final class TmXmlIndex
+{
+
+	/**
+	 * The extension appended to the name of the XML file to build the name of
+	 * its index file.
+	 */
+	static final String EXTENSION = "idx";
+
+	/** "TMXINDEX" in ASCII. */
+	private static final long MAGIC = 0x544D58494E444558l;
+
+	private static final int VERSION = 1;
+
+	/** Start and end of the model element. */
+	long modelStart;
+
+	long modelEnd;
+
+	/** Start and end of the feature declarations element. */
+	long declarationsStart = -1;
+
+	long declarationsEnd = -1;
+
+	/** Start and end of the filtered tracks element. */
+	long filteredTracksStart = -1;
+
+	long filteredTracksEnd = -1;
+
+	/** One block per frame of the spot collection. */
+	final List< Block > frames = new ArrayList<>();
+
+	/** One block per track of the track collection. */
+	final List< Block > tracks = new ArrayList<>();
+
+	static File indexFileFor( final File file )
+	{
+		return new File( file.getPath() + '.' + EXTENSION );
+	}
+
+	/**
+	 * Writes this index for the specified XML file, which must be complete.
+	 */
+	void write( final File file ) throws IOException
+	{
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( indexFileFor( file ) ) ) ))
+		{
+			out.writeLong( MAGIC );
+			out.writeInt( VERSION );
+			out.writeLong( file.length() );
+			out.writeLong( file.lastModified() );
+			out.writeLong( modelStart );
+			out.writeLong( modelEnd );
+			out.writeLong( declarationsStart );
+			out.writeLong( declarationsEnd );
+			out.writeLong( filteredTracksStart );
+			out.writeLong( filteredTracksEnd );
+			writeBlocks( frames, out );
+			writeBlocks( tracks, out );
+		}
+	}
+
+	/**
+	 * Reads the index of the specified XML file.
+	 *
+	 * @return the index, or <code>null</code> if the file has no index, or if
+	 *         the index was not written for this version of the file.
+	 */
+	static TmXmlIndex read( final File file )
+	{
+		final File indexFile = indexFileFor( file );
+		if ( !indexFile.exists() || IOUtils.isGzipFile( file ) )
+			return null;
+
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) ))
+		{
+			if ( in.readLong() != MAGIC || in.readInt() > VERSION )
+				return null;
+			if ( in.readLong() != file.length() || in.readLong() != file.lastModified() )
+				return null;
+
+			final TmXmlIndex index = new TmXmlIndex();
+			index.modelStart = in.readLong();
+			index.modelEnd = in.readLong();
+			index.declarationsStart = in.readLong();
+			index.declarationsEnd = in.readLong();
+			index.filteredTracksStart = in.readLong();
+			index.filteredTracksEnd = in.readLong();
+			readBlocks( index.frames, in );
+			readBlocks( index.tracks, in );
+			return index;
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+	}
+
+	private static void writeBlocks( final List< Block > blocks, final DataOutputStream out ) throws IOException
+	{
+		out.writeInt( blocks.size() );
+		for ( final Block block : blocks )
+		{
+			out.writeInt( block.id );
+			out.writeLong( block.start );
+			out.writeLong( block.end );
+			out.writeInt( block.minFrame );
+			out.writeInt( block.maxFrame );
+			for ( int d = 0; d < 3; d++ )
+			{
+				out.writeDouble( block.min[ d ] );
+				out.writeDouble( block.max[ d ] );
+			}
+		}
+	}
+
+	private static void readBlocks( final List< Block > blocks, final DataInputStream in ) throws IOException
+	{
+		final int n = in.readInt();
+		for ( int i = 0; i < n; i++ )
+		{
+			final Block block = new Block( in.readInt(), in.readLong() );
+			block.end = in.readLong();
+			block.minFrame = in.readInt();
+			block.maxFrame = in.readInt();
+			for ( int d = 0; d < 3; d++ )
+			{
+				block.min[ d ] = in.readDouble();
+				block.max[ d ] = in.readDouble();
+			}
+			blocks.add( block );
+		}
+	}
+
+	/**
+	 * A frame or a track element: its byte range in the file, and the frames
+	 * and bounding box of its spots.
+	 */
+	static final class Block
+	{
+
+		/** The frame or the track ID. */
+		final int id;
+
+		final long start;
+
+		long end;
+
+		int minFrame = Integer.MAX_VALUE;
+
+		int maxFrame = Integer.MIN_VALUE;
+
+		final double[] min = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+
+		final double[] max = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		Block( final int id, final long start )
+		{
+			this.id = id;
+			this.start = start;
+		}
+
+		void add( final Spot spot )
+		{
+			final int frame = spot.getFeature( Spot.FRAME ).intValue();
+			minFrame = Math.min( minFrame, frame );
+			maxFrame = Math.max( maxFrame, frame );
+			for ( int d = 0; d < 3; d++ )
+			{
+				final Double x = spot.getFeature( Spot.POSITION_FEATURES[ d ] );
+				if ( null == x )
+				{
+					// Unknown position: the block may be anywhere.
+					min[ d ] = Double.NEGATIVE_INFINITY;
+					max[ d ] = Double.POSITIVE_INFINITY;
+					continue;
+				}
+				min[ d ] = Math.min( min[ d ], x.doubleValue() );
+				max[ d ] = Math.max( max[ d ], x.doubleValue() );
+			}
+		}
+	}
+
+	/**
+	 * A writer that counts the bytes the characters written to it take in
+	 * UTF-8, so that byte offsets can be recorded without flushing the
+	 * encoder.
+	 */
+	static final class CountingWriter extends FilterWriter
+	{
+
+		private long position;
+
+		CountingWriter( final Writer out )
+		{
+			super( out );
+		}
+
+		/**
+		 * Returns the number of bytes written so far, in UTF-8.
+		 */
+		long position()
+		{
+			return position;
+		}
+
+		@Override
+		public void write( final int c ) throws IOException
+		{
+			position += utf8Length( ( char ) c );
+			out.write( c );
+		}
+
+		@Override
+		public void write( final char[] cbuf, final int off, final int len ) throws IOException
+		{
+			for ( int i = off; i < off + len; i++ )
+				position += utf8Length( cbuf[ i ] );
+			out.write( cbuf, off, len );
+		}
+
+		@Override
+		public void write( final String str, final int off, final int len ) throws IOException
+		{
+			for ( int i = off; i < off + len; i++ )
+				position += utf8Length( str.charAt( i ) );
+			out.write( str, off, len );
+		}
+
+		/**
+		 * A surrogate pair takes 4 bytes in UTF-8, 2 per surrogate.
+		 */
+		private static int utf8Length( final char c )
+		{
+			if ( c < 0x80 )
+				return 1;
+			if ( c < 0x800 || Character.isSurrogate( c ) )
+				return 2;
+			return 3;
+		}
+	}
+}
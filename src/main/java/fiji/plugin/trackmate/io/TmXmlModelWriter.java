@@ -0,0 +1,546 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DIMENSION_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ISINT_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdom2.output.EscapeStrategy;
+import org.jdom2.output.Format;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * Writes the model element of a TrackMate XML file directly from a
+ * {@link Model}, without building a JDOM tree of its spots, edges and tracks.
+ * <p>
+ * The output is identical to what {@link org.jdom2.output.XMLOutputter}
+ * produces for the same content in the pretty format: same attribute order,
+ * same indentation, same empty-element and escaping conventions. Numbers are
+ * formatted in a reused buffer, so writing a model allocates nothing
+ * proportional to its size.
+ *
+ * @author Jean-Yves Tinevez
+ */
+final class TmXmlModelWriter
+{
+
+	private final Writer out;
+
+	private final String lineSeparator;
+
+	private final String indent;
+
+	private final EscapeStrategy strategy;
+
+	private final Logger logger;
+
+	/** The index to fill, or <code>null</code>. */
+	private final TmXmlIndex index;
+
+	/** Counts the bytes written, when building an index. */
+	private final TmXmlIndex.CountingWriter counter;
+
+	/** Byte offset of the start tag last opened, when building an index. */
+	private long lastStart;
+
+	/** Indentation strings, per depth below the model element. */
+	private final List< String > indents = new ArrayList<>();
+
+	/** Buffer for number formatting. */
+	private final StringBuilder number = new StringBuilder( 32 );
+
+	private char[] chars = new char[ 32 ];
+
+	/** Depth of the element currently open. */
+	private int depth = -1;
+
+	/** Whether the start tag of the current element is still open. */
+	private boolean pending = false;
+
+	/** Whether the current element has text content. */
+	private boolean hasText = false;
+
+	/**
+	 * Creates a writer for the model element.
+	 *
+	 * @param out
+	 *            the writer to write to.
+	 * @param lineSeparator
+	 *            the line separator of the format.
+	 * @param indent
+	 *            the indentation of one level in the format.
+	 * @param levelIndent
+	 *            the indentation of the line the model element starts at.
+	 * @param strategy
+	 *            the escape strategy of the format.
+	 * @param logger
+	 *            a logger to report progress to.
+	 * @param index
+	 *            the index to fill with the byte offsets of the model
+	 *            sections, or <code>null</code>. Offsets are only recorded if
+	 *            the writer is a {@link TmXmlIndex.CountingWriter}.
+	 */
+	TmXmlModelWriter(
+			final Writer out,
+			final String lineSeparator,
+			final String indent,
+			final String levelIndent,
+			final EscapeStrategy strategy,
+			final Logger logger,
+			final TmXmlIndex index )
+	{
+		this.out = out;
+		this.counter = ( null != index && out instanceof TmXmlIndex.CountingWriter ) ? ( TmXmlIndex.CountingWriter ) out : null;
+		this.index = ( null == counter ) ? null : index;
+		this.lineSeparator = ( null == lineSeparator ) ? "" : lineSeparator;
+		this.indent = ( null == indent ) ? "" : indent;
+		this.strategy = strategy;
+		this.logger = logger;
+		indents.add( ( null == levelIndent ) ? "" : levelIndent );
+	}
+
+	/**
+	 * Writes the model element. The writer is expected to be positioned where
+	 * the start tag of the model element must be written.
+	 *
+	 * @param model
+	 *            the model to write.
+	 * @throws IOException
+	 *             if the underlying writer throws it.
+	 */
+	void write( final Model model ) throws IOException
+	{
+		start( MODEL_ELEMENT_KEY );
+		final long modelStart = lastStart;
+		attribute( SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits() );
+		attribute( TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits() );
+		writeFeatureDeclarations( model.getFeatureModel() );
+		writeSpots( model );
+		writeTracks( model );
+		writeFilteredTracks( model );
+		end( MODEL_ELEMENT_KEY );
+		if ( null != index )
+		{
+			index.modelStart = modelStart;
+			index.modelEnd = counter.position();
+		}
+		out.flush();
+	}
+
+	/*
+	 * MODEL SECTIONS.
+	 */
+
+	private void writeFeatureDeclarations( final FeatureModel fm ) throws IOException
+	{
+		start( FEATURE_DECLARATIONS_ELEMENT_KEY );
+		final long declarationsStart = lastStart;
+		writeFeatureDeclaration( SPOT_FEATURES_ELEMENT_KEY,
+				fm.getSpotFeatures(),
+				fm.getSpotFeatureNames(),
+				fm.getSpotFeatureShortNames(),
+				fm.getSpotFeatureDimensions(),
+				fm.getSpotFeatureIsInt() );
+		writeFeatureDeclaration( EDGE_FEATURES_ELEMENT_KEY,
+				fm.getEdgeFeatures(),
+				fm.getEdgeFeatureNames(),
+				fm.getEdgeFeatureShortNames(),
+				fm.getEdgeFeatureDimensions(),
+				fm.getEdgeFeatureIsInt() );
+		writeFeatureDeclaration( TRACK_FEATURES_ELEMENT_KEY,
+				fm.getTrackFeatures(),
+				fm.getTrackFeatureNames(),
+				fm.getTrackFeatureShortNames(),
+				fm.getTrackFeatureDimensions(),
+				fm.getTrackFeatureIsInt() );
+		end( FEATURE_DECLARATIONS_ELEMENT_KEY );
+		if ( null != index )
+		{
+			index.declarationsStart = declarationsStart;
+			index.declarationsEnd = counter.position();
+		}
+		logger.log( "  Added spot, edge and track feature declarations.\n" );
+	}
+
+	private void writeFeatureDeclaration(
+			final String elementKey,
+			final Collection< String > features,
+			final Map< String, String > featureNames,
+			final Map< String, String > featureShortNames,
+			final Map< String, Dimension > featureDimensions,
+			final Map< String, Boolean > featureIsInt ) throws IOException
+	{
+		start( elementKey );
+		for ( final String feature : features )
+		{
+			start( FEATURE_ELEMENT_KEY );
+			attribute( FEATURE_ATTRIBUTE, feature );
+			attribute( FEATURE_NAME_ATTRIBUTE, featureNames.get( feature ) );
+			attribute( FEATURE_SHORT_NAME_ATTRIBUTE, featureShortNames.get( feature ) );
+			attribute( FEATURE_DIMENSION_ATTRIBUTE, featureDimensions.get( feature ).name() );
+			attribute( FEATURE_ISINT_ATTRIBUTE, featureIsInt.get( feature ).toString() );
+			end( FEATURE_ELEMENT_KEY );
+		}
+		end( elementKey );
+	}
+
+	private void writeSpots( final Model model ) throws IOException
+	{
+		final SpotCollection spots = model.getSpots();
+		final Map< String, Boolean > isInt = model.getFeatureModel().getSpotFeatureIsInt();
+		final int nspots = spots.getNSpots( false );
+
+		start( SPOT_COLLECTION_ELEMENT_KEY );
+		attribute( SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, nspots );
+		for ( final int frame : spots.keySet() )
+		{
+			start( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
+			final TmXmlIndex.Block block = openBlock( frame );
+			attribute( FRAME_ATTRIBUTE_NAME, frame );
+			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
+			{
+				final Spot spot = it.next();
+				writeSpot( spot, isInt );
+				if ( null != block )
+					block.add( spot );
+			}
+			end( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
+			if ( null != block )
+			{
+				block.end = counter.position();
+				index.frames.add( block );
+			}
+		}
+		end( SPOT_COLLECTION_ELEMENT_KEY );
+		logger.log( "  Added " + nspots + " spots.\n" );
+	}
+
+	private void writeSpot( final Spot spot, final Map< String, Boolean > isInt ) throws IOException
+	{
+		start( SPOT_ELEMENT_KEY );
+		attribute( SPOT_ID_ATTRIBUTE_NAME, spot.ID() );
+		attribute( SPOT_NAME_ATTRIBUTE_NAME, spot.getName() );
+		for ( final Map.Entry< String, Double > entry : spot.getFeatures().entrySet() )
+		{
+			final Double val = entry.getValue();
+			if ( null == val )
+				continue;
+
+			final String feature = entry.getKey();
+			if ( isInt.getOrDefault( feature, Boolean.FALSE ).booleanValue() )
+				attribute( feature, val.intValue() );
+			else
+				attribute( feature, val.doubleValue() );
+		}
+
+		final SpotRoi roi = spot.getRoi();
+		if ( roi != null )
+		{
+			final int nPoints = roi.x.length;
+			attribute( ROI_N_POINTS_ATTRIBUTE_NAME, nPoints );
+			// Text is trimmed, like the pretty format does.
+			for ( int i = 0; i < nPoints; i++ )
+			{
+				if ( i == 0 )
+					openText();
+				else
+					out.write( ' ' );
+				writeNumber( roi.x[ i ] );
+				out.write( ' ' );
+				writeNumber( roi.y[ i ] );
+			}
+		}
+		end( SPOT_ELEMENT_KEY );
+	}
+
+	private void writeTracks( final Model model ) throws IOException
+	{
+		/*
+		 * Some numerical features are REQUIRED to be able to save to XML.
+		 * Namely: the track ID feature for track and the edge spot source and
+		 * spot target for edges. Whether the model provides them as features or
+		 * not, we get them from the model and put them in the XML.
+		 */
+
+		final FeatureModel fm = model.getFeatureModel();
+		final TrackModel tm = model.getTrackModel();
+
+		// TrackID is treated separately.
+		final List< String > trackFeatures = new ArrayList<>( fm.getTrackFeatures() );
+		trackFeatures.remove( TrackIndexAnalyzer.TRACK_ID );
+		final Map< String, Boolean > trackFeatureIsInt = fm.getTrackFeatureIsInt();
+
+		// We will treat edge source and target separately.
+		final List< String > edgeFeatures = new ArrayList<>( fm.getEdgeFeatures() );
+		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_SOURCE_ID );
+		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_TARGET_ID );
+		final Map< String, Boolean > edgeFeatureIsInt = fm.getEdgeFeatureIsInt();
+
+		start( TRACK_COLLECTION_ELEMENT_KEY );
+		for ( final int trackID : tm.trackIDs( false ) )
+		{
+			/*
+			 * Special case: the track has only one spot in it, therefore no
+			 * edge. It just should not be, since the model never returns a
+			 * track with less than one edge. So we skip writing it.
+			 */
+			final Set< DefaultWeightedEdge > track = tm.trackEdges( trackID );
+			if ( track.isEmpty() )
+				continue;
+
+			start( TRACK_ELEMENT_KEY );
+			final TmXmlIndex.Block block = openBlock( trackID );
+			attribute( TRACK_NAME_ATTRIBUTE_NAME, tm.name( trackID ) );
+			attribute( TrackIndexAnalyzer.TRACK_ID, trackID );
+			for ( final String feature : trackFeatures )
+			{
+				final Double val = fm.getTrackFeature( trackID, feature );
+				if ( null == val )
+					continue;
+
+				if ( trackFeatureIsInt.get( feature ).booleanValue() )
+					attribute( feature, val.intValue() );
+				else
+					attribute( feature, val.doubleValue() );
+			}
+
+			for ( final DefaultWeightedEdge edge : track )
+			{
+				start( TRACK_EDGE_ELEMENT_KEY );
+
+				// Make sure the edge has the right orientation: forward in time.
+				final Spot source = tm.getEdgeSource( edge );
+				final Spot target = tm.getEdgeTarget( edge );
+				final boolean forward = target.getFeature( Spot.FRAME ).intValue() >= source.getFeature( Spot.FRAME ).intValue();
+				attribute( EdgeTargetAnalyzer.SPOT_SOURCE_ID, forward ? source.ID() : target.ID() );
+				attribute( EdgeTargetAnalyzer.SPOT_TARGET_ID, forward ? target.ID() : source.ID() );
+				if ( null != block )
+				{
+					block.add( source );
+					block.add( target );
+				}
+
+				for ( final String feature : edgeFeatures )
+				{
+					final Double val = fm.getEdgeFeature( edge, feature );
+					if ( null == val )
+						continue;
+
+					if ( edgeFeatureIsInt.get( feature ).booleanValue() )
+						attribute( feature, val.intValue() );
+					else
+						attribute( feature, val.doubleValue() );
+				}
+				end( TRACK_EDGE_ELEMENT_KEY );
+			}
+			end( TRACK_ELEMENT_KEY );
+			if ( null != block )
+			{
+				block.end = counter.position();
+				index.tracks.add( block );
+			}
+		}
+		end( TRACK_COLLECTION_ELEMENT_KEY );
+		logger.log( "  Added tracks.\n" );
+	}
+
+	private void writeFilteredTracks( final Model model ) throws IOException
+	{
+		start( FILTERED_TRACK_ELEMENT_KEY );
+		final long filteredTracksStart = lastStart;
+		for ( final int trackID : model.getTrackModel().trackIDs( true ) )
+		{
+			start( TRACK_ID_ELEMENT_KEY );
+			attribute( TrackIndexAnalyzer.TRACK_ID, trackID );
+			end( TRACK_ID_ELEMENT_KEY );
+		}
+		end( FILTERED_TRACK_ELEMENT_KEY );
+		if ( null != index )
+		{
+			index.filteredTracksStart = filteredTracksStart;
+			index.filteredTracksEnd = counter.position();
+		}
+		logger.log( "  Added filtered tracks.\n" );
+	}
+
+	/**
+	 * Returns a new index block for the element just opened, or
+	 * <code>null</code> if no index is built.
+	 */
+	private TmXmlIndex.Block openBlock( final int id )
+	{
+		return ( null == index ) ? null : new TmXmlIndex.Block( id, lastStart );
+	}
+
+	/*
+	 * XML PRIMITIVES.
+	 */
+
+	private void start( final String name ) throws IOException
+	{
+		if ( depth >= 0 )
+		{
+			if ( pending )
+				out.write( '>' );
+			out.write( lineSeparator );
+			out.write( indent( depth + 1 ) );
+		}
+		if ( null != counter )
+			lastStart = counter.position();
+		out.write( '<' );
+		out.write( name );
+		depth++;
+		pending = true;
+		hasText = false;
+	}
+
+	private void openText() throws IOException
+	{
+		out.write( '>' );
+		pending = false;
+		hasText = true;
+	}
+
+	private void end( final String name ) throws IOException
+	{
+		if ( pending )
+		{
+			out.write( " />" );
+		}
+		else
+		{
+			if ( !hasText )
+			{
+				out.write( lineSeparator );
+				out.write( indent( depth ) );
+			}
+			out.write( "</" );
+			out.write( name );
+			out.write( '>' );
+		}
+		depth--;
+		pending = false;
+		hasText = false;
+	}
+
+	private void attribute( final String name, final String value ) throws IOException
+	{
+		out.write( ' ' );
+		out.write( name );
+		out.write( "=\"" );
+		if ( null != value )
+			out.write( Format.escapeAttribute( strategy, value ) );
+		out.write( '"' );
+	}
+
+	private void attribute( final String name, final int value ) throws IOException
+	{
+		out.write( ' ' );
+		out.write( name );
+		out.write( "=\"" );
+		number.setLength( 0 );
+		number.append( value );
+		flushNumber();
+		out.write( '"' );
+	}
+
+	private void attribute( final String name, final double value ) throws IOException
+	{
+		out.write( ' ' );
+		out.write( name );
+		out.write( "=\"" );
+		writeNumber( value );
+		out.write( '"' );
+	}
+
+	/**
+	 * Writes a double the way {@link Double#toString(double)} formats it,
+	 * without creating a string.
+	 */
+	private void writeNumber( final double value ) throws IOException
+	{
+		number.setLength( 0 );
+		number.append( value );
+		flushNumber();
+	}
+
+	private void flushNumber() throws IOException
+	{
+		final int length = number.length();
+		if ( chars.length < length )
+			chars = new char[ 2 * length ];
+		number.getChars( 0, length, chars, 0 );
+		out.write( chars, 0, length );
+	}
+
+	private String indent( final int level )
+	{
+		while ( indents.size() <= level )
+			indents.add( indents.get( indents.size() - 1 ) + indent );
+		return indents.get( level );
+	}
+}
@@ -95,15 +95,21 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.XML_ATTRIBUTE_TRACKER_N
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.jdom2.Attribute;
 import org.jdom2.DataConversionException;
@@ -142,13 +148,15 @@ import fiji.plugin.trackmate.providers.TrackAnalyzerProvider;
 import fiji.plugin.trackmate.providers.TrackerProvider;
 import fiji.plugin.trackmate.providers.ViewProvider;
 import fiji.plugin.trackmate.tracking.SpotTrackerFactory;
+import fiji.plugin.trackmate.util.Threads;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
 import fiji.plugin.trackmate.visualization.ViewFactory;
 import fiji.plugin.trackmate.visualization.trackscheme.TrackScheme;
 import ij.IJ;
 import ij.ImagePlus;
+import net.imglib2.algorithm.MultiThreaded;
 
-public class TmXmlReader
+public class TmXmlReader implements MultiThreaded
 {
 
 	protected static final boolean DEBUG = true;
@@ -179,6 +187,11 @@ public class TmXmlReader
 	 */
 	protected boolean ok = true;
 
+	/**
+	 * The number of threads used to parse the spots.
+	 */
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -191,9 +204,9 @@ public class TmXmlReader
 		this.file = file;
 		final SAXBuilder sb = new SAXBuilder();
 		Element r = null;
-		try
+		try (final InputStream is = IOUtils.openInputStream( file ))
 		{
-			document = sb.build( file );
+			document = sb.build( is, file.toURI().toString() );
 			r = document.getRootElement();
 		}
 		catch ( final JDOMException e )
@@ -211,6 +224,23 @@ public class TmXmlReader
 		this.root = r;
 	}
 
+	/**
+	 * Hook for subclassers:<br>
+	 * Initialize this reader with a root element built elsewhere, without
+	 * parsing the file.
+	 *
+	 * @param file
+	 *            the file this reader reads from.
+	 * @param root
+	 *            the root element to query for the log, settings and GUI
+	 *            state.
+	 */
+	protected TmXmlReader( final File file, final Element root )
+	{
+		this.file = file;
+		this.root = root;
+	}
+
 	/*
 	 * PUBLIC METHODS
 	 */
@@ -545,6 +575,24 @@ public class TmXmlReader
 		return ok;
 	}
 
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	/*
 	 * PRIVATE METHODS
 	 */
@@ -906,27 +954,98 @@ public class TmXmlReader
 		// Instantiate cache
 		cache = new ConcurrentHashMap<>( nspots );
 
-		// Load collection and build cache
-		int currentFrame = 0;
-		final Map< Integer, Set< Spot > > content = new HashMap<>( frameContent.size() );
-		for ( final Element currentFrameContent : frameContent )
+		/*
+		 * Frames are independent: parse them in parallel, each one in its own
+		 * spot set and with its own logger, then assemble them in file order.
+		 */
+		final int nFrames = frameContent.size();
+		final int[] frames = new int[ nFrames ];
+		final List< Set< Spot > > spotSets = new ArrayList<>( Collections.nCopies( nFrames, null ) );
+		final StringBuilderLogger[] frameLoggers = new StringBuilderLogger[ nFrames ];
+		final List< Callable< Void > > tasks = new ArrayList<>( nFrames );
+		for ( int i = 0; i < nFrames; i++ )
 		{
+			final int index = i;
+			tasks.add( () -> {
+				final StringBuilderLogger frameLogger = new StringBuilderLogger();
+				final Element currentFrameContent = frameContent.get( index );
+				frames[ index ] = readIntAttribute( currentFrameContent, FRAME_ATTRIBUTE_NAME, frameLogger );
+				final List< Element > spotContent = currentFrameContent.getChildren( SPOT_ELEMENT_KEY );
+				final Set< Spot > spotSet = new HashSet<>( spotContent.size() );
+				for ( final Element spotElement : spotContent )
+				{
+					final Spot spot = createSpotFrom( spotElement, frameLogger );
+					spotSet.add( spot );
+					cache.put( spot.ID(), spot );
+				}
+				spotSets.set( index, spotSet );
+				frameLoggers[ index ] = frameLogger;
+				return null;
+			} );
+		}
+		runAll( tasks );
 
-			currentFrame = readIntAttribute( currentFrameContent, FRAME_ATTRIBUTE_NAME, logger );
-			final List< Element > spotContent = currentFrameContent.getChildren( SPOT_ELEMENT_KEY );
-			final Set< Spot > spotSet = new HashSet<>( spotContent.size() );
-			for ( final Element spotElement : spotContent )
-			{
-				final Spot spot = createSpotFrom( spotElement );
-				spotSet.add( spot );
-				cache.put( spot.ID(), spot );
-			}
-			content.put( currentFrame, spotSet );
+		final Map< Integer, Set< Spot > > content = new HashMap<>( nFrames );
+		for ( int i = 0; i < nFrames; i++ )
+		{
+			final String frameLog = frameLoggers[ i ].toString();
+			if ( !frameLog.isEmpty() )
+				logger.error( frameLog );
+			content.put( frames[ i ], spotSets.get( i ) );
 		}
 		final SpotCollection allSpots = SpotCollection.fromMap( content );
 		return allSpots;
 	}
 
+	/**
+	 * Runs the specified tasks on {@link #numThreads} threads, and waits for
+	 * them to complete. Runtime exceptions thrown by the tasks are rethrown.
+	 */
+	private void runAll( final List< Callable< Void > > tasks )
+	{
+		if ( numThreads <= 1 || tasks.size() <= 1 )
+		{
+			for ( final Callable< Void > task : tasks )
+			{
+				try
+				{
+					task.call();
+				}
+				catch ( final RuntimeException e )
+				{
+					throw e;
+				}
+				catch ( final Exception e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+			return;
+		}
+
+		final ExecutorService executors = Threads.newFixedThreadPool( Math.min( numThreads, tasks.size() ) );
+		try
+		{
+			for ( final Future< Void > future : executors.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( e.getCause() instanceof RuntimeException )
+				throw ( RuntimeException ) e.getCause();
+			throw new RuntimeException( e.getCause() );
+		}
+		finally
+		{
+			executors.shutdown();
+		}
+	}
+
 	/**
 	 * Load the tracks, the track features and the ID of the filtered tracks
 	 * into the model specified. The track collection element is expected to be
@@ -1129,7 +1248,7 @@ public class TmXmlReader
 		return filteredTrackIndices;
 	}
 
-	private Spot createSpotFrom( final Element spotEl )
+	private static Spot createSpotFrom( final Element spotEl, final Logger logger )
 	{
 		// Read id.
 		final int ID = readIntAttribute( spotEl, SPOT_ID_ATTRIBUTE_NAME, logger );
@@ -1159,9 +1278,9 @@ public class TmXmlReader
 			int index = 0;
 			for ( int i = 0; i < roiNPoints; i++ )
 			{
-				final double x = Double.parseDouble( vals[ index++ ] );
+				final double x = AsciiDoubleParser.parseDouble( vals[ index++ ] );
 				xrois[ i ] = x;
-				final double y = Double.parseDouble( vals[ index++ ] );
+				final double y = AsciiDoubleParser.parseDouble( vals[ index++ ] );
 				yrois[ i ] = y;
 			}
 			spot.setRoi( new SpotRoi( xrois, yrois ) );
@@ -1176,7 +1295,7 @@ public class TmXmlReader
 			if ( att.getName().equals( SPOT_NAME_ATTRIBUTE_NAME ) || att.getName().equals( SPOT_ID_ATTRIBUTE_NAME ) )
 				continue;
 
-			spot.putFeature( att.getName(), Double.valueOf( att.getValue() ) );
+			spot.putFeature( att.getName(), Double.valueOf( AsciiDoubleParser.parseDouble( att.getValue() ) ) );
 		}
 		return spot;
 	}
@@ -1191,7 +1310,7 @@ public class TmXmlReader
 		attributes.removeAll( toRemove );
 	}
 
-	private void readFeatureDeclarations( final Element modelElement, final Model model )
+	protected void readFeatureDeclarations( final Element modelElement, final Model model )
 	{
 
 		final FeatureModel fm = model.getFeatureModel();
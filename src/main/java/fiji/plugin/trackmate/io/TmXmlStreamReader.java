@@ -0,0 +1,939 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+import org.jgrapht.alg.connectivity.ConnectivityInspector;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A {@link TmXmlReader} that reads TrackMate XML files with a
+ * {@link XMLStreamReader} instead of building a JDOM document of the whole
+ * file.
+ * <p>
+ * The file is read in a single pass in the constructor. The spots, edges and
+ * tracks of the model are created directly from the stream, and the model is
+ * kept until the first call to {@link #getModel()}. All the other sections of
+ * the file (log, settings, GUI state, display settings) are small and are
+ * still read as JDOM elements, so that all the methods of {@link TmXmlReader}
+ * work unchanged on them.
+ * <p>
+ * A {@link ModelSubset} can be specified to load only part of the model. If
+ * the file was saved with an index, see {@link TmXmlWriter#writeToFile()},
+ * only the parts of the file that contain the subset are parsed. Otherwise
+ * the whole file is streamed and the spots, edges and tracks outside of the
+ * subset are discarded as they are read.
+ * <p>
+ * Because the model is read in the constructor, subclasses overriding
+ * {@link #createModel()} must not depend on their own fields.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TmXmlStreamReader extends TmXmlReader
+{
+
+	/**
+	 * The model read in the constructor, not yet returned by
+	 * {@link #getModel()}.
+	 */
+	private Model model;
+
+	/**
+	 * Canonical instances of the attribute names, so that the feature maps of
+	 * all the spots share the same keys.
+	 */
+	private final Map< String, String > names = new HashMap<>();
+
+	/**
+	 * The part of the model to load, or <code>null</code> to load all of it.
+	 */
+	private final ModelSubset subset;
+
+	/**
+	 * The index of the file, or <code>null</code> if the file is streamed.
+	 */
+	private final TmXmlIndex index;
+
+	/**
+	 * Initialize this reader to read the file given in argument.
+	 */
+	public TmXmlStreamReader( final File file )
+	{
+		this( file, null );
+	}
+
+	/**
+	 * Initialize this reader to read part of the model saved in the file given
+	 * in argument.
+	 * <p>
+	 * Tracks cut by the subset may fall apart in several pieces. The largest
+	 * piece keeps the saved track ID, name and features. The others are given
+	 * new IDs, the saved name and no features. Track features are the ones of
+	 * the whole saved track, and are not recomputed on the loaded part.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @param subset
+	 *            the part of the model to load, or <code>null</code> to load
+	 *            all of it.
+	 */
+	public TmXmlStreamReader( final File file, final ModelSubset subset )
+	{
+		super( file, new Element( ROOT_ELEMENT_KEY ) );
+		this.subset = subset;
+		this.index = ( null == subset ) ? null : TmXmlIndex.read( file );
+		this.model = read( true );
+	}
+
+	/**
+	 * Returns the model saved in the file, or <code>null</code> if a saved
+	 * model cannot be found in the xml file.
+	 * <p>
+	 * The first call returns the model read in the constructor. Subsequent
+	 * calls stream the file again to return a new model.
+	 *
+	 * @return a new {@link Model}.
+	 */
+	@Override
+	public Model getModel()
+	{
+		if ( null == model )
+			return read( false );
+
+		final Model m = model;
+		model = null;
+		return m;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Streams the file and returns the model it contains.
+	 *
+	 * @param readRoot
+	 *            if <code>true</code>, the root attributes and all the
+	 *            sections other than the model are added to the root element.
+	 * @return a new model, or <code>null</code> if the file does not contain
+	 *         one or cannot be read.
+	 */
+	private Model read( final boolean readRoot )
+	{
+		try
+		{
+			if ( null != index )
+				return readIndexed( readRoot );
+
+			try (final InputStream is = IOUtils.openInputStream( file ))
+			{
+				return read( is, readRoot );
+			}
+		}
+		catch ( final XMLStreamException e )
+		{
+			ok = false;
+			logger.error( "Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n' );
+		}
+		catch ( final IOException e )
+		{
+			ok = false;
+			logger.error( "Problem reading " + file.getName()
+					+ ".\nError message is:\n" + e.getLocalizedMessage() + '\n' );
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a TrackMate XML document and returns the model it contains.
+	 */
+	private Model read( final InputStream is, final boolean readRoot ) throws XMLStreamException
+	{
+		Model m = null;
+		final XMLStreamReader reader = newFactory().createXMLStreamReader( is );
+		try
+		{
+			reader.nextTag();
+			if ( !ROOT_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				ok = false;
+				logger.error( "Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\n" );
+				return null;
+			}
+
+			if ( readRoot )
+				for ( int i = 0; i < reader.getAttributeCount(); i++ )
+					root.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+
+			while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+			{
+				if ( MODEL_ELEMENT_KEY.equals( reader.getLocalName() ) )
+					m = readModel( reader );
+				else if ( readRoot )
+					root.addContent( readElement( reader ) );
+				else
+					skipElement( reader );
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return m;
+	}
+
+	/**
+	 * Reads the parts of the file that contain the subset, at the offsets
+	 * stored in the index. The root sections are read from the file without
+	 * the model element.
+	 */
+	private Model readIndexed( final boolean readRoot ) throws IOException, XMLStreamException
+	{
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "r" ))
+		{
+			if ( readRoot )
+				read( new SequenceInputStream(
+						new ByteArrayInputStream( readBytes( raf, 0, index.modelStart ) ),
+						new ByteArrayInputStream( readBytes( raf, index.modelEnd, raf.length() ) ) ), true );
+
+			// Model attributes, from the start tag.
+			XMLStreamReader reader = fragment( raf, index.modelStart, index.declarationsStart );
+			final Model m = createModel();
+			m.setPhysicalUnits(
+					reader.getAttributeValue( null, SPATIAL_UNITS_ATTRIBUTE_NAME ),
+					reader.getAttributeValue( null, TIME_UNITS_ATTRIBUTE_NAME ) );
+
+			reader = fragment( raf, index.declarationsStart, index.declarationsEnd );
+			final Element modelElement = new Element( MODEL_ELEMENT_KEY );
+			modelElement.addContent( readElement( reader ) );
+			readFeatureDeclarations( modelElement, m );
+
+			// Tracks to read, and the frames they span.
+			final List< TmXmlIndex.Block > trackBlocks = new ArrayList<>();
+			int minFrame = Integer.MAX_VALUE;
+			int maxFrame = Integer.MIN_VALUE;
+			for ( final TmXmlIndex.Block block : index.tracks )
+			{
+				if ( !subset.containsTrack( block.id ) || !subset.overlaps( block.minFrame, block.maxFrame, block.min, block.max ) )
+					continue;
+				trackBlocks.add( block );
+				minFrame = Math.min( minFrame, block.minFrame );
+				maxFrame = Math.max( maxFrame, block.maxFrame );
+			}
+
+			cache = new ConcurrentHashMap<>();
+			final Map< Integer, Set< Spot > > content = new HashMap<>();
+			for ( final TmXmlIndex.Block block : index.frames )
+			{
+				if ( !subset.overlaps( block.minFrame, block.maxFrame, block.min, block.max ) )
+					continue;
+				if ( subset.hasTrackIDs() && ( block.id < minFrame || block.id > maxFrame ) )
+					continue;
+				readFrame( fragment( raf, block.start, block.end ), content );
+			}
+			m.setSpots( SpotCollection.fromMap( content ), false );
+
+			final Tracks tracks = new Tracks();
+			final FeatureModel fm = m.getFeatureModel();
+			for ( final TmXmlIndex.Block block : trackBlocks )
+				readTrack( fragment( raf, block.start, block.end ), tracks, fm );
+
+			reader = fragment( raf, index.filteredTracksStart, index.filteredTracksEnd );
+			final Set< Integer > filteredTrackIDs = readFilteredTrackIDs( reader );
+
+			setTracks( m, tracks, filteredTrackIDs );
+			return m;
+		}
+	}
+
+	/**
+	 * Reads the model element the stream is positioned on.
+	 */
+	private Model readModel( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Model m = createModel();
+		m.setPhysicalUnits(
+				reader.getAttributeValue( null, SPATIAL_UNITS_ATTRIBUTE_NAME ),
+				reader.getAttributeValue( null, TIME_UNITS_ATTRIBUTE_NAME ) );
+
+		boolean foundDeclarations = false;
+		boolean foundSpots = false;
+		Tracks tracks = null;
+		Set< Integer > filteredTrackIDs = null;
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			switch ( reader.getLocalName() )
+			{
+			case FEATURE_DECLARATIONS_ELEMENT_KEY:
+			{
+				// Small: reuse the JDOM code path.
+				final Element modelElement = new Element( MODEL_ELEMENT_KEY );
+				modelElement.addContent( readElement( reader ) );
+				readFeatureDeclarations( modelElement, m );
+				foundDeclarations = true;
+				break;
+			}
+			case SPOT_COLLECTION_ELEMENT_KEY:
+				m.setSpots( readSpots( reader ), false );
+				foundSpots = true;
+				break;
+			case TRACK_COLLECTION_ELEMENT_KEY:
+				tracks = readTracks( reader, m.getFeatureModel() );
+				break;
+			case FILTERED_TRACK_ELEMENT_KEY:
+				filteredTrackIDs = readFilteredTrackIDs( reader );
+				break;
+			default:
+				skipElement( reader );
+				break;
+			}
+		}
+
+		if ( !foundDeclarations )
+			readFeatureDeclarations( new Element( MODEL_ELEMENT_KEY ), m );
+
+		if ( !foundSpots )
+		{
+			logger.error( "Could not find the spot collection in file.\n" );
+			ok = false;
+		}
+
+		if ( null == tracks )
+		{
+			logger.error( "Cannot find the track collection in file.\n" );
+			ok = false;
+			return m;
+		}
+
+		if ( null == filteredTrackIDs )
+		{
+			logger.error( "Could not find the filtered track IDs in file.\n" );
+			ok = false;
+			filteredTrackIDs = new HashSet<>();
+		}
+		setTracks( m, tracks, filteredTrackIDs );
+		return m;
+	}
+
+	/**
+	 * Passes the tracks read from the file to the model.
+	 */
+	private void setTracks( final Model m, final Tracks tracks, final Set< Integer > filteredTrackIDs )
+	{
+		if ( null != subset )
+		{
+			if ( subset.hasTrackIDs() )
+				removeUnlinkedSpots( m, tracks );
+			splitTracks( tracks );
+		}
+
+		/*
+		 * Visibility.
+		 */
+		final Map< Integer, Boolean > visibility = new HashMap<>( tracks.edges.size() );
+		for ( final Integer id : tracks.edges.keySet() )
+			visibility.put( id, Boolean.FALSE );
+		for ( final Integer id : filteredTrackIDs )
+		{
+			if ( !tracks.edges.containsKey( id ) )
+			{
+				// Tracks outside of a subset are not loaded.
+				if ( null != subset )
+					continue;
+				logger.error( "Invalid filtered track index: " + id + ". Track ID does not exist.\n" );
+				ok = false;
+				continue;
+			}
+			visibility.put( id, Boolean.TRUE );
+		}
+		for ( final Map.Entry< Integer, Integer > entry : tracks.pieces.entrySet() )
+			visibility.put( entry.getKey(), visibility.get( entry.getValue() ) );
+
+		/*
+		 * Pass read results to model.
+		 */
+		m.getTrackModel().from( tracks.graph, tracks.spots, tracks.edges, visibility, tracks.names );
+
+		final FeatureModel fm = m.getFeatureModel();
+		for ( final Integer trackID : tracks.features.keySet() )
+		{
+			final Map< String, Double > features = tracks.features.get( trackID );
+			for ( final String feature : features.keySet() )
+				fm.putTrackFeature( trackID, feature, features.get( feature ) );
+		}
+	}
+
+	/**
+	 * Removes from the model the spots that do not belong to any of the
+	 * tracks read.
+	 */
+	private static void removeUnlinkedSpots( final Model m, final Tracks tracks )
+	{
+		final SpotCollection spots = m.getSpots();
+		final Map< Integer, Set< Spot > > content = new HashMap<>();
+		for ( final Integer frame : spots.keySet() )
+		{
+			final Set< Spot > spotSet = new HashSet<>();
+			for ( final Spot spot : spots.iterable( frame, false ) )
+				if ( tracks.graph.containsVertex( spot ) )
+					spotSet.add( spot );
+			content.put( frame, spotSet );
+		}
+		m.setSpots( SpotCollection.fromMap( content ), false );
+	}
+
+	/**
+	 * Splits the tracks read in connected pieces. The largest piece of a track
+	 * keeps its ID, name and features, the other pieces are given new IDs and
+	 * the same name.
+	 */
+	private static void splitTracks( final Tracks tracks )
+	{
+		if ( tracks.edges.isEmpty() )
+			return;
+
+		final Map< Spot, Integer > spotToTrack = new HashMap<>();
+		for ( final Map.Entry< Integer, Set< Spot > > entry : tracks.spots.entrySet() )
+			for ( final Spot spot : entry.getValue() )
+				spotToTrack.put( spot, entry.getKey() );
+
+		final List< Set< Spot > > components = new ConnectivityInspector<>( tracks.graph ).connectedSets();
+		components.sort( Comparator.comparingInt( Set< Spot >::size ).reversed() );
+
+		int nextID = Collections.max( tracks.edges.keySet() ) + 1;
+		final Set< Integer > claimed = new HashSet<>();
+		for ( final Set< Spot > component : components )
+		{
+			final Integer trackID = spotToTrack.get( component.iterator().next() );
+			final Integer id = claimed.add( trackID ) ? trackID : Integer.valueOf( nextID++ );
+			if ( id.equals( trackID ) && component.size() == tracks.spots.get( trackID ).size() )
+				continue;
+
+			final Set< DefaultWeightedEdge > edges = new HashSet<>();
+			for ( final Spot spot : component )
+				edges.addAll( tracks.graph.edgesOf( spot ) );
+			tracks.spots.put( id, component );
+			tracks.edges.put( id, edges );
+			if ( !id.equals( trackID ) )
+			{
+				tracks.names.put( id, tracks.names.get( trackID ) );
+				tracks.pieces.put( id, trackID );
+			}
+		}
+	}
+
+	/**
+	 * Reads the spot collection element the stream is positioned on, and
+	 * builds the spot cache.
+	 */
+	private SpotCollection readSpots( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		int nspots = 0;
+		final String nspotsStr = reader.getAttributeValue( null, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME );
+		if ( null != nspotsStr )
+		{
+			try
+			{
+				nspots = Integer.parseInt( nspotsStr.trim() );
+			}
+			catch ( final NumberFormatException e )
+			{
+				// Not a problem, we just cannot size the cache.
+			}
+		}
+		cache = new ConcurrentHashMap<>( Math.max( 16, nspots ) );
+
+		final Map< Integer, Set< Spot > > content = new HashMap<>();
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( !SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				skipElement( reader );
+				continue;
+			}
+
+			readFrame( reader, content );
+		}
+		return SpotCollection.fromMap( content );
+	}
+
+	/**
+	 * Reads the spots of the frame element the stream is positioned on, and
+	 * adds them to the spot cache.
+	 */
+	private void readFrame( final XMLStreamReader reader, final Map< Integer, Set< Spot > > content ) throws XMLStreamException
+	{
+		final int frame = readIntAttribute( reader, FRAME_ATTRIBUTE_NAME, 0 );
+		if ( null != subset && !subset.containsFrame( frame ) )
+		{
+			skipElement( reader );
+			return;
+		}
+
+		final Set< Spot > spotSet = new HashSet<>();
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( !SPOT_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				skipElement( reader );
+				continue;
+			}
+			final Spot spot = readSpot( reader );
+			if ( null != subset && !subset.contains( spot, frame ) )
+				continue;
+			spotSet.add( spot );
+			cache.put( spot.ID(), spot );
+		}
+		content.put( frame, spotSet );
+	}
+
+	/**
+	 * Reads the spot element the stream is positioned on.
+	 */
+	private Spot readSpot( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final int ID = readIntAttribute( reader, SPOT_ID_ATTRIBUTE_NAME, 0 );
+		final Spot spot = new Spot( ID );
+
+		String name = null;
+		int roiNPoints = 0;
+		for ( int i = 0; i < reader.getAttributeCount(); i++ )
+		{
+			final String att = reader.getAttributeLocalName( i );
+			final String value = reader.getAttributeValue( i );
+			if ( att.equals( SPOT_ID_ATTRIBUTE_NAME ) )
+				continue;
+
+			if ( att.equals( SPOT_NAME_ATTRIBUTE_NAME ) )
+			{
+				name = value;
+				continue;
+			}
+
+			if ( att.equals( ROI_N_POINTS_ATTRIBUTE_NAME ) )
+			{
+				try
+				{
+					roiNPoints = Integer.parseInt( value.trim() );
+				}
+				catch ( final NumberFormatException e )
+				{
+					// No ROI.
+				}
+				continue;
+			}
+
+			spot.putFeature( canonical( att ), Double.valueOf( AsciiDoubleParser.parseDouble( value ) ) );
+		}
+
+		if ( null == name || name.equals( "" ) )
+			name = "ID" + ID;
+		spot.setName( name );
+
+		if ( roiNPoints > 2 )
+		{
+			final double[] xrois = new double[ roiNPoints ];
+			final double[] yrois = new double[ roiNPoints ];
+			final String[] vals = reader.getElementText().trim().split( "\\s+" );
+			int index = 0;
+			for ( int i = 0; i < roiNPoints; i++ )
+			{
+				xrois[ i ] = AsciiDoubleParser.parseDouble( vals[ index++ ] );
+				yrois[ i ] = AsciiDoubleParser.parseDouble( vals[ index++ ] );
+			}
+			spot.setRoi( new SpotRoi( xrois, yrois ) );
+		}
+		else
+		{
+			skipElement( reader );
+		}
+		return spot;
+	}
+
+	/**
+	 * Reads the track collection element the stream is positioned on. Spots
+	 * must have been read already.
+	 */
+	private Tracks readTracks( final XMLStreamReader reader, final FeatureModel fm ) throws XMLStreamException
+	{
+		final Tracks tracks = new Tracks();
+		if ( null == cache )
+			cache = new ConcurrentHashMap<>();
+
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( !TRACK_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				skipElement( reader );
+				continue;
+			}
+			readTrack( reader, tracks, fm );
+		}
+		return tracks;
+	}
+
+	/**
+	 * Reads the track element the stream is positioned on. Spots must have
+	 * been read already.
+	 */
+	private void readTrack( final XMLStreamReader reader, final Tracks tracks, final FeatureModel fm ) throws XMLStreamException
+	{
+		// Get track ID as it is saved on disk
+		final int trackID = readIntAttribute( reader, TrackIndexAnalyzer.TRACK_ID, 0 );
+		if ( null != subset && !subset.containsTrack( trackID ) )
+		{
+			skipElement( reader );
+			return;
+		}
+
+		String trackName = reader.getAttributeValue( null, TRACK_NAME_ATTRIBUTE_NAME );
+		if ( null == trackName )
+			trackName = "Unnamed";
+
+		// Track features.
+		final Map< String, Double > trackFeatures = new HashMap<>();
+		for ( int i = 0; i < reader.getAttributeCount(); i++ )
+		{
+			final String att = reader.getAttributeLocalName( i );
+			if ( att.equals( TRACK_NAME_ATTRIBUTE_NAME ) )
+				continue;
+
+			try
+			{
+				trackFeatures.put( canonical( att ), Double.valueOf( reader.getAttributeValue( i ).trim() ) );
+			}
+			catch ( final NumberFormatException e )
+			{
+				logger.error( "Track " + trackID + ": Cannot read the feature " + att + " value. Skipping.\n" );
+				ok = false;
+			}
+		}
+
+		// Iterate over edges & spots
+		final Map< String, Boolean > edgeFeatureIsInt = fm.getEdgeFeatureIsInt();
+		final Set< DefaultWeightedEdge > edges = new HashSet<>();
+		final Set< Spot > spots = new HashSet<>();
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( TRACK_EDGE_ELEMENT_KEY.equals( reader.getLocalName() ) )
+			{
+				final DefaultWeightedEdge edge = readEdge( reader, trackID, tracks.graph, spots, fm, edgeFeatureIsInt );
+				if ( null != edge )
+					edges.add( edge );
+			}
+			skipElement( reader );
+		}
+
+		// Tracks entirely outside of a subset are not loaded.
+		if ( null != subset && edges.isEmpty() )
+			return;
+
+		tracks.spots.put( trackID, spots );
+		tracks.edges.put( trackID, edges );
+		tracks.names.put( trackID, trackName );
+		tracks.features.put( trackID, trackFeatures );
+	}
+
+	/**
+	 * Reads the edge element the stream is positioned on, adds it to the
+	 * graph and adds its spots to the specified set. Returns <code>null</code>
+	 * if the edge cannot be created.
+	 */
+	private DefaultWeightedEdge readEdge(
+			final XMLStreamReader reader,
+			final int trackID,
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph,
+			final Set< Spot > spots,
+			final FeatureModel fm,
+			final Map< String, Boolean > edgeFeatureIsInt )
+	{
+		// Get source and target ID for this edge
+		final int sourceID = readIntAttribute( reader, EdgeTargetAnalyzer.SPOT_SOURCE_ID, 0 );
+		final int targetID = readIntAttribute( reader, EdgeTargetAnalyzer.SPOT_TARGET_ID, 0 );
+
+		// Get matching spots from the cache
+		final Spot sourceSpot = cache.get( sourceID );
+		final Spot targetSpot = cache.get( targetID );
+
+		// Get weight
+		double weight = 0;
+		if ( null != reader.getAttributeValue( null, EdgeTargetAnalyzer.EDGE_COST ) )
+			weight = readDoubleAttribute( reader, EdgeTargetAnalyzer.EDGE_COST, 0. );
+
+		// Edges leaving a subset are not loaded.
+		if ( null != subset && ( null == sourceSpot || null == targetSpot ) )
+			return null;
+
+		// Error check
+		if ( null == sourceSpot )
+		{
+			logger.error( "Unknown spot ID: " + sourceID + " - skipping edge " + sourceID + " → " + targetID + ".\n" );
+			ok = false;
+			return null;
+		}
+		if ( null == targetSpot )
+		{
+			logger.error( "Unknown spot ID: " + targetID + " - skipping edge " + sourceID + " → " + targetID + ".\n" );
+			ok = false;
+			return null;
+		}
+		if ( sourceSpot.equals( targetSpot ) )
+		{
+			logger.error( "Bad link for track " + trackID + ". Source = Target with ID: " + sourceID + "\n" );
+			ok = false;
+			return null;
+		}
+
+		spots.add( sourceSpot );
+		spots.add( targetSpot );
+
+		// Add spots to graph and build edge
+		graph.addVertex( sourceSpot );
+		graph.addVertex( targetSpot );
+		final DefaultWeightedEdge edge = graph.addEdge( sourceSpot, targetSpot );
+		if ( edge == null )
+		{
+			logger.error( "Bad edge found for track " + trackID + "\n" );
+			ok = false;
+			return null;
+		}
+		graph.setEdgeWeight( edge, weight );
+
+		// Put edge features
+		for ( int i = 0; i < reader.getAttributeCount(); i++ )
+		{
+			final String feature = reader.getAttributeLocalName( i );
+			final Boolean isInt = edgeFeatureIsInt.get( feature );
+			if ( null == isInt )
+				continue; // Not declared.
+
+			final double val = isInt.booleanValue()
+					? readIntAttribute( reader, feature, 0 )
+					: readDoubleAttribute( reader, feature, 0. );
+			fm.putEdgeFeature( edge, feature, val );
+		}
+		return edge;
+	}
+
+	/**
+	 * Reads the filtered tracks element the stream is positioned on.
+	 */
+	private Set< Integer > readFilteredTrackIDs( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Set< Integer > filteredTrackIDs = new HashSet<>();
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( TRACK_ID_ELEMENT_KEY.equals( reader.getLocalName() ) )
+				filteredTrackIDs.add( readIntAttribute( reader, TrackIndexAnalyzer.TRACK_ID, 0 ) );
+			skipElement( reader );
+		}
+		return filteredTrackIDs;
+	}
+
+	private String canonical( final String name )
+	{
+		final String c = names.putIfAbsent( name, name );
+		return ( null == c ) ? name : c;
+	}
+
+	private int readIntAttribute( final XMLStreamReader reader, final String name, final int defaultValue )
+	{
+		final String str = reader.getAttributeValue( null, name );
+		if ( null == str )
+		{
+			logger.error( "Could not find attribute " + name + " for element " + reader.getLocalName() + ", substituting default value: " + defaultValue + ".\n" );
+			return defaultValue;
+		}
+		try
+		{
+			return Integer.parseInt( str.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			logger.error( "Cannot read the attribute " + name + " of the element " + reader.getLocalName() + ", substituting default value: " + defaultValue + ".\n" );
+			return defaultValue;
+		}
+	}
+
+	private double readDoubleAttribute( final XMLStreamReader reader, final String name, final double defaultValue )
+	{
+		final String str = reader.getAttributeValue( null, name );
+		if ( null == str )
+		{
+			logger.error( "Could not find attribute " + name + " for element " + reader.getLocalName() + ", substituting default value.\n" );
+			return defaultValue;
+		}
+		try
+		{
+			return Double.parseDouble( str.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			logger.error( "Cannot read the attribute " + name + " of the element " + reader.getLocalName() + ", substituting default value.\n" );
+			return defaultValue;
+		}
+	}
+
+	private static XMLInputFactory newFactory()
+	{
+		final XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+		factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+		return factory;
+	}
+
+	private static byte[] readBytes( final RandomAccessFile raf, final long start, final long end ) throws IOException
+	{
+		final byte[] bytes = new byte[ ( int ) ( end - start ) ];
+		raf.seek( start );
+		raf.readFully( bytes );
+		return bytes;
+	}
+
+	/**
+	 * Returns a stream positioned on the element that starts at the specified
+	 * offset of the file.
+	 */
+	private static XMLStreamReader fragment( final RandomAccessFile raf, final long start, final long end ) throws IOException, XMLStreamException
+	{
+		final XMLStreamReader reader = newFactory().createXMLStreamReader( new ByteArrayInputStream( readBytes( raf, start, end ) ), "UTF-8" );
+		reader.nextTag();
+		return reader;
+	}
+
+	/**
+	 * Reads the element the stream is positioned on, with its attributes, text
+	 * and children, into a JDOM element.
+	 */
+	private static Element readElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Element element = new Element( reader.getLocalName() );
+		for ( int i = 0; i < reader.getAttributeCount(); i++ )
+			element.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+
+		while ( true )
+		{
+			switch ( reader.next() )
+			{
+			case XMLStreamConstants.START_ELEMENT:
+				element.addContent( readElement( reader ) );
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				element.addContent( reader.getText() );
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return element;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Moves the stream to the end of the element it is positioned on.
+	 */
+	private static void skipElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		int depth = 1;
+		while ( depth > 0 )
+		{
+			final int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT )
+				depth++;
+			else if ( event == XMLStreamConstants.END_ELEMENT )
+				depth--;
+		}
+	}
+
+	/**
+	 * The tracks read from the file, before they are passed to the model.
+	 */
+	private static final class Tracks
+	{
+
+		private final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+
+		private final Map< Integer, Set< Spot > > spots = new HashMap<>();
+
+		private final Map< Integer, Set< DefaultWeightedEdge > > edges = new HashMap<>();
+
+		private final Map< Integer, String > names = new HashMap<>();
+
+		private final Map< Integer, Map< String, Double > > features = new HashMap<>();
+
+		/** Pieces of tracks split by a subset: new ID to saved ID. */
+		private final Map< Integer, Integer > pieces = new HashMap<>();
+	}
+}
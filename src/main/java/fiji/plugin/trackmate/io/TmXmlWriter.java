@@ -37,20 +37,10 @@ import static fiji.plugin.trackmate.io.TmXmlKeys.CROP_ZSTART_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.DETECTOR_SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.DISPLAY_SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DIMENSION_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ISINT_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_ABOVE_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_FEATURE_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_VALUE_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_STATE_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_STATE_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.IMAGE_ELEMENT_KEY;
@@ -68,64 +58,45 @@ import static fiji.plugin.trackmate.io.TmXmlKeys.INITIAL_SPOT_FILTER_ELEMENT_KEY
 import static fiji.plugin.trackmate.io.TmXmlKeys.LOG_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.PLUGIN_VERSION_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.ROOT_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SETTINGS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FILTER_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACKER_SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FILTER_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.XML_ATTRIBUTE_TRACKER_NAME;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.jdom2.Attribute;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
-import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.util.NamespaceStack;
 
-import fiji.plugin.trackmate.Dimension;
-import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.SpotCollection;
-import fiji.plugin.trackmate.SpotRoi;
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
-import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
-import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettingsIO;
 
@@ -142,6 +113,12 @@ public class TmXmlWriter
 
 	private final File file;
 
+	/**
+	 * The models appended to this writer, keyed by the empty element that
+	 * stands for them in the document.
+	 */
+	private final Map< Element, Model > models = new IdentityHashMap<>();
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -177,6 +154,11 @@ public class TmXmlWriter
 
 	/**
 	 * Writes the document to the file. Content must be appended first.
+	 * <p>
+	 * If the file name ends with <code>.gz</code>, the file is
+	 * gzip-compressed, in parallel. Otherwise, an index of the model is saved
+	 * next to the file, for partial loading with
+	 * {@link TmXmlStreamReader#TmXmlStreamReader(File, ModelSubset)}.
 	 *
 	 * @see #appendLog(String)
 	 * @see #appendModel(Model)
@@ -184,12 +166,33 @@ public class TmXmlWriter
 	 */
 	public void writeToFile() throws FileNotFoundException, IOException
 	{
-		try (FileOutputStream fos = new FileOutputStream( file ))
+		final File indexFile = TmXmlIndex.indexFileFor( file );
+		if ( indexFile.exists() )
+			indexFile.delete();
+		final TmXmlIndex index = ( models.size() == 1 && !file.getName().endsWith( ".gz" ) ) ? new TmXmlIndex() : null;
+
+		try (OutputStream os = IOUtils.openOutputStream( file ))
 		{
 			logger.log( "  Writing to file.\n" );
+			Writer writer = new BufferedWriter( new OutputStreamWriter( os, StandardCharsets.UTF_8 ), 1 << 16 );
+			if ( null != index )
+				writer = new TmXmlIndex.CountingWriter( writer );
 			final Document document = new Document( root );
-			final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
-			outputter.output( document, fos );
+			final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat(), new ModelStreamingProcessor( index ) );
+			outputter.output( document, writer );
+			writer.flush();
+		}
+
+		if ( null == index )
+			return;
+		try
+		{
+			index.write( file );
+		}
+		catch ( final IOException e )
+		{
+			// The XML file is complete without its index.
+			logger.error( "Could not write the model index " + indexFile + ":\n" + e.getMessage() + '\n' );
 		}
 	}
 
@@ -197,7 +200,7 @@ public class TmXmlWriter
 	public String toString()
 	{
 		final Document document = new Document( root );
-		final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
+		final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat(), new ModelStreamingProcessor( null ) );
 		final StringWriter writer = new StringWriter();
 		try
 		{
@@ -219,23 +222,14 @@ public class TmXmlWriter
 	 */
 	public void appendModel( final Model model )
 	{
+		/*
+		 * The model content is not added to the JDOM tree. We add an empty
+		 * element where it belongs, and the model is streamed in its place
+		 * when the document is written.
+		 */
 		final Element modelElement = new Element( MODEL_ELEMENT_KEY );
-		modelElement.setAttribute( SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits() );
-		modelElement.setAttribute( TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits() );
-
-		final Element featureDeclarationElement = echoFeaturesDeclaration( model );
-		modelElement.addContent( featureDeclarationElement );
-
-		final Element spotElement = echoSpots( model );
-		modelElement.addContent( spotElement );
-
-		final Element trackElement = echoTracks( model );
-		modelElement.addContent( trackElement );
-
-		final Element filteredTrackElement = echoFilteredTracks( model );
-		modelElement.addContent( filteredTrackElement );
-
 		root.addContent( modelElement );
+		models.put( modelElement, model );
 	}
 
 	/**
@@ -379,128 +373,6 @@ public class TmXmlWriter
 		return el;
 	}
 
-	private Element echoTracks( final Model model )
-	{
-
-		/*
-		 * Some numerical features are REQUIRED to be able to save to XML.
-		 * Namely: the track ID feature for track and the edge spot source and
-		 * spot target for edges. Whether the model provides them as features or
-		 * not, we get them from the model and put them in the XML.
-		 */
-
-		final Element allTracksElement = new Element( TRACK_COLLECTION_ELEMENT_KEY );
-
-		// Prepare track features for writing: we separate ints from doubles
-		final List< String > trackFeatures = new ArrayList<>( model.getFeatureModel().getTrackFeatures() );
-		// TrackID is treated separately.
-		trackFeatures.remove( TrackIndexAnalyzer.TRACK_ID );
-
-		// Same thing for edge features
-		final List< String > edgeFeatures = new ArrayList<>( model.getFeatureModel().getEdgeFeatures() );
-		// We will treat edge source and target separately.
-		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_SOURCE_ID );
-		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_TARGET_ID );
-
-		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
-		for ( final int trackID : trackIDs )
-		{
-
-			final Element trackElement = new Element( TRACK_ELEMENT_KEY );
-
-			// Track name.
-			trackElement.setAttribute( TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name( trackID ) );
-			// Track ID.
-			trackElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, Integer.toString( trackID ) );
-
-			for ( final String feature : trackFeatures )
-			{
-				final Double val = model.getFeatureModel().getTrackFeature( trackID, feature );
-				if ( null == val )
-					continue;
-
-				final String str;
-				if ( model.getFeatureModel().getTrackFeatureIsInt().get( feature ).booleanValue() )
-					str = Integer.toString( val.intValue() );
-				else
-					str = val.toString();
-				trackElement.setAttribute( feature, str );
-			}
-
-			// Echo edges
-			final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-			if ( track.isEmpty() )
-			{
-				/*
-				 * Special case: the track has only one spot in it, therefore no
-				 * edge. It just should not be, since the model never returns a
-				 * track with less than one edge. So we skip writing it.
-				 */
-				continue;
-			}
-
-			for ( final DefaultWeightedEdge edge : track )
-			{
-				final Element edgeElement = new Element( TRACK_EDGE_ELEMENT_KEY );
-
-				/*
-				 * Make sure the edge has the right orientation: forward in
-				 * time.
-				 */
-				final int sourceFrame = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
-				final int targetFrame = model.getTrackModel().getEdgeTarget( edge ).getFeature( Spot.FRAME ).intValue();
-				final int sourceID;
-				final int targetID;
-				if ( targetFrame >= sourceFrame )
-				{
-					sourceID = model.getTrackModel().getEdgeSource( edge ).ID();
-					targetID = model.getTrackModel().getEdgeTarget( edge ).ID();
-				}
-				else
-				{
-					sourceID = model.getTrackModel().getEdgeTarget( edge ).ID();
-					targetID = model.getTrackModel().getEdgeSource( edge ).ID();
-				}
-				edgeElement.setAttribute( EdgeTargetAnalyzer.SPOT_SOURCE_ID, Integer.toString( sourceID ) );
-				edgeElement.setAttribute( EdgeTargetAnalyzer.SPOT_TARGET_ID, Integer.toString( targetID ) );
-
-				for ( final String feature : edgeFeatures )
-				{
-					final Double val = model.getFeatureModel().getEdgeFeature( edge, feature );
-					if ( null == val )
-						continue;
-
-					final String str;
-					if ( model.getFeatureModel().getEdgeFeatureIsInt().get( feature ).booleanValue() )
-						str = Integer.toString( val.intValue() );
-					else
-						str = val.toString();
-
-					edgeElement.setAttribute( feature, str );
-				}
-
-				trackElement.addContent( edgeElement );
-			}
-			allTracksElement.addContent( trackElement );
-		}
-		logger.log( "  Added tracks.\n" );
-		return allTracksElement;
-	}
-
-	private Element echoFilteredTracks( final Model model )
-	{
-		final Element filteredTracksElement = new Element( FILTERED_TRACK_ELEMENT_KEY );
-		final Set< Integer > filteredTrackKeys = model.getTrackModel().trackIDs( true );
-		for ( final int trackID : filteredTrackKeys )
-		{
-			final Element trackIDElement = new Element( TRACK_ID_ELEMENT_KEY );
-			trackIDElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, "" + trackID );
-			filteredTracksElement.addContent( trackIDElement );
-		}
-		logger.log( "  Added filtered tracks.\n" );
-		return filteredTracksElement;
-	}
-
 	protected Element echoImageInfo( final Settings settings )
 	{
 		final Element imEl = new Element( IMAGE_ELEMENT_KEY );
@@ -521,98 +393,6 @@ public class TmXmlWriter
 		return imEl;
 	}
 
-	private Element echoSpots( final Model model )
-	{
-		final SpotCollection spots = model.getSpots();
-
-		final Element spotCollectionElement = new Element( SPOT_COLLECTION_ELEMENT_KEY );
-		// Store total number of spots
-		spotCollectionElement.setAttribute( SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + spots.getNSpots( false ) );
-
-		for ( final int frame : spots.keySet() )
-		{
-
-			final Element frameSpotsElement = new Element( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
-			frameSpotsElement.setAttribute( FRAME_ATTRIBUTE_NAME, "" + frame );
-
-			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
-			{
-				final Element spotElement = marshalSpot( it.next(), model.getFeatureModel() );
-				frameSpotsElement.addContent( spotElement );
-			}
-			spotCollectionElement.addContent( frameSpotsElement );
-		}
-		logger.log( "  Added " + spots.getNSpots( false ) + " spots.\n" );
-		return spotCollectionElement;
-	}
-
-	private Element echoFeaturesDeclaration( final Model model )
-	{
-
-		final FeatureModel fm = model.getFeatureModel();
-		final Element featuresElement = new Element( FEATURE_DECLARATIONS_ELEMENT_KEY );
-
-		// Spots
-		final Element spotFeaturesElement = new Element( SPOT_FEATURES_ELEMENT_KEY );
-		Collection< String > features = fm.getSpotFeatures();
-		Map< String, String > featureNames = fm.getSpotFeatureNames();
-		Map< String, String > featureShortNames = fm.getSpotFeatureShortNames();
-		Map< String, Dimension > featureDimensions = fm.getSpotFeatureDimensions();
-		Map< String, Boolean > featureIsInt = fm.getSpotFeatureIsInt();
-		for ( final String feature : features )
-		{
-			final Element fel = new Element( FEATURE_ELEMENT_KEY );
-			fel.setAttribute( FEATURE_ATTRIBUTE, feature );
-			fel.setAttribute( FEATURE_NAME_ATTRIBUTE, featureNames.get( feature ) );
-			fel.setAttribute( FEATURE_SHORT_NAME_ATTRIBUTE, featureShortNames.get( feature ) );
-			fel.setAttribute( FEATURE_DIMENSION_ATTRIBUTE, featureDimensions.get( feature ).name() );
-			fel.setAttribute( FEATURE_ISINT_ATTRIBUTE, featureIsInt.get( feature ).toString() );
-			spotFeaturesElement.addContent( fel );
-		}
-		featuresElement.addContent( spotFeaturesElement );
-
-		// Edges
-		final Element edgeFeaturesElement = new Element( EDGE_FEATURES_ELEMENT_KEY );
-		features = fm.getEdgeFeatures();
-		featureNames = fm.getEdgeFeatureNames();
-		featureShortNames = fm.getEdgeFeatureShortNames();
-		featureDimensions = fm.getEdgeFeatureDimensions();
-		featureIsInt = fm.getEdgeFeatureIsInt();
-		for ( final String feature : features )
-		{
-			final Element fel = new Element( FEATURE_ELEMENT_KEY );
-			fel.setAttribute( FEATURE_ATTRIBUTE, feature );
-			fel.setAttribute( FEATURE_NAME_ATTRIBUTE, featureNames.get( feature ) );
-			fel.setAttribute( FEATURE_SHORT_NAME_ATTRIBUTE, featureShortNames.get( feature ) );
-			fel.setAttribute( FEATURE_DIMENSION_ATTRIBUTE, featureDimensions.get( feature ).name() );
-			fel.setAttribute( FEATURE_ISINT_ATTRIBUTE, featureIsInt.get( feature ).toString() );
-			edgeFeaturesElement.addContent( fel );
-		}
-		featuresElement.addContent( edgeFeaturesElement );
-
-		// Tracks
-		final Element trackFeaturesElement = new Element( TRACK_FEATURES_ELEMENT_KEY );
-		features = fm.getTrackFeatures();
-		featureNames = fm.getTrackFeatureNames();
-		featureShortNames = fm.getTrackFeatureShortNames();
-		featureDimensions = fm.getTrackFeatureDimensions();
-		featureIsInt = fm.getTrackFeatureIsInt();
-		for ( final String feature : features )
-		{
-			final Element fel = new Element( FEATURE_ELEMENT_KEY );
-			fel.setAttribute( FEATURE_ATTRIBUTE, feature );
-			fel.setAttribute( FEATURE_NAME_ATTRIBUTE, featureNames.get( feature ) );
-			fel.setAttribute( FEATURE_SHORT_NAME_ATTRIBUTE, featureShortNames.get( feature ) );
-			fel.setAttribute( FEATURE_DIMENSION_ATTRIBUTE, featureDimensions.get( feature ).name() );
-			fel.setAttribute( FEATURE_ISINT_ATTRIBUTE, featureIsInt.get( feature ).toString() );
-			trackFeaturesElement.addContent( fel );
-		}
-		featuresElement.addContent( trackFeaturesElement );
-
-		logger.log( "  Added spot, edge and track feature declarations.\n" );
-		return featuresElement;
-	}
-
 	protected Element echoInitialSpotFilter( final Settings settings )
 	{
 		final Element itElement = new Element( INITIAL_SPOT_FILTER_ELEMENT_KEY );
@@ -695,51 +475,38 @@ public class TmXmlWriter
 		return analyzersElement;
 	}
 
-	/*
-	 * STATIC METHODS
+	/**
+	 * Prints the document like the default processor does, but writes the
+	 * content of the appended models directly from them when their element is
+	 * reached.
 	 */
-
-	private static final Element marshalSpot( final Spot spot, final FeatureModel fm )
+	private final class ModelStreamingProcessor extends AbstractXMLOutputProcessor
 	{
-		final Collection< Attribute > attributes = new ArrayList<>();
-		final Attribute IDattribute = new Attribute( SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID() );
-		attributes.add( IDattribute );
-		final Attribute nameAttribute = new Attribute( SPOT_NAME_ATTRIBUTE_NAME, spot.getName() );
-		attributes.add( nameAttribute );
 
-		for ( final String feature : spot.getFeatures().keySet() )
-		{
-			final Double val = spot.getFeature( feature );
-			if ( null == val )
-				continue;
+		private final TmXmlIndex index;
 
-			final String str;
-			if ( fm.getSpotFeatureIsInt().getOrDefault( feature, Boolean.FALSE ).booleanValue() )
-				str = Integer.toString( val.intValue() );
-			else
-				str = val.toString();
-
-			attributes.add( new Attribute( feature, str ) );
+		private ModelStreamingProcessor( final TmXmlIndex index )
+		{
+			this.index = index;
 		}
-		final Element spotElement = new Element( SPOT_ELEMENT_KEY );
 
-		final SpotRoi roi = spot.getRoi();
-		if ( roi != null )
+		@Override
+		protected void printElement( final Writer out, final FormatStack fstack, final NamespaceStack nstack, final Element element ) throws IOException
 		{
-			final int nPoints = roi.x.length;
-			attributes.add( new Attribute( ROI_N_POINTS_ATTRIBUTE_NAME, Integer.toString( nPoints ) ) );
-			final StringBuilder str = new StringBuilder();
-			for ( int i = 0; i < nPoints; i++ )
+			final Model model = models.get( element );
+			if ( null == model )
 			{
-				str.append( Double.toString( roi.x[ i ] ) );
-				str.append( ' ' );
-				str.append( Double.toString( roi.y[ i ] ) );
-				str.append( ' ' );
+				super.printElement( out, fstack, nstack, element );
+				return;
 			}
-			spotElement.setText( str.toString() );
+			new TmXmlModelWriter(
+					out,
+					fstack.getLineSeparator(),
+					fstack.getIndent(),
+					fstack.getLevelIndent(),
+					fstack.getEscapeStrategy(),
+					logger,
+					index ).write( model );
 		}
-
-		spotElement.setAttributes( attributes );
-		return spotElement;
 	}
 }
@@ -260,4 +260,16 @@ public class TrackerKeys
 
 	/** A default value for the {@value #KEY_BLOCKING_VALUE} parameter. */
 	public static final double DEFAULT_BLOCKING_VALUE = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Key for the parameter that specifies the solver of the linear assignment
+	 * problems in the LAP trackers. Expected values are {@link String}s, the
+	 * names of the
+	 * {@link fiji.plugin.trackmate.tracking.jaqaman.costmatrix.AssignmentSolvers}
+	 * constants. This parameter is optional.
+	 */
+	public static final String KEY_LAP_SOLVER = "LAP_SOLVER";
+
+	/** A default value for the {@value #KEY_LAP_SOLVER} parameter. */
+	public static final String DEFAULT_LAP_SOLVER = "LAPJV";
 }
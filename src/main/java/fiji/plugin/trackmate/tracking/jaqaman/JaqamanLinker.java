@@ -29,16 +29,26 @@ import java.util.List;
 import java.util.Map;
 
 import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.AssignmentSolver;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.AssignmentSolvers;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.ComponentLAPJV;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.CostMatrixCreator;
-import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.LAPJV;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
 
 /**
  * Links two lists of objects based on the LAP framework described in Jaqaman
  * <i>et al.</i>, Nature Methods, <b>2008</b>.
+ * <p>
+ * By default the full cost matrix is solved at once with
+ * {@link AssignmentSolvers#LAPJV}. Another solver can be chosen with
+ * {@link #setSolver(AssignmentSolvers)}. With
+ * {@link #setSolveComponents(boolean)}, the matrix is instead split into
+ * independent connected components solved concurrently, with
+ * {@link ComponentLAPJV}.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -47,16 +57,32 @@ import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, MultiThreaded
 {
 	private Map< K, J > assignments;
 
 	private Map< K, Double > costs;
 
+	private List< K > sourceList;
+
+	private List< J > targetList;
+
+	private int[] linkSources;
+
+	private int[] linkTargets;
+
+	private double[] linkCosts;
+
 	private final CostMatrixCreator< K, J > costMatrixCreator;
 
 	private final Logger logger;
 
+	private boolean solveComponents = false;
+
+	private AssignmentSolvers solverType = AssignmentSolvers.LAPJV;
+
+	private int numThreads = 1;
+
 	/**
 	 * Creates a new linker for the specified cost matrix creator. See Jaqaman
 	 * <i>et al.</i>, Nature Methods, <b>2008</b>, Figure 1b.
@@ -77,6 +103,32 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		this( costMatrixCreator, Logger.VOID_LOGGER );
 	}
 
+	/**
+	 * Sets whether the cost matrix is split into independent connected
+	 * components, solved concurrently. The assignment cost is the same as when
+	 * solving the whole matrix at once.
+	 * 
+	 * @param solveComponents
+	 *            if <code>true</code>, components are solved separately with
+	 *            the number of threads of this linker.
+	 */
+	public void setSolveComponents( final boolean solveComponents )
+	{
+		this.solveComponents = solveComponents;
+	}
+
+	/**
+	 * Sets the solver used on the full cost matrix, or on each of its
+	 * components.
+	 * 
+	 * @param solverType
+	 *            the solver.
+	 */
+	public void setSolver( final AssignmentSolvers solverType )
+	{
+		this.solverType = solverType;
+	}
+
 	/**
 	 * Returns the resulting assignments from this algorithm.
 	 * <p>
@@ -89,6 +141,8 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 	@Override
 	public Map< K, J > getResult()
 	{
+		if ( assignments == null && linkSources != null )
+			buildMaps();
 		return assignments;
 	}
 
@@ -103,9 +157,81 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 	 */
 	public Map< K, Double > getAssignmentCosts()
 	{
+		if ( costs == null && linkSources != null )
+			buildMaps();
 		return costs;
 	}
 
+	/**
+	 * Returns the list of sources the slots of {@link #getLinkSources()} refer
+	 * to.
+	 * 
+	 * @return the source list of the cost matrix.
+	 */
+	public List< K > getSourceList()
+	{
+		return sourceList;
+	}
+
+	/**
+	 * Returns the list of targets the slots of {@link #getLinkTargets()} refer
+	 * to.
+	 * 
+	 * @return the target list of the cost matrix.
+	 */
+	public List< J > getTargetList()
+	{
+		return targetList;
+	}
+
+	/**
+	 * Returns the assignment results as source slots. The source of the
+	 * <code>i</code>th link is <code>getSourceList().get(
+	 * getLinkSources()[i] )</code>.
+	 * 
+	 * @return the source slot of each link.
+	 * @see #getLinkTargets()
+	 * @see #getLinkCosts()
+	 */
+	public int[] getLinkSources()
+	{
+		return linkSources;
+	}
+
+	/**
+	 * Returns the assignment results as target slots, in the same order as
+	 * {@link #getLinkSources()}.
+	 * 
+	 * @return the target slot of each link.
+	 */
+	public int[] getLinkTargets()
+	{
+		return linkTargets;
+	}
+
+	/**
+	 * Returns the costs of the assignment results, in the same order as
+	 * {@link #getLinkSources()}.
+	 * 
+	 * @return the cost of each link.
+	 */
+	public double[] getLinkCosts()
+	{
+		return linkCosts;
+	}
+
+	private void buildMaps()
+	{
+		assignments = new HashMap<>( 2 * linkSources.length );
+		costs = new HashMap<>( 2 * linkSources.length );
+		for ( int l = 0; l < linkSources.length; l++ )
+		{
+			final K source = sourceList.get( linkSources[ l ] );
+			assignments.put( source, targetList.get( linkTargets[ l ] ) );
+			costs.put( source, Double.valueOf( linkCosts[ l ] ) );
+		}
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -116,6 +242,9 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 	public boolean process()
 	{
 		final long start = System.currentTimeMillis();
+		linkSources = null;
+		assignments = null;
+		costs = null;
 
 		/*
 		 * Generate the cost matrix
@@ -132,9 +261,14 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		final SparseCostMatrix tl = costMatrixCreator.getResult();
 		final List< K > matrixRows = costMatrixCreator.getSourceList();
 		final List< J > matrixCols = costMatrixCreator.getTargetList();
+		sourceList = matrixRows;
+		targetList = matrixCols;
 
 		if ( matrixCols.isEmpty() || matrixRows.isEmpty() )
 		{
+			linkSources = new int[ 0 ];
+			linkTargets = new int[ 0 ];
+			linkCosts = new double[ 0 ];
 			assignments = Collections.emptyMap();
 			costs = Collections.emptyMap();
 			final long end = System.currentTimeMillis();
@@ -200,27 +334,46 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		 * Solve the full cost matrix.
 		 */
 		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
+		final AssignmentSolver solver;
+		if ( solveComponents )
+		{
+			final ComponentLAPJV componentSolver = new ComponentLAPJV( full, solverType );
+			componentSolver.setNumThreads( numThreads );
+			solver = componentSolver;
+		}
+		else
+		{
+			solver = solverType.create( full, numThreads );
+		}
 		if ( !solver.checkInput() || !solver.process() )
 		{
 			errorMessage = solver.getErrorMessage();
 			return false;
 		}
 
+		/*
+		 * Keep the links as slots in the source and target lists. The
+		 * assignment maps are only built if requested.
+		 */
 		final int[] assgn = solver.getResult();
-		assignments = new HashMap<>();
-		costs = new HashMap<>();
-		for ( int i = 0; i < assgn.length; i++ )
+		int nLinks = 0;
+		for ( int i = 0; i < nRows; i++ )
+			if ( assgn[ i ] < nCols )
+				nLinks++;
+
+		linkSources = new int[ nLinks ];
+		linkTargets = new int[ nLinks ];
+		linkCosts = new double[ nLinks ];
+		int l = 0;
+		for ( int i = 0; i < nRows; i++ )
 		{
 			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
+			if ( j < nCols )
 			{
-				final K source = matrixRows.get( i );
-				final J target = matrixCols.get( j );
-				assignments.put( source, target );
-
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
-				costs.put( source, Double.valueOf( cost ) );
+				linkSources[ l ] = i;
+				linkTargets[ l ] = j;
+				linkCosts[ l ] = full.get( i, j, Double.POSITIVE_INFINITY );
+				l++;
 			}
 		}
 
@@ -232,12 +385,32 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		return true;
 	}
 
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	public String resultToString()
 	{
-		if ( null == assignments )
+		if ( null == linkSources )
 		{
 			return "Not solved yet. Process the algorithm prior to calling this method.";
 		}
+		if ( null == assignments )
+			buildMaps();
 
 		final HashSet< K > unassignedSources = new HashSet<>( costMatrixCreator.getSourceList() );
 		final HashSet< J > unassignedTargets = new HashSet<>( costMatrixCreator.getTargetList() );
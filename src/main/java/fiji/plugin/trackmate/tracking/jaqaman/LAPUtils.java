@@ -56,10 +56,13 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -75,6 +78,8 @@ import javax.swing.table.TableModel;
 
 import fiji.plugin.trackmate.Spot;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_KALMAN_SEARCH_RADIUS;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LAP_SOLVER;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.AssignmentSolvers;
 
 public class LAPUtils
 {
@@ -219,12 +224,12 @@ public class LAPUtils
 		{ return blockingValue; }
 
 		double penalty = 1;
-		for ( final String feature : featurePenalties.keySet() )
+		for ( final Entry< String, Double > entry : featurePenalties.entrySet() )
 		{
-			final double ndiff = s0.normalizeDiffTo( s1, feature );
+			final double ndiff = s0.normalizeDiffTo( s1, entry.getKey() );
 			if ( Double.isNaN( ndiff ) )
 				continue;
-			final double factor = featurePenalties.get( feature );
+			final double factor = entry.getValue();
 			penalty += factor * 1.5 * ndiff;
 		}
 
@@ -276,6 +281,7 @@ public class LAPUtils
 		ok = ok & checkParameter( settings, KEY_CUTOFF_PERCENTILE, Double.class, errorHolder );
 		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, errorHolder );
 		ok = ok & checkParameter( settings, KEY_BLOCKING_VALUE, Double.class, errorHolder );
+		ok = ok & checkSolver( settings, errorHolder );
                 
                 // Check keys
 		final List< String > mandatoryKeys = new ArrayList<>();
@@ -302,9 +308,49 @@ public class LAPUtils
 		optionalKeys.add( KEY_SPLITTING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_MERGING_FEATURE_PENALTIES );
                 optionalKeys.add( KEY_KALMAN_SEARCH_RADIUS );
+		optionalKeys.add( KEY_LAP_SOLVER );
 		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, errorHolder );
                 return ok;
 	}
+
+	/**
+	 * Check the validity of the assignment solver in a settings map. It is
+	 * valid if it is absent, or if it is the name of one of the
+	 * {@link AssignmentSolvers}.
+	 *
+	 * @param settings
+	 *            the map to inspect.
+	 * @param errorHolder
+	 *            will be appended with an error message.
+	 * @return true if the solver setting is valid.
+	 */
+	public static final boolean checkSolver( final Map< String, Object > settings, final StringBuilder errorHolder )
+	{
+		final Object obj = settings.get( KEY_LAP_SOLVER );
+		if ( null == obj )
+			return true; // Not here is acceptable
+		for ( final AssignmentSolvers solver : AssignmentSolvers.values() )
+			if ( solver.name().equals( obj ) )
+				return true;
+		errorHolder.append( "Unknown assignment solver: " + obj + ". Expected one of " + Arrays.stream( AssignmentSolvers.values() ).map( Enum::name ).collect( Collectors.joining( ", " ) ) + ".\n" );
+		return false;
+	}
+
+	/**
+	 * Returns the assignment solver specified in a settings map, or the default
+	 * one if it is absent.
+	 *
+	 * @param settings
+	 *            the settings map.
+	 * @return the solver.
+	 */
+	public static final AssignmentSolvers getSolver( final Map< String, Object > settings )
+	{
+		final Object obj = settings.get( KEY_LAP_SOLVER );
+		if ( null == obj )
+			return AssignmentSolvers.LAPJV;
+		return AssignmentSolvers.valueOf( obj.toString() );
+	}
         
 
 
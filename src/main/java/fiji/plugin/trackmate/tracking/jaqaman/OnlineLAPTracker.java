@@ -0,0 +1,542 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.getSolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.AssignmentSolvers;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.DefaultCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.ResizableDoubleArray;
+import fiji.plugin.trackmate.util.SpatialGrid;
+
+/**
+ * A LAP tracker that links frames as they are acquired, instead of requiring
+ * the complete spot collection.
+ * <p>
+ * Each new frame is linked to the previous one with the same frame-to-frame
+ * LAP as the {@link SparseLAPFrameToFrameTracker}. If gap-closing is allowed,
+ * the segments that started in the previous frame are then linked to the
+ * segment ends found in the <code>maxFrameGap</code> frames before, with the
+ * same costs as the {@link SegmentTracker}. Like in the batch tracker, only
+ * segments made of at least two spots are considered for gap-closing, which
+ * is why this step lags one frame behind.
+ * <p>
+ * Tracks that can no longer be extended are emitted to a
+ * {@link SegmentListener} and released. Tracks longer than the window are
+ * emitted in several pieces, so that the memory used only depends on the
+ * number of spots in the window, not on the movie length.
+ * <p>
+ * Without gap-closing, the links are identical to the ones of the
+ * {@link SparseLAPTracker}. With gap-closing, they are identical as long as
+ * no segment end is a candidate for segment starts in two different frames:
+ * the batch tracker solves gap-closing over the whole movie at once, and
+ * computes the alternative cost over all the candidates, while this tracker
+ * solves it frame by frame. Track merging and splitting are not supported.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class OnlineLAPTracker
+{
+
+	/**
+	 * Interface for listeners notified of the track segments the
+	 * {@link OnlineLAPTracker} will not modify anymore.
+	 */
+	public static interface SegmentListener
+	{
+
+		/**
+		 * Called when a chain of links is final. When a track is emitted in
+		 * several pieces, the last spot of a piece is the first spot of the
+		 * next one.
+		 *
+		 * @param spots
+		 *            the spots of the segment, in time order. There are at
+		 *            least 2 of them.
+		 * @param costs
+		 *            the link costs: <code>costs[i]</code> is the cost of the
+		 *            link between <code>spots.get(i)</code> and
+		 *            <code>spots.get(i+1)</code>.
+		 */
+		public void segmentFinalized( List< Spot > spots, double[] costs );
+	}
+
+	private static final String BASE_ERROR_MESSAGE = "[OnlineLAPTracker] ";
+
+	private final Map< String, Object > settings;
+
+	private final SegmentListener listener;
+
+	private String errorMessage;
+
+	private boolean ready = false;
+
+	/*
+	 * Parameters, read from the settings map by checkInput().
+	 */
+
+	private CostFunction< Spot, Spot > costFunction;
+
+	private double maxDistance;
+
+	private double alternativeCostFactor;
+
+	private AssignmentSolvers solver;
+
+	private boolean allowGapClosing;
+
+	private CostFunction< Spot, Spot > gcCostFunction;
+
+	private double gcMaxDistance;
+
+	private int maxFrameGap;
+
+	private double percentile;
+
+	/*
+	 * State.
+	 */
+
+	/** Open tracks, indexed by their last spot. */
+	private final Map< Spot, Track > tracks = new LinkedHashMap<>();
+
+	/** Tracks that started in the previous frame. */
+	private List< Track > newTracks = Collections.emptyList();
+
+	private List< Spot > previousSpots = Collections.emptyList();
+
+	private int previousFrame = Integer.MIN_VALUE;
+
+	/**
+	 * Creates a new online tracker.
+	 *
+	 * @param settings
+	 *            the tracker settings, the same as for the
+	 *            {@link SparseLAPTracker}.
+	 * @param listener
+	 *            the listener notified of finalized segments.
+	 */
+	public OnlineLAPTracker( final Map< String, Object > settings, final SegmentListener listener )
+	{
+		this.settings = settings;
+		this.listener = listener;
+	}
+
+	/**
+	 * Checks the settings. Must be called once, and return <code>true</code>,
+	 * before frames can be processed.
+	 *
+	 * @return <code>true</code> if the settings are valid.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public boolean checkInput()
+	{
+		final StringBuilder errorHolder = new StringBuilder();
+		if ( !LAPUtils.checkSettingsValidity( settings, errorHolder, true ) )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + errorHolder.toString();
+			return false;
+		}
+		if ( ( Boolean ) settings.get( KEY_ALLOW_TRACK_MERGING ) || ( Boolean ) settings.get( KEY_ALLOW_TRACK_SPLITTING ) )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Track merging and splitting are not supported.";
+			return false;
+		}
+
+		costFunction = getCostFunction( ( Map< String, Double > ) settings.get( KEY_LINKING_FEATURE_PENALTIES ) );
+		maxDistance = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
+		alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		solver = getSolver( settings );
+		allowGapClosing = ( Boolean ) settings.get( KEY_ALLOW_GAP_CLOSING );
+		gcCostFunction = getCostFunction( ( Map< String, Double > ) settings.get( KEY_GAP_CLOSING_FEATURE_PENALTIES ) );
+		gcMaxDistance = ( Double ) settings.get( KEY_GAP_CLOSING_MAX_DISTANCE );
+		maxFrameGap = ( Integer ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+		percentile = ( Double ) settings.get( KEY_CUTOFF_PERCENTILE );
+		ready = true;
+		return true;
+	}
+
+	/**
+	 * Links the spots of a new frame to the open tracks. Frames must be
+	 * processed in increasing order. They need not be separated by 1: like
+	 * in the batch tracker, each frame is linked to the previous frame
+	 * processed.
+	 *
+	 * @param frame
+	 *            the frame of the spots.
+	 * @param spots
+	 *            the spots to link. Can be empty.
+	 * @return <code>true</code> if linking was successful.
+	 */
+	public boolean processFrame( final int frame, final Collection< Spot > spots )
+	{
+		if ( !ready )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Settings have not been checked.";
+			return false;
+		}
+		if ( frame <= previousFrame )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Frames must be processed in increasing order, got " + frame + " after " + previousFrame + ".";
+			return false;
+		}
+
+		/*
+		 * 1. Frame to frame linking.
+		 */
+
+		final List< Spot > targets = new ArrayList<>( spots );
+		final Set< Spot > linked = new HashSet<>();
+		if ( !previousSpots.isEmpty() && !targets.isEmpty() )
+		{
+			final double searchRadius = isBoundedBySquareDistance( costFunction, previousSpots, targets )
+					? maxDistance
+					: Double.POSITIVE_INFINITY;
+			final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>( previousSpots, targets, costFunction, maxDistance * maxDistance, alternativeCostFactor, 1d, searchRadius );
+			final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( creator );
+			linker.setSolver( solver );
+			if ( !linker.checkInput() || !linker.process() )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "At frame " + previousFrame + " to " + frame + ": " + linker.getErrorMessage();
+				return false;
+			}
+
+			final int[] linkSources = linker.getLinkSources();
+			final int[] linkTargets = linker.getLinkTargets();
+			final double[] linkCosts = linker.getLinkCosts();
+			final List< Spot > sourceList = linker.getSourceList();
+			final List< Spot > targetList = linker.getTargetList();
+			for ( int l = 0; l < linkSources.length; l++ )
+			{
+				final Spot target = targetList.get( linkTargets[ l ] );
+				final Track track = tracks.remove( sourceList.get( linkSources[ l ] ) );
+				track.add( target, frame, linkCosts[ l ] );
+				tracks.put( target, track );
+				linked.add( target );
+			}
+		}
+
+		final List< Track > created = new ArrayList<>();
+		for ( final Spot target : targets )
+		{
+			if ( linked.contains( target ) )
+				continue;
+			final Track track = new Track( target, frame );
+			tracks.put( track.last, track );
+			created.add( track );
+		}
+
+		/*
+		 * 2. Gap-closing, for the segments that started in the previous
+		 * frame. We only know now whether they have more than one spot.
+		 */
+
+		if ( allowGapClosing && !newTracks.isEmpty() && !closeGaps() )
+			return false;
+
+		/*
+		 * 3. Emit and release the tracks that cannot be extended anymore.
+		 */
+
+		for ( final Iterator< Track > it = tracks.values().iterator(); it.hasNext(); )
+		{
+			final Track track = it.next();
+			if ( track.lastFrame == frame )
+				continue;
+			if ( track.size < 2 || !allowGapClosing || track.lastFrame + maxFrameGap < frame )
+			{
+				emit( track );
+				it.remove();
+			}
+		}
+
+		/*
+		 * 4. Emit the beginning of long tracks.
+		 */
+
+		final int window = allowGapClosing ? maxFrameGap + 1 : 2;
+		for ( final Track track : tracks.values() )
+			if ( track.spots.size() > window )
+				flush( track );
+
+		previousSpots = targets;
+		previousFrame = frame;
+		newTracks = created;
+		return true;
+	}
+
+	/**
+	 * Emits all the tracks still open. To be called after the last frame has
+	 * been processed.
+	 */
+	public void finish()
+	{
+		for ( final Track track : tracks.values() )
+			emit( track );
+		tracks.clear();
+		newTracks = Collections.emptyList();
+		previousSpots = Collections.emptyList();
+	}
+
+	/**
+	 * Returns the number of tracks currently held in memory.
+	 *
+	 * @return the number of open tracks.
+	 */
+	public int getNOpenTracks()
+	{
+		return tracks.size();
+	}
+
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Links the segments that started in the previous frame to the segment
+	 * ends in the gap-closing window.
+	 */
+	private boolean closeGaps()
+	{
+		final int startFrame = previousFrame;
+		final List< Track > starts = new ArrayList<>( newTracks.size() );
+		for ( final Track track : newTracks )
+			if ( track.size > 1 )
+				starts.add( track );
+
+		final List< Track > ends = new ArrayList<>();
+		for ( final Track track : tracks.values() )
+			if ( track.size > 1 && track.lastFrame < startFrame && track.lastFrame >= startFrame - maxFrameGap )
+				ends.add( track );
+
+		if ( starts.isEmpty() || ends.isEmpty() )
+			return true;
+
+		final List< Spot > endSpots = new ArrayList<>( ends.size() );
+		for ( final Track track : ends )
+			endSpots.add( track.last );
+		final List< Spot > startSpots = new ArrayList<>( starts.size() );
+		final Map< Spot, Track > startTracks = new HashMap<>();
+		for ( final Track track : starts )
+		{
+			startSpots.add( track.first );
+			startTracks.put( track.first, track );
+		}
+
+		/*
+		 * Candidate costs, as in the JaqamanSegmentCostMatrixCreator.
+		 */
+
+		final double costThreshold = gcMaxDistance * gcMaxDistance;
+		final List< Spot > sources = new ArrayList<>();
+		final List< Spot > targets = new ArrayList<>();
+		final ResizableDoubleArray costs = new ResizableDoubleArray();
+		if ( isBoundedBySquareDistance( gcCostFunction, endSpots, startSpots ) )
+		{
+			final double[] x = new double[ endSpots.size() ];
+			final double[] y = new double[ endSpots.size() ];
+			final double[] z = new double[ endSpots.size() ];
+			for ( int i = 0; i < endSpots.size(); i++ )
+			{
+				final Spot spot = endSpots.get( i );
+				x[ i ] = spot.getDoublePosition( 0 );
+				y[ i ] = spot.getDoublePosition( 1 );
+				z[ i ] = spot.getDoublePosition( 2 );
+			}
+			final SpatialGrid.Search search = new SpatialGrid( x, y, z, gcMaxDistance ).search();
+			final double radius = gcMaxDistance * ( 1. + 1e-9 );
+			for ( final Spot start : startSpots )
+			{
+				final int nFound = search.inRadius( start.getDoublePosition( 0 ), start.getDoublePosition( 1 ), start.getDoublePosition( 2 ), radius );
+				for ( int i = 0; i < nFound; i++ )
+					addCandidate( endSpots.get( search.get( i ) ), start, costThreshold, sources, targets, costs );
+			}
+		}
+		else
+		{
+			for ( final Spot start : startSpots )
+				for ( final Spot end : endSpots )
+					addCandidate( end, start, costThreshold, sources, targets, costs );
+		}
+		if ( sources.isEmpty() )
+			return true;
+
+		costs.trimToSize();
+		final DefaultCostMatrixCreator< Spot, Spot > creator = new DefaultCostMatrixCreator<>( sources, targets, costs.data, alternativeCostFactor, percentile );
+		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( creator );
+		linker.setSolver( solver );
+		if ( !linker.checkInput() || !linker.process() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Closing gaps to frame " + startFrame + ": " + linker.getErrorMessage();
+			return false;
+		}
+
+		final int[] linkSources = linker.getLinkSources();
+		final int[] linkTargets = linker.getLinkTargets();
+		final double[] linkCosts = linker.getLinkCosts();
+		final List< Spot > sourceList = linker.getSourceList();
+		final List< Spot > targetList = linker.getTargetList();
+		for ( int l = 0; l < linkSources.length; l++ )
+		{
+			final Track end = tracks.remove( sourceList.get( linkSources[ l ] ) );
+			final Track start = startTracks.get( targetList.get( linkTargets[ l ] ) );
+			tracks.remove( start.last );
+			end.append( start, linkCosts[ l ] );
+			tracks.put( end.last, end );
+		}
+		return true;
+	}
+
+	private void addCandidate( final Spot end, final Spot start, final double costThreshold, final List< Spot > sources, final List< Spot > targets, final ResizableDoubleArray costs )
+	{
+		final double cost = gcCostFunction.linkingCost( end, start );
+		if ( cost > costThreshold )
+			return;
+
+		sources.add( end );
+		targets.add( start );
+		costs.add( cost );
+	}
+
+	private void emit( final Track track )
+	{
+		if ( track.spots.size() < 2 )
+			return;
+
+		track.costs.trimToSize();
+		listener.segmentFinalized( track.spots, track.costs.data );
+	}
+
+	/**
+	 * Emits all the spots of the track but the last one, from which the track
+	 * will continue.
+	 */
+	private void flush( final Track track )
+	{
+		emit( track );
+		track.spots = new ArrayList<>();
+		track.spots.add( track.last );
+		track.costs = new ResizableDoubleArray();
+	}
+
+	private static CostFunction< Spot, Spot > getCostFunction( final Map< String, Double > featurePenalties )
+	{
+		if ( null == featurePenalties || featurePenalties.isEmpty() )
+			return new SquareDistCostFunction();
+
+		return new FeaturePenaltyCostFunction( featurePenalties );
+	}
+
+	private static boolean isBoundedBySquareDistance( final CostFunction< Spot, Spot > costFunction, final List< Spot > sources, final List< Spot > targets )
+	{
+		if ( costFunction instanceof SquareDistCostFunction )
+			return true;
+		if ( costFunction instanceof FeaturePenaltyCostFunction )
+		{
+			final FeaturePenaltyCostFunction fpcf = ( FeaturePenaltyCostFunction ) costFunction;
+			return fpcf.isBoundedBySquareDistance( sources ) && fpcf.isBoundedBySquareDistance( targets );
+		}
+		return false;
+	}
+
+	/**
+	 * A track under construction.
+	 */
+	private static final class Track
+	{
+
+		/** The spots not emitted yet. */
+		private List< Spot > spots = new ArrayList<>();
+
+		/** The costs of the links between the spots not emitted yet. */
+		private ResizableDoubleArray costs = new ResizableDoubleArray();
+
+		private final Spot first;
+
+		private Spot last;
+
+		private int lastFrame;
+
+		/** The total number of spots in the track. */
+		private int size;
+
+		private Track( final Spot first, final int frame )
+		{
+			this.first = first;
+			this.last = first;
+			this.lastFrame = frame;
+			this.size = 1;
+			spots.add( first );
+		}
+
+		private void add( final Spot spot, final int frame, final double cost )
+		{
+			spots.add( spot );
+			costs.add( cost );
+			last = spot;
+			lastFrame = frame;
+			size++;
+		}
+
+		private void append( final Track track, final double cost )
+		{
+			costs.add( cost );
+			spots.addAll( track.spots );
+			for ( int i = 0; i < track.costs.size; i++ )
+				costs.add( track.costs.data[ i ] );
+			last = track.last;
+			lastFrame = track.lastFrame;
+			size += track.size;
+		}
+	}
+}
@@ -0,0 +1,840 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.scijava.Cancelable;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+
+/**
+ * Runs the {@link SparseLAPTracker} on overlapping chunks of frames and
+ * stitches the links of the chunks together, so that a long movie can be
+ * tracked without having all its cost matrices in memory at once.
+ * <p>
+ * The tracker works in a folder:
+ * <ul>
+ * <li>{@link #prepare()} writes the tracker settings in
+ * {@value #SETTINGS_FILE_NAME}, and the visible spots of each chunk in a
+ * <code>chunk-NNNN.spots</code> file.
+ * <li>Each chunk is then tracked from these two files alone, and its links
+ * are written to a <code>chunk-NNNN.links</code> file. This can happen in
+ * the JVM running this tracker, or in other JVMs started on the
+ * {@link #main(String[])} method of this class.
+ * <li>{@link #process()} tracks the chunks that do not have a links file
+ * yet, waits for the chunks tracked by other JVMs, then stitches all the
+ * links into the result graph. With {@link #setStitchOnly(boolean)}, it does
+ * not track any chunk itself, and only waits for the workers.
+ * </ul>
+ * A chunk is claimed before it is tracked, by locking its
+ * <code>chunk-NNNN.lock</code> file, so that the threads of this tracker
+ * and worker JVMs never track the same chunk. The lock is released by the
+ * operating system if a worker dies, and the chunk can then be claimed
+ * again. Files are first written under a unique temporary name then renamed,
+ * so a chunk that failed or was interrupted has no links file and is simply
+ * tracked again the next time {@link #process()} is called. Files already in
+ * the folder are reused, so the folder must be dedicated to one spot
+ * collection and one set of settings.
+ * <p>
+ * Chunks overlap by <code>overlap</code> frames. The links of a chunk are
+ * only kept if their source spot is in the frames the chunk 'owns': the
+ * frames up to the middle of the overlap with the next chunk, starting at
+ * the middle of the overlap with the previous chunk. This way each link is
+ * decided by a chunk that sees at least <code>overlap / 2</code> frames of
+ * context on both sides of it. A gap-closing link crossing the middle of an
+ * overlap can only be found if the overlap is larger than twice the maximal
+ * frame gap. If track merging (or splitting) is not allowed, a link that
+ * would give a second predecessor (or successor) to a spot already linked
+ * by the previous chunk is discarded.
+ * <p>
+ * Frame-to-frame links only depend on two consecutive frames, and are
+ * identical to the ones of the {@link SparseLAPTracker}. Gap-closing, merging
+ * and splitting links can differ even when they fit in one chunk: their
+ * alternative cost is derived from the
+ * {@link fiji.plugin.trackmate.tracking.TrackerKeys#KEY_CUTOFF_PERCENTILE
+ * cutoff percentile} of the costs of the chunk, instead of the costs of the
+ * whole movie.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class PartitionedLAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, Cancelable
+{
+
+	private final static String BASE_ERROR_MESSAGE = "[PartitionedLAPTracker] ";
+
+	/**
+	 * Name of the file the tracker settings are stored in, in the working
+	 * folder.
+	 */
+	public static final String SETTINGS_FILE_NAME = "tracker.xml";
+
+	private static final String SETTINGS_ELEMENT_KEY = "PartitionedLAPTracker";
+
+	private static final int SPOTS_MAGIC = 0x544d5350;
+
+	private static final int LINKS_MAGIC = 0x544d4c4b;
+
+	/**
+	 * How often the folder is checked for chunks tracked by other JVMs, in
+	 * milliseconds.
+	 */
+	private static final long POLL_INTERVAL = 500l;
+
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+	private Logger logger = Logger.VOID_LOGGER;
+
+	private final SpotCollection spots;
+
+	private final Map< String, Object > settings;
+
+	private final File folder;
+
+	private final int chunkSize;
+
+	private final int overlap;
+
+	private boolean stitchOnly = false;
+
+	private boolean isCanceled;
+
+	private String cancelReason;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new partitioned tracker.
+	 *
+	 * @param spots
+	 *            the spots to track.
+	 * @param settings
+	 *            the settings of the {@link SparseLAPTracker} to use on each
+	 *            chunk.
+	 * @param folder
+	 *            the working folder, where the chunks and their links are
+	 *            written.
+	 * @param chunkSize
+	 *            the number of frames in a chunk.
+	 * @param overlap
+	 *            the number of frames shared by two consecutive chunks. Must
+	 *            be at least 2 and smaller than the chunk size.
+	 */
+	public PartitionedLAPTracker( final SpotCollection spots, final Map< String, Object > settings, final File folder, final int chunkSize, final int overlap )
+	{
+		this.spots = spots;
+		this.settings = settings;
+		this.folder = folder;
+		this.chunkSize = chunkSize;
+		this.overlap = overlap;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > getResult()
+	{
+		return graph;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == spots || spots.keySet().isEmpty() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The spot collection is null or empty.";
+			return false;
+		}
+		if ( null == folder )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The working folder is null.";
+			return false;
+		}
+		if ( overlap < 2 || overlap >= chunkSize )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The overlap must be at least 2 frames and smaller than the chunk size, got "
+					+ overlap + " and " + chunkSize + ".";
+			return false;
+		}
+		final SparseLAPTrackerFactory factory = new SparseLAPTrackerFactory();
+		if ( !factory.checkSettingsValidity( settings ) )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + factory.getErrorMessage();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets whether {@link #process()} only waits for the chunks to be tracked
+	 * by worker JVMs and stitches them, without tracking any chunk itself.
+	 *
+	 * @param stitchOnly
+	 *            if <code>true</code>, chunks are only tracked by workers.
+	 */
+	public void setStitchOnly( final boolean stitchOnly )
+	{
+		this.stitchOnly = stitchOnly;
+	}
+
+	/**
+	 * Returns the number of chunks the spot collection is split in.
+	 *
+	 * @return the number of chunks.
+	 */
+	public int getNChunks()
+	{
+		final int nFrames = spots.lastKey() - spots.firstKey() + 1;
+		if ( nFrames <= chunkSize )
+			return 1;
+		final int step = chunkSize - overlap;
+		return 1 + ( nFrames - chunkSize + step - 1 ) / step;
+	}
+
+	/**
+	 * Writes the settings file and the spots of each chunk in the working
+	 * folder, skipping the files that are already there. Other JVMs can track
+	 * the chunks as soon as this method returns.
+	 *
+	 * @return <code>true</code> if the folder is ready.
+	 */
+	public boolean prepare()
+	{
+		if ( !folder.isDirectory() && !folder.mkdirs() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not create the working folder " + folder + ".";
+			return false;
+		}
+		try
+		{
+			final File settingsFile = new File( folder, SETTINGS_FILE_NAME );
+			if ( !settingsFile.exists() )
+				writeSettings( settings, settingsFile );
+
+			final int nChunks = getNChunks();
+			for ( int chunk = 0; chunk < nChunks; chunk++ )
+			{
+				if ( getLinksFile( folder, chunk ).exists() || getSpotsFile( folder, chunk ).exists() )
+					continue;
+				writeSpots( chunk );
+			}
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not prepare the working folder:\n" + e.getMessage();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		isCanceled = false;
+		cancelReason = null;
+		graph = null;
+		final long start = System.currentTimeMillis();
+
+		if ( !prepare() )
+			return false;
+
+		final int nChunks = getNChunks();
+		final List< Integer > pending = missingChunks( nChunks );
+
+		logger.log( ( stitchOnly ? "Waiting for " : "Tracking " ) + pending.size() + " chunks out of " + nChunks + ".\n" );
+		logger.setStatus( "Tracking chunks..." );
+		final StringBuilder errors = new StringBuilder();
+		if ( !stitchOnly && !pending.isEmpty() )
+		{
+			final int nWorkers = Math.min( numThreads, pending.size() );
+			final int threadsPerChunk = Math.max( 1, numThreads / nWorkers );
+			final ExecutorService executors = Threads.newFixedThreadPool( nWorkers );
+			final List< Future< String > > futures = new ArrayList<>( pending.size() );
+			for ( final Integer chunk : pending )
+				futures.add( executors.submit( () -> isCanceled() ? null : trackChunk( folder, chunk.intValue(), threadsPerChunk ) ) );
+
+			try
+			{
+				for ( int i = 0; i < futures.size(); i++ )
+				{
+					final String error = futures.get( i ).get();
+					if ( null != error )
+						errors.append( "Chunk " + pending.get( i ) + ": " + error + '\n' );
+					logger.setProgress( 0.9 * ( i + 1 ) / futures.size() );
+				}
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				errors.append( e.getMessage() );
+				e.printStackTrace();
+			}
+			finally
+			{
+				executors.shutdown();
+			}
+		}
+
+		// Chunks claimed by other JVMs.
+		if ( errors.length() == 0 && !isCanceled() )
+		{
+			try
+			{
+				awaitChunks( nChunks, errors );
+			}
+			catch ( final InterruptedException e )
+			{
+				errors.append( e.getMessage() );
+				e.printStackTrace();
+			}
+		}
+		if ( errors.length() > 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Some chunks could not be tracked. Calling process() again will retry them.\n" + errors;
+			return false;
+		}
+		if ( isCanceled() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Tracking was canceled" + ( null == cancelReason ? "" : ": " + cancelReason )
+					+ ". Calling process() again will resume from the chunks already tracked.";
+			return false;
+		}
+
+		logger.setStatus( "Stitching chunks..." );
+		try
+		{
+			stitch( nChunks );
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not stitch the chunks:\n" + e.getMessage();
+			return false;
+		}
+
+		logger.setStatus( "" );
+		logger.setProgress( 1d );
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	private List< Integer > missingChunks( final int nChunks )
+	{
+		final List< Integer > missing = new ArrayList<>();
+		for ( int chunk = 0; chunk < nChunks; chunk++ )
+			if ( !getLinksFile( folder, chunk ).exists() )
+				missing.add( Integer.valueOf( chunk ) );
+		return missing;
+	}
+
+	/**
+	 * Waits until all the chunks have a links file, or this tracker is
+	 * canceled. Chunks claimed by another JVM are waited for. Unless in
+	 * stitch-only mode, chunks that are not claimed, for instance because
+	 * their worker died, are tracked in this JVM.
+	 */
+	private void awaitChunks( final int nChunks, final StringBuilder errors ) throws InterruptedException
+	{
+		List< Integer > missing = missingChunks( nChunks );
+		while ( !missing.isEmpty() && !isCanceled() )
+		{
+			logger.setStatus( "Waiting for " + missing.size() + " chunks..." );
+			logger.setProgress( 0.9 * ( nChunks - missing.size() ) / nChunks );
+			if ( !stitchOnly )
+			{
+				for ( final Integer chunk : missing )
+				{
+					try
+					{
+						final String error = trackChunk( folder, chunk.intValue(), numThreads );
+						if ( null != error )
+							errors.append( "Chunk " + chunk + ": " + error + '\n' );
+					}
+					catch ( final IOException e )
+					{
+						errors.append( "Chunk " + chunk + ": " + e.getMessage() + '\n' );
+					}
+				}
+				if ( errors.length() > 0 )
+					return;
+			}
+			missing = missingChunks( nChunks );
+			if ( !missing.isEmpty() )
+				Thread.sleep( POLL_INTERVAL );
+		}
+	}
+
+	private int chunkStart( final int chunk )
+	{
+		return spots.firstKey().intValue() + chunk * ( chunkSize - overlap );
+	}
+
+	/**
+	 * Returns the first frame whose outgoing links are taken from the
+	 * specified chunk.
+	 */
+	private int ownedFrom( final int chunk )
+	{
+		if ( chunk == 0 )
+			return Integer.MIN_VALUE;
+		return chunkStart( chunk ) + overlap / 2;
+	}
+
+	private void writeSpots( final int chunk ) throws IOException
+	{
+		final int first = chunkStart( chunk );
+		final int last = Math.min( first + chunkSize - 1, spots.lastKey().intValue() );
+
+		final Map< String, Integer > features = new LinkedHashMap<>();
+		final List< Integer > frames = new ArrayList<>();
+		for ( final Integer frame : spots.keySet().subSet( first, true, last, true ) )
+		{
+			frames.add( frame );
+			for ( final Spot spot : spots.iterable( frame, true ) )
+				for ( final String feature : spot.getFeatures().keySet() )
+					features.putIfAbsent( feature, Integer.valueOf( features.size() ) );
+		}
+
+		final File file = getSpotsFile( folder, chunk );
+		final Path tmp = createTempFile( file );
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ) ) ))
+		{
+			out.writeInt( SPOTS_MAGIC );
+			out.writeInt( features.size() );
+			for ( final String feature : features.keySet() )
+				out.writeUTF( feature );
+			out.writeInt( frames.size() );
+			for ( final Integer frame : frames )
+			{
+				out.writeInt( frame.intValue() );
+				out.writeInt( spots.getNSpots( frame, true ) );
+				for ( final Spot spot : spots.iterable( frame, true ) )
+				{
+					out.writeInt( spot.ID() );
+					final Map< String, Double > values = spot.getFeatures();
+					out.writeInt( values.size() );
+					for ( final Map.Entry< String, Double > entry : values.entrySet() )
+					{
+						out.writeInt( features.get( entry.getKey() ).intValue() );
+						out.writeDouble( entry.getValue().doubleValue() );
+					}
+				}
+			}
+		}
+		moveInPlace( tmp, file );
+	}
+
+	private void stitch( final int nChunks ) throws IOException
+	{
+		final Map< Integer, Spot > byID = new HashMap<>( spots.getNSpots( true ) );
+		for ( final Spot spot : spots.iterable( true ) )
+			byID.put( Integer.valueOf( spot.ID() ), spot );
+
+		final boolean allowMerging = ( Boolean ) settings.get( KEY_ALLOW_TRACK_MERGING );
+		final boolean allowSplitting = ( Boolean ) settings.get( KEY_ALLOW_TRACK_SPLITTING );
+		final Set< Spot > hasPredecessor = new HashSet<>();
+		final Set< Spot > hasSuccessor = new HashSet<>();
+
+		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		int nDiscarded = 0;
+		for ( int chunk = 0; chunk < nChunks; chunk++ )
+		{
+			final int from = ownedFrom( chunk );
+			final int to = ( chunk == nChunks - 1 ) ? Integer.MAX_VALUE : ownedFrom( chunk + 1 );
+			final File file = getLinksFile( folder, chunk );
+			try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ))
+			{
+				if ( in.readInt() != LINKS_MAGIC )
+					throw new IOException( file + " is not a links file." );
+				final int nLinks = in.readInt();
+				for ( int i = 0; i < nLinks; i++ )
+				{
+					final int sourceID = in.readInt();
+					final int sourceFrame = in.readInt();
+					final int targetID = in.readInt();
+					in.readInt();
+					final double cost = in.readDouble();
+					if ( sourceFrame < from || sourceFrame >= to )
+						continue;
+
+					final Spot source = byID.get( Integer.valueOf( sourceID ) );
+					final Spot target = byID.get( Integer.valueOf( targetID ) );
+					if ( null == source || null == target )
+						throw new IOException( file + " links spots that are not in the spot collection. "
+								+ "Is the working folder used for another tracking run?" );
+
+					if ( ( !allowMerging && hasPredecessor.contains( target ) )
+							|| ( !allowSplitting && hasSuccessor.contains( source ) ) )
+					{
+						nDiscarded++;
+						continue;
+					}
+					hasPredecessor.add( target );
+					hasSuccessor.add( source );
+					graph.addVertex( source );
+					graph.addVertex( target );
+					final DefaultWeightedEdge edge = graph.addEdge( source, target );
+					graph.setEdgeWeight( edge, cost );
+				}
+			}
+		}
+		if ( nDiscarded > 0 )
+			logger.log( "Discarded " + nDiscarded + " links conflicting across chunk boundaries.\n" );
+	}
+
+	/**
+	 * Tracks one chunk of a working folder prepared by {@link #prepare()}, and
+	 * writes its links file. The chunk is skipped if it already has a links
+	 * file, or if it is claimed by another thread or JVM: the caller should
+	 * then wait for its links file to appear.
+	 *
+	 * @param folder
+	 *            the working folder.
+	 * @param chunk
+	 *            the index of the chunk to track.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return <code>null</code> if the chunk was tracked or skipped, an error
+	 *         message otherwise.
+	 * @throws IOException
+	 *             if the chunk files cannot be read or written.
+	 */
+	public static String trackChunk( final File folder, final int chunk, final int numThreads ) throws IOException
+	{
+		final File file = getLinksFile( folder, chunk );
+		if ( file.exists() )
+			return null;
+
+		try (final FileChannel channel = FileChannel.open( getLockFile( folder, chunk ).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+				final FileLock lock = tryLock( channel ))
+		{
+			// Claimed elsewhere, or tracked while we were claiming it.
+			if ( null == lock || file.exists() )
+				return null;
+			return trackClaimedChunk( folder, chunk, numThreads );
+		}
+	}
+
+	private static String trackClaimedChunk( final File folder, final int chunk, final int numThreads ) throws IOException
+	{
+		final Map< String, Object > settings = readSettings( new File( folder, SETTINGS_FILE_NAME ) );
+		final SpotCollection slice = readSpots( getSpotsFile( folder, chunk ) );
+		final SparseLAPTracker tracker = new SparseLAPTracker( slice, settings );
+		tracker.setNumThreads( numThreads );
+		if ( !tracker.checkInput() || !tracker.process() )
+			return tracker.getErrorMessage();
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > result = tracker.getResult();
+		final File file = getLinksFile( folder, chunk );
+		final Path tmp = createTempFile( file );
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ) ) ))
+		{
+			out.writeInt( LINKS_MAGIC );
+			out.writeInt( result.edgeSet().size() );
+			for ( final DefaultWeightedEdge edge : result.edgeSet() )
+			{
+				Spot source = result.getEdgeSource( edge );
+				Spot target = result.getEdgeTarget( edge );
+				if ( Spot.frameComparator.compare( source, target ) > 0 )
+				{
+					final Spot tmpSpot = source;
+					source = target;
+					target = tmpSpot;
+				}
+				out.writeInt( source.ID() );
+				out.writeInt( source.getFeature( Spot.FRAME ).intValue() );
+				out.writeInt( target.ID() );
+				out.writeInt( target.getFeature( Spot.FRAME ).intValue() );
+				out.writeDouble( result.getEdgeWeight( edge ) );
+			}
+		}
+		moveInPlace( tmp, file );
+		return null;
+	}
+
+	private static SpotCollection readSpots( final File file ) throws IOException
+	{
+		final SpotCollection slice = new SpotCollection();
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ))
+		{
+			if ( in.readInt() != SPOTS_MAGIC )
+				throw new IOException( file + " is not a spots file." );
+			final String[] features = new String[ in.readInt() ];
+			for ( int i = 0; i < features.length; i++ )
+				features[ i ] = in.readUTF();
+			final int nFrames = in.readInt();
+			for ( int f = 0; f < nFrames; f++ )
+			{
+				final int frame = in.readInt();
+				final int nSpots = in.readInt();
+				final List< Spot > frameSpots = new ArrayList<>( nSpots );
+				for ( int i = 0; i < nSpots; i++ )
+				{
+					final Spot spot = new Spot( in.readInt() );
+					final int nValues = in.readInt();
+					for ( int j = 0; j < nValues; j++ )
+					{
+						final String feature = features[ in.readInt() ];
+						spot.putFeature( feature, Double.valueOf( in.readDouble() ) );
+					}
+					frameSpots.add( spot );
+				}
+				for ( final Spot spot : frameSpots )
+					slice.add( spot, Integer.valueOf( frame ) );
+			}
+		}
+		return slice;
+	}
+
+	private static void writeSettings( final Map< String, Object > settings, final File file ) throws IOException
+	{
+		final Element element = new Element( SETTINGS_ELEMENT_KEY );
+		final SparseLAPTrackerFactory factory = new SparseLAPTrackerFactory();
+		if ( !factory.marshall( settings, element ) )
+			throw new IOException( factory.getErrorMessage() );
+
+		final Path tmp = createTempFile( file );
+		try (final OutputStream out = Files.newOutputStream( tmp ))
+		{
+			new XMLOutputter( Format.getPrettyFormat() ).output( new Document( element ), out );
+		}
+		moveInPlace( tmp, file );
+	}
+
+	private static Map< String, Object > readSettings( final File file ) throws IOException
+	{
+		final Element element;
+		try
+		{
+			element = new SAXBuilder().build( file ).getRootElement();
+		}
+		catch ( final JDOMException e )
+		{
+			throw new IOException( file + " is not a valid settings file.", e );
+		}
+		final Map< String, Object > settings = new HashMap<>();
+		final SparseLAPTrackerFactory factory = new SparseLAPTrackerFactory();
+		if ( !factory.unmarshall( element, settings ) )
+			throw new IOException( factory.getErrorMessage() );
+		return settings;
+	}
+
+	/**
+	 * Returns the lock of the specified channel, or <code>null</code> if it
+	 * is held by another JVM or another thread of this one.
+	 */
+	private static FileLock tryLock( final FileChannel channel ) throws IOException
+	{
+		try
+		{
+			return channel.tryLock();
+		}
+		catch ( final OverlappingFileLockException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a temporary file next to the specified file, with a name unique
+	 * to this writer.
+	 */
+	private static Path createTempFile( final File file ) throws IOException
+	{
+		return Files.createTempFile( file.getParentFile().toPath(), file.getName() + '.', ".tmp" );
+	}
+
+	/**
+	 * Renames the temporary file to the specified file, or deletes it if it
+	 * cannot be.
+	 */
+	private static void moveInPlace( final Path tmp, final File file ) throws IOException
+	{
+		try
+		{
+			Files.move( tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			Files.deleteIfExists( tmp );
+		}
+	}
+
+	/**
+	 * Returns the file the spots of the specified chunk are written to.
+	 *
+	 * @param folder
+	 *            the working folder.
+	 * @param chunk
+	 *            the chunk index.
+	 * @return the spots file.
+	 */
+	public static File getSpotsFile( final File folder, final int chunk )
+	{
+		return new File( folder, String.format( "chunk-%04d.spots", chunk ) );
+	}
+
+	/**
+	 * Returns the file locked by the thread or JVM that tracks the specified
+	 * chunk.
+	 *
+	 * @param folder
+	 *            the working folder.
+	 * @param chunk
+	 *            the chunk index.
+	 * @return the lock file.
+	 */
+	public static File getLockFile( final File folder, final int chunk )
+	{
+		return new File( folder, String.format( "chunk-%04d.lock", chunk ) );
+	}
+
+	/**
+	 * Returns the file the links of the specified chunk are written to. The
+	 * chunk is tracked when this file exists.
+	 *
+	 * @param folder
+	 *            the working folder.
+	 * @param chunk
+	 *            the chunk index.
+	 * @return the links file.
+	 */
+	public static File getLinksFile( final File folder, final int chunk )
+	{
+		return new File( folder, String.format( "chunk-%04d.links", chunk ) );
+	}
+
+	@Override
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	// --- org.scijava.Cancelable methods ---
+
+	@Override
+	public boolean isCanceled()
+	{
+		return isCanceled;
+	}
+
+	@Override
+	public void cancel( final String reason )
+	{
+		isCanceled = true;
+		cancelReason = reason;
+	}
+
+	@Override
+	public String getCancelReason()
+	{
+		return cancelReason;
+	}
+
+	/**
+	 * Tracks chunks of a working folder in a separate JVM.
+	 * <p>
+	 * Usage: <code>PartitionedLAPTracker folder chunk [chunk ...]</code>. The
+	 * folder must have been prepared with {@link #prepare()}. Chunks already
+	 * tracked or claimed by another worker are skipped. The exit code is not 0
+	 * if one of the chunks could not be tracked.
+	 *
+	 * @param args
+	 *            the working folder, followed by the indices of the chunks
+	 *            to track.
+	 */
+	public static void main( final String[] args )
+	{
+		if ( args.length < 2 )
+		{
+			System.err.println( "Usage: " + PartitionedLAPTracker.class.getName() + " folder chunk [chunk ...]" );
+			System.exit( 2 );
+		}
+		final File folder = new File( args[ 0 ] );
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		boolean ok = true;
+		for ( int i = 1; i < args.length; i++ )
+		{
+			final int chunk = Integer.parseInt( args[ i ] );
+			if ( getLinksFile( folder, chunk ).exists() )
+				continue;
+			try
+			{
+				final String error = trackChunk( folder, chunk, numThreads );
+				if ( null != error )
+				{
+					System.err.println( "Chunk " + chunk + ": " + error );
+					ok = false;
+				}
+			}
+			catch ( final IOException e )
+			{
+				System.err.println( "Chunk " + chunk + ": " + e.getMessage() );
+				ok = false;
+			}
+		}
+		System.exit( ok ? 0 : 1 );
+	}
+}
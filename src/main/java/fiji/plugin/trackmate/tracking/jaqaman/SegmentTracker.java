@@ -30,11 +30,14 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LAP_SOLVER;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.checkFeatureMap;
+import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.checkSolver;
+import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.getSolver;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
@@ -134,6 +137,8 @@ public class SegmentTracker implements SpotTracker, Benchmark
 
 		slSettings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, fullsettings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR ) );
 		slSettings.put( KEY_CUTOFF_PERCENTILE, fullsettings.get( KEY_CUTOFF_PERCENTILE ) );
+		if ( fullsettings.containsKey( KEY_LAP_SOLVER ) )
+			slSettings.put( KEY_LAP_SOLVER, fullsettings.get( KEY_LAP_SOLVER ) );
 
 		this.settings = slSettings;
 	}
@@ -188,6 +193,9 @@ public class SegmentTracker implements SpotTracker, Benchmark
 		costMatrixCreator.setNumThreads( numThreads );
 		final SlaveLogger jlLogger = new SlaveLogger( logger, 0, 0.9 );
 		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( costMatrixCreator, jlLogger );
+		linker.setSolveComponents( true );
+		linker.setSolver( getSolver( settings ) );
+		linker.setNumThreads( numThreads );
 		if ( !linker.checkInput() || !linker.process() )
 		{
 			errorMessage = linker.getErrorMessage();
@@ -263,6 +271,7 @@ public class SegmentTracker implements SpotTracker, Benchmark
 		// Others
 		ok = ok & checkParameter( settings, KEY_CUTOFF_PERCENTILE, Double.class, str );
 		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
+		ok = ok & checkSolver( settings, str );
 
 		final List< String > mandatoryKeys = new ArrayList<>();
 		mandatoryKeys.add( KEY_ALLOW_GAP_CLOSING );
@@ -279,6 +288,7 @@ public class SegmentTracker implements SpotTracker, Benchmark
 		optionalKeys.add( KEY_SPLITTING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_MERGING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_BLOCKING_VALUE );
+		optionalKeys.add( KEY_LAP_SOLVER );
 		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, str );
 
 		return ok;
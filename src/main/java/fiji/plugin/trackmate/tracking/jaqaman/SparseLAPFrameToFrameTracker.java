@@ -22,9 +22,12 @@
 package fiji.plugin.trackmate.tracking.jaqaman;
 
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LAP_SOLVER;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.checkFeatureMap;
+import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.checkSolver;
+import static fiji.plugin.trackmate.tracking.jaqaman.LAPUtils.getSolver;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
@@ -46,10 +49,12 @@ import org.scijava.Cancelable;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.graph.GraphLinkBuilder;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.AssignmentSolvers;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.JaqamanLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.util.Threads;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
@@ -168,17 +173,20 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		final Double maxDist = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
 		final double costThreshold = maxDist * maxDist;
 		final double alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		final AssignmentSolvers solver = getSolver( settings );
 
-		// Instantiate graph
-		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		// Each frame pair writes its links to its own buffer.
+		final GraphLinkBuilder< Spot > links = new GraphLinkBuilder<>( framePairs.size() );
 
 		// Prepare workers.
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		final AtomicBoolean ok = new AtomicBoolean( true );
 		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
 		final List< Future< Void > > futures = new ArrayList<>( framePairs.size() );
-		for ( final int[] framePair : framePairs )
+		for ( int i = 0; i < framePairs.size(); i++ )
 		{
+			final int index = i;
+			final int[] framePair = framePairs.get( i );
 			final Future< Void > future = executors.submit( new Callable< Void >()
 			{
 
@@ -209,8 +217,13 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 					 * Run the linker.
 					 */
 
-					final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
+					// Restrict candidates to the max distance when possible.
+					final double searchRadius = isBoundedBySquareDistance( costFunction, sources, targets )
+							? maxDist.doubleValue()
+							: Double.POSITIVE_INFINITY;
+					final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d, searchRadius );
 					final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( creator );
+					linker.setSolver( solver );
 					if ( !linker.checkInput() || !linker.process() )
 					{
 						errorMessage = "At frame " + lFrame0 + " to " + lFrame1 + ": " + linker.getErrorMessage();
@@ -219,23 +232,15 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 					}
 
 					/*
-					 * Update graph.
+					 * Store links.
 					 */
 
-					synchronized ( graph )
-					{
-						final Map< Spot, Double > costs = linker.getAssignmentCosts();
-						final Map< Spot, Spot > assignment = linker.getResult();
-						for ( final Spot source : assignment.keySet() )
-						{
-							final double cost = costs.get( source );
-							final Spot target = assignment.get( source );
-							graph.addVertex( source );
-							graph.addVertex( target );
-							final DefaultWeightedEdge edge = graph.addEdge( source, target );
-							graph.setEdgeWeight( edge, cost );
-						}
-					}
+					final int[] linkSources = linker.getLinkSources();
+					final int[] linkTargets = linker.getLinkTargets();
+					final double[] linkCosts = linker.getLinkCosts();
+					final GraphLinkBuilder.Links< Spot > buffer = links.links( index, linker.getSourceList(), linker.getTargetList(), linkSources.length );
+					for ( int l = 0; l < linkSources.length; l++ )
+						buffer.add( linkSources[ l ], linkTargets[ l ], linkCosts[ l ] );
 
 					logger.setProgress( progress.incrementAndGet() / framePairs.size() );
 					return null;
@@ -258,6 +263,12 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
 			e.printStackTrace();
 		}
+
+		// Merge links in the graph, in frame order.
+		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		if ( ok.get() )
+			links.addTo( graph );
+
 		logger.setProgress( 1. );
 		logger.setStatus( "" );
 
@@ -282,6 +293,32 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		return new FeaturePenaltyCostFunction( featurePenalties );
 	}
 
+	/**
+	 * Returns <code>true</code> if the specified cost function never returns
+	 * a cost lower than the square distance between the specified sources and
+	 * targets. Candidate links can then be searched within the max linking
+	 * distance only.
+	 *
+	 * @param costFunction
+	 *            the cost function.
+	 * @param sources
+	 *            the source spots.
+	 * @param targets
+	 *            the target spots.
+	 * @return whether the cost is bounded by the square distance.
+	 */
+	protected boolean isBoundedBySquareDistance( final CostFunction< Spot, Spot > costFunction, final List< Spot > sources, final List< Spot > targets )
+	{
+		if ( costFunction instanceof SquareDistCostFunction )
+			return true;
+		if ( costFunction instanceof FeaturePenaltyCostFunction )
+		{
+			final FeaturePenaltyCostFunction fpcf = ( FeaturePenaltyCostFunction ) costFunction;
+			return fpcf.isBoundedBySquareDistance( sources ) && fpcf.isBoundedBySquareDistance( targets );
+		}
+		return false;
+	}
+
 	@Override
 	public void setLogger( final Logger logger )
 	{
@@ -302,6 +339,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		ok = ok & checkFeatureMap( settings, KEY_LINKING_FEATURE_PENALTIES, str );
 		// Others
 		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
+		ok = ok & checkSolver( settings, str );
 
 		// Check keys
 		final List< String > mandatoryKeys = new ArrayList<>();
@@ -309,6 +347,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		mandatoryKeys.add( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
 		final List< String > optionalKeys = new ArrayList<>();
 		optionalKeys.add( KEY_LINKING_FEATURE_PENALTIES );
+		optionalKeys.add( KEY_LAP_SOLVER );
 		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, str );
 
 		return ok;
@@ -21,6 +21,8 @@
  */
 package fiji.plugin.trackmate.tracking.jaqaman.costfunction;
 
+import java.util.List;
+
 /**
  * Interface representing a function that can calculate the cost to link a
  * source object to a target object.
@@ -46,4 +48,24 @@ public interface CostFunction< K, J >
 	 */
 	public double linkingCost( K source, J target );
 
+	/**
+	 * Returns a cost function that calculates the same costs as this one, for
+	 * sources and targets designated by their index in the specified lists.
+	 * <p>
+	 * The default implementation simply fetches the objects from the lists.
+	 * Implementations can override it to copy the data they need into
+	 * primitive arrays once, instead of reading it from the objects for every
+	 * pair. The lists must not change while the returned function is used.
+	 * 
+	 * @param sources
+	 *            the source list.
+	 * @param targets
+	 *            the target list.
+	 * @return a new {@link IndexedCostFunction}.
+	 */
+	public default IndexedCostFunction indexed( final List< ? extends K > sources, final List< ? extends J > targets )
+	{
+		return ( source, target ) -> linkingCost( sources.get( source ), targets.get( target ) );
+	}
+
 }
@@ -21,7 +21,9 @@
  */
 package fiji.plugin.trackmate.tracking.jaqaman.costfunction;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import fiji.plugin.trackmate.Spot;
 
@@ -69,17 +71,111 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 		final double d2 = ( d1 == 0 ) ? Double.MIN_NORMAL : d1;
 
 		double penalty = 1;
-		for ( final String feature : featurePenalties.keySet() )
+		for ( final Entry< String, Double > entry : featurePenalties.entrySet() )
 		{
-			final double ndiff = source.normalizeDiffTo( target, feature );
+			final double ndiff = source.normalizeDiffTo( target, entry.getKey() );
 			if ( Double.isNaN( ndiff ) )
 			{
 				continue;
 			}
-			final double factor = featurePenalties.get( feature );
+			final double factor = entry.getValue();
 			penalty += factor * 1.5 * ndiff;
 		}
 
 		return d2 * penalty * penalty;
 	}
+
+	/**
+	 * Returns a cost function over the specified lists that copies the spot
+	 * positions and the penalized feature values in primitive arrays, so that
+	 * the cost of a pair is computed without feature map lookups. Costs are
+	 * identical to {@link #linkingCost(Spot, Spot)}. Penalties for features a
+	 * spot does not have are ignored.
+	 */
+	@Override
+	public IndexedCostFunction indexed( final List< ? extends Spot > sources, final List< ? extends Spot > targets )
+	{
+		final int nFeatures = featurePenalties.size();
+		final String[] features = new String[ nFeatures ];
+		final double[] weights = new double[ nFeatures ];
+		int f = 0;
+		for ( final Entry< String, Double > entry : featurePenalties.entrySet() )
+		{
+			features[ f ] = entry.getKey();
+			weights[ f ] = entry.getValue().doubleValue() * 1.5;
+			f++;
+		}
+
+		final double[] sp = SquareDistCostFunction.positions( sources );
+		final double[] tp = SquareDistCostFunction.positions( targets );
+		final double[] sf = featureValues( sources, features );
+		final double[] tf = featureValues( targets, features );
+		return ( source, target ) -> {
+			final double d1 = SquareDistCostFunction.squareDistance( sp, source, tp, target );
+			final double d2 = ( d1 == 0 ) ? Double.MIN_NORMAL : d1;
+
+			double penalty = 1;
+			final int s = source * nFeatures;
+			final int t = target * nFeatures;
+			for ( int i = 0; i < nFeatures; i++ )
+			{
+				final double a = sf[ s + i ];
+				final double b = tf[ t + i ];
+				// Same as Spot#normalizeDiffTo.
+				final double ndiff = ( a == -b ) ? 0. : Math.abs( a - b ) / ( ( a + b ) / 2 );
+				if ( Double.isNaN( ndiff ) )
+					continue;
+				penalty += weights[ i ] * ndiff;
+			}
+			return d2 * penalty * penalty;
+		};
+	}
+
+	/**
+	 * Copies the values of the specified features in a flat array, spot after
+	 * spot. Missing values are stored as NaN.
+	 */
+	private static double[] featureValues( final List< ? extends Spot > spots, final String[] features )
+	{
+		final double[] values = new double[ features.length * spots.size() ];
+		for ( int i = 0; i < spots.size(); i++ )
+		{
+			final Spot spot = spots.get( i );
+			for ( int f = 0; f < features.length; f++ )
+			{
+				final Double val = spot.getFeature( features[ f ] );
+				values[ i * features.length + f ] = ( val == null ) ? Double.NaN : val.doubleValue();
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Returns <code>true</code> if this cost function never returns a cost
+	 * lower than the square distance for pairs made of the specified spots.
+	 * This is the case when all the penalty weights are positive and all the
+	 * penalized feature values are positive, so that feature differences can
+	 * only increase the cost. Linking can then be restricted to the spots
+	 * within the max linking distance.
+	 *
+	 * @param spots
+	 *            the spots that will be linked.
+	 * @return whether the cost is bounded by the square distance.
+	 */
+	public boolean isBoundedBySquareDistance( final Iterable< Spot > spots )
+	{
+		for ( final Entry< String, Double > entry : featurePenalties.entrySet() )
+		{
+			if ( entry.getValue() < 0. )
+				return false;
+			final String feature = entry.getKey();
+			for ( final Spot spot : spots )
+			{
+				final Double val = spot.getFeature( feature );
+				if ( val != null && val.doubleValue() < 0. )
+					return false;
+			}
+		}
+		return true;
+	}
 }
@@ -21,6 +21,8 @@
  */
 package fiji.plugin.trackmate.tracking.jaqaman.costfunction;
 
+import java.util.List;
+
 import fiji.plugin.trackmate.Spot;
 
 /**
@@ -40,4 +42,48 @@ public class SquareDistCostFunction implements CostFunction< Spot, Spot >
 		return ( d2 == 0 ) ? Double.MIN_NORMAL : d2;
 	}
 
+	@Override
+	public IndexedCostFunction indexed( final List< ? extends Spot > sources, final List< ? extends Spot > targets )
+	{
+		final double[] sp = positions( sources );
+		final double[] tp = positions( targets );
+		return ( source, target ) -> {
+			final double d2 = squareDistance( sp, source, tp, target );
+			return ( d2 == 0 ) ? Double.MIN_NORMAL : d2;
+		};
+	}
+
+	/**
+	 * Copies the X, Y, Z positions of the specified spots in a flat array.
+	 * 
+	 * @param spots
+	 *            the spots.
+	 * @return a new array, with the position of the spot <code>i</code> at
+	 *         indices <code>3i</code> to <code>3i+2</code>.
+	 */
+	static double[] positions( final List< ? extends Spot > spots )
+	{
+		final double[] pos = new double[ 3 * spots.size() ];
+		for ( int i = 0; i < spots.size(); i++ )
+		{
+			final Spot spot = spots.get( i );
+			for ( int d = 0; d < 3; d++ )
+				pos[ 3 * i + d ] = spot.getDoublePosition( d );
+		}
+		return pos;
+	}
+
+	/**
+	 * Returns the square distance between two positions stored in flat
+	 * arrays, identical to {@link Spot#squareDistanceTo(net.imglib2.RealLocalizable)}.
+	 */
+	static double squareDistance( final double[] sp, final int source, final double[] tp, final int target )
+	{
+		final int s = 3 * source;
+		final int t = 3 * target;
+		final double dx = sp[ s ] - tp[ t ];
+		final double dy = sp[ s + 1 ] - tp[ t + 1 ];
+		final double dz = sp[ s + 2 ] - tp[ t + 2 ];
+		return dx * dx + dy * dy + dz * dz;
+	}
 }
@@ -0,0 +1,39 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.OutputAlgorithm;
+
+/**
+ * Interface for solvers of the linear assignment problem defined by a
+ * {@link SparseCostMatrix}.
+ * <p>
+ * The result is the row assignment: the row <code>i</code> is assigned to the
+ * column <code>x[i]</code> of the cost matrix, such that the sum of the
+ * assigned costs is minimal.
+ *
+ * @author Jean-Yves Tinevez
+ * @see AssignmentSolvers
+ */
+public interface AssignmentSolver extends OutputAlgorithm< int[] >, Benchmark
+{}
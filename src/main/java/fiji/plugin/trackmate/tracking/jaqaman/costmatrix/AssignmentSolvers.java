@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+/**
+ * The assignment solvers that can be used by the LAP trackers, selected in
+ * the tracker settings by their name.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public enum AssignmentSolvers
+{
+	/**
+	 * The Jonker-Volgenant shortest augmenting path solver, {@link LAPJV}.
+	 * Exact, and the default.
+	 */
+	LAPJV( "Jonker-Volgenant" ),
+	/**
+	 * The ε-scaling auction solver, {@link AuctionLAP}. Its bidding phase
+	 * runs in parallel, and it scales better on large, nearly square
+	 * matrices.
+	 */
+	AUCTION( "Auction" );
+
+	private final String name;
+
+	private AssignmentSolvers( final String name )
+	{
+		this.name = name;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+
+	/**
+	 * Instantiates a new solver of this type for the specified cost matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix to solve.
+	 * @param numThreads
+	 *            the number of threads the solver can use, if it is
+	 *            multithreaded.
+	 * @return a new solver.
+	 */
+	public AssignmentSolver create( final SparseCostMatrix cm, final int numThreads )
+	{
+		switch ( this )
+		{
+		case AUCTION:
+		{
+			final AuctionLAP solver = new AuctionLAP( cm );
+			solver.setNumThreads( numThreads );
+			return solver;
+		}
+		case LAPJV:
+		default:
+			return new LAPJV( cm );
+		}
+	}
+}
@@ -0,0 +1,368 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Solves the linear assignment problem of a square {@link SparseCostMatrix}
+ * with the ε-scaling auction algorithm of Bertsekas.
+ * <p>
+ * Unassigned rows bid for their best column, raising its price by the
+ * difference between their best and second best reduced costs, plus ε. The
+ * highest bidder gets the column, and its previous owner becomes unassigned.
+ * Bids are computed in parallel for all the unassigned rows (Jacobi auction),
+ * then resolved sequentially, so the result does not depend on the number of
+ * threads. The auction is repeated with decreasing values of ε, keeping the
+ * prices of the previous round.
+ * <p>
+ * The algorithm works directly on the compressed rows of the cost matrix.
+ * Unlike {@link LAPJV}, it accepts any finite cost, but only square matrices.
+ * The solution is ε-optimal: its total cost is within <code>n × ε</code> of
+ * the optimal cost, where the final ε is a tiny fraction of the cost range.
+ * It is therefore the same as the one of {@link LAPJV}, except for
+ * assignments with costs differing by less than this tolerance. When the
+ * costs are much larger than their range, ε is never smaller than the
+ * rounding step of the costs and prices, so that each bid strictly raises
+ * the price of its column and the auction ends.
+ *
+ * @author Jean-Yves Tinevez
+ * @see <a href="https://doi.org/10.1007/BF02186476">D. P. Bertsekas, "The
+ *      auction algorithm: A distributed relaxation method for the assignment
+ *      problem", Annals of Operations Research 14 (1988)</a>
+ */
+public class AuctionLAP implements AssignmentSolver, MultiThreaded
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[AuctionLAP] ";
+
+	/**
+	 * Factor by which ε is divided between two auctions.
+	 */
+	private static final double EPSILON_FACTOR = 5.;
+
+	/**
+	 * Value of the final ε, relative to the range of costs.
+	 */
+	private static final double RELATIVE_PRECISION = 1e-12;
+
+	/**
+	 * Smallest value of ε in bids, in units of the rounding step of the
+	 * reduced costs.
+	 */
+	private static final double ULP_FACTOR = 4.;
+
+	/**
+	 * Smallest number of bidders per thread to bid in parallel.
+	 */
+	private static final int MIN_CHUNK_SIZE = 1024;
+
+	private final SparseCostMatrix cm;
+
+	private int[] output;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	private int numThreads;
+
+	/**
+	 * Instantiates a new auction solver for the specified sparse cost matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 *            Must be square.
+	 */
+	public AuctionLAP( final SparseCostMatrix cm )
+	{
+		this.cm = cm;
+		setNumThreads();
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( cm.nRows != cm.nCols )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "This solver only accepts square cost matrices. Found " + cm.nRows + " rows and " + cm.nCols + " columns.";
+			return false;
+		}
+		for ( final double c : cm.cc )
+		{
+			if ( Double.isNaN( c ) || Double.isInfinite( c ) )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "This solver only accepts finite costs. Found " + c + ".";
+				return false;
+			}
+		}
+		for ( int i = 0; i < cm.nRows; i++ )
+		{
+			if ( cm.number[ i ] == 0 )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "All the rows must have at least one cost. Row " + i + " has none.";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		final int n = cm.nRows;
+		double minCost = Double.POSITIVE_INFINITY;
+		double maxCost = Double.NEGATIVE_INFINITY;
+		for ( final double c : cm.cc )
+		{
+			minCost = Math.min( minCost, c );
+			maxCost = Math.max( maxCost, c );
+		}
+		double range = maxCost - minCost;
+		if ( !( range > 0. ) )
+			range = Math.max( 1., Math.abs( maxCost ) );
+		final double epsilonMin = range * RELATIVE_PRECISION;
+
+		final double[] price = new double[ n ];
+		final int[] rowOf = new int[ n ];
+		final int[] colOf = new int[ n ];
+		int[] queue = new int[ n ];
+		int[] nextQueue = new int[ n ];
+		final int[] bidCol = new int[ n ];
+		final double[] bidValue = new double[ n ];
+		final int[] winner = new int[ n ];
+		final int[] stamp = new int[ n ];
+		Arrays.fill( stamp, -1 );
+		final int[] touched = new int[ n ];
+
+		final ExecutorService executor = ( numThreads > 1 && n >= 2 * MIN_CHUNK_SIZE ) ? Threads.newFixedThreadPool( numThreads ) : null;
+		try
+		{
+			int round = 0;
+			double epsilon = Math.max( epsilonMin, range / 4. );
+			while ( true )
+			{
+				// Start an auction with all rows unassigned.
+				Arrays.fill( rowOf, -1 );
+				Arrays.fill( colOf, -1 );
+				for ( int i = 0; i < n; i++ )
+					queue[ i ] = i;
+				int nQueue = n;
+
+				// Prices cannot rise that much if all rows can be assigned.
+				double maxPrice = Double.NEGATIVE_INFINITY;
+				for ( final double p : price )
+					maxPrice = Math.max( maxPrice, p );
+				final double priceLimit = maxPrice + 2. * ( n + 1. ) * ( range + epsilon );
+
+				while ( nQueue > 0 )
+				{
+					// Bidding.
+					if ( null != executor && nQueue >= 2 * MIN_CHUNK_SIZE )
+						bidInParallel( executor, queue, nQueue, price, epsilon, range, bidCol, bidValue );
+					else
+						bid( queue, 0, nQueue, price, epsilon, range, bidCol, bidValue );
+
+					// Assignment: the highest bid for each column wins.
+					int nTouched = 0;
+					for ( int k = 0; k < nQueue; k++ )
+					{
+						final int j = bidCol[ k ];
+						if ( stamp[ j ] != round )
+						{
+							stamp[ j ] = round;
+							winner[ j ] = k;
+							touched[ nTouched++ ] = j;
+						}
+						else if ( bidValue[ k ] > bidValue[ winner[ j ] ] )
+						{
+							winner[ j ] = k;
+						}
+					}
+
+					int nNext = 0;
+					for ( int k = 0; k < nQueue; k++ )
+						if ( winner[ bidCol[ k ] ] != k )
+							nextQueue[ nNext++ ] = queue[ k ];
+					for ( int t = 0; t < nTouched; t++ )
+					{
+						final int j = touched[ t ];
+						final int k = winner[ j ];
+						if ( bidValue[ k ] > priceLimit )
+						{
+							errorMessage = BASE_ERROR_MESSAGE + "The assignment problem has no solution: some rows cannot be assigned.";
+							return false;
+						}
+						final int i = queue[ k ];
+						final int previous = rowOf[ j ];
+						if ( previous >= 0 )
+						{
+							colOf[ previous ] = -1;
+							nextQueue[ nNext++ ] = previous;
+						}
+						rowOf[ j ] = i;
+						colOf[ i ] = j;
+						price[ j ] = bidValue[ k ];
+					}
+
+					final int[] tmp = queue;
+					queue = nextQueue;
+					nextQueue = tmp;
+					nQueue = nNext;
+					round++;
+				}
+
+				if ( epsilon <= epsilonMin )
+					break;
+				epsilon = Math.max( epsilonMin, epsilon / EPSILON_FACTOR );
+			}
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+		finally
+		{
+			if ( null != executor )
+				executor.shutdown();
+		}
+
+		output = colOf;
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Computes the bids of the rows <code>queue[from]</code> to
+	 * <code>queue[to-1]</code>, and stores them at the same indices in
+	 * <code>bidCol</code> and <code>bidValue</code>.
+	 */
+	private void bid( final int[] queue, final int from, final int to, final double[] price, final double epsilon, final double range, final int[] bidCol, final double[] bidValue )
+	{
+		for ( int q = from; q < to; q++ )
+		{
+			final int i = queue[ q ];
+			double w1 = Double.POSITIVE_INFINITY;
+			double w2 = Double.POSITIVE_INFINITY;
+			int j1 = -1;
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+			{
+				final int j = cm.kk[ k ];
+				final double w = cm.cc[ k ] + price[ j ];
+				if ( w < w1 )
+				{
+					w2 = w1;
+					w1 = w;
+					j1 = j;
+				}
+				else if ( w < w2 )
+				{
+					w2 = w;
+				}
+			}
+			// A row with a single column can bid as much as it needs.
+			final double increment = ( w2 == Double.POSITIVE_INFINITY ) ? range : w2 - w1;
+			/*
+			 * Reduced costs are rounded to the ulp of w1, which can be larger
+			 * than ε for large costs or prices. Bid at least a few ulps above,
+			 * and strictly above the current price.
+			 */
+			final double eps = Math.max( epsilon, ULP_FACTOR * Math.ulp( w1 ) );
+			bidCol[ q ] = j1;
+			bidValue[ q ] = Math.max( price[ j1 ] + increment + eps, Math.nextUp( price[ j1 ] ) );
+		}
+	}
+
+	private void bidInParallel( final ExecutorService executor, final int[] queue, final int nQueue, final double[] price, final double epsilon, final double range, final int[] bidCol, final double[] bidValue ) throws InterruptedException, ExecutionException
+	{
+		final int nTasks = Math.min( numThreads, nQueue / MIN_CHUNK_SIZE );
+		final int chunkSize = ( nQueue + nTasks - 1 ) / nTasks;
+		final List< Callable< Void > > tasks = new ArrayList<>( nTasks );
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final int from = t * chunkSize;
+			final int to = Math.min( nQueue, from + chunkSize );
+			tasks.add( () -> {
+				bid( queue, from, to, price, epsilon, range, bidCol, bidValue );
+				return null;
+			} );
+		}
+		for ( final Future< Void > future : executor.invokeAll( tasks ) )
+			future.get();
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	/**
+	 * Returns the row assignments. The row <code>i</code> is associated to the
+	 * column <code>x[i]</code> in the cost matrix.
+	 *
+	 * @return the row assignments as an <code>int[]</code> array. This array is
+	 *         re-instantiated upon calling {@link #process()}.
+	 */
+	@Override
+	public int[] getResult()
+	{
+		return output;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+}
@@ -0,0 +1,435 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Solves a linear assignment problem by splitting its sparse cost matrix into
+ * independent blocks, solved concurrently with {@link LAPJV} or another
+ * {@link AssignmentSolvers} solver.
+ * <p>
+ * Rows and columns of the cost matrix are the two sides of a bipartite graph,
+ * with one edge per non-infinite cost. A row can only be assigned to a column
+ * of its connected component in this graph, so each component is an
+ * independent assignment problem. Tracking cost matrices typically split into
+ * many small components, one per group of objects that are close to each
+ * other. Solving them separately is faster even on a single thread, because
+ * the cost of the solver grows faster than linearly with the matrix size.
+ * <p>
+ * The optimal total cost is the same as solving the whole matrix with the
+ * component solver, and so are the assignments when the optimum is unique.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ComponentLAPJV implements AssignmentSolver, MultiThreaded
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[ComponentLAPJV] ";
+
+	private final SparseCostMatrix cm;
+
+	private final AssignmentSolvers solverType;
+
+	private int[] output;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	private int numThreads;
+
+	private int nComponents;
+
+	/**
+	 * The components of the cost matrix, computed once by
+	 * {@link #checkInput()} or {@link #process()}.
+	 */
+	private Components components;
+
+	/**
+	 * Instantiates a new solver for the specified sparse cost matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 */
+	public ComponentLAPJV( final SparseCostMatrix cm )
+	{
+		this( cm, AssignmentSolvers.LAPJV );
+	}
+
+	/**
+	 * Instantiates a new solver for the specified sparse cost matrix, that
+	 * solves each component with the specified solver.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 * @param solverType
+	 *            the solver to use on components.
+	 */
+	public ComponentLAPJV( final SparseCostMatrix cm, final AssignmentSolvers solverType )
+	{
+		this.cm = cm;
+		this.solverType = solverType;
+		setNumThreads();
+	}
+
+	/**
+	 * Checks the costs, then the sizes of each component against what the
+	 * component solver accepts, without building a solver for the whole
+	 * matrix. For instance, the auction solver needs each component to be
+	 * square, which a square matrix does not guarantee.
+	 */
+	@Override
+	public boolean checkInput()
+	{
+		for ( final double c : cm.cc )
+		{
+			if ( Double.isNaN( c ) || Double.isInfinite( c ) )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "This solver only accepts finite costs. Found " + c + ".";
+				return false;
+			}
+			if ( solverType == AssignmentSolvers.LAPJV && c <= 0 )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "This solver only accept strictly positive costs. Found " + c + ".";
+				return false;
+			}
+		}
+		for ( int i = 0; i < cm.nRows; i++ )
+		{
+			if ( cm.number[ i ] == 0 )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Row " + i + " has no entry and cannot be assigned.";
+				return false;
+			}
+		}
+
+		if ( null == components )
+			components = new Components( cm );
+		for ( int c = 0; c < components.nc; c++ )
+		{
+			final int nr = components.rowStart[ c + 1 ] - components.rowStart[ c ];
+			final int ncols = components.colStart[ c + 1 ] - components.colStart[ c ];
+			final boolean valid;
+			switch ( solverType )
+			{
+			case AUCTION:
+				valid = nr == ncols;
+				break;
+			case LAPJV:
+			default:
+				valid = nr <= ncols;
+				break;
+			}
+			if ( !valid )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "The " + solverType + " solver cannot solve a component with " + nr + " rows and " + ncols + " columns, starting at row " + components.rows[ components.rowStart[ c ] ] + ".";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		if ( null == components )
+			components = new Components( cm );
+		final int nRows = cm.nRows;
+		final int nc = components.nc;
+		final int[] rowStart = components.rowStart;
+		final int[] colStart = components.colStart;
+		final int[] rows = components.rows;
+		final int[] cols = components.cols;
+		final int[] localCol = components.localCol;
+		this.nComponents = nc;
+
+		/*
+		 * Solve components, largest first for load balancing.
+		 */
+
+		final Integer[] order = new Integer[ nc ];
+		for ( int c = 0; c < nc; c++ )
+			order[ c ] = Integer.valueOf( c );
+		Arrays.sort( order, ( c1, c2 ) -> Integer.compare( rowStart[ c2 + 1 ] - rowStart[ c2 ], rowStart[ c1 + 1 ] - rowStart[ c1 ] ) );
+
+		final int[] x = new int[ nRows ];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final List< Callable< String > > tasks = new ArrayList<>( numThreads );
+		for ( int t = 0; t < numThreads; t++ )
+		{
+			tasks.add( new Callable< String >()
+			{
+				@Override
+				public String call() throws Exception
+				{
+					for ( int o = ai.getAndIncrement(); o < nc; o = ai.getAndIncrement() )
+					{
+						final int c = order[ o ].intValue();
+						final int r0 = rowStart[ c ];
+						final int nr = rowStart[ c + 1 ] - r0;
+						final int c0 = colStart[ c ];
+						final int ncols = colStart[ c + 1 ] - c0;
+						if ( nr == 0 )
+							continue;
+
+						if ( nr == 1 && ncols == 1 )
+						{
+							// Trivial component.
+							x[ rows[ r0 ] ] = cols[ c0 ];
+							continue;
+						}
+
+						// Extract the sub-matrix.
+						int cardinality = 0;
+						for ( int r = r0; r < r0 + nr; r++ )
+							cardinality += cm.number[ rows[ r ] ];
+						final double[] cc = new double[ cardinality ];
+						final int[] kk = new int[ cardinality ];
+						final int[] number = new int[ nr ];
+						int index = 0;
+						for ( int r = 0; r < nr; r++ )
+						{
+							final int i = rows[ r0 + r ];
+							number[ r ] = cm.number[ i ];
+							for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+							{
+								cc[ index ] = cm.cc[ k ];
+								kk[ index ] = localCol[ cm.kk[ k ] ];
+								index++;
+							}
+						}
+
+						// Components are solved concurrently, one thread each.
+						final AssignmentSolver solver = solverType.create( new SparseCostMatrix( cc, kk, number, ncols ), 1 );
+						if ( !solver.checkInput() || !solver.process() )
+							return solver.getErrorMessage();
+
+						final int[] sub = solver.getResult();
+						for ( int r = 0; r < nr; r++ )
+							x[ rows[ r0 + r ] ] = cols[ c0 + sub[ r ] ];
+					}
+					return null;
+				}
+			} );
+		}
+
+		final ExecutorService executor = Threads.newFixedThreadPool( numThreads );
+		try
+		{
+			for ( final Future< String > future : executor.invokeAll( tasks ) )
+			{
+				final String error = future.get();
+				if ( null != error )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + error;
+					return false;
+				}
+			}
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		output = x;
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Returns the number of independent components found in the cost matrix
+	 * by the last call to {@link #process()}.
+	 *
+	 * @return the number of components.
+	 */
+	public int getNComponents()
+	{
+		return nComponents;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	/**
+	 * Returns the row assignments. The row <code>i</code> is associated to the
+	 * column <code>x[i]</code> in the cost matrix.
+	 *
+	 * @return the row assignments as an <code>int[]</code> array. This array is
+	 *         re-instantiated upon calling {@link #process()}.
+	 */
+	@Override
+	public int[] getResult()
+	{
+		return output;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * The connected components of a sparse cost matrix, with their rows and
+	 * columns in ascending order.
+	 */
+	private static final class Components
+	{
+
+		/** The number of components. */
+		private final int nc;
+
+		/**
+		 * The rows of component <code>c</code> are
+		 * <code>rows[ rowStart[ c ] ]</code> to
+		 * <code>rows[ rowStart[ c + 1 ] - 1 ]</code>.
+		 */
+		private final int[] rowStart;
+
+		private final int[] rows;
+
+		/** Same as {@link #rowStart}, for columns. */
+		private final int[] colStart;
+
+		private final int[] cols;
+
+		/** Index of each column within its component. */
+		private final int[] localCol;
+
+		private Components( final SparseCostMatrix cm )
+		{
+			/*
+			 * Connected components, by union-find on rows (0 to nRows - 1) and
+			 * columns (nRows to nRows + nCols - 1).
+			 */
+
+			final int nRows = cm.nRows;
+			final int nCols = cm.nCols;
+			final int[] parent = new int[ nRows + nCols ];
+			for ( int i = 0; i < parent.length; i++ )
+				parent[ i ] = i;
+			for ( int i = 0; i < nRows; i++ )
+				for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+					union( parent, i, nRows + cm.kk[ k ] );
+
+			// Number components, and count their rows and columns.
+			final int[] component = new int[ nRows + nCols ];
+			Arrays.fill( component, -1 );
+			final int[] compOf = new int[ nRows + nCols ];
+			int count = 0;
+			for ( int i = 0; i < parent.length; i++ )
+			{
+				final int root = find( parent, i );
+				if ( component[ root ] < 0 )
+					component[ root ] = count++;
+				compOf[ i ] = component[ root ];
+			}
+			this.nc = count;
+
+			// Rows and columns of each component, in ascending order.
+			this.rowStart = new int[ nc + 1 ];
+			this.colStart = new int[ nc + 1 ];
+			for ( int i = 0; i < nRows; i++ )
+				rowStart[ compOf[ i ] + 1 ]++;
+			for ( int j = 0; j < nCols; j++ )
+				colStart[ compOf[ nRows + j ] + 1 ]++;
+			for ( int c = 0; c < nc; c++ )
+			{
+				rowStart[ c + 1 ] += rowStart[ c ];
+				colStart[ c + 1 ] += colStart[ c ];
+			}
+			this.rows = new int[ nRows ];
+			this.cols = new int[ nCols ];
+			this.localCol = new int[ nCols ];
+			final int[] fill = Arrays.copyOf( rowStart, nc );
+			for ( int i = 0; i < nRows; i++ )
+				rows[ fill[ compOf[ i ] ]++ ] = i;
+			System.arraycopy( colStart, 0, fill, 0, nc );
+			for ( int j = 0; j < nCols; j++ )
+			{
+				final int c = compOf[ nRows + j ];
+				localCol[ j ] = fill[ c ] - colStart[ c ];
+				cols[ fill[ c ]++ ] = j;
+			}
+		}
+	}
+
+	private static int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			// Path halving.
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	private static void union( final int[] parent, final int i, final int j )
+	{
+		final int ri = find( parent, i );
+		final int rj = find( parent, j );
+		if ( ri != rj )
+			parent[ Math.max( ri, rj ) ] = Math.min( ri, rj );
+	}
+}
@@ -22,15 +22,30 @@
 package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.IndexedCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.util.SpatialGrid;
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealLocalizable;
+import net.imglib2.util.Util;
 
 /**
  * A {@link CostMatrixCreator} that can generate a cost matrix from a list of
  * sources, a list of targets and a {@link CostFunction} that can generate a
  * cost for any combination.
+ * <p>
+ * If a finite max distance is specified and the sources and targets are
+ * {@link RealLocalizable}, candidate pairs are generated with a radius search
+ * in a {@link SpatialGrid} over the targets, and the cost function is
+ * evaluated only on the targets within the max distance of each source. This
+ * is only valid for cost functions that never return a cost lower than the
+ * square distance, such as {@link SquareDistCostFunction}. Otherwise, all the
+ * source-target pairs are evaluated.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -66,7 +81,37 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private final double percentile;
 
+	private final double maxDistance;
+
 	public JaqamanLinkingCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile )
+	{
+		this( sources, targets, costFunction, costThreshold, alternativeCostFactor, percentile, Double.POSITIVE_INFINITY );
+	}
+
+	/**
+	 * Creates a cost matrix creator that only evaluates the cost of pairs
+	 * closer than the specified max distance.
+	 *
+	 * @param sources
+	 *            the sources.
+	 * @param targets
+	 *            the targets.
+	 * @param costFunction
+	 *            the cost function. Must not return costs lower than the
+	 *            square distance between source and target if the max
+	 *            distance is finite.
+	 * @param costThreshold
+	 *            the cost above which links are rejected.
+	 * @param alternativeCostFactor
+	 *            the alternative cost factor.
+	 * @param percentile
+	 *            the percentile of costs to use to compute the alternative
+	 *            cost.
+	 * @param maxDistance
+	 *            the max distance between linked sources and targets. If
+	 *            infinite, all pairs are evaluated.
+	 */
+	public JaqamanLinkingCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile, final double maxDistance )
 	{
 		this.sources = sources;
 		this.targets = targets;
@@ -74,6 +119,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		this.costThreshold = costThreshold;
 		this.alternativeCostFactor = alternativeCostFactor;
 		this.percentile = percentile;
+		this.maxDistance = maxDistance;
 	}
 
 	@Override
@@ -97,26 +143,29 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 	{
 		final long start = System.currentTimeMillis();
 
-		final List< K > accSources = new ArrayList<>();
-		final List< J > accTargets = new ArrayList<>();
-		final ResizableDoubleArray costs = new ResizableDoubleArray();
-
-		for ( final K source : sources )
+		if ( !Double.isInfinite( maxDistance ) && isLocalizable( sources ) && isLocalizable( targets ) )
 		{
-			for ( final J target : targets )
-			{
-
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
-				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
-				}
-			}
+			if ( !processInRadius() )
+				return false;
 		}
-		costs.trimToSize();
+		else
+		{
+			final List< K > accSources = new ArrayList<>();
+			final List< J > accTargets = new ArrayList<>();
+			final ResizableDoubleArray costs = new ResizableDoubleArray();
+			accumulateAllCandidates( accSources, accTargets, costs );
+			costs.trimToSize();
+			if ( !createMatrix( accSources, accTargets, costs ) )
+				return false;
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
 
+	private boolean createMatrix( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
 		/*
 		 * Check if accepted source or target lists are empty and deal with it.
 		 */
@@ -147,9 +196,221 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 			targetList = cmCreator.getTargetList();
 			alternativeCost = cmCreator.computeAlternativeCosts();
 		}
+		return true;
+	}
 
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Evaluates the cost of all source-target pairs.
+	 */
+	private void accumulateAllCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		final List< K > lSources = new ArrayList<>();
+		for ( final K source : sources )
+			lSources.add( source );
+		final List< J > lTargets = new ArrayList<>();
+		for ( final J target : targets )
+			lTargets.add( target );
+
+		final IndexedCostFunction cf = costFunction.indexed( lSources, lTargets );
+		for ( int si = 0; si < lSources.size(); si++ )
+		{
+			for ( int ti = 0; ti < lTargets.size(); ti++ )
+			{
+
+				final double cost = cf.linkingCost( si, ti );
+				if ( cost < costThreshold )
+				{
+					accSources.add( lSources.get( si ) );
+					accTargets.add( lTargets.get( ti ) );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the cost of the source-target pairs closer than the max
+	 * distance, found with a grid index over the targets, and builds the cost
+	 * matrix directly from the accepted links. The matrix is identical to the
+	 * one the {@link DefaultCostMatrixCreator} would build from them.
+	 */
+	private boolean processInRadius()
+	{
+		final List< K > lSources = new ArrayList<>();
+		for ( final K source : sources )
+			lSources.add( source );
+		final List< J > lTargets = new ArrayList<>();
+		for ( final J target : targets )
+			lTargets.add( target );
+
+		final int nSources = lSources.size();
+		final double[] sx = new double[ nSources ];
+		final double[] sy = new double[ nSources ];
+		final double[] sz = new double[ nSources ];
+		final double[] pos = new double[ 3 ];
+		for ( int i = 0; i < nSources; i++ )
+		{
+			position( ( RealLocalizable ) lSources.get( i ), pos );
+			sx[ i ] = pos[ 0 ];
+			sy[ i ] = pos[ 1 ];
+			sz[ i ] = pos[ 2 ];
+		}
+		final int nTargets = lTargets.size();
+		final double[] tx = new double[ nTargets ];
+		final double[] ty = new double[ nTargets ];
+		final double[] tz = new double[ nTargets ];
+		for ( int i = 0; i < nTargets; i++ )
+		{
+			position( ( RealLocalizable ) lTargets.get( i ), pos );
+			tx[ i ] = pos[ 0 ];
+			ty[ i ] = pos[ 1 ];
+			tz[ i ] = pos[ 2 ];
+		}
+
+		/*
+		 * Slightly enlarge the search radius so that rounding errors in the
+		 * distance computation cannot exclude a pair the cost function would
+		 * accept. Candidates are then filtered on their cost.
+		 */
+		final double radius = maxDistance * ( 1. + 1e-9 );
+		final SpatialGrid grid = new SpatialGrid( tx, ty, tz, maxDistance );
+		final SpatialGrid.Search search = grid.search();
+
+		// Visit sources cell by cell, for memory locality.
+		final IndexedCostFunction cf = costFunction.indexed( lSources, lTargets );
+		final TIntArrayList linkSources = new TIntArrayList();
+		final TIntArrayList linkTargets = new TIntArrayList();
+		final ResizableDoubleArray costs = new ResizableDoubleArray();
+		for ( final int si : grid.spatialOrder( sx, sy, sz ) )
+		{
+			final int nFound = search.inRadius( sx[ si ], sy[ si ], sz[ si ], radius );
+			for ( int i = 0; i < nFound; i++ )
+			{
+				final int ti = search.get( i );
+				final double cost = cf.linkingCost( si, ti );
+				if ( cost < costThreshold )
+				{
+					linkSources.add( si );
+					linkTargets.add( ti );
+					costs.add( cost );
+				}
+			}
+		}
+		costs.trimToSize();
+
+		final int nLinks = costs.size;
+		if ( nLinks == 0 || alternativeCostFactor <= 0 || percentile < 0 || percentile > 1 )
+		{
+			// Let the default creator deal with these cases and report errors.
+			final List< K > accSources = new ArrayList<>( nLinks );
+			final List< J > accTargets = new ArrayList<>( nLinks );
+			for ( int l = 0; l < nLinks; l++ )
+			{
+				accSources.add( lSources.get( linkSources.getQuick( l ) ) );
+				accTargets.add( lTargets.get( linkTargets.getQuick( l ) ) );
+			}
+			return createMatrix( accSources, accTargets, costs );
+		}
+
+		// Rows and columns are the linked sources and targets, sorted.
+		final List< K > rows = new ArrayList<>();
+		final int[] rowOf = ranks( lSources, linkSources, rows );
+		final List< J > cols = new ArrayList<>();
+		final int[] colOf = ranks( lTargets, linkTargets, cols );
+
+		// Compressed rows, sorted by column within a row.
+		final int nRows = rows.size();
+		final int[] number = new int[ nRows ];
+		for ( int l = 0; l < nLinks; l++ )
+			number[ rowOf[ linkSources.getQuick( l ) ] ]++;
+		final int[] fill = new int[ nRows ];
+		for ( int r = 1; r < nRows; r++ )
+			fill[ r ] = fill[ r - 1 ] + number[ r - 1 ];
+		final int[] kk = new int[ nLinks ];
+		final double[] cc = new double[ nLinks ];
+		for ( int l = 0; l < nLinks; l++ )
+		{
+			final int r = rowOf[ linkSources.getQuick( l ) ];
+			final int index = fill[ r ]++;
+			kk[ index ] = colOf[ linkTargets.getQuick( l ) ];
+			cc[ index ] = costs.data[ l ];
+		}
+		int rowStart = 0;
+		for ( int r = 0; r < nRows; r++ )
+		{
+			sortRow( kk, cc, rowStart, rowStart + number[ r ] );
+			rowStart += number[ r ];
+		}
+
+		scm = new SparseCostMatrix( cc, kk, number, cols.size() );
+		sourceList = rows;
+		targetList = cols;
+		alternativeCost = ( percentile == 1 )
+				? alternativeCostFactor * Util.max( costs.data )
+				: alternativeCostFactor * Util.percentile( costs.data, percentile );
+		return true;
+	}
+
+	/**
+	 * Collects the distinct objects used in links, sorted, and returns the
+	 * rank in this sorted list of each object, or -1 if it is not used.
+	 */
+	private static < T extends Comparable< T > > int[] ranks( final List< T > objects, final TIntArrayList used, final List< T > sorted )
+	{
+		final int[] rank = new int[ objects.size() ];
+		Arrays.fill( rank, -1 );
+		for ( int l = 0; l < used.size(); l++ )
+		{
+			final int i = used.getQuick( l );
+			if ( rank[ i ] < 0 )
+			{
+				rank[ i ] = 0;
+				sorted.add( objects.get( i ) );
+			}
+		}
+		Collections.sort( sorted );
+		for ( int i = 0; i < rank.length; i++ )
+			if ( rank[ i ] == 0 )
+				rank[ i ] = Collections.binarySearch( sorted, objects.get( i ) );
+		return rank;
+	}
+
+	/**
+	 * Insertion sort of a row on column indices. Rows have a handful of
+	 * elements.
+	 */
+	private static void sortRow( final int[] kk, final double[] cc, final int from, final int to )
+	{
+		for ( int i = from + 1; i < to; i++ )
+		{
+			final int k = kk[ i ];
+			final double c = cc[ i ];
+			int j = i - 1;
+			while ( j >= from && kk[ j ] > k )
+			{
+				kk[ j + 1 ] = kk[ j ];
+				cc[ j + 1 ] = cc[ j ];
+				j--;
+			}
+			kk[ j + 1 ] = k;
+			cc[ j + 1 ] = c;
+		}
+	}
+
+	private static void position( final RealLocalizable p, final double[] pos )
+	{
+		final int n = Math.min( 3, p.numDimensions() );
+		for ( int d = 0; d < n; d++ )
+			pos[ d ] = p.getDoublePosition( d );
+		for ( int d = n; d < 3; d++ )
+			pos[ d ] = 0.;
+	}
+
+	private static boolean isLocalizable( final Iterable< ? > objects )
+	{
+		for ( final Object o : objects )
+			if ( !( o instanceof RealLocalizable ) )
+				return false;
 		return true;
 	}
 
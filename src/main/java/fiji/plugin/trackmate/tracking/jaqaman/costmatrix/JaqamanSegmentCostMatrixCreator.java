@@ -40,6 +40,7 @@ import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.IndexedCostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.util.Threads;
 
@@ -47,9 +48,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import gnu.trove.list.array.TIntArrayList;
 import net.imglib2.algorithm.MultiThreaded;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -68,6 +73,11 @@ import org.jgrapht.graph.DefaultWeightedEdge;
  * non-infinite costs.
  * <li>Costs are based on square distance +/- feature penalties.
  * </ul>
+ * <p>
+ * Segment starts and middle points are indexed by frame and position in a
+ * {@link SpaceTimeIndex}, so that each segment end or middle point is only
+ * tested against candidates in the allowed frames and, when the cost function
+ * allows it, within the max distance.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -77,6 +87,16 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 	private static final String BASE_ERROR_MESSAGE = "[JaqamanSegmentCostMatrixCreator] ";
 
+	/**
+	 * Smallest number of sources in a chunk.
+	 */
+	private static final int MIN_CHUNK_SIZE = 256;
+
+	/**
+	 * How many chunks we aim for, per thread, for load balancing.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+
 	private final Map< String, Object > settings;
 
 	private String errorMessage;
@@ -202,161 +222,167 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 			allMiddles = Collections.emptyList();
 		}
 
-		final Object lock = new Object();
-
 		/*
-		 * Sources and targets.
+		 * Index segment starts and middles by frame and position. Candidates
+		 * are searched within the max distance when the cost function is
+		 * never lower than the square distance, and among all the spots of
+		 * the target frame otherwise.
 		 */
-		final ArrayList< Spot > sources = new ArrayList<>();
-		final ArrayList< Spot > targets = new ArrayList<>();
-		// Corresponding costs.
-		final ResizableDoubleArray linkCosts = new ResizableDoubleArray();
+
+		final double gcRadius = searchRadius( gcCostFunction, gcMaxDistance, segmentEnds, segmentStarts );
+		final double mRadius = searchRadius( mCostFunction, mMaxDistance, segmentEnds, allMiddles );
+		final double sRadius = searchRadius( sCostFunction, sMaxDistance, allMiddles, segmentStarts );
+		final SpaceTimeIndex startIndex = new SpaceTimeIndex( segmentStarts, Math.max( allowGapClosing ? gcMaxDistance : 0., allowSplitting ? sMaxDistance : 0. ) );
+		final SpaceTimeIndex middleIndex = new SpaceTimeIndex( allMiddles, mMaxDistance );
+		final IndexedCostFunction gcCosts = allowGapClosing ? gcCostFunction.indexed( segmentEnds, startIndex.asList() ) : null;
+		final IndexedCostFunction mCosts = allowMerging ? mCostFunction.indexed( segmentEnds, middleIndex.asList() ) : null;
+		final IndexedCostFunction sCosts = allowSplitting ? sCostFunction.indexed( allMiddles, startIndex.asList() ) : null;
 
 		/*
-		 * A. We iterate over all segment ends, targeting 1st the segment starts
-		 * (gap-closing) then the segment middles (merging).
+		 * Sources are numbered: segment ends first, for gap-closing and
+		 * merging, then middle points for splitting. Each chunk of sources
+		 * accumulates its candidates in its own primitive lists. Targets are
+		 * numbered after the start index, then the middle index.
 		 */
 
-		final ExecutorService executorGCM = Threads.newFixedThreadPool( numThreads );
-		for ( final Spot source : segmentEnds )
+		final int nEnds = segmentEnds.size();
+		final int nSources = nEnds + ( allowSplitting ? allMiddles.size() : 0 );
+		final int nStarts = startIndex.size();
+		final int chunkSize = Math.max( MIN_CHUNK_SIZE, ( nSources + numThreads * CHUNKS_PER_THREAD - 1 ) / ( numThreads * CHUNKS_PER_THREAD ) );
+		final int nChunks = ( nSources + chunkSize - 1 ) / chunkSize;
+		final Candidates[] chunks = new Candidates[ nChunks ];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+
+		final List< Callable< Void > > tasks = new ArrayList<>( numThreads );
+		for ( int t = 0; t < numThreads; t++ )
 		{
-			executorGCM.submit( new Runnable()
+			tasks.add( new Callable< Void >()
 			{
 				@Override
-				public void run()
+				public Void call() throws Exception
 				{
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-
-					/*
-					 * Iterate over segment starts - GAP-CLOSING.
-					 */
-
-					if ( allowGapClosing )
-					{
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be within user
-							// specification.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff < 1 || tdiff > maxFrameInterval )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
-							if ( cost > gcCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
-					}
-
-					/*
-					 * Iterate over middle points - MERGING.
-					 */
-
-					if ( allowMerging )
+					final SpaceTimeIndex.Query startQuery = startIndex.query();
+					final SpaceTimeIndex.Query middleQuery = middleIndex.query();
+					for ( int chunk = ai.getAndIncrement(); chunk < nChunks; chunk = ai.getAndIncrement() )
 					{
-						for ( final Spot target : allMiddles )
+						final Candidates candidates = new Candidates();
+						final int from = chunk * chunkSize;
+						final int to = Math.min( nSources, from + chunkSize );
+						for ( int s = from; s < to; s++ )
 						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff != 1 )
+							if ( s < nEnds )
 							{
-								continue;
+								final Spot source = segmentEnds.get( s );
+								final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+
+								/*
+								 * Segment starts - GAP-CLOSING. Frame interval
+								 * must be within user specification.
+								 */
+
+								if ( allowGapClosing )
+								{
+									for ( int tdiff = 1; tdiff <= maxFrameInterval; tdiff++ )
+									{
+										startQuery.find( source, sourceFrame + tdiff, gcRadius );
+										for ( int i = 0; i < startQuery.size(); i++ )
+										{
+											final int target = startQuery.get( i );
+											final double cost = gcCosts.linkingCost( s, target );
+											if ( cost > gcCostThreshold )
+												continue;
+
+											candidates.add( s, target, cost );
+										}
+									}
+								}
+
+								/*
+								 * Middle points - MERGING. Frame interval must
+								 * be 1.
+								 */
+
+								if ( allowMerging )
+								{
+									middleQuery.find( source, sourceFrame + 1, mRadius );
+									for ( int i = 0; i < middleQuery.size(); i++ )
+									{
+										final int target = middleQuery.get( i );
+										final double cost = mCosts.linkingCost( s, target );
+										if ( cost > mCostThreshold )
+											continue;
+
+										candidates.add( s, nStarts + target, cost );
+									}
+								}
 							}
-
-							// Check max distance
-							final double cost = mCostFunction.linkingCost( source, target );
-							if ( cost > mCostThreshold )
+							else
 							{
-								continue;
-							}
 
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								/*
+								 * Middle points targeting segment starts -
+								 * SPLITTING. Frame interval must be 1.
+								 */
+
+								final Spot source = allMiddles.get( s - nEnds );
+								final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+								startQuery.find( source, sourceFrame + 1, sRadius );
+								for ( int i = 0; i < startQuery.size(); i++ )
+								{
+									final int target = startQuery.get( i );
+									final double cost = sCosts.linkingCost( s - nEnds, target );
+									if ( cost > sCostThreshold )
+										continue;
+
+									candidates.add( s, target, cost );
+								}
 							}
 						}
+						chunks[ chunk ] = candidates;
 					}
+					return null;
 				}
 			} );
 		}
-		executorGCM.shutdown();
+
+		final ExecutorService executor = Threads.newFixedThreadPool( numThreads );
 		try
 		{
-			executorGCM.awaitTermination( 1, TimeUnit.DAYS );
+			for ( final Future< Void > future : executor.invokeAll( tasks ) )
+				future.get();
 		}
-		catch ( final InterruptedException e )
+		catch ( final InterruptedException | ExecutionException e )
 		{
 			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
 			return false;
 		}
+		finally
+		{
+			executor.shutdown();
+		}
 
 		/*
-		 * Iterate over middle points targeting segment starts - SPLITTING
+		 * Concatenate the candidates of all chunks, in source order.
 		 */
-		if ( allowSplitting )
-		{
-			final ExecutorService executorS = Threads.newFixedThreadPool( numThreads );
-			for ( final Spot source : allMiddles )
-			{
-				executorS.submit( new Runnable()
-				{
-					@Override
-					public void run()
-					{
-						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
 
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
-							if ( cost > sCostThreshold )
-							{
-								continue;
-							}
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
-					}
-				} );
-			}
-			executorS.shutdown();
-			try
-			{
-				executorS.awaitTermination( 1, TimeUnit.DAYS );
-			}
-			catch ( final InterruptedException e )
+		int nLinks = 0;
+		for ( final Candidates candidates : chunks )
+			nLinks += candidates.costs.size;
+		final List< Spot > sources = new ArrayList<>( nLinks );
+		final List< Spot > targets = new ArrayList<>( nLinks );
+		final double[] linkCosts = new double[ nLinks ];
+		int l = 0;
+		for ( final Candidates candidates : chunks )
+		{
+			for ( int i = 0; i < candidates.costs.size; i++ )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+				final int s = candidates.sources.getQuick( i );
+				final int t = candidates.targets.getQuick( i );
+				sources.add( s < nEnds ? segmentEnds.get( s ) : allMiddles.get( s - nEnds ) );
+				targets.add( t < nStarts ? startIndex.get( t ) : middleIndex.get( t - nStarts ) );
+				linkCosts[ l++ ] = candidates.costs.data[ i ];
 			}
 		}
-		linkCosts.trimToSize();
 
 		/*
 		 * Build a sparse cost matrix from this. If the accepted costs are not
@@ -376,7 +402,7 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		else
 		{
 
-			final DefaultCostMatrixCreator< Spot, Spot > creator = new DefaultCostMatrixCreator<>( sources, targets, linkCosts.data, alternativeCostFactor, percentile );
+			final DefaultCostMatrixCreator< Spot, Spot > creator = new DefaultCostMatrixCreator<>( sources, targets, linkCosts, alternativeCostFactor, percentile );
 			if ( !creator.checkInput() || !creator.process() )
 			{
 				errorMessage = "Linking track segments: " + creator.getErrorMessage();
@@ -412,6 +438,31 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return costFunction;
 	}
 
+	/**
+	 * Returns the radius within which to search candidates for the specified
+	 * cost function. It is the max distance if the cost function never
+	 * returns a cost lower than the square distance for the specified spots,
+	 * and infinity otherwise.
+	 * <p>
+	 * As in the linking cost matrix creator, the max distance is slightly
+	 * enlarged so that rounding errors in the distance computation cannot
+	 * exclude a pair the cost function would accept. Candidates are then
+	 * filtered on their cost.
+	 */
+	private static double searchRadius( final CostFunction< Spot, Spot > costFunction, final double maxDistance, final List< Spot > sources, final List< Spot > targets )
+	{
+		final double radius = maxDistance * ( 1. + 1e-9 );
+		if ( costFunction instanceof SquareDistCostFunction )
+			return radius;
+		if ( costFunction instanceof FeaturePenaltyCostFunction )
+		{
+			final FeaturePenaltyCostFunction fpcf = ( FeaturePenaltyCostFunction ) costFunction;
+			if ( fpcf.isBoundedBySquareDistance( sources ) && fpcf.isBoundedBySquareDistance( targets ) )
+				return radius;
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
 	@Override
 	public SparseCostMatrix getResult()
 	{
@@ -512,4 +563,24 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return numThreads;
 	}
 
+	/**
+	 * Candidate links found for a chunk of sources, as source and target
+	 * numbers.
+	 */
+	private static final class Candidates
+	{
+
+		private final TIntArrayList sources = new TIntArrayList();
+
+		private final TIntArrayList targets = new TIntArrayList();
+
+		private final ResizableDoubleArray costs = new ResizableDoubleArray();
+
+		private void add( final int source, final int target, final double cost )
+		{
+			sources.add( source );
+			targets.add( target );
+			costs.add( cost );
+		}
+	}
 }
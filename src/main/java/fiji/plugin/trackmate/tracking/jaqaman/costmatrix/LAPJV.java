@@ -27,8 +27,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import net.imglib2.algorithm.Benchmark;
-import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 
 /**
@@ -62,7 +60,7 @@ import net.imglib2.util.Util;
  *      Volgenant
  *      "Linear and semi-assignment problems: A core oriented approach"</a>
  */
-public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
+public class LAPJV implements AssignmentSolver
 {
 
 	private static final String BASE_ERROR_MESSAGE = "[JonkerVolgenantSparseAlgorithm] ";
@@ -177,7 +175,7 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		}
 
 		if ( f == 0 )
-			return true;
+			return terminate( x, start );
 
 		/*
 		 * Augmenting row reduction.
@@ -359,10 +357,14 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 			while ( i1 != i );
 		}
 
-		/*
-		 * Terminate and prepare outputs.
-		 */
+		return terminate( x, start );
+	}
 
+	/**
+	 * Terminates and prepares outputs.
+	 */
+	private boolean terminate( final int[] x, final long start )
+	{
 		this.output = new int[ x.length ];
 		for ( int i = 0; i < x.length; i++ )
 		{
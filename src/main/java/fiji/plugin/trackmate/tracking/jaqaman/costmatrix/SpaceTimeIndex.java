@@ -0,0 +1,240 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.SpatialGrid;
+
+/**
+ * An index over a fixed collection of spots, bucketed by frame then by
+ * spatial cell. It is used to retrieve the spots of a given frame that are
+ * within a given distance of a position, without iterating over all the
+ * spots.
+ * <p>
+ * Spots are numbered by the index, in frame order: candidates are returned as
+ * these <code>int</code> numbers, and the spot is retrieved with
+ * {@link #get(int)}. The index is immutable and can be queried concurrently,
+ * each thread using its own {@link Query}.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SpaceTimeIndex
+{
+
+	private final Spot[] spots;
+
+	private final int minFrame;
+
+	/**
+	 * Index of the first spot of each frame (relative to {@link #minFrame})
+	 * in {@link #spots}.
+	 */
+	private final int[] frameStart;
+
+	/** One grid per frame, over the spots of this frame. */
+	private final SpatialGrid[] grids;
+
+	/**
+	 * Creates an index over the specified spots.
+	 *
+	 * @param spots
+	 *            the spots to index. Their {@link Spot#FRAME} feature must be
+	 *            set.
+	 * @param cellSize
+	 *            the cell size of the spatial grids. Best set to the typical
+	 *            search radius.
+	 */
+	public SpaceTimeIndex( final List< Spot > spots, final double cellSize )
+	{
+		final int n = spots.size();
+		final int[] frames = new int[ n ];
+		int lMinFrame = Integer.MAX_VALUE;
+		int lMaxFrame = Integer.MIN_VALUE;
+		for ( int i = 0; i < n; i++ )
+		{
+			frames[ i ] = spots.get( i ).getFeature( Spot.FRAME ).intValue();
+			lMinFrame = Math.min( lMinFrame, frames[ i ] );
+			lMaxFrame = Math.max( lMaxFrame, frames[ i ] );
+		}
+		if ( n == 0 )
+			lMinFrame = lMaxFrame = 0;
+		this.minFrame = lMinFrame;
+		final int nFrames = lMaxFrame - lMinFrame + 1;
+
+		// Counting sort by frame.
+		this.frameStart = new int[ nFrames + 1 ];
+		for ( int i = 0; i < n; i++ )
+			frameStart[ frames[ i ] - minFrame + 1 ]++;
+		for ( int f = 0; f < nFrames; f++ )
+			frameStart[ f + 1 ] += frameStart[ f ];
+		this.spots = new Spot[ n ];
+		final int[] fill = Arrays.copyOf( frameStart, nFrames );
+		for ( int i = 0; i < n; i++ )
+			this.spots[ fill[ frames[ i ] - minFrame ]++ ] = spots.get( i );
+
+		this.grids = new SpatialGrid[ nFrames ];
+		for ( int f = 0; f < nFrames; f++ )
+		{
+			final int start = frameStart[ f ];
+			final int size = frameStart[ f + 1 ] - start;
+			if ( size == 0 )
+				continue;
+			final double[] x = new double[ size ];
+			final double[] y = new double[ size ];
+			final double[] z = new double[ size ];
+			for ( int i = 0; i < size; i++ )
+			{
+				final Spot spot = this.spots[ start + i ];
+				x[ i ] = spot.getDoublePosition( 0 );
+				y[ i ] = spot.getDoublePosition( 1 );
+				z[ i ] = spot.getDoublePosition( 2 );
+			}
+			grids[ f ] = new SpatialGrid( x, y, z, cellSize );
+		}
+	}
+
+	/**
+	 * Returns the spot with the specified number in this index.
+	 *
+	 * @param i
+	 *            the spot number.
+	 * @return the spot.
+	 */
+	public Spot get( final int i )
+	{
+		return spots[ i ];
+	}
+
+	/**
+	 * Returns the spots of this index as a list, in which the index of a spot
+	 * is its number.
+	 *
+	 * @return an unmodifiable list view of the spots.
+	 */
+	public List< Spot > asList()
+	{
+		return Collections.unmodifiableList( Arrays.asList( spots ) );
+	}
+
+	/**
+	 * Returns the number of spots in this index.
+	 *
+	 * @return the number of spots.
+	 */
+	public int size()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns a new query object over this index. Query objects are not
+	 * thread-safe: create one per thread.
+	 *
+	 * @return a new {@link Query}.
+	 */
+	public Query query()
+	{
+		return new Query();
+	}
+
+	/**
+	 * A candidate query over the index. Holds the results of the last query.
+	 */
+	public final class Query
+	{
+
+		private final SpatialGrid.Search[] searches = new SpatialGrid.Search[ grids.length ];
+
+		private SpatialGrid.Search search;
+
+		private int offset;
+
+		private int nFound;
+
+		private Query()
+		{}
+
+		/**
+		 * Finds the candidate spots in the specified frame that are within
+		 * the specified radius of the specified spot. If the radius is
+		 * infinite, all the spots of the frame are returned. The candidates
+		 * are then accessed with {@link #get(int)}, in unspecified order.
+		 *
+		 * @param spot
+		 *            the spot around which to search.
+		 * @param frame
+		 *            the frame to search in.
+		 * @param radius
+		 *            the search radius, inclusive.
+		 * @return the number of candidates found.
+		 */
+		public int find( final Spot spot, final int frame, final double radius )
+		{
+			search = null;
+			nFound = 0;
+			final int f = frame - minFrame;
+			if ( f < 0 || f >= frameStart.length - 1 )
+				return 0;
+
+			offset = frameStart[ f ];
+			if ( Double.isInfinite( radius ) )
+			{
+				nFound = frameStart[ f + 1 ] - offset;
+				return nFound;
+			}
+			if ( null == grids[ f ] )
+				return 0;
+
+			if ( null == searches[ f ] )
+				searches[ f ] = grids[ f ].search();
+			search = searches[ f ];
+			nFound = search.inRadius( spot.getDoublePosition( 0 ), spot.getDoublePosition( 1 ), spot.getDoublePosition( 2 ), radius );
+			return nFound;
+		}
+
+		/**
+		 * Returns the number of the i-th candidate found by the last query.
+		 *
+		 * @param i
+		 *            the candidate index.
+		 * @return the spot number in the index.
+		 */
+		public int get( final int i )
+		{
+			return ( null == search ) ? offset + i : offset + search.get( i );
+		}
+
+		/**
+		 * Returns the number of candidates found by the last query.
+		 *
+		 * @return the number of candidates.
+		 */
+		public int size()
+		{
+			return nFound;
+		}
+	}
+}
@@ -68,6 +68,8 @@ public class AdvancedKalmanTracker implements SpotTracker, Benchmark, Cancelable
 
 	private long processingTime;
 
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
 	private boolean isCanceled;
 
 	private String cancelReason;
@@ -142,6 +144,7 @@ public class AdvancedKalmanTracker implements SpotTracker, Benchmark, Cancelable
 
 		final KalmanTracker kalmanTracker = new KalmanTracker( spots, maxSearchRadius, maxFrameGap, initialSearchRadius, featurePenalties );
 		kalmanTracker.setLogger( logger );
+		kalmanTracker.setNumThreads( numThreads );
 		if ( !kalmanTracker.checkInput() || !kalmanTracker.process() )
 		{
 			errorMessage = kalmanTracker.getErrorMessage();
@@ -173,16 +176,20 @@ public class AdvancedKalmanTracker implements SpotTracker, Benchmark, Cancelable
 
 	@Override
 	public void setNumThreads()
-	{}
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
 
 	@Override
 	public void setNumThreads( final int numThreads )
-	{}
+	{
+		this.numThreads = numThreads;
+	}
 
 	@Override
 	public int getNumThreads()
 	{
-		return 1;
+		return numThreads;
 	}
 
 	@Override
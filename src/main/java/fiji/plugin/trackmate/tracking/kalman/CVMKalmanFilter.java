@@ -21,11 +21,18 @@
  */
 package fiji.plugin.trackmate.tracking.kalman;
 
-import Jama.Matrix;
-
 /**
  * A Kalman filter that deals with a single particle motion in 3D with a
  * constant velocity vector.
+ * <p>
+ * The evolution matrix links position evolution and velocity through
+ * <code><b>x</b>(k+1) = <b>x</b>(k) + <b>v</b> × dt</code>. We assume
+ * <code><b>v</b></code> is constant and measured in unit of frames, so
+ * <code>dt = 1</code>. The process and measurement noises are the same along
+ * X, Y and Z, and the axes are independent. The 6×6 state covariance matrix
+ * is therefore made of 3 identical 2×2 blocks, coupling the position and the
+ * velocity along one axis, and this filter only stores and updates one of
+ * them, on primitive fields.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -33,40 +40,42 @@ import Jama.Matrix;
 public class CVMKalmanFilter
 {
 
-	/**
-	 * The evolution matrix, or state transition matrix. In our case, it is the
-	 * matrix that links position evolution and velocity through
-	 * <code><b>x</b>(k+1) = <b>x</b>(k) + <b>v</b> × dt</code>. We assume
-	 * <code><b>v</b></code> is constant and measured in unit of frames, so
-	 * <code>dt = 1</code>.
+	/** Current state: <code>x, y, z, vx, vy, vz</code>. */
+	private final double[] X = new double[ 6 ];
+
+	/** Prediction. */
+	private final double[] Xp = new double[ 6 ];
+
+	/*
+	 * The a posteriori error covariance matrix, measure the accuracy of the
+	 * state estimate. Position-position, position-velocity,
+	 * velocity-position and velocity-velocity terms of one axis.
 	 */
-	private final Matrix A;
+
+	private double Ppp;
+
+	private double Ppv;
+
+	private double Pvp;
+
+	private double Pvv;
 
 	/**
-	 * The <i>a posteriori</i> error covariance matrix, measure the accuracy of
-	 * the state estimate.
+	 * Variance of the process noise on position. Determine how noisy the
+	 * process is.
 	 */
-	private Matrix P;
+	private final double Qp;
 
 	/**
-	 * Covariance matrix of the process noise. Determine how noisy the process
-	 * is.
+	 * Variance of the process noise on velocity.
 	 */
-	private final Matrix Q;
+	private final double Qv;
 
 	/**
-	 * Covariance matrix of the observation noise. Determine how noisy our
-	 * measurements are.
+	 * Variance of the observation noise. Determine how noisy our measurements
+	 * are.
 	 */
-	private final Matrix R;
-
-	/** Current state. */
-	private Matrix X;
-
-	private final Matrix H;
-
-	/** Prediction. */
-	private Matrix Xp;
+	private final double R;
 
 	/**
 	 * Number of occlusions (no measurements) that happened so far.
@@ -103,30 +112,17 @@ public class CVMKalmanFilter
 	public CVMKalmanFilter( final double[] X0, final double initStateCovariance, final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
 	{
 		// Initial state
-		X = new Matrix( X0, 6 );
-
-		// Evolution matrix
-		A = Matrix.identity( 6, 6 );
-		for ( int i = 0; i < 3; i++ )
-		{
-			A.set( i, 3 + i, 1 );
-		}
-
-		// Measurement matrix
-		H = Matrix.identity( 3, 6 );
+		System.arraycopy( X0, 0, X, 0, 6 );
 
 		// State covariance
-		P = Matrix.identity( 6, 6 ).times( initStateCovariance );
+		Ppp = initStateCovariance;
+		Pvv = initStateCovariance;
 
 		// Process covariance
-		Q = Matrix.identity( 6, 6 );
-		for ( int i = 0; i < 3; i++ )
-		{
-			Q.set( i, i, positionProcessStd * positionProcessStd );
-			Q.set( 3 + i, 3 + i, velocityProcessStd * velocityProcessStd );
-		}
+		Qp = positionProcessStd * positionProcessStd;
+		Qv = velocityProcessStd * velocityProcessStd;
 
-		R = Matrix.identity( 3, 3 ).times( positionMeasurementStd * positionMeasurementStd );
+		R = positionMeasurementStd * positionMeasurementStd;
 	}
 
 	/**
@@ -140,9 +136,20 @@ public class CVMKalmanFilter
 	 */
 	public double[] predict()
 	{
-		Xp = A.times( X );
-		P = A.times( P.times( A.transpose() ) ).plus( Q );
-		return Xp.getColumnPackedCopy();
+		for ( int i = 0; i < 3; i++ )
+		{
+			Xp[ i ] = X[ i ] + X[ 3 + i ];
+			Xp[ 3 + i ] = X[ 3 + i ];
+		}
+
+		// P = A P A' + Q
+		final double PAtpp = Ppp + Ppv;
+		final double PAtvp = Pvp + Pvv;
+		Ppp = PAtpp + PAtvp + Qp;
+		Ppv = Ppv + Pvv;
+		Pvp = PAtvp;
+		Pvv = Pvv + Qv;
+		return Xp.clone();
 	}
 
 	/**
@@ -162,17 +169,26 @@ public class CVMKalmanFilter
 		{
 			// Occlusion.
 			nOcclusion++;
-			X = Xp;
+			System.arraycopy( Xp, 0, X, 0, 6 );
 		}
 		else
 		{
-			final Matrix XM = new Matrix( Xm, 3 );
-			final Matrix TEMP = H.times( P.times( H.transpose() ) ).plus( R );
-			final Matrix K = P.times( H.transpose() ).times( TEMP.inverse() );
+			// Kalman gain, for position and velocity.
+			final double S = 1. / ( Ppp + R );
+			final double Kp = Ppp * S;
+			final double Kv = Pvp * S;
 			// State
-			X = Xp.plus( K.times( XM.minus( H.times( Xp ) ) ) );
-			// Covariance
-			P = ( Matrix.identity( 6, 6 ).minus( K.times( H ) ) ).times( P );
+			for ( int i = 0; i < 3; i++ )
+			{
+				final double innovation = Xm[ i ] - Xp[ i ];
+				X[ i ] = Xp[ i ] + Kp * innovation;
+				X[ 3 + i ] = Xp[ 3 + i ] + Kv * innovation;
+			}
+			// Covariance: P = ( I - K H ) P
+			Pvp = Pvp - Kv * Ppp;
+			Pvv = Pvv - Kv * Ppv;
+			Ppp = ( 1. - Kp ) * Ppp;
+			Ppv = ( 1. - Kp ) * Ppv;
 		}
 	}
 
@@ -184,7 +200,7 @@ public class CVMKalmanFilter
 	 */
 	public double getPositionError()
 	{
-		return Math.sqrt( ( P.get( 0, 0 ) + P.get( 1, 1 ) + P.get( 2, 2 ) ) / 3d );
+		return Math.sqrt( Ppp );
 	}
 
 	/**
@@ -196,7 +212,7 @@ public class CVMKalmanFilter
 	 */
 	public double getVelocityError()
 	{
-		return Math.sqrt( ( P.get( 3, 3 ) + P.get( 4, 4 ) + P.get( 5, 5 ) ) / 3d );
+		return Math.sqrt( Pvv );
 	}
 
 	/**
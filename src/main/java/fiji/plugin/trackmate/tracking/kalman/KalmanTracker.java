@@ -29,6 +29,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
@@ -43,6 +47,7 @@ import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.util.Threads;
 import net.imglib2.algorithm.Benchmark;
 
 public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
@@ -54,6 +59,12 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 
 	private static final String BASE_ERROR_MSG = "[KalmanTracker] ";
 
+	/**
+	 * Below this number of Kalman filters per thread, predictions and updates
+	 * are not worth being run in parallel.
+	 */
+	private static final int MIN_FILTERS_PER_TASK = 1000;
+
 	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
 
 	private String errorMessage;
@@ -80,6 +91,8 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 
 	private String cancelReason;
 
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -210,184 +223,208 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 		meanSpotRadius /= orphanSpots.size();
 		final double positionMeasurementStd = meanSpotRadius / 10d;
 
-		// The master map that contains the currently active KFs.
-		final Map< CVMKalmanFilter, Spot > kalmanFiltersMap = new HashMap<>( orphanSpots.size() );
+		// The currently active KFs.
+		final List< KalmanTrack > tracks = new ArrayList<>( orphanSpots.size() );
+		// Their predictions, reused from one frame to the next.
+		final List< Spot > predictions = new ArrayList<>( orphanSpots.size() );
+		final Map< Spot, KalmanTrack > predictionMap = new HashMap<>( orphanSpots.size() );
 
-		/*
-		 * Then loop over time, starting from second frame.
-		 */
-		int p = 1;
-		for ( int frame = secondFrame; frame <= keySet.last(); frame++ )
+		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
+		try
 		{
-			if ( isCanceled() )
-				return true; // It's ok to be canceled.
-
-			p++;
-
-			// Use the spot in the next frame has measurements.
-			final List< Spot > measurements = generateSpotList( spots, frame );
-
 			/*
-			 * Predict for all Kalman filters, and use it to generate linking
-			 * candidates.
+			 * Then loop over time, starting from second frame.
 			 */
-			final Map< Spot, CVMKalmanFilter > predictionMap = new HashMap<>( kalmanFiltersMap.size() );
-			for ( final CVMKalmanFilter kf : kalmanFiltersMap.keySet() )
+			int p = 1;
+			for ( int frame = secondFrame; frame <= keySet.last(); frame++ )
 			{
-				final double[] X = kf.predict();
-				final Spot s = kalmanFiltersMap.get( kf );
-				final Spot predSpot = new Spot( X[ 0 ], X[ 1 ], X[ 2 ], s.getFeature( Spot.RADIUS ), s.getFeature( Spot.QUALITY ) );
-				// copy the necessary features of original spot to the predicted
-				// spot
-				if ( null != featurePenalties )
-					predSpot.copyFeatures( s, featurePenalties );
-
-				predictionMap.put( predSpot, kf );
+				if ( isCanceled() )
+					return true; // It's ok to be canceled.
 
-				if ( savePredictions )
-				{
-					final Spot pred = new Spot( X[ 0 ], X[ 1 ], X[ 2 ], s.getFeature( Spot.RADIUS ), s.getFeature( Spot.QUALITY ) );
-					pred.setName( "Pred_" + s.getName() );
-					pred.putFeature( Spot.RADIUS, s.getFeature( Spot.RADIUS ) );
-					predictionsCollection.add( predSpot, frame );
-				}
+				p++;
 
-			}
-			final List< Spot > predictions = new ArrayList<>( predictionMap.keySet() );
+				// Use the spot in the next frame has measurements.
+				final List< Spot > measurements = generateSpotList( spots, frame );
 
-			/*
-			 * The KF for which we could not find a measurement in the target
-			 * frame. Is updated later.
-			 */
-			final Collection< CVMKalmanFilter > childlessKFs = new HashSet<>( kalmanFiltersMap.keySet() );
-
-			/*
-			 * Find the global (in space) optimum for associating a prediction
-			 * to a measurement.
-			 */
+				/*
+				 * Predict for all Kalman filters, and use it to generate
+				 * linking candidates.
+				 */
+				if ( !forEach( executors, tracks.size(), i -> tracks.get( i ).predict( featurePenalties ) ) )
+					return false;
 
-			orphanSpots = new HashSet<>( measurements );
-			if ( !predictions.isEmpty() && !measurements.isEmpty() )
-			{
-				// Only link measurements to predictions if we have predictions.
-				final JaqamanLinkingCostMatrixCreator< Spot, Spot > crm = new JaqamanLinkingCostMatrixCreator<>(
-						predictions,
-						measurements,
-						costFunction,
-						maxCost,
-						ALTERNATIVE_COST_FACTOR,
-						PERCENTILE );
-				final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( crm );
-				if ( !linker.checkInput() || !linker.process() )
+				predictions.clear();
+				for ( final KalmanTrack track : tracks )
 				{
-					errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
-					return false;
+					predictions.add( track.prediction );
+					if ( savePredictions )
+					{
+						final Spot pred = new Spot( track.prediction, track.spot.getFeature( Spot.RADIUS ), track.spot.getFeature( Spot.QUALITY ) );
+						pred.setName( "Pred_" + track.spot.getName() );
+						predictionsCollection.add( pred, frame );
+					}
 				}
-				final Map< Spot, Spot > agnts = linker.getResult();
-				final Map< Spot, Double > costs = linker.getAssignmentCosts();
-				// Deal with found links.
-				for ( final Spot spotty : agnts.keySet() )
-				{
-					final CVMKalmanFilter kf = predictionMap.get( spotty );
-
-					// Create links for found match.
-					final Spot source = kalmanFiltersMap.get( kf );
-					final Spot target = agnts.get( spotty );
 
-					graph.addVertex( source );
-					graph.addVertex( target );
-					final DefaultWeightedEdge edge = graph.addEdge( source, target );
-					final double cost = costs.get( spotty );
-					graph.setEdgeWeight( edge, cost );
-
-					// Update Kalman filter
-					kf.update( toMeasurement( target ) );
-
-					// Update Kalman track spot
-					kalmanFiltersMap.put( kf, target );
-
-					// Remove from orphan set
-					orphanSpots.remove( target );
+				/*
+				 * Find the global (in space) optimum for associating a
+				 * prediction to a measurement.
+				 */
 
-					// Remove from childless KF set
-					childlessKFs.remove( kf );
+				orphanSpots = new HashSet<>( measurements );
+				if ( !predictions.isEmpty() && !measurements.isEmpty() )
+				{
+					// Only link measurements to predictions if we have
+					// predictions.
+					final double searchRadius = isBoundedBySquareDistance( costFunction, predictions, measurements )
+							? maxSearchRadius
+							: Double.POSITIVE_INFINITY;
+					final JaqamanLinkingCostMatrixCreator< Spot, Spot > crm = new JaqamanLinkingCostMatrixCreator<>(
+							predictions,
+							measurements,
+							costFunction,
+							maxCost,
+							ALTERNATIVE_COST_FACTOR,
+							PERCENTILE,
+							searchRadius );
+					final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( crm );
+					if ( !linker.checkInput() || !linker.process() )
+					{
+						errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
+						return false;
+					}
+					final List< Spot > sourceList = linker.getSourceList();
+					final List< Spot > targetList = linker.getTargetList();
+					final int[] linkSources = linker.getLinkSources();
+					final int[] linkTargets = linker.getLinkTargets();
+					final double[] linkCosts = linker.getLinkCosts();
+					// Deal with found links.
+					for ( int l = 0; l < linkSources.length; l++ )
+					{
+						final KalmanTrack track = predictionMap.get( sourceList.get( linkSources[ l ] ) );
+
+						// Create links for found match.
+						final Spot source = track.spot;
+						final Spot target = targetList.get( linkTargets[ l ] );
+
+						graph.addVertex( source );
+						graph.addVertex( target );
+						final DefaultWeightedEdge edge = graph.addEdge( source, target );
+						graph.setEdgeWeight( edge, linkCosts[ l ] );
+
+						// Kalman filter is updated below.
+						track.measurement = target;
+
+						// Remove from orphan set
+						orphanSpots.remove( target );
+					}
 				}
-			}
-
-			/*
-			 * Deal with orphans from the previous frame. (We deal with orphans
-			 * from previous frame only now because we want to link in priority
-			 * target spots to predictions. Nucleating new KF from nearest
-			 * neighbor only comes second.
-			 */
-			if ( !previousOrphanSpots.isEmpty() && !orphanSpots.isEmpty() )
-			{
 
 				/*
-				 * We now deal with orphans of the previous frame. We try to
-				 * find them a target from the list of spots that are not
-				 * already part of a link created via KF. That is: the orphan
-				 * spots of this frame.
+				 * Update all the Kalman filters. The ones for which we could
+				 * not find a measurement in the target frame use their
+				 * prediction.
 				 */
+				if ( !forEach( executors, tracks.size(), i -> tracks.get( i ).update() ) )
+					return false;
 
-				final JaqamanLinkingCostMatrixCreator< Spot, Spot > ic = new JaqamanLinkingCostMatrixCreator<>(
-						previousOrphanSpots,
-						orphanSpots,
-						nucleatingCostFunction,
-						maxInitialCost,
-						ALTERNATIVE_COST_FACTOR,
-						PERCENTILE );
-				final JaqamanLinker< Spot, Spot > newLinker = new JaqamanLinker<>( ic );
-				if ( !newLinker.checkInput() || !newLinker.process() )
+				int nAlive = 0;
+				for ( final KalmanTrack track : tracks )
 				{
-					errorMessage = BASE_ERROR_MSG + "Error linking spots from frame " + ( frame - 1 ) + " to frame " + frame + ": " + newLinker.getErrorMessage();
-					return false;
+					if ( null != track.measurement )
+					{
+						// Update Kalman track spot
+						track.spot = track.measurement;
+						track.measurement = null;
+					}
+					/*
+					 * We can bridge a limited number of gaps. If too much, we
+					 * die. If not, we will use predicted state next time.
+					 */
+					else if ( track.filter.getNOcclusion() > maxFrameGap )
+					{
+						predictionMap.remove( track.prediction );
+						continue;
+					}
+					tracks.set( nAlive++, track );
 				}
-				final Map< Spot, Spot > newAssignments = newLinker.getResult();
-				final Map< Spot, Double > assignmentCosts = newLinker.getAssignmentCosts();
+				tracks.subList( nAlive, tracks.size() ).clear();
 
-				// Build links and new KFs from these links.
-				for ( final Spot source : newAssignments.keySet() )
+				/*
+				 * Deal with orphans from the previous frame. (We deal with
+				 * orphans from previous frame only now because we want to
+				 * link in priority target spots to predictions. Nucleating new
+				 * KF from nearest neighbor only comes second.
+				 */
+				if ( !previousOrphanSpots.isEmpty() && !orphanSpots.isEmpty() )
 				{
-					final Spot target = newAssignments.get( source );
-
-					// Remove from orphan collection.
-					orphanSpots.remove( target );
-
-					// Derive initial state and create Kalman filter.
-					final double[] XP = estimateInitialState( source, target );
-					final CVMKalmanFilter kt = new CVMKalmanFilter( XP, Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
-					// We trust the initial state a lot.
-
-					// Store filter and source
-					kalmanFiltersMap.put( kt, target );
 
-					// Add edge to the graph.
-					graph.addVertex( source );
-					graph.addVertex( target );
-					final DefaultWeightedEdge edge = graph.addEdge( source, target );
-					final double cost = assignmentCosts.get( source );
-					graph.setEdgeWeight( edge, cost );
+					/*
+					 * We now deal with orphans of the previous frame. We try to
+					 * find them a target from the list of spots that are not
+					 * already part of a link created via KF. That is: the
+					 * orphan spots of this frame.
+					 */
+
+					final List< Spot > sources = new ArrayList<>( previousOrphanSpots );
+					final List< Spot > targets = new ArrayList<>( orphanSpots );
+					final double searchRadius = isBoundedBySquareDistance( nucleatingCostFunction, sources, targets )
+							? initialSearchRadius
+							: Double.POSITIVE_INFINITY;
+					final JaqamanLinkingCostMatrixCreator< Spot, Spot > ic = new JaqamanLinkingCostMatrixCreator<>(
+							sources,
+							targets,
+							nucleatingCostFunction,
+							maxInitialCost,
+							ALTERNATIVE_COST_FACTOR,
+							PERCENTILE,
+							searchRadius );
+					final JaqamanLinker< Spot, Spot > newLinker = new JaqamanLinker<>( ic );
+					if ( !newLinker.checkInput() || !newLinker.process() )
+					{
+						errorMessage = BASE_ERROR_MSG + "Error linking spots from frame " + ( frame - 1 ) + " to frame " + frame + ": " + newLinker.getErrorMessage();
+						return false;
+					}
+					final List< Spot > sourceList = newLinker.getSourceList();
+					final List< Spot > targetList = newLinker.getTargetList();
+					final int[] linkSources = newLinker.getLinkSources();
+					final int[] linkTargets = newLinker.getLinkTargets();
+					final double[] linkCosts = newLinker.getLinkCosts();
+
+					// Build links and new KFs from these links.
+					for ( int l = 0; l < linkSources.length; l++ )
+					{
+						final Spot source = sourceList.get( linkSources[ l ] );
+						final Spot target = targetList.get( linkTargets[ l ] );
+
+						// Remove from orphan collection.
+						orphanSpots.remove( target );
+
+						// Derive initial state and create Kalman filter.
+						final double[] XP = estimateInitialState( source, target );
+						final CVMKalmanFilter kt = new CVMKalmanFilter( XP, Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+						// We trust the initial state a lot.
+
+						// Store filter and source
+						final KalmanTrack track = new KalmanTrack( kt, target );
+						tracks.add( track );
+						predictionMap.put( track.prediction, track );
+
+						// Add edge to the graph.
+						graph.addVertex( source );
+						graph.addVertex( target );
+						final DefaultWeightedEdge edge = graph.addEdge( source, target );
+						graph.setEdgeWeight( edge, linkCosts[ l ] );
+					}
 				}
-			}
-			previousOrphanSpots = orphanSpots;
-
-			// Deal with childless KFs.
-			for ( final CVMKalmanFilter kf : childlessKFs )
-			{
-				// Echo we missed a measurement
-				kf.update( null );
+				previousOrphanSpots = orphanSpots;
 
-				/*
-				 * We can bridge a limited number of gaps. If too much, we die.
-				 * If not, we will use predicted state next time.
-				 */
-				if ( kf.getNOcclusion() > maxFrameGap )
-					kalmanFiltersMap.remove( kf );
+				final double progress = ( double ) p / keySet.size();
+				logger.setProgress( progress );
 			}
-
-			final double progress = ( double ) p / keySet.size();
-			logger.setProgress( progress );
+		}
+		finally
+		{
+			executors.shutdown();
 		}
 
 		if ( savePredictions )
@@ -430,16 +467,20 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 
 	@Override
 	public void setNumThreads()
-	{}
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
 
 	@Override
 	public void setNumThreads( final int numThreads )
-	{}
+	{
+		this.numThreads = numThreads;
+	}
 
 	@Override
 	public int getNumThreads()
 	{
-		return 1;
+		return numThreads;
 	}
 
 	@Override
@@ -477,6 +518,44 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 		return xp;
 	}
 
+	/**
+	 * Runs the specified action on the integers from 0 to <code>n</code>,
+	 * split in blocks processed in parallel.
+	 */
+	private boolean forEach( final ExecutorService executors, final int n, final IntConsumer action )
+	{
+		final int nTasks = Math.min( numThreads, n / MIN_FILTERS_PER_TASK );
+		if ( nTasks <= 1 )
+		{
+			for ( int i = 0; i < n; i++ )
+				action.accept( i );
+			return true;
+		}
+
+		final List< Future< ? > > futures = new ArrayList<>( nTasks );
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final int from = ( int ) ( ( long ) n * t / nTasks );
+			final int to = ( int ) ( ( long ) n * ( t + 1 ) / nTasks );
+			futures.add( executors.submit( () -> {
+				for ( int i = from; i < to; i++ )
+					action.accept( i );
+			} ) );
+		}
+		try
+		{
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MSG + e.getMessage();
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
 	private static final List< Spot > generateSpotList( final SpotCollection spots, final int frame )
 	{
 		final List< Spot > list = new ArrayList<>( spots.getNSpots( frame, true ) );
@@ -501,6 +580,66 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 		return new FeaturePenaltyCostFunction( featurePenalties );
 	}
 
+	/**
+	 * Returns <code>true</code> if the specified cost function never returns
+	 * a cost lower than the square distance between the specified sources and
+	 * targets. Candidates can then be searched within the search radius only.
+	 */
+	private static boolean isBoundedBySquareDistance( final CostFunction< Spot, Spot > costFunction, final List< Spot > sources, final List< Spot > targets )
+	{
+		if ( costFunction instanceof SquareDistCostFunction )
+			return true;
+		if ( costFunction instanceof FeaturePenaltyCostFunction )
+		{
+			final FeaturePenaltyCostFunction fpcf = ( FeaturePenaltyCostFunction ) costFunction;
+			return fpcf.isBoundedBySquareDistance( sources ) && fpcf.isBoundedBySquareDistance( targets );
+		}
+		return false;
+	}
+
+	/**
+	 * A Kalman filter and the track it follows.
+	 */
+	private static final class KalmanTrack
+	{
+
+		private final CVMKalmanFilter filter;
+
+		/** The last spot of the track. */
+		private Spot spot;
+
+		/** The predicted position, updated in place at each frame. */
+		private final Spot prediction;
+
+		/** The spot linked to the prediction in the current frame, if any. */
+		private Spot measurement;
+
+		private KalmanTrack( final CVMKalmanFilter filter, final Spot spot )
+		{
+			this.filter = filter;
+			this.spot = spot;
+			this.prediction = new Spot( spot, spot.getFeature( Spot.RADIUS ), spot.getFeature( Spot.QUALITY ) );
+		}
+
+		private void predict( final Map< String, Double > featurePenalties )
+		{
+			final double[] X = filter.predict();
+			for ( int d = 0; d < 3; d++ )
+				prediction.putFeature( Spot.POSITION_FEATURES[ d ], Double.valueOf( X[ d ] ) );
+			prediction.putFeature( Spot.RADIUS, spot.getFeature( Spot.RADIUS ) );
+			prediction.putFeature( Spot.QUALITY, spot.getFeature( Spot.QUALITY ) );
+			// copy the necessary features of original spot to the predicted
+			// spot
+			if ( null != featurePenalties )
+				prediction.copyFeatures( spot, featurePenalties );
+		}
+
+		private void update()
+		{
+			filter.update( null == measurement ? null : toMeasurement( measurement ) );
+		}
+	}
+
 	// --- org.scijava.Cancelable methods ---
 
 	@Override
@@ -44,12 +44,12 @@ import org.scijava.Cancelable;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.graph.GraphLinkBuilder;
 import fiji.plugin.trackmate.graph.GraphUtils;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.SpatialGrid;
 import fiji.plugin.trackmate.util.Threads;
-import net.imglib2.KDTree;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 
 public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, Cancelable
 {
@@ -106,9 +106,12 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 		reset();
 
 		final double maxLinkingDistance = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
-		final double maxDistSquare = maxLinkingDistance * maxLinkingDistance;
 		final TreeSet< Integer > frames = new TreeSet<>( spots.keySet() );
 
+		// Each frame pair writes its links to its own buffer.
+		final int nPairs = Math.max( 0, frames.last() - frames.first() );
+		final GraphLinkBuilder< Spot > links = new GraphLinkBuilder<>( nPairs );
+
 		// Prepare executors.
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
@@ -116,6 +119,7 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 		for ( int i = frames.first(); i < frames.last(); i++ )
 		{
 			final int frame = i;
+			final int index = i - frames.first();
 			final Future< Void > future = executors.submit( new Callable< Void >()
 			{
 
@@ -130,69 +134,81 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 					final int targetFrame = frames.higher( frame );
 
 					final int nTargetSpots = spots.getNSpots( targetFrame, true );
-					if ( nTargetSpots < 1 )
+					final int nSourceSpots = spots.getNSpots( sourceFrame, true );
+					if ( nTargetSpots < 1 || nSourceSpots < 1 )
 					{
 						logger.setProgress( progress.incrementAndGet() / ( double ) frames.size() );
 						return null;
 					}
 
 					/*
-					 * Create kD-Tree and NN search.
+					 * Index the target spots in a grid, for radius searches
+					 * bounded by the max linking distance.
+					 */
+					final List< Spot > targets = new ArrayList<>( nTargetSpots );
+					for ( final Iterator< Spot > it = spots.iterator( targetFrame, true ); it.hasNext(); )
+						targets.add( it.next() );
+					final double[] x = new double[ nTargetSpots ];
+					final double[] y = new double[ nTargetSpots ];
+					final double[] z = new double[ nTargetSpots ];
+					for ( int t = 0; t < nTargetSpots; t++ )
+					{
+						final Spot target = targets.get( t );
+						x[ t ] = target.getDoublePosition( 0 );
+						y[ t ] = target.getDoublePosition( 1 );
+						z[ t ] = target.getDoublePosition( 2 );
+					}
+					final SpatialGrid.Search search = new SpatialGrid( x, y, z, maxLinkingDistance ).search();
+
+					final List< Spot > sources = new ArrayList<>( nSourceSpots );
+					for ( final Iterator< Spot > it = spots.iterator( sourceFrame, true ); it.hasNext(); )
+						sources.add( it.next() );
+
+					/*
+					 * Targets already linked. The target frame only belongs
+					 * to this frame pair, so this is local to the task.
 					 */
-					final Iterable< Spot > targetSpots = spots.iterable( targetFrame, true );
-					final KDTree< Spot > tree = new KDTree< Spot >( nTargetSpots, targetSpots, targetSpots );
-					final KNearestNeighborSearchOnKDTree< Spot > search = new KNearestNeighborSearchOnKDTree<>( tree, nTargetSpots );
+					final boolean[] taken = new boolean[ nTargetSpots ];
+					final GraphLinkBuilder.Links< Spot > buffer = links.links( index, sources, targets, Math.min( nSourceSpots, nTargetSpots ) );
 
 					/*
-					 * For each spot in the source frame, find its nearest
-					 * neighbor in the target frame.
+					 * For each spot in the source frame, link it to its
+					 * nearest neighbor in the target frame that is within the
+					 * max distance and has no incoming link yet.
 					 */
-					final Iterator< Spot > sourceIt = spots.iterator( sourceFrame, true );
-					SOURCE: while ( sourceIt.hasNext() )
+					for ( int sourceSlot = 0; sourceSlot < nSourceSpots; sourceSlot++ )
 					{
-						final Spot source = sourceIt.next();
-						search.search( source );
-
-						/*
-						 * Loop over target spots in nearest neighbor order.
-						 */
-						int iNeighbor = -1;
-						TARGET: while ( ++iNeighbor < nTargetSpots )
+						final Spot source = sources.get( sourceSlot );
+						final int nFound = search.inRadius(
+								source.getDoublePosition( 0 ),
+								source.getDoublePosition( 1 ),
+								source.getDoublePosition( 2 ),
+								maxLinkingDistance );
+
+						int bestSlot = -1;
+						double bestSquareDist = Double.POSITIVE_INFINITY;
+						for ( int i = 0; i < nFound; i++ )
 						{
-							/*
-							 * Is the closest we could find too far? If yes, we
-							 * skip this source spot and do not create a link.
-							 */
-							final double squareDist = search.getSquareDistance( iNeighbor );
-							if ( squareDist > maxDistSquare )
-								continue SOURCE;
-
-							/*
-							 * Is the closest one already taken? Has it already
-							 * an incoming edge?
-							 */
-							final Spot target = search.getSampler( iNeighbor ).get();
-							if ( graph.inDegreeOf( target ) > 0 )
+							final int targetSlot = search.get( i );
+							if ( taken[ targetSlot ] )
+								continue;
+
+							// Ties go to the lowest slot, whatever the search
+							// order.
+							final double squareDist = search.squareDistance( i );
+							if ( squareDist < bestSquareDist || ( squareDist == bestSquareDist && targetSlot < bestSlot ) )
 							{
-								/*
-								 * In that case we need to test the next nearest
-								 * neighbor (next target spot).
-								 */
-								continue TARGET;
+								bestSquareDist = squareDist;
+								bestSlot = targetSlot;
 							}
-
-							/*
-							 * Everything is ok. This node is free and below max
-							 * dist. We create a link and loop to the next
-							 * source spot.
-							 */
-							synchronized ( graph )
-							{
-								final DefaultWeightedEdge edge = graph.addEdge( source, target );
-								graph.setEdgeWeight( edge, squareDist );
-							}
-							break TARGET;
 						}
+
+						// Nothing free below max dist: no link for this source.
+						if ( bestSlot < 0 )
+							continue;
+
+						taken[ bestSlot ] = true;
+						buffer.add( sourceSlot, bestSlot, bestSquareDist );
 					}
 					logger.setProgress( progress.incrementAndGet() / ( double ) frames.size() );
 					return null;
@@ -210,6 +226,9 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 				future.get();
 
 			executors.shutdown();
+
+			// Merge links in the graph, in frame order.
+			links.addTo( graph );
 		}
 		catch ( InterruptedException | ExecutionException e )
 		{
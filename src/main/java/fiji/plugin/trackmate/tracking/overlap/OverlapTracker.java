@@ -25,8 +25,6 @@ import static fiji.plugin.trackmate.tracking.overlap.OverlapTrackerFactory.BASE_
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -44,14 +42,16 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.graph.GraphLinkBuilder;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.SpatialGrid;
 import fiji.plugin.trackmate.util.Threads;
 import math.geom2d.AffineTransform2D;
+import math.geom2d.Box2D;
 import math.geom2d.Point2D;
 import math.geom2d.conic.Circle2D;
 import math.geom2d.polygon.Polygon2D;
 import math.geom2d.polygon.Polygons2D;
-import math.geom2d.polygon.Rectangle2D;
 import math.geom2d.polygon.SimplePolygon2D;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -180,8 +180,8 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 
 		final long start = System.currentTimeMillis();
 
-		// Instantiate graph
-		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		// Each frame pair writes its links to its own buffer.
+		final GraphLinkBuilder< Spot > links = new GraphLinkBuilder<>( Math.max( 0, spots.keySet().size() - 1 ) );
 
 		// Flag if we are doing ok.
 		final AtomicBoolean ok = new AtomicBoolean( true );
@@ -191,48 +191,58 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 
 		// First frame.
 		final int sourceFrame = frameIterator.next();
-		Map< Spot, Polygon2D > sourceGeometries = createGeometry( spots.iterable( sourceFrame, true ), method, enlargeFactor );
+		Geometries sourceGeometries = new Geometries( spots.iterable( sourceFrame, true ), method, enlargeFactor );
+
+		// One pool for all the frame pairs.
+		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
 
 		logger.setStatus( "Frame to frame linking..." );
 		int progress = 0;
+		int index = -1;
 		while ( frameIterator.hasNext() )
 		{
 			if ( !ok.get() || isCanceled() )
 				break;
 
 			final int targetFrame = frameIterator.next();
-			final Map< Spot, Polygon2D > targetGeometries = createGeometry( spots.iterable( targetFrame, true ), method, enlargeFactor );
+			final Geometries targetGeometries = new Geometries( spots.iterable( targetFrame, true ), method, enlargeFactor );
+			index++;
 
-			if ( sourceGeometries.isEmpty() || targetGeometries.isEmpty() )
+			if ( sourceGeometries.size() == 0 || targetGeometries.size() == 0 )
 				continue;
 
-			final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
-			final List< Future< IoULink > > futures = new ArrayList<>();
+			// Links are stored as slots in the spot lists.
+			final GraphLinkBuilder.Links< Spot > buffer = links.links( index, sourceGeometries.spots, targetGeometries.spots, targetGeometries.size() );
+
+			// Candidate sources are searched around the center of their
+			// bounding-box.
+			final SpatialGrid grid = sourceGeometries.grid();
+			final int nTasks = Math.min( numThreads, targetGeometries.size() );
+			final List< Future< IoULink[] > > futures = new ArrayList<>( nTasks );
 
 			// Submit work.
-			for ( final Spot target : targetGeometries.keySet() )
+			for ( int i = 0; i < nTasks; i++ )
 			{
-				final Polygon2D targetPoly = targetGeometries.get( target );
-				futures.add( executors.submit( new FindBestSourceTask( target, targetPoly, sourceGeometries, minIoU ) ) );
+				final int from = ( int ) ( ( long ) targetGeometries.size() * i / nTasks );
+				final int to = ( int ) ( ( long ) targetGeometries.size() * ( i + 1 ) / nTasks );
+				futures.add( executors.submit( new FindBestSourceTask( from, to, targetGeometries, sourceGeometries, grid, minIoU ) ) );
 			}
 
 			// Get results.
-			for ( final Future< IoULink > future : futures )
+			for ( final Future< IoULink[] > future : futures )
 			{
 				if ( !ok.get() || isCanceled() )
 					break;
 
 				try
 				{
-					final IoULink link = future.get();
-					if ( link.source == null )
-						continue;
-
-					graph.addVertex( link.source );
-					graph.addVertex( link.target );
-					final DefaultWeightedEdge edge = graph.addEdge( link.source, link.target );
-					graph.setEdgeWeight( edge, 1. - link.iou );
+					for ( final IoULink link : future.get() )
+					{
+						if ( link.sourceSlot < 0 )
+							continue;
 
+						buffer.add( link.sourceSlot, link.targetSlot, 1. - link.iou );
+					}
 				}
 				catch ( InterruptedException | ExecutionException e )
 				{
@@ -240,11 +250,15 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 					ok.set( false );
 				}
 			}
-			executors.shutdown();
 
 			sourceGeometries = targetGeometries;
 			logger.setProgress( ( double ) progress++ / spots.keySet().size() );
 		}
+		executors.shutdown();
+
+		// Merge links in the graph, in frame order.
+		graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		links.addTo( graph );
 
 		logger.setProgress( 1d );
 		logger.setStatus( "" );
@@ -273,27 +287,6 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 		return ok;
 	}
 
-	private static Map< Spot, Polygon2D > createGeometry( final Iterable< Spot > spots, final IoUCalculation method, final double scale )
-	{
-		final Map< Spot, Polygon2D > geometries = new HashMap<>();
-		switch ( method )
-		{
-		case FAST:
-			for ( final Spot spot : spots )
-				geometries.put( spot, toBoundingBox( spot, scale ) );
-			break;
-
-		case PRECISE:
-			for ( final Spot spot : spots )
-				geometries.put( spot, toPolygon( spot, scale ) );
-			break;
-
-		default:
-			throw new IllegalArgumentException( "Do not know how to compute IoU for method " + method );
-		}
-		return Collections.unmodifiableMap( geometries );
-	}
-
 	private static SimplePolygon2D toPolygon( final Spot spot, final double scale )
 	{
 		final double xc = spot.getDoublePosition( 0 );
@@ -314,82 +307,219 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 		return poly.transform( AffineTransform2D.createScaling( new Point2D( xc, yc ), scale, scale ) );
 	}
 
-	private static Rectangle2D toBoundingBox( final Spot spot, final double scale )
+	/**
+	 * The geometries of the spots of one frame: their bounding-boxes, and
+	 * their polygons for the {@link IoUCalculation#PRECISE} method. The
+	 * {@link IoUCalculation#FAST} method works on the bounding-boxes alone.
+	 */
+	private static final class Geometries
 	{
-		final double xc = spot.getDoublePosition( 0 );
-		final double yc = spot.getDoublePosition( 1 );
-		final SpotRoi roi = spot.getRoi();
-		if ( roi == null )
+
+		private final List< Spot > spots = new ArrayList<>();
+
+		/** Polygons, <code>null</code> for the FAST method. */
+		private final List< Polygon2D > polygons;
+
+		private final double[] minX;
+
+		private final double[] maxX;
+
+		private final double[] minY;
+
+		private final double[] maxY;
+
+		private final double[] areas;
+
+		private double maxWidth;
+
+		private double maxHeight;
+
+		private Geometries( final Iterable< Spot > iterable, final IoUCalculation method, final double scale )
 		{
-			final double radius = spot.getFeature( Spot.RADIUS ).doubleValue() * scale;
-			return new Rectangle2D( xc - radius, yc - radius, 2 * radius, 2 * radius );
+			for ( final Spot spot : iterable )
+				spots.add( spot );
+
+			final int n = spots.size();
+			minX = new double[ n ];
+			maxX = new double[ n ];
+			minY = new double[ n ];
+			maxY = new double[ n ];
+			areas = new double[ n ];
+			switch ( method )
+			{
+			case FAST:
+				polygons = null;
+				for ( int i = 0; i < n; i++ )
+				{
+					setBoundingBox( i, spots.get( i ), scale );
+					areas[ i ] = ( maxX[ i ] - minX[ i ] ) * ( maxY[ i ] - minY[ i ] );
+				}
+				break;
+
+			case PRECISE:
+				polygons = new ArrayList<>( n );
+				for ( int i = 0; i < n; i++ )
+				{
+					final SimplePolygon2D polygon = toPolygon( spots.get( i ), scale );
+					polygons.add( polygon );
+					final Box2D box = polygon.boundingBox();
+					minX[ i ] = box.getMinX();
+					maxX[ i ] = box.getMaxX();
+					minY[ i ] = box.getMinY();
+					maxY[ i ] = box.getMaxY();
+					areas[ i ] = Math.abs( polygon.area() );
+				}
+				break;
+
+			default:
+				throw new IllegalArgumentException( "Do not know how to compute IoU for method " + method );
+			}
+
+			for ( int i = 0; i < n; i++ )
+			{
+				maxWidth = Math.max( maxWidth, maxX[ i ] - minX[ i ] );
+				maxHeight = Math.max( maxHeight, maxY[ i ] - minY[ i ] );
+			}
 		}
-		else
+
+		private void setBoundingBox( final int i, final Spot spot, final double scale )
 		{
-			final double minX = Arrays.stream( roi.x ).min().getAsDouble() * scale;
-			final double maxX = Arrays.stream( roi.x ).max().getAsDouble() * scale;
-			final double minY = Arrays.stream( roi.y ).min().getAsDouble() * scale;
-			final double maxY = Arrays.stream( roi.y ).max().getAsDouble() * scale;
-			return new Rectangle2D( xc + minX, yc + minY, maxX - minX, maxY - minY );
+			final double xc = spot.getDoublePosition( 0 );
+			final double yc = spot.getDoublePosition( 1 );
+			final SpotRoi roi = spot.getRoi();
+			if ( roi == null )
+			{
+				final double radius = spot.getFeature( Spot.RADIUS ).doubleValue() * scale;
+				minX[ i ] = xc - radius;
+				maxX[ i ] = xc + radius;
+				minY[ i ] = yc - radius;
+				maxY[ i ] = yc + radius;
+			}
+			else
+			{
+				minX[ i ] = xc + Arrays.stream( roi.x ).min().getAsDouble() * scale;
+				maxX[ i ] = xc + Arrays.stream( roi.x ).max().getAsDouble() * scale;
+				minY[ i ] = yc + Arrays.stream( roi.y ).min().getAsDouble() * scale;
+				maxY[ i ] = yc + Arrays.stream( roi.y ).max().getAsDouble() * scale;
+			}
+		}
+
+		private int size()
+		{
+			return spots.size();
+		}
+
+		/**
+		 * Returns a grid index over the centers of the bounding-boxes.
+		 */
+		private SpatialGrid grid()
+		{
+			final int n = size();
+			final double[] x = new double[ n ];
+			final double[] y = new double[ n ];
+			final double[] z = new double[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				x[ i ] = 0.5 * ( minX[ i ] + maxX[ i ] );
+				y[ i ] = 0.5 * ( minY[ i ] + maxY[ i ] );
+			}
+			return new SpatialGrid( x, y, z, Math.max( Math.max( maxWidth, maxHeight ), Double.MIN_NORMAL ) );
 		}
 	}
 
-	private static final class FindBestSourceTask implements Callable< IoULink >
+	private static final class FindBestSourceTask implements Callable< IoULink[] >
 	{
 
-		private final Spot target;
+		private final int from;
+
+		private final int to;
+
+		private final Geometries targets;
 
-		private final Polygon2D targetPoly;
+		private final Geometries sources;
 
-		private final Map< Spot, Polygon2D > sourceGeometries;
+		private final SpatialGrid grid;
 
 		private final double minIoU;
 
-		public FindBestSourceTask( final Spot target, final Polygon2D targetPoly, final Map< Spot, Polygon2D > sourceGeometries, final double minIoU )
+		public FindBestSourceTask( final int from, final int to, final Geometries targets, final Geometries sources, final SpatialGrid grid, final double minIoU )
 		{
-			this.target = target;
-			this.targetPoly = targetPoly;
-			this.sourceGeometries = sourceGeometries;
+			this.from = from;
+			this.to = to;
+			this.targets = targets;
+			this.sources = sources;
+			this.grid = grid;
 			this.minIoU = minIoU;
 		}
 
 		@Override
-		public IoULink call() throws Exception
+		public IoULink[] call() throws Exception
 		{
-			final double targetArea = Math.abs( targetPoly.area() );
-			double maxIoU = minIoU;
-			Spot bestSpot = null;
-			for ( final Spot spot : sourceGeometries.keySet() )
+			final SpatialGrid.Search search = grid.search();
+			final IoULink[] links = new IoULink[ to - from ];
+			for ( int t = from; t < to; t++ )
 			{
-				final Polygon2D sourcePoly = sourceGeometries.get( spot );
-				final double intersection = Math.abs( Polygons2D.intersection( targetPoly, sourcePoly ).area() );
-				if ( intersection == 0. )
-					continue;
-
-				final double union = Math.abs( sourcePoly.area() ) + targetArea - intersection;
-				final double iou = intersection / union;
-				if ( iou > maxIoU )
+				/*
+				 * Two bounding-boxes can only intersect if their centers are
+				 * closer than the half sum of their sizes along X and Y.
+				 */
+				final double rx = 0.5 * ( targets.maxX[ t ] - targets.minX[ t ] + sources.maxWidth );
+				final double ry = 0.5 * ( targets.maxY[ t ] - targets.minY[ t ] + sources.maxHeight );
+				final int nFound = search.inRadius(
+						0.5 * ( targets.minX[ t ] + targets.maxX[ t ] ),
+						0.5 * ( targets.minY[ t ] + targets.maxY[ t ] ),
+						0.,
+						Math.sqrt( rx * rx + ry * ry ) );
+
+				double maxIoU = minIoU;
+				int bestSlot = -1;
+				for ( int i = 0; i < nFound; i++ )
 				{
-					maxIoU = iou;
-					bestSpot = spot;
+					final int s = search.get( i );
+					final double iou = iou( s, t );
+					// Ties go to the lowest slot, whatever the search order.
+					if ( iou > maxIoU || ( iou == maxIoU && bestSlot >= 0 && s < bestSlot ) )
+					{
+						maxIoU = iou;
+						bestSlot = s;
+					}
 				}
+				links[ t - from ] = new IoULink( bestSlot, t, maxIoU );
 			}
-			return new IoULink( bestSpot, target, maxIoU );
+			return links;
+		}
+
+		private double iou( final int s, final int t )
+		{
+			final double width = Math.min( sources.maxX[ s ], targets.maxX[ t ] ) - Math.max( sources.minX[ s ], targets.minX[ t ] );
+			final double height = Math.min( sources.maxY[ s ], targets.maxY[ t ] ) - Math.max( sources.minY[ s ], targets.minY[ t ] );
+			if ( width <= 0. || height <= 0. )
+				return 0.;
+
+			// The FAST method works on the bounding-boxes.
+			final double intersection = ( null == targets.polygons )
+					? width * height
+					: Math.abs( Polygons2D.intersection( targets.polygons.get( t ), sources.polygons.get( s ) ).area() );
+			if ( intersection == 0. )
+				return 0.;
+
+			final double union = sources.areas[ s ] + targets.areas[ t ] - intersection;
+			return intersection / union;
 		}
 	}
 
 	private static final class IoULink
 	{
-		public final Spot source;
+		public final int sourceSlot;
 
-		public final Spot target;
+		public final int targetSlot;
 
 		public final double iou;
 
-		public IoULink( final Spot source, final Spot target, final double iou )
+		public IoULink( final int sourceSlot, final int targetSlot, final double iou )
 		{
-			this.source = source;
-			this.target = target;
+			this.sourceSlot = sourceSlot;
+			this.targetSlot = targetSlot;
 			this.iou = iou;
 		}
 	}
@@ -38,7 +38,8 @@ import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.detection.DetectorKeys;
 import fiji.plugin.trackmate.detection.SpotDetectorFactoryBase;
 import fiji.plugin.trackmate.features.FeatureFilter;
-import fiji.plugin.trackmate.features.FeatureUtils;
+import fiji.plugin.trackmate.features.FeatureSketch;
+import fiji.plugin.trackmate.features.FeatureStatistics;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
@@ -240,9 +241,9 @@ public class DetectionPreview
 		// Update histogram if any.
 		if ( panel.chart != null )
 		{
-			final double[] values = FeatureUtils.collectFeatureValues(
-					Spot.QUALITY, TrackMateObject.SPOTS, sourceModel, false );
-			panel.chart.displayHistogram( values, threshold );
+			final FeatureSketch sketch = FeatureStatistics.compute(
+					sourceModel, Spot.QUALITY, TrackMateObject.SPOTS, false );
+			panel.chart.displayHistogram( sketch, threshold );
 		}
 	}
 
@@ -0,0 +1,427 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.util;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid index over a fixed set of points in 3D, for radius
+ * searches.
+ * <p>
+ * Points are grouped by cell in compact primitive arrays, and cells are found
+ * through a hash table on their key: there is no object per point nor per
+ * cell. A radius search visits the cells overlapping the
+ * bounding box of the search sphere and tests the points they contain. With
+ * a cell size close to the search radius, a search visits 27 cells in 3D (9
+ * in 2D, when all Z are equal), and its cost does not depend on the total
+ * number of points.
+ * <p>
+ * The index is immutable and can be searched concurrently, each thread using
+ * its own {@link Search}.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SpatialGrid
+{
+
+	/**
+	 * Max number of cells along one dimension, so that cell keys fit in a
+	 * long.
+	 */
+	private static final int MAX_CELLS_PER_DIM = 1 << 20;
+
+	private final int n;
+
+	private final double minX;
+
+	private final double minY;
+
+	private final double minZ;
+
+	private final double cellSize;
+
+	private final int nx;
+
+	private final int ny;
+
+	private final int nz;
+
+	/** Sorted keys of the occupied cells. */
+	private final long[] cellKeys;
+
+	/** Index of the first entry of each occupied cell in {@link #entries}. */
+	private final int[] cellStart;
+
+	/** Open-addressing hash table from cell key to cell rank. */
+	private final long[] tableKeys;
+
+	private final int[] tableRanks;
+
+	private final int tableMask;
+
+	/** Point indices, grouped by cell, in ascending order within a cell. */
+	private final int[] entries;
+
+	/** Coordinates of the points, in entry order. */
+	private final double[] ex;
+
+	private final double[] ey;
+
+	private final double[] ez;
+
+	/**
+	 * Creates a grid index over the specified points. The coordinates are
+	 * copied.
+	 *
+	 * @param x
+	 *            the X coordinates of the points.
+	 * @param y
+	 *            the Y coordinates of the points.
+	 * @param z
+	 *            the Z coordinates of the points.
+	 * @param cellSize
+	 *            the desired cell size. Best set to the typical search
+	 *            radius. It is enlarged if needed to keep the number of cells
+	 *            along a dimension bounded.
+	 */
+	public SpatialGrid( final double[] x, final double[] y, final double[] z, final double cellSize )
+	{
+		this.n = x.length;
+
+		double lMinX = Double.POSITIVE_INFINITY, lMinY = Double.POSITIVE_INFINITY, lMinZ = Double.POSITIVE_INFINITY;
+		double lMaxX = Double.NEGATIVE_INFINITY, lMaxY = Double.NEGATIVE_INFINITY, lMaxZ = Double.NEGATIVE_INFINITY;
+		for ( int i = 0; i < n; i++ )
+		{
+			// Comparisons skip NaNs.
+			if ( x[ i ] < lMinX )
+				lMinX = x[ i ];
+			if ( x[ i ] > lMaxX )
+				lMaxX = x[ i ];
+			if ( y[ i ] < lMinY )
+				lMinY = y[ i ];
+			if ( y[ i ] > lMaxY )
+				lMaxY = y[ i ];
+			if ( z[ i ] < lMinZ )
+				lMinZ = z[ i ];
+			if ( z[ i ] > lMaxZ )
+				lMaxZ = z[ i ];
+		}
+		if ( lMinX > lMaxX )
+			lMinX = lMaxX = 0.;
+		if ( lMinY > lMaxY )
+			lMinY = lMaxY = 0.;
+		if ( lMinZ > lMaxZ )
+			lMinZ = lMaxZ = 0.;
+		this.minX = lMinX;
+		this.minY = lMinY;
+		this.minZ = lMinZ;
+
+		final double maxExtent = Math.max( lMaxX - lMinX, Math.max( lMaxY - lMinY, lMaxZ - lMinZ ) );
+		double cs = cellSize;
+		if ( !( cs > 0. ) || Double.isInfinite( cs ) )
+			cs = maxExtent + 1.;
+		cs = Math.max( cs, maxExtent / ( MAX_CELLS_PER_DIM - 1 ) );
+		this.cellSize = cs;
+		this.nx = ( int ) Math.floor( ( lMaxX - lMinX ) / cs ) + 1;
+		this.ny = ( int ) Math.floor( ( lMaxY - lMinY ) / cs ) + 1;
+		this.nz = ( int ) Math.floor( ( lMaxZ - lMinZ ) / cs ) + 1;
+
+		// Sorted unique keys of occupied cells.
+		final long[] keys = new long[ n ];
+		for ( int i = 0; i < n; i++ )
+			keys[ i ] = key( cell( x[ i ], minX, nx ), cell( y[ i ], minY, ny ), cell( z[ i ], minZ, nz ) );
+		final long[] sorted = keys.clone();
+		Arrays.sort( sorted );
+		int nCells = 0;
+		for ( int i = 0; i < n; i++ )
+			if ( i == 0 || sorted[ i ] != sorted[ i - 1 ] )
+				sorted[ nCells++ ] = sorted[ i ];
+		this.cellKeys = Arrays.copyOf( sorted, nCells );
+
+		// Hash table from key to rank.
+		int capacity = 2;
+		while ( capacity < 2 * nCells )
+			capacity <<= 1;
+		this.tableMask = capacity - 1;
+		this.tableKeys = new long[ capacity ];
+		Arrays.fill( tableKeys, -1l );
+		this.tableRanks = new int[ capacity ];
+		for ( int r = 0; r < nCells; r++ )
+		{
+			int slot = hash( cellKeys[ r ] );
+			while ( tableKeys[ slot ] != -1l )
+				slot = ( slot + 1 ) & tableMask;
+			tableKeys[ slot ] = cellKeys[ r ];
+			tableRanks[ slot ] = r;
+		}
+
+		// Group points by cell, counting sort on ranks.
+		final int[] rankOf = new int[ n ];
+		this.cellStart = new int[ nCells + 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			rankOf[ i ] = rank( keys[ i ] );
+			cellStart[ rankOf[ i ] + 1 ]++;
+		}
+		for ( int r = 0; r < nCells; r++ )
+			cellStart[ r + 1 ] += cellStart[ r ];
+		this.entries = new int[ n ];
+		this.ex = new double[ n ];
+		this.ey = new double[ n ];
+		this.ez = new double[ n ];
+		final int[] fill = Arrays.copyOf( cellStart, nCells );
+		for ( int i = 0; i < n; i++ )
+		{
+			final int e = fill[ rankOf[ i ] ]++;
+			entries[ e ] = i;
+			ex[ e ] = x[ i ];
+			ey[ e ] = y[ i ];
+			ez[ e ] = z[ i ];
+		}
+	}
+
+	/**
+	 * Returns the number of points in this index.
+	 *
+	 * @return the number of points.
+	 */
+	public int size()
+	{
+		return n;
+	}
+
+	/**
+	 * Returns a new search object over this index. Search objects are not
+	 * thread-safe: create one per thread.
+	 *
+	 * @return a new {@link Search}.
+	 */
+	public Search search()
+	{
+		return new Search();
+	}
+
+	/**
+	 * Returns a permutation of the specified positions that visits them cell
+	 * by cell. Searching around positions in this order improves the memory
+	 * locality of successive searches.
+	 *
+	 * @param qx
+	 *            the X coordinates of the positions.
+	 * @param qy
+	 *            the Y coordinates of the positions.
+	 * @param qz
+	 *            the Z coordinates of the positions.
+	 * @return a new <code>int[]</code> array containing the indices of the
+	 *         positions.
+	 */
+	public int[] spatialOrder( final double[] qx, final double[] qy, final double[] qz )
+	{
+		final int nq = qx.length;
+		final int nCells = cellKeys.length;
+		// Positions in empty cells go in an extra last bin.
+		final int[] rankOf = new int[ nq ];
+		final int[] start = new int[ nCells + 2 ];
+		for ( int i = 0; i < nq; i++ )
+		{
+			final int r = rank( key( cell( qx[ i ], minX, nx ), cell( qy[ i ], minY, ny ), cell( qz[ i ], minZ, nz ) ) );
+			rankOf[ i ] = r < 0 ? nCells : r;
+			start[ rankOf[ i ] + 1 ]++;
+		}
+		for ( int r = 0; r <= nCells; r++ )
+			start[ r + 1 ] += start[ r ];
+		final int[] order = new int[ nq ];
+		for ( int i = 0; i < nq; i++ )
+			order[ start[ rankOf[ i ] ]++ ] = i;
+		return order;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int cell( final double v, final double min, final int nCells )
+	{
+		final double c = Math.floor( ( v - min ) / cellSize );
+		if ( !( c > 0. ) )
+			return 0;
+		if ( c >= nCells - 1 )
+			return nCells - 1;
+		return ( int ) c;
+	}
+
+	private long key( final int ix, final int iy, final int iz )
+	{
+		return ( ( long ) ix * ny + iy ) * nz + iz;
+	}
+
+	private int hash( final long key )
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= ( h >>> 32 );
+		return ( int ) h & tableMask;
+	}
+
+	/**
+	 * Returns the rank of the cell with the specified key, or -1 if it is
+	 * empty.
+	 */
+	private int rank( final long key )
+	{
+		int slot = hash( key );
+		while ( true )
+		{
+			final long k = tableKeys[ slot ];
+			if ( k == key )
+				return tableRanks[ slot ];
+			if ( k == -1l )
+				return -1;
+			slot = ( slot + 1 ) & tableMask;
+		}
+	}
+
+	/**
+	 * A radius search over the grid. Holds the results of the last search.
+	 */
+	public final class Search
+	{
+
+		private int[] found = new int[ 16 ];
+
+		private double[] d2s = new double[ 16 ];
+
+		private int nFound;
+
+		private Search()
+		{}
+
+		/**
+		 * Finds all the points at a distance lower than or equal to the
+		 * specified radius of the specified position. The points found are
+		 * then accessed with {@link #get(int)} and
+		 * {@link #squareDistance(int)}, in unspecified order.
+		 *
+		 * @param qx
+		 *            the X coordinate of the position.
+		 * @param qy
+		 *            the Y coordinate of the position.
+		 * @param qz
+		 *            the Z coordinate of the position.
+		 * @param radius
+		 *            the search radius.
+		 * @return the number of points found.
+		 */
+		public int inRadius( final double qx, final double qy, final double qz, final double radius )
+		{
+			nFound = 0;
+			if ( n == 0 )
+				return 0;
+
+			final double r2 = radius * radius;
+			final int x0 = cell( qx - radius, minX, nx );
+			final int x1 = cell( qx + radius, minX, nx );
+			final int y0 = cell( qy - radius, minY, ny );
+			final int y1 = cell( qy + radius, minY, ny );
+			final int z0 = cell( qz - radius, minZ, nz );
+			final int z1 = cell( qz + radius, minZ, nz );
+
+			final double nCells = ( double ) ( x1 - x0 + 1 ) * ( y1 - y0 + 1 ) * ( z1 - z0 + 1 );
+			if ( nCells > n )
+			{
+				// Cheaper to test all points.
+				for ( int e = 0; e < n; e++ )
+					test( e, qx, qy, qz, r2 );
+				return nFound;
+			}
+
+			for ( int ix = x0; ix <= x1; ix++ )
+			{
+				for ( int iy = y0; iy <= y1; iy++ )
+				{
+					for ( int iz = z0; iz <= z1; iz++ )
+					{
+						final int r = rank( key( ix, iy, iz ) );
+						if ( r < 0 )
+							continue;
+						for ( int e = cellStart[ r ]; e < cellStart[ r + 1 ]; e++ )
+							test( e, qx, qy, qz, r2 );
+					}
+				}
+			}
+			return nFound;
+		}
+
+		/**
+		 * Returns the index of the i-th point found by the last search.
+		 *
+		 * @param i
+		 *            the result index.
+		 * @return the point index, in the arrays given at construction.
+		 */
+		public int get( final int i )
+		{
+			return found[ i ];
+		}
+
+		/**
+		 * Returns the square distance of the i-th point found by the last
+		 * search to the search position.
+		 *
+		 * @param i
+		 *            the result index.
+		 * @return the square distance.
+		 */
+		public double squareDistance( final int i )
+		{
+			return d2s[ i ];
+		}
+
+		/**
+		 * Returns the number of points found by the last search.
+		 *
+		 * @return the number of points found.
+		 */
+		public int size()
+		{
+			return nFound;
+		}
+
+		private void test( final int e, final double qx, final double qy, final double qz, final double r2 )
+		{
+			final double dx = ex[ e ] - qx;
+			final double dy = ey[ e ] - qy;
+			final double dz = ez[ e ] - qz;
+			final double d2 = dx * dx + dy * dy + dz * dz;
+			if ( !( d2 <= r2 ) )
+				return;
+
+			if ( nFound == found.length )
+			{
+				found = Arrays.copyOf( found, 2 * nFound );
+				d2s = Arrays.copyOf( d2s, 2 * nFound );
+			}
+			found[ nFound ] = entries[ e ];
+			d2s[ nFound ] = d2;
+			nFound++;
+		}
+	}
+}
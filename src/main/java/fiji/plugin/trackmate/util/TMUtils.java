@@ -402,7 +402,10 @@ public class TMUtils
 	private static final double otsuThreshold( final double[] data, final int nBins )
 	{
 		final int[] hist = histogram( data, nBins );
-		final int thresholdIndex = otsuThresholdIndex( hist, data.length );
+		final long[] lhist = new long[ hist.length ];
+		for ( int i = 0; i < hist.length; i++ )
+			lhist[ i ] = hist[ i ];
+		final int thresholdIndex = otsuThresholdIndex( lhist, data.length );
 		final double[] range = getRange( data );
 		final double binWidth = range[ 0 ] / nBins;
 		return range[ 1 ] + binWidth * thresholdIndex;
@@ -420,17 +423,17 @@ public class TMUtils
 	 *            the number of data items this histogram was built on
 	 * @return the bin index of the histogram that thresholds it
 	 */
-	private static final int otsuThresholdIndex( final int[] hist, final int nPoints )
+	public static final int otsuThresholdIndex( final long[] hist, final long nPoints )
 	{
-		final int total = nPoints;
+		final double total = nPoints;
 
 		double sum = 0;
 		for ( int t = 0; t < hist.length; t++ )
-			sum += t * hist[ t ];
+			sum += ( double ) t * hist[ t ];
 
 		double sumB = 0;
-		int wB = 0;
-		int wF = 0;
+		double wB = 0;
+		double wF = 0;
 
 		double varMax = 0;
 		int threshold = 0;
@@ -445,7 +448,7 @@ public class TMUtils
 			if ( wF == 0 )
 				break;
 
-			sumB += ( t * hist[ t ] );
+			sumB += ( ( double ) t * hist[ t ] );
 
 			final double mB = sumB / wB; // Mean Background
 			final double mF = ( sum - sumB ) / wF; // Mean Foreground
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.action.CTCExporter.ExportType;
+import ij.IJ;
+import ij.ImagePlus;
+
+public class CTCExporterTest
+{
+
+	private static final int N_FRAMES = 12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParallelSameAsSerial() throws IOException
+	{
+		final TrackMate trackmate = createTrackMate();
+
+		trackmate.setNumThreads( 1 );
+		final String serial = folder.newFolder( "serial" ).getAbsolutePath();
+		CTCExporter.exportTrackingData( serial, 1, ExportType.RESULTS, trackmate, Logger.VOID_LOGGER );
+		CTCExporter.exportSegmentationData( serial, 1, ExportType.GOLD_TRUTH, trackmate, Logger.VOID_LOGGER );
+
+		trackmate.setNumThreads( 4 );
+		final String parallel = folder.newFolder( "parallel" ).getAbsolutePath();
+		CTCExporter.exportTrackingData( parallel, 1, ExportType.RESULTS, trackmate, Logger.VOID_LOGGER );
+		CTCExporter.exportSegmentationData( parallel, 1, ExportType.GOLD_TRUTH, trackmate, Logger.VOID_LOGGER );
+
+		final Path serialTrack = ExportType.RESULTS.getTrackTextFilePath( serial, 1 );
+		final Path parallelTrack = ExportType.RESULTS.getTrackTextFilePath( parallel, 1 );
+		assertEquals( 4, Files.readAllLines( serialTrack ).size() );
+		assertEquals( Files.readAllLines( serialTrack ), Files.readAllLines( parallelTrack ) );
+
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final short[] expected = labels( ExportType.RESULTS.getTrackTifFilePath( serial, 1, frame, N_FRAMES ) );
+			assertArrayEquals( "Track mask of frame " + frame, expected, labels( ExportType.RESULTS.getTrackTifFilePath( parallel, 1, frame, N_FRAMES ) ) );
+			assertTrue( "Track mask of frame " + frame + " is empty.", max( expected ) > 0 );
+
+			final String name = String.format( "man_seg%03d.tif", frame );
+			final String segFolder = "01" + ExportType.GOLD_TRUTH.suffix();
+			assertArrayEquals( "Segmentation mask of frame " + frame,
+					labels( new File( new File( serial, segFolder ), "SEG/" + name ).toPath() ),
+					labels( new File( new File( parallel, segFolder ), "SEG/" + name ).toPath() ) );
+		}
+	}
+
+	/**
+	 * Two tracks in a 2D movie: a linear one, and one that divides in the
+	 * middle of the movie. All the spots have a ROI.
+	 */
+	private static TrackMate createTrackMate()
+	{
+		final ImagePlus imp = IJ.createImage( "CTC", "16-bit black", 64, 64, 1, 1, N_FRAMES );
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			Spot previousA = null;
+			Spot previousB = null;
+			Spot previousC = null;
+			for ( int frame = 0; frame < N_FRAMES; frame++ )
+			{
+				final Spot a = createSpot( 12. + frame, 12. );
+				model.addSpotTo( a, frame );
+				if ( null != previousA )
+					model.addEdge( previousA, a, 1. );
+				previousA = a;
+
+				final Spot b = createSpot( 40., 20. + frame );
+				model.addSpotTo( b, frame );
+				if ( null != previousB )
+					model.addEdge( previousB, b, 1. );
+				if ( frame == N_FRAMES / 2 )
+					previousC = previousB;
+				previousB = b;
+
+				if ( null == previousC )
+					continue;
+				final Spot c = createSpot( 52., 20. + frame );
+				model.addSpotTo( c, frame );
+				model.addEdge( previousC, c, 1. );
+				previousC = c;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return new TrackMate( model, new Settings( imp ) );
+	}
+
+	private static Spot createSpot( final double x, final double y )
+	{
+		final Spot spot = new Spot( x, y, 0., 3., 1. );
+		spot.setRoi( new SpotRoi( new double[] { -3., 3., 3., -3. }, new double[] { -3., -3., 3., 3. } ) );
+		return spot;
+	}
+
+	private static short[] labels( final Path path )
+	{
+		final ImagePlus imp = IJ.openImage( path.toString() );
+		assertNotNull( "Could not open " + path, imp );
+		return ( short[] ) imp.getProcessor().getPixels();
+	}
+
+	private static int max( final short[] pixels )
+	{
+		int max = 0;
+		for ( final short pixel : pixels )
+			max = Math.max( max, pixel & 0xffff );
+		return max;
+	}
+}
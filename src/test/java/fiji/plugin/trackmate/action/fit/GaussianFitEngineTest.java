@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.fit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.FitModel;
+import fiji.plugin.trackmate.action.fit.GaussianFitEngine.Workspace;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class GaussianFitEngineTest
+{
+
+	private static final double[] CALIBRATION = new double[] { 0.2, 0.2, 0.5 };
+
+	private static final double[] CENTER = new double[] { 30.3, 33.7, 7.4 }; // pixels
+
+	private static final double SIGMA = 2.; // pixels
+
+	private static Img< DoubleType > makeImg( final int nDims )
+	{
+		final Img< DoubleType > img = ( nDims == 2 )
+				? ArrayImgs.doubles( 64, 64 )
+				: ArrayImgs.doubles( 64, 64, 16 );
+		final Cursor< DoubleType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double sumSq = 0.;
+			for ( int d = 0; d < nDims; d++ )
+			{
+				// Same physical sigma in Z.
+				final double s = SIGMA * CALIBRATION[ 0 ] / CALIBRATION[ d ];
+				final double dx = cursor.getDoublePosition( d ) - CENTER[ d ];
+				sumSq += dx * dx / ( s * s );
+			}
+			cursor.get().set( 10. + 100. * Math.exp( -sumSq / 2. ) );
+		}
+		return img;
+	}
+
+	private static Spot makeSpot( final int nDims )
+	{
+		// Off by about a pixel.
+		final double x = ( CENTER[ 0 ] - 1.1 ) * CALIBRATION[ 0 ];
+		final double y = ( CENTER[ 1 ] + 0.9 ) * CALIBRATION[ 1 ];
+		final double z = ( nDims == 2 ) ? 0. : ( CENTER[ 2 ] - 0.6 ) * CALIBRATION[ 2 ];
+		final double radius = SIGMA * Math.sqrt( 2. ) * CALIBRATION[ 0 ];
+		return new Spot( x, y, z, radius, 1. );
+	}
+
+	private static void testFit( final FitModel model )
+	{
+		final int nDims = model.numDimensions();
+		final Img< DoubleType > img = makeImg( nDims );
+		final GaussianFitEngine engine = new GaussianFitEngine( model, CALIBRATION );
+		final Workspace ws = engine.createWorkspace();
+		final Spot spot = makeSpot( nDims );
+		// Fit twice with the same workspace.
+		for ( int i = 0; i < 2; i++ )
+		{
+			assertTrue( "Fit failed for " + model, engine.fit( spot, img, ws ) );
+			for ( int d = 0; d < nDims; d++ )
+				assertEquals( "Bad position in dim " + d + " for " + model,
+						CENTER[ d ], spot.getDoublePosition( d ) / CALIBRATION[ d ], 0.02 );
+			assertTrue( ws.getIterations() <= GaussianFitEngine.DEFAULT_MAX_ITERATIONS );
+			assertTrue( ws.getAmplitude() > 0. );
+		}
+	}
+
+	@Test
+	public void testGaussian2D()
+	{
+		testFit( FitModel.GAUSSIAN_2D );
+	}
+
+	@Test
+	public void testGaussian2DFixedRadius()
+	{
+		testFit( FitModel.GAUSSIAN_2D_FIXED_RADIUS );
+		final Spot spot = makeSpot( 2 );
+		final double radius = spot.getFeature( Spot.RADIUS ).doubleValue();
+		final GaussianFitEngine engine = new GaussianFitEngine( FitModel.GAUSSIAN_2D_FIXED_RADIUS, CALIBRATION );
+		engine.fit( spot, makeImg( 2 ), engine.createWorkspace() );
+		assertEquals( radius, spot.getFeature( Spot.RADIUS ).doubleValue(), 1e-15 );
+	}
+
+	@Test
+	public void testGaussian3D()
+	{
+		testFit( FitModel.GAUSSIAN_3D );
+	}
+
+	@Test
+	public void testGaussian3DFixedRadius()
+	{
+		testFit( FitModel.GAUSSIAN_3D_FIXED_RADIUS );
+	}
+}
@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.util.TMUtils;
+
+public class FeatureSketchTest
+{
+
+	private static double[] bimodal( final int n, final long seed )
+	{
+		final Random ran = new Random( seed );
+		final double[] values = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+			values[ i ] = ( i % 3 == 0 )
+					? 50. + 5. * ran.nextGaussian()
+					: 10. + 2. * ran.nextGaussian();
+		return values;
+	}
+
+	@Test
+	public void testMinMaxCount()
+	{
+		final double[] values = bimodal( 10000, 1l );
+		final FeatureSketch sketch = FeatureSketch.of( values );
+		sketch.add( Double.NaN );
+		sketch.add( Double.POSITIVE_INFINITY );
+
+		assertEquals( values.length, sketch.getCount() );
+		assertEquals( Arrays.stream( values ).min().getAsDouble(), sketch.getMin(), 0. );
+		assertEquals( Arrays.stream( values ).max().getAsDouble(), sketch.getMax(), 0. );
+		assertEquals( Arrays.stream( values ).average().getAsDouble(), sketch.getMean(), 1e-9 );
+		assertEquals( values.length, Arrays.stream( sketch.histogram( 37 ) ).sum() );
+	}
+
+	@Test
+	public void testQuantiles()
+	{
+		final double[] values = bimodal( 100000, 2l );
+		final FeatureSketch sketch = FeatureSketch.of( values );
+		final double tolerance = 2. * ( sketch.getMax() - sketch.getMin() ) / FeatureSketch.DEFAULT_RESOLUTION;
+		for ( final double p : new double[] { 0.05, 0.25, 0.5, 0.75, 0.95 } )
+			assertEquals( "Quantile " + p, TMUtils.getPercentile( values, p ), sketch.getQuantile( p ), tolerance );
+
+		final long below = sketch.countBelow( 30. );
+		final long expected = Arrays.stream( values ).filter( v -> v < 30. ).count();
+		assertEquals( expected, below, 0.001 * values.length );
+	}
+
+	@Test
+	public void testMerge()
+	{
+		// Parts with very different ranges, to exercise regridding.
+		final double[] a = new double[ 5000 ];
+		final double[] b = new double[ 5000 ];
+		final Random ran = new Random( 3l );
+		for ( int i = 0; i < a.length; i++ )
+		{
+			a[ i ] = 1e-3 * ran.nextDouble();
+			b[ i ] = 1e3 * ran.nextDouble();
+		}
+		final double[] ab = new double[ a.length + b.length ];
+		System.arraycopy( a, 0, ab, 0, a.length );
+		System.arraycopy( b, 0, ab, a.length, b.length );
+
+		final FeatureSketch merged = FeatureSketch.of( a );
+		merged.merge( FeatureSketch.of( b ) );
+		final FeatureSketch merged2 = FeatureSketch.of( b );
+		merged2.merge( FeatureSketch.of( a ) );
+		final FeatureSketch all = FeatureSketch.of( ab );
+
+		for ( final FeatureSketch sketch : new FeatureSketch[] { merged, merged2 } )
+		{
+			assertEquals( all.getCount(), sketch.getCount() );
+			assertEquals( all.getMin(), sketch.getMin(), 0. );
+			assertEquals( all.getMax(), sketch.getMax(), 0. );
+			assertEquals( all.getMean(), sketch.getMean(), 1e-9 );
+			assertEquals( ab.length, Arrays.stream( sketch.fineBins() ).sum() );
+			final double tolerance = 2. * ( all.getMax() - all.getMin() ) / FeatureSketch.DEFAULT_RESOLUTION;
+			for ( final double p : new double[] { 0.1, 0.25, 0.5, 0.75, 0.9 } )
+				assertEquals( "Quantile " + p, all.getQuantile( p ), sketch.getQuantile( p ), tolerance );
+		}
+	}
+
+	@Test
+	public void testRemove()
+	{
+		// Remove a part with a very different range, to exercise regridding.
+		final double[] a = bimodal( 5000, 5l );
+		final double[] b = new double[ 5000 ];
+		final Random ran = new Random( 6l );
+		for ( int i = 0; i < b.length; i++ )
+			b[ i ] = 1e3 * ran.nextDouble();
+
+		final FeatureSketch sketch = FeatureSketch.of( a );
+		for ( final double v : b )
+			sketch.add( v );
+		final double tolerance = 2. * ( sketch.getMax() - sketch.getMin() ) / FeatureSketch.DEFAULT_RESOLUTION;
+		for ( final double v : b )
+			assertTrue( sketch.remove( v ) );
+
+		final FeatureSketch expected = FeatureSketch.of( a );
+		assertEquals( expected.getCount(), sketch.getCount() );
+		assertEquals( a.length, Arrays.stream( sketch.fineBins() ).sum() );
+		assertEquals( expected.getMean(), sketch.getMean(), 1e-9 );
+		assertTrue( sketch.getMin() <= expected.getMin() );
+		assertEquals( expected.getMin(), sketch.getMin(), tolerance );
+		assertTrue( sketch.getMax() >= expected.getMax() );
+		assertEquals( expected.getMax(), sketch.getMax(), tolerance );
+		for ( final double p : new double[] { 0.1, 0.25, 0.5, 0.75, 0.9 } )
+			assertEquals( "Quantile " + p, expected.getQuantile( p ), sketch.getQuantile( p ), tolerance );
+
+		// Values that were not added leave the sketch unchanged.
+		assertFalse( sketch.remove( Double.NaN ) );
+		assertFalse( sketch.remove( 1e6 ) );
+		assertEquals( a.length, sketch.getCount() );
+
+		for ( final double v : a )
+			assertTrue( sketch.remove( v ) );
+		assertEquals( 0, sketch.getCount() );
+		assertEquals( Double.POSITIVE_INFINITY, sketch.getMin(), 0. );
+		assertEquals( Double.NEGATIVE_INFINITY, sketch.getMax(), 0. );
+		assertFalse( sketch.remove( a[ 0 ] ) );
+	}
+
+	@Test
+	public void testOtsuThreshold()
+	{
+		final double[] values = bimodal( 20000, 4l );
+		final FeatureSketch sketch = FeatureSketch.of( values );
+		final double expected = TMUtils.otsuThreshold( values );
+		final double binWidth = ( sketch.getMax() - sketch.getMin() ) / sketch.getNBins( 8, 256 );
+		assertEquals( expected, sketch.otsuThreshold(), binWidth );
+		assertEquals( TMUtils.getNBins( values, 8, 100 ), sketch.getNBins( 8, 100 ), 1 );
+	}
+}
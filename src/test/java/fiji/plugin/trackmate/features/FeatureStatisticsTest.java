@@ -0,0 +1,275 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
+
+public class FeatureStatisticsTest
+{
+
+	private static final List< String > SPOT_FEATURES = Arrays.asList( Spot.QUALITY, Spot.FRAME, Spot.POSITION_X );
+
+	@Test
+	public void testSpotSketchesFollowModelChanges()
+	{
+		final Random ran = new Random( 1l );
+		final Model model = new Model();
+		final List< Spot > spots = new ArrayList<>();
+		model.beginUpdate();
+		try
+		{
+			for ( int t = 0; t < 10; t++ )
+				for ( int i = 0; i < 200; i++ )
+					spots.add( model.addSpotTo( new Spot( ran.nextDouble(), ran.nextDouble(), 0., 1., 100. * ran.nextDouble() ), t ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		model.getSpots().setVisible( true );
+		for ( int i = 0; i < spots.size(); i += 7 )
+			spots.get( i ).putFeature( SpotCollection.VISIBILITY, SpotCollection.ZERO );
+		assertSameSketches( model, TrackMateObject.SPOTS, SPOT_FEATURES );
+
+		// Removals.
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 300; i++ )
+				model.removeSpot( spots.remove( ran.nextInt( spots.size() ) ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameSketches( model, TrackMateObject.SPOTS, SPOT_FEATURES );
+
+		// Modifications.
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 300; i++ )
+			{
+				final Spot spot = spots.get( ran.nextInt( spots.size() ) );
+				spot.putFeature( Spot.QUALITY, 1000. * ran.nextDouble() );
+				spot.putFeature( Spot.POSITION_X, -ran.nextDouble() );
+				model.updateFeatures( spot );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameSketches( model, TrackMateObject.SPOTS, SPOT_FEATURES );
+
+		// Moves, that also make the spots visible.
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 100; i++ )
+			{
+				final Spot spot = spots.get( 7 * i );
+				model.moveSpotFrom( spot, spot.getFeature( Spot.FRAME ).intValue(), 10 + i % 5 );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameSketches( model, TrackMateObject.SPOTS, SPOT_FEATURES );
+
+		// Additions, of spots that are not visible.
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 200; i++ )
+				model.addSpotTo( new Spot( ran.nextDouble(), ran.nextDouble(), 0., 1., 100. * ran.nextDouble() ), ran.nextInt( 15 ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameSketches( model, TrackMateObject.SPOTS, SPOT_FEATURES );
+	}
+
+	@Test
+	public void testEdgeAndTrackSketchesFollowModelChanges()
+	{
+		final Random ran = new Random( 2l );
+		final Model model = new Model();
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+
+		// Stands for the feature updater: edge cost is the weight, track ID
+		// feature the number of spots in the track.
+		model.addModelChangeListener( event -> {
+			if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+				return;
+			for ( final DefaultWeightedEdge edge : event.getEdges() )
+				if ( event.getEdgeFlag( edge ) != ModelChangeEvent.FLAG_EDGE_REMOVED )
+					fm.putEdgeFeature( edge, EdgeTargetAnalyzer.EDGE_COST, trackModel.getEdgeWeight( edge ) );
+			for ( final Integer trackID : event.getTrackUpdated() )
+				if ( trackModel.trackSpots( trackID ) != null )
+					fm.putTrackFeature( trackID, TrackIndexAnalyzer.TRACK_ID, ( double ) trackModel.trackSpots( trackID ).size() );
+		} );
+
+		final List< List< Spot > > chains = new ArrayList<>();
+		model.beginUpdate();
+		try
+		{
+			for ( int c = 0; c < 20; c++ )
+			{
+				final List< Spot > chain = new ArrayList<>();
+				for ( int t = 0; t < 10; t++ )
+				{
+					final Spot spot = model.addSpotTo( new Spot( c, t, 0., 1., 1. ), t );
+					if ( t > 0 )
+						model.addEdge( chain.get( t - 1 ), spot, ran.nextDouble() );
+					chain.add( spot );
+				}
+				chains.add( chain );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		model.beginUpdate();
+		try
+		{
+			int i = 0;
+			for ( final Integer trackID : trackModel.trackIDs( false ) )
+				if ( i++ % 3 == 0 )
+					model.setTrackVisibility( trackID, false );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameTrackSketches( model );
+
+		// Splits.
+		model.beginUpdate();
+		try
+		{
+			for ( int c = 0; c < 5; c++ )
+				model.removeEdge( chains.get( c ).get( 4 ), chains.get( c ).get( 5 ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameTrackSketches( model );
+
+		// Merges, of tracks of different visibilities.
+		model.beginUpdate();
+		try
+		{
+			for ( int c = 5; c < 11; c += 2 )
+				model.addEdge( chains.get( c ).get( 4 ), chains.get( c + 1 ).get( 5 ), ran.nextDouble() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameTrackSketches( model );
+
+		// Edge modifications.
+		model.beginUpdate();
+		try
+		{
+			for ( int c = 11; c < 20; c++ )
+				model.setEdgeWeight( trackModel.getEdge( chains.get( c ).get( 2 ), chains.get( c ).get( 3 ) ), 10. * ran.nextDouble() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameTrackSketches( model );
+
+		// Spot removals, one of which deletes a whole track.
+		model.beginUpdate();
+		try
+		{
+			model.removeSpot( chains.get( 0 ).get( 9 ) );
+			model.removeSpot( chains.get( 0 ).get( 6 ) );
+			for ( int c = 12; c < 20; c += 3 )
+				model.removeSpot( chains.get( c ).get( 7 ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameTrackSketches( model );
+	}
+
+	private static void assertSameTrackSketches( final Model model )
+	{
+		assertSameSketches( model, TrackMateObject.EDGES, Arrays.asList( EdgeTargetAnalyzer.EDGE_COST ) );
+		assertSameSketches( model, TrackMateObject.TRACKS, Arrays.asList( TrackIndexAnalyzer.TRACK_ID ) );
+	}
+
+	/**
+	 * Checks that the sketches maintained by the statistics service are the
+	 * same as sketches rebuilt from scratch, up to the fine bin width.
+	 */
+	private static void assertSameSketches( final Model model, final TrackMateObject target, final List< String > features )
+	{
+		for ( final boolean visibleOnly : new boolean[] { false, true } )
+		{
+			for ( final String feature : features )
+			{
+				final String message = target + " " + feature + ( visibleOnly ? " (visible)" : " (all)" );
+				final FeatureSketch expected = FeatureStatistics.compute( model, feature, target, visibleOnly );
+				final FeatureSketch actual = model.getFeatureStatistics().getSketch( feature, target, visibleOnly );
+				assertEquals( message, expected.getCount(), actual.getCount() );
+				if ( expected.getCount() == 0 )
+					continue;
+
+				final double tolerance = 4. * ( actual.getMax() - actual.getMin() ) / FeatureSketch.DEFAULT_RESOLUTION + 1e-9;
+				assertEquals( message, expected.getMean(), actual.getMean(), 1e-9 * Math.max( 1., Math.abs( expected.getMean() ) ) );
+				assertEquals( message, expected.getMin(), actual.getMin(), tolerance );
+				assertEquals( message, expected.getMax(), actual.getMax(), tolerance );
+				for ( final double p : new double[] { 0.1, 0.5, 0.9 } )
+					assertEquals( message + " quantile " + p, expected.getQuantile( p ), actual.getQuantile( p ), tolerance );
+			}
+		}
+	}
+}
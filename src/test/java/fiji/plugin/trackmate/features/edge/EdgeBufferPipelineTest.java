@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.edge;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.BufferedEdgeAnalyzer;
+import fiji.plugin.trackmate.features.edges.DirectionalChangeAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeBufferPipeline;
+import fiji.plugin.trackmate.features.edges.EdgeSpeedAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeTimeLocationAnalyzer;
+
+public class EdgeBufferPipelineTest
+{
+
+	private static final int N_TRACKS = 200;
+
+	private static final int DEPTH = 30;
+
+	private Model model;
+
+	@Before
+	public void setUp()
+	{
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < DEPTH; j++ )
+				{
+					// Zig-zag, so that directional changes are not all 0.
+					final Spot spot = new Spot( i + j, ( j % 2 ) * ( 1 + i % 3 ), 0.1 * j * j, 1., j );
+					spot.putFeature( Spot.POSITION_T, Double.valueOf( 0.5 * j ) );
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+					{
+						// Every third edge is improperly oriented.
+						if ( j % 3 == 0 )
+							model.addEdge( spot, previous, i + j );
+						else
+							model.addEdge( previous, spot, i + j );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	@Test
+	public void testFusedPass()
+	{
+		final List< BufferedEdgeAnalyzer > analyzers = Arrays.asList(
+				new EdgeTargetAnalyzer(),
+				new EdgeSpeedAnalyzer(),
+				new EdgeTimeLocationAnalyzer(),
+				new DirectionalChangeAnalyzer() );
+		EdgeBufferPipeline.process( model.getTrackModel().edgeSet(), model, analyzers, 4 );
+
+		final FeatureModel fm = model.getFeatureModel();
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final Spot source = model.getTrackModel().getEdgeSource( edge );
+			final Spot target = model.getTrackModel().getEdgeTarget( edge );
+
+			assertEquals( model.getTrackModel().getEdgeWeight( edge ), fm.getEdgeFeature( edge, EdgeTargetAnalyzer.EDGE_COST ), 0. );
+			assertEquals( source.ID(), fm.getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID ), 0. );
+			assertEquals( target.ID(), fm.getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_TARGET_ID ), 0. );
+
+			final double d = Math.sqrt( source.squareDistanceTo( target ) );
+			final double dt = Math.abs( source.diffTo( target, Spot.POSITION_T ) );
+			assertEquals( d, fm.getEdgeFeature( edge, EdgeSpeedAnalyzer.DISPLACEMENT ), 1e-12 );
+			assertEquals( d / dt, fm.getEdgeFeature( edge, EdgeSpeedAnalyzer.SPEED ), 1e-12 );
+
+			for ( int k = 0; k < 3; k++ )
+			{
+				final String feature = Spot.POSITION_FEATURES[ k ];
+				final String edgeFeature = new String[] { EdgeTimeLocationAnalyzer.X_LOCATION, EdgeTimeLocationAnalyzer.Y_LOCATION, EdgeTimeLocationAnalyzer.Z_LOCATION }[ k ];
+				assertEquals( 0.5 * ( source.getFeature( feature ) + target.getFeature( feature ) ), fm.getEdgeFeature( edge, edgeFeature ), 1e-12 );
+			}
+
+			// Directional change.
+			final Spot first = source.diffTo( target, Spot.FRAME ) > 0. ? target : source;
+			final Spot second = first == source ? target : source;
+			final double frame = first.getFeature( Spot.FRAME );
+			Spot predecessor = null;
+			for ( final DefaultWeightedEdge e : model.getTrackModel().edgesOf( first ) )
+			{
+				final Spot other = model.getTrackModel().getEdgeSource( e ) == first
+						? model.getTrackModel().getEdgeTarget( e )
+						: model.getTrackModel().getEdgeSource( e );
+				if ( other.getFeature( Spot.FRAME ) < frame )
+					predecessor = other;
+			}
+			final double rate = fm.getEdgeFeature( edge, DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
+			if ( null == predecessor )
+			{
+				assertEquals( Double.NaN, rate, 0. );
+				continue;
+			}
+			final double[] v1 = new double[ 3 ];
+			final double[] v2 = new double[ 3 ];
+			for ( int k = 0; k < 3; k++ )
+			{
+				v1[ k ] = first.getDoublePosition( k ) - predecessor.getDoublePosition( k );
+				v2[ k ] = second.getDoublePosition( k ) - first.getDoublePosition( k );
+			}
+			final double cx = v1[ 1 ] * v2[ 2 ] - v1[ 2 ] * v2[ 1 ];
+			final double cy = v1[ 2 ] * v2[ 0 ] - v1[ 0 ] * v2[ 2 ];
+			final double cz = v1[ 0 ] * v2[ 1 ] - v1[ 1 ] * v2[ 0 ];
+			final double dot = v1[ 0 ] * v2[ 0 ] + v1[ 1 ] * v2[ 1 ] + v1[ 2 ] * v2[ 2 ];
+			final double angle = Math.atan2( Math.sqrt( cx * cx + cy * cy + cz * cz ), dot );
+			assertEquals( angle / second.diffTo( first, Spot.POSITION_T ), rate, 1e-12 );
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+import fiji.plugin.trackmate.SpotRoi;
+import net.imglib2.util.Util;
+
+/**
+ * The shape and ellipse-fit computations of {@link SpotShapeAnalyzer},
+ * {@link SpotFitEllipseAnalyzer} and {@link ConvexHull} as they were before
+ * the {@link SpotMorphologyKernel}, kept to check that the kernel gives the
+ * same results.
+ */
+class SpotMorphologyBaseline
+{
+
+	/**
+	 * Returns the area, perimeter and convex area of the ROI.
+	 */
+	static double[] shape( final SpotRoi roi )
+	{
+		final List< Point > points = new ArrayList<>( roi.x.length );
+		for ( int i = 0; i < roi.x.length; i++ )
+			points.add( new Point( roi.x[ i ], roi.y[ i ] ) );
+		final List< Point > hull = makeHull( points );
+		final double[] xhull = new double[ hull.size() ];
+		final double[] yhull = new double[ hull.size() ];
+		for ( int i = 0; i < yhull.length; i++ )
+		{
+			xhull[ i ] = hull.get( i ).x;
+			yhull[ i ] = hull.get( i ).y;
+		}
+		return new double[] { roi.area(), getLength( roi ), new SpotRoi( xhull, yhull ).area() };
+	}
+
+	/**
+	 * Returns the center X and Y, the major and minor axes and the
+	 * orientation of the ellipse fitted to the ROI.
+	 */
+	static double[] ellipse( final SpotRoi roi )
+	{
+		return quadraticToCartesian( fitEllipse( roi.x, roi.y ) );
+	}
+
+	/**
+	 * Java port of Chernov's MATLAB implementation of the direct ellipse fit by
+	 * Michael Doube in BoneJ. Modified by JYT to use the van der Linde
+	 * pseudo-inverse. Otherwise we fail too many times because of singular
+	 * matrices.
+	 *
+	 * @return
+	 *         <p>
+	 *         6-element array, {a b c d f g}, which are the algebraic
+	 *         parameters of the fitting ellipse: <i>ax</i><sup>2</sup> + 2
+	 *         <i>bxy</i> + <i>cy</i><sup>2</sup> +2<i>dx</i> + 2<i>fy</i> +
+	 *         <i>g</i> = 0. The vector <b>A</b> represented in the array is
+	 *         normed, so that ||<b>A</b>||=1.
+	 *         </p>
+	 *
+	 * @see
+	 *      <a href=
+	 *      "http://www.mathworks.co.uk/matlabcentral/fileexchange/22684-ellipse-fit-direct-method">MATLAB
+	 *      script</a>
+	 * @author Michael Doube
+	 */
+	private static double[] fitEllipse( final double[] x, final double[] y )
+	{
+		final int nPoints = x.length;
+		final double[] centroid = getCentroid( x, y );
+		final double xC = centroid[ 0 ];
+		final double yC = centroid[ 1 ];
+		final double[][] d1 = new double[ nPoints ][ 3 ];
+		for ( int i = 0; i < nPoints; i++ )
+		{
+			final double xixC = x[ i ] - xC;
+			final double yiyC = y[ i ] - yC;
+			d1[ i ][ 0 ] = xixC * xixC;
+			d1[ i ][ 1 ] = xixC * yiyC;
+			d1[ i ][ 2 ] = yiyC * yiyC;
+		}
+		final Matrix D1 = new Matrix( d1 );
+		final double[][] d2 = new double[ nPoints ][ 3 ];
+		for ( int i = 0; i < nPoints; i++ )
+		{
+			d2[ i ][ 0 ] = x[ i ] - xC;
+			d2[ i ][ 1 ] = y[ i ] - yC;
+			d2[ i ][ 2 ] = 1;
+		}
+		final Matrix D2 = new Matrix( d2 );
+		final Matrix S1 = D1.transpose().times( D1 );
+		final Matrix S2 = D1.transpose().times( D2 );
+		final Matrix S3 = D2.transpose().times( D2 );
+		final Matrix T = ( pinv( S3 ).times( -1 ) ).times( S2.transpose() );
+		final Matrix M = S1.plus( S2.times( T ) );
+
+		final double[][] m = M.getArray();
+		final double[][] n = { { m[ 2 ][ 0 ] / 2, m[ 2 ][ 1 ] / 2, m[ 2 ][ 2 ] / 2 }, { -m[ 1 ][ 0 ], -m[ 1 ][ 1 ], -m[ 1 ][ 2 ] },
+				{ m[ 0 ][ 0 ] / 2, m[ 0 ][ 1 ] / 2, m[ 0 ][ 2 ] / 2 } };
+
+		final Matrix N = new Matrix( n );
+		final EigenvalueDecomposition E = N.eig();
+		final Matrix eVec = E.getV();
+
+		final Matrix R1 = eVec.getMatrix( 0, 0, 0, 2 );
+		final Matrix R2 = eVec.getMatrix( 1, 1, 0, 2 );
+		final Matrix R3 = eVec.getMatrix( 2, 2, 0, 2 );
+
+		final Matrix cond = ( R1.times( 4 ) ).arrayTimes( R3 ).minus( R2.arrayTimes( R2 ) );
+
+		int f = 0;
+		for ( int i = 0; i < 3; i++ )
+		{
+			if ( cond.get( 0, i ) > 0 )
+			{
+				f = i;
+				break;
+			}
+		}
+		final Matrix A1 = eVec.getMatrix( 0, 2, f, f );
+
+		Matrix A = new Matrix( 6, 1 );
+		A.setMatrix( 0, 2, 0, 0, A1 );
+		A.setMatrix( 3, 5, 0, 0, T.times( A1 ) );
+
+		final double[] a = A.getColumnPackedCopy();
+		final double a4 = a[ 3 ] - 2 * a[ 0 ] * xC - a[ 1 ] * yC;
+		final double a5 = a[ 4 ] - 2 * a[ 2 ] * yC - a[ 1 ] * xC;
+		final double a6 = a[ 5 ] + a[ 0 ] * xC * xC + a[ 2 ] * yC * yC + a[ 1 ] * xC * yC - a[ 3 ] * xC - a[ 4 ] * yC;
+		A.set( 3, 0, a4 );
+		A.set( 4, 0, a5 );
+		A.set( 5, 0, a6 );
+		A = A.times( 1 / A.normF() );
+		return A.getColumnPackedCopy();
+	}
+
+	private static double[] getCentroid( final double[] x, final double[] y )
+	{
+		return new double[] { Util.average( x ), Util.average( y ) };
+	}
+
+	/**
+	 * Convert to cartesian coordnates for the ellipse. Return [ x0 y0 a b theta
+	 * ]. We always have a > b. theta in radians measure the angle of the
+	 * ellipse long axis with the x axis, in radians, and positive means
+	 * counter-clockwise.
+	 * 
+	 * Formulas from
+	 * https://en.wikipedia.org/wiki/Ellipse#In_Cartesian_coordinates
+	 */
+	private static final double[] quadraticToCartesian( final double[] Q )
+	{
+		final double A = Q[ 0 ];
+		final double B = Q[ 1 ];
+		final double C = Q[ 2 ];
+		final double D = Q[ 3 ];
+		final double E = Q[ 4 ];
+		final double F = Q[ 5 ];
+
+		final double term1 = 2 * ( A * E * E
+				+ C * D * D
+				- B * D * E
+				+ ( B * B - 4 * A * C ) * F );
+		final double term2 = ( A + C );
+		final double term3 = Math.sqrt( ( A - C ) * ( A - C ) + B * B );
+		final double term4 = B * B - 4 * A * C;
+
+		double a = -Math.sqrt( term1 * ( term2 + term3 ) ) / term4;
+		double b = -Math.sqrt( term1 * ( term2 - term3 ) ) / term4;
+
+		final double x0 = ( 2 * C * D - B * E ) / term4;
+		final double y0 = ( 2 * A * E - B * D ) / term4;
+
+		double theta;
+		if ( B != 0 )
+			theta = Math.atan( 1. / B * ( C - A - term3 ) );
+		else if ( A < 0 )
+			theta = 0;
+		else
+			theta = Math.PI / 2.;
+
+		if ( b > a )
+		{
+			final double btemp = b;
+			b = a;
+			a = btemp;
+			theta = theta + Math.PI / 2.;
+			if ( theta > Math.PI )
+				theta = theta - Math.PI;
+		}
+
+		return new double[] { x0, y0, a, b, theta };
+	}
+
+	/**
+	 * Computes the Moore–Penrose pseudoinverse using the SVD method.
+	 *
+	 * Modified version of the original implementation by Kim van der Linde.
+	 */
+	private static Matrix pinv( final Matrix x )
+	{
+		final int rows = x.getRowDimension();
+		final int cols = x.getColumnDimension();
+		if ( rows < cols )
+		{
+			Matrix result = pinv( x.transpose() );
+			if ( result != null )
+				result = result.transpose();
+			return result;
+		}
+		final SingularValueDecomposition svdX = new SingularValueDecomposition( x );
+		if ( svdX.rank() < 1 )
+			return null;
+		final double[] singularValues = svdX.getSingularValues();
+		final double tol = Math.max( rows, cols ) * singularValues[ 0 ] * MACHEPS;
+		final double[] singularValueReciprocals = new double[ singularValues.length ];
+		for ( int i = 0; i < singularValues.length; i++ )
+			if ( Math.abs( singularValues[ i ] ) >= tol )
+				singularValueReciprocals[ i ] = 1.0 / singularValues[ i ];
+		final double[][] u = svdX.getU().getArray();
+		final double[][] v = svdX.getV().getArray();
+		final int min = Math.min( cols, u[ 0 ].length );
+		final double[][] inverse = new double[ cols ][ rows ];
+		for ( int i = 0; i < cols; i++ )
+			for ( int j = 0; j < u.length; j++ )
+				for ( int k = 0; k < min; k++ )
+					inverse[ i ][ j ] += v[ i ][ k ] * singularValueReciprocals[ k ] * u[ j ][ k ];
+		return new Matrix( inverse );
+	}
+
+	private final static double MACHEPS = 2.2204e-16;
+
+	private static final double getLength( final SpotRoi roi )
+	{
+		final double[] x = roi.x;
+		final double[] y = roi.y;
+		final int npoints = x.length;
+		if ( npoints < 2 )
+			return 0;
+
+		double length = 0;
+		for ( int i = 0; i < npoints - 1; i++ )
+		{
+			final double dx = x[ i + 1 ] - x[ i ];
+			final double dy = y[ i + 1 ] - y[ i ];
+			length += Math.sqrt( dx * dx + dy * dy );
+		}
+
+		final double dx0 = x[ 0 ] - x[ npoints - 1 ];
+		final double dy0 = y[ 0 ] - y[ npoints - 1 ];
+		length += Math.sqrt( dx0 * dx0 + dy0 * dy0 );
+
+		return length;
+	}
+
+	private static List< Point > makeHull( final List< Point > points )
+	{
+		final List< Point > newPoints = new ArrayList<>( points );
+		Collections.sort( newPoints );
+		return makeHullPresorted( newPoints );
+	}
+
+	private static List< Point > makeHullPresorted( final List< Point > points )
+	{
+		if ( points.size() <= 1 )
+			return new ArrayList<>( points );
+
+		final List< Point > upperHull = new ArrayList<>();
+		for ( final Point p : points )
+		{
+			while ( upperHull.size() >= 2 )
+			{
+				final Point q = upperHull.get( upperHull.size() - 1 );
+				final Point r = upperHull.get( upperHull.size() - 2 );
+				if ( ( q.x - r.x ) * ( p.y - r.y ) >= ( q.y - r.y ) * ( p.x - r.x ) )
+					upperHull.remove( upperHull.size() - 1 );
+				else
+					break;
+			}
+			upperHull.add( p );
+		}
+		upperHull.remove( upperHull.size() - 1 );
+
+		final List< Point > lowerHull = new ArrayList<>();
+		for ( int i = points.size() - 1; i >= 0; i-- )
+		{
+			final Point p = points.get( i );
+			while ( lowerHull.size() >= 2 )
+			{
+				final Point q = lowerHull.get( lowerHull.size() - 1 );
+				final Point r = lowerHull.get( lowerHull.size() - 2 );
+				if ( ( q.x - r.x ) * ( p.y - r.y ) >= ( q.y - r.y ) * ( p.x - r.x ) )
+					lowerHull.remove( lowerHull.size() - 1 );
+				else
+					break;
+			}
+			lowerHull.add( p );
+		}
+		lowerHull.remove( lowerHull.size() - 1 );
+
+		if ( !( upperHull.size() == 1 && upperHull.equals( lowerHull ) ) )
+			upperHull.addAll( lowerHull );
+		return upperHull;
+	}
+
+	private static final class Point implements Comparable< Point >
+	{
+
+		public final double x;
+
+		public final double y;
+
+		public Point( final double x, final double y )
+		{
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof Point ) )
+				return false;
+			else
+			{
+				final Point other = ( Point ) obj;
+				return x == other.x && y == other.y;
+			}
+		}
+
+		@Override
+		public int compareTo( final Point other )
+		{
+			if ( x != other.x )
+				return Double.compare( x, other.x );
+			else
+				return Double.compare( y, other.y );
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.Random;
+
+import fiji.plugin.trackmate.SpotRoi;
+
+/**
+ * Measures the throughput of the {@link SpotMorphologyKernel} on 1M random
+ * star-shaped polygons, as used by the shape and ellipse analyzers.
+ */
+public class SpotMorphologyBenchmark
+{
+
+	private static final int N_POLYGONS = 1_000_000;
+
+	private static final int N_DISTINCT = 10_000;
+
+	public static void main( final String[] args )
+	{
+		final Random ran = new Random( 1l );
+		final SpotRoi[] rois = new SpotRoi[ N_DISTINCT ];
+		for ( int i = 0; i < N_DISTINCT; i++ )
+		{
+			final int n = 16 + ran.nextInt( 48 );
+			final double[] x = new double[ n ];
+			final double[] y = new double[ n ];
+			final double a = 2. + 5. * ran.nextDouble();
+			final double b = 2. + 5. * ran.nextDouble();
+			for ( int j = 0; j < n; j++ )
+			{
+				final double t = 2. * Math.PI * j / n;
+				final double r = 1. + 0.2 * ran.nextDouble();
+				x[ j ] = r * a * Math.cos( t );
+				y[ j ] = r * b * Math.sin( t );
+			}
+			rois[ i ] = new SpotRoi( x, y );
+		}
+
+		final SpotMorphologyKernel kernel = new SpotMorphologyKernel();
+		for ( int rep = 0; rep < 5; rep++ )
+		{
+			final long start = System.nanoTime();
+			double sum = 0.;
+			for ( int i = 0; i < N_POLYGONS; i++ )
+			{
+				kernel.compute( rois[ i % N_DISTINCT ] );
+				sum += kernel.getArea() + kernel.getPerimeter() + kernel.getConvexArea() + kernel.getEllipseMajor();
+			}
+			final long end = System.nanoTime();
+			System.out.println( String.format( "Run %d: %d polygons in %.1f ms (%.0f polygons/s). Checksum: %.3f",
+					rep, N_POLYGONS, ( end - start ) / 1e6, N_POLYGONS / ( ( end - start ) / 1e9 ), sum ) );
+		}
+	}
+}
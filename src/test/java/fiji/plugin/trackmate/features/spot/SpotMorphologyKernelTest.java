@@ -0,0 +1,264 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotRoi;
+
+public class SpotMorphologyKernelTest
+{
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static SpotRoi ellipse( final int n, final double a, final double b, final double theta, final double x0, final double y0 )
+	{
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final double t = 2. * Math.PI * i / n;
+			final double u = a * Math.cos( t );
+			final double v = b * Math.sin( t );
+			x[ i ] = x0 + u * Math.cos( theta ) - v * Math.sin( theta );
+			y[ i ] = y0 + u * Math.sin( theta ) + v * Math.cos( theta );
+		}
+		return new SpotRoi( x, y );
+	}
+
+	private static SpotRoi star( final int nBranches, final double rIn, final double rOut )
+	{
+		final int n = 2 * nBranches;
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final double r = ( i % 2 == 0 ) ? rOut : rIn;
+			final double t = 2. * Math.PI * i / n;
+			x[ i ] = r * Math.cos( t );
+			y[ i ] = r * Math.sin( t );
+		}
+		return new SpotRoi( x, y );
+	}
+
+	@Test
+	public void testSquare()
+	{
+		final SpotRoi roi = new SpotRoi( new double[] { -1, 1, 1, -1 }, new double[] { -1, -1, 1, 1 } );
+		final SpotMorphologyKernel kernel = new SpotMorphologyKernel();
+		kernel.compute( roi );
+		assertEquals( 4., kernel.getArea(), TOLERANCE );
+		assertEquals( 8., kernel.getPerimeter(), TOLERANCE );
+		assertEquals( 4., kernel.getConvexArea(), TOLERANCE );
+	}
+
+	@Test
+	public void testConvexHull()
+	{
+		final SpotRoi roi = star( 5, 1., 2. );
+		final SpotMorphologyKernel kernel = new SpotMorphologyKernel();
+		kernel.compute( roi );
+		assertEquals( roi.area(), kernel.getArea(), TOLERANCE );
+
+		// Hull of a star is the pentagon of its branches.
+		final SpotRoi pentagon = new SpotRoi(
+				new double[] { roi.x[ 0 ], roi.x[ 2 ], roi.x[ 4 ], roi.x[ 6 ], roi.x[ 8 ] },
+				new double[] { roi.y[ 0 ], roi.y[ 2 ], roi.y[ 4 ], roi.y[ 6 ], roi.y[ 8 ] } );
+		assertEquals( pentagon.area(), kernel.getConvexArea(), TOLERANCE );
+		assertEquals( pentagon.area(), ConvexHull.convexHull( roi ).area(), TOLERANCE );
+	}
+
+	@Test
+	public void testConvexHullOrder()
+	{
+		// Sorted by X then Y, upper chain first.
+		final SpotRoi roi = new SpotRoi(
+				new double[] { 0, 2, 1, 2, 0, 1 },
+				new double[] { 0, 0, 1, 2, 2, 3 } );
+		final SpotRoi hull = ConvexHull.convexHull( roi );
+		assertArrayEquals( new double[] { 0, 0, 1, 2, 2 }, hull.x, 0. );
+		assertArrayEquals( new double[] { 0, 2, 3, 2, 0 }, hull.y, 0. );
+	}
+
+	@Test
+	public void testEllipseFit()
+	{
+		final SpotMorphologyKernel kernel = new SpotMorphologyKernel();
+		final double[] thetas = new double[] { 0.3, 1.2, Math.PI / 2. - 0.1, 2.5 };
+		for ( final double theta : thetas )
+		{
+			kernel.compute( ellipse( 50, 5., 2., theta, 1., -2. ) );
+			assertEquals( 1., kernel.getEllipseX0(), 1e-6 );
+			assertEquals( -2., kernel.getEllipseY0(), 1e-6 );
+			assertEquals( 5., kernel.getEllipseMajor(), 1e-6 );
+			assertEquals( 2., kernel.getEllipseMinor(), 1e-6 );
+			// Theta is defined modulo pi.
+			final double dtheta = Math.abs( Math.IEEEremainder( kernel.getEllipseTheta() - theta, Math.PI ) );
+			assertEquals( 0., dtheta, 1e-6 );
+		}
+	}
+
+	@Test
+	public void testReuse()
+	{
+		// Results must not depend on previous polygons.
+		final SpotMorphologyKernel kernel = new SpotMorphologyKernel();
+		final SpotRoi small = star( 3, 1., 2. );
+		kernel.compute( small );
+		final double convexArea = kernel.getConvexArea();
+		final double major = kernel.getEllipseMajor();
+
+		kernel.compute( ellipse( 200, 10., 3., 0.5, 0., 0. ) );
+		kernel.getConvexArea();
+		kernel.getEllipseMajor();
+
+		kernel.compute( small );
+		assertEquals( convexArea, kernel.getConvexArea(), 0. );
+		assertEquals( major, kernel.getEllipseMajor(), 0. );
+	}
+
+	/**
+	 * Star-shaped polygons with irregular angles and radii, centered away from
+	 * the origin.
+	 */
+	private static SpotRoi irregular( final Random ran )
+	{
+		final int n = 5 + ran.nextInt( 60 );
+		final double[] angles = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+			angles[ i ] = 2. * Math.PI * ran.nextDouble();
+		Arrays.sort( angles );
+		final double x0 = 20. * ran.nextDouble() - 10.;
+		final double y0 = 20. * ran.nextDouble() - 10.;
+		final double scale = 1. + 10. * ran.nextDouble();
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final double r = scale * ( 0.3 + 0.7 * ran.nextDouble() );
+			x[ i ] = x0 + r * Math.cos( angles[ i ] );
+			y[ i ] = y0 + r * Math.sin( angles[ i ] );
+		}
+		return new SpotRoi( x, y );
+	}
+
+	@Test
+	public void testSameAsBaselineOnIrregularPolygons()
+	{
+		final List< SpotRoi > rois = new ArrayList<>();
+		/*
+		 * L-shape, thin sliver and C-shape. They all have at least 5 vertices:
+		 * with fewer, the conic is not determined and the ellipse fit is
+		 * arbitrary.
+		 */
+		rois.add( new SpotRoi( new double[] { 0, 4, 4, 1, 1, 0 }, new double[] { 0, 0, 1, 1, 5, 5 } ) );
+		rois.add( new SpotRoi( new double[] { 0, 5, 10, 10.5, 5, 0.2 }, new double[] { 0, 0.1, 0.3, 0.9, 0.7, 0.4 } ) );
+		rois.add( new SpotRoi( new double[] { 0, 6, 6, 2, 2, 6, 6, 0 }, new double[] { 0, 0, 1.5, 1.5, 4, 4, 6, 6 } ) );
+		final Random ran = new Random( 42l );
+		for ( int i = 0; i < 200; i++ )
+			rois.add( irregular( ran ) );
+
+		final List< Spot > spots = new ArrayList<>();
+		for ( final SpotRoi roi : rois )
+		{
+			final Spot spot = new Spot( 0., 0., 0., 2., 1. );
+			spot.setRoi( roi );
+			spots.add( spot );
+		}
+		new SpotShapeAnalyzer<>( true ).process( spots );
+		new SpotFitEllipseAnalyzer<>( true ).process( spots );
+
+		for ( final Spot spot : spots )
+		{
+			final SpotRoi roi = spot.getRoi();
+			final double[] shape = SpotMorphologyBaseline.shape( roi );
+			assertClose( shape[ 0 ], spot.getFeature( SpotShapeAnalyzerFactory.AREA ) );
+			assertClose( shape[ 1 ], spot.getFeature( SpotShapeAnalyzerFactory.PERIMETER ) );
+			assertClose( shape[ 0 ] / shape[ 2 ], spot.getFeature( SpotShapeAnalyzerFactory.SOLIDITY ) );
+			assertClose( 4. * Math.PI * shape[ 0 ] / ( shape[ 1 ] * shape[ 1 ] ), spot.getFeature( SpotShapeAnalyzerFactory.CIRCULARITY ) );
+
+			final double[] ellipse = SpotMorphologyBaseline.ellipse( roi );
+			assertClose( ellipse[ 0 ], spot.getFeature( SpotFitEllipseAnalyzerFactory.X0 ) );
+			assertClose( ellipse[ 1 ], spot.getFeature( SpotFitEllipseAnalyzerFactory.Y0 ) );
+			assertClose( ellipse[ 2 ], spot.getFeature( SpotFitEllipseAnalyzerFactory.MAJOR ) );
+			assertClose( ellipse[ 3 ], spot.getFeature( SpotFitEllipseAnalyzerFactory.MINOR ) );
+			assertClose( ellipse[ 2 ] / ellipse[ 3 ], spot.getFeature( SpotFitEllipseAnalyzerFactory.ASPECTRATIO ) );
+			// The orientation of a near-circle is not defined.
+			if ( ellipse[ 2 ] > 1.01 * ellipse[ 3 ] )
+			{
+				final double dtheta = Math.IEEEremainder( spot.getFeature( SpotFitEllipseAnalyzerFactory.THETA ) - ellipse[ 4 ], Math.PI );
+				assertEquals( 0., dtheta, 1e-6 );
+			}
+		}
+	}
+
+	private static void assertClose( final double expected, final Double actual )
+	{
+		assertEquals( expected, actual.doubleValue(), 1e-6 * Math.max( 1., Math.abs( expected ) ) );
+	}
+
+	@Test
+	public void testFusedAnalyzers()
+	{
+		final SpotRoi[] rois = new SpotRoi[] {
+				ellipse( 50, 3., 1., 0.3, 1., 2. ),
+				star( 7, 1., 3. ),
+				null };
+		final List< Spot > separate = new ArrayList<>();
+		final List< Spot > fused = new ArrayList<>();
+		for ( final SpotRoi roi : rois )
+		{
+			for ( final List< Spot > spots : Arrays.asList( separate, fused ) )
+			{
+				final Spot spot = new Spot( 0., 0., 0., 2., 1. );
+				spot.setRoi( roi );
+				spots.add( spot );
+			}
+		}
+
+		new SpotShapeAnalyzer<>( true ).process( separate );
+		new SpotFitEllipseAnalyzer<>( true ).process( separate );
+
+		final List< SpotAnalyzer< ? > > analyzers = new ArrayList<>();
+		analyzers.add( new SpotShapeAnalyzer<>( true ) );
+		analyzers.add( SpotAnalyzer.DUMMY_ANALYZER );
+		analyzers.add( new SpotFitEllipseAnalyzer<>( true ) );
+		SpotMorphologyAnalyzer.fuse( analyzers );
+		assertTrue( analyzers.get( 0 ) instanceof SpotMorphologyAnalyzer );
+		assertEquals( 3, analyzers.size() );
+		for ( final SpotAnalyzer< ? > analyzer : analyzers )
+			analyzer.process( fused );
+
+		for ( int i = 0; i < rois.length; i++ )
+			assertEquals( separate.get( i ).getFeatures(), fused.get( i ).getFeatures() );
+	}
+}
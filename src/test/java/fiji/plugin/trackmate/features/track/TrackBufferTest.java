@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class TrackBufferTest
+{
+
+	private static final int DEPTH = 50;
+
+	private Model model;
+
+	private Integer trackID;
+
+	@Before
+	public void setUp()
+	{
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			// A track that splits in two halfway, spots added in reverse order.
+			final Spot[] trunk = new Spot[ DEPTH ];
+			final Spot[] branch = new Spot[ DEPTH ];
+			for ( int j = DEPTH - 1; j >= 0; j-- )
+			{
+				trunk[ j ] = new Spot( j, 0., 0., 1., j );
+				trunk[ j ].putFeature( Spot.POSITION_T, Double.valueOf( 2. * j ) );
+				model.addSpotTo( trunk[ j ], j );
+				if ( j >= DEPTH / 2 )
+				{
+					branch[ j ] = new Spot( 0., j * j, 0., 1., -j );
+					branch[ j ].putFeature( Spot.POSITION_T, Double.valueOf( 2. * j ) );
+					model.addSpotTo( branch[ j ], j );
+				}
+			}
+			for ( int j = 1; j < DEPTH; j++ )
+			{
+				model.addEdge( trunk[ j - 1 ], trunk[ j ], 1. );
+				if ( j > DEPTH / 2 )
+					model.addEdge( branch[ j - 1 ], branch[ j ], 1. );
+			}
+			model.addEdge( trunk[ DEPTH / 2 - 1 ], branch[ DEPTH / 2 ], 1. );
+			trackID = model.getTrackModel().trackIDOf( trunk[ 0 ] );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	@Test
+	public void testLoad()
+	{
+		final TrackBuffer buffer = new TrackBuffer().load( trackID, model );
+		final int nSpots = model.getTrackModel().trackSpots( trackID ).size();
+		final int nEdges = model.getTrackModel().trackEdges( trackID ).size();
+		assertEquals( nSpots, buffer.nSpots() );
+		assertEquals( nEdges, buffer.nEdges() );
+
+		// Spots are sorted by frame.
+		for ( int i = 1; i < buffer.nSpots(); i++ )
+			assertTrue( "Spots should be sorted by frame.", buffer.frames()[ i - 1 ] <= buffer.frames()[ i ] );
+
+		// Arrays are consistent with the spots.
+		for ( int i = 0; i < buffer.nSpots(); i++ )
+		{
+			final Spot spot = buffer.spots()[ i ];
+			assertEquals( spot.getFeature( Spot.FRAME ), buffer.frames()[ i ], 0. );
+			assertEquals( spot.getDoublePosition( 0 ), buffer.x()[ i ], 0. );
+			assertEquals( spot.getDoublePosition( 1 ), buffer.y()[ i ], 0. );
+			assertEquals( spot.getDoublePosition( 2 ), buffer.z()[ i ], 0. );
+			assertEquals( spot.getFeature( Spot.POSITION_T ), buffer.t()[ i ], 0. );
+			assertEquals( spot.getFeature( Spot.QUALITY ), buffer.quality()[ i ], 0. );
+		}
+
+		// Edges point to the right spots.
+		final double[] velocities = new double[ buffer.nEdges() ];
+		for ( int e = 0; e < buffer.nEdges(); e++ )
+		{
+			final Spot source = buffer.spots()[ buffer.edgeSources()[ e ] ];
+			final Spot target = buffer.spots()[ buffer.edgeTargets()[ e ] ];
+			final DefaultWeightedEdge edge = model.getTrackModel().getEdge( source, target );
+			assertSame( source, model.getTrackModel().getEdgeSource( edge ) );
+			assertSame( target, model.getTrackModel().getEdgeTarget( edge ) );
+
+			final double d = Math.sqrt( source.squareDistanceTo( target ) );
+			assertEquals( d, buffer.edgeLengths()[ e ], 1e-12 );
+			assertEquals( d / Math.abs( source.diffTo( target, Spot.POSITION_T ) ), buffer.edgeVelocities()[ e ], 1e-12 );
+			velocities[ e ] = buffer.edgeVelocities()[ e ];
+		}
+
+		Arrays.sort( velocities );
+		for ( int e = 0; e < buffer.nEdges(); e++ )
+			assertEquals( velocities[ e ], buffer.sortedEdgeVelocities()[ e ], 0. );
+	}
+
+	@Test
+	public void testPipelineMatchesStandaloneAnalyzers()
+	{
+		final List< BufferedTrackAnalyzer > analyzers = Arrays.asList(
+				new TrackDurationAnalyzer(),
+				new TrackSpeedStatisticsAnalyzer(),
+				new TrackLocationAnalyzer(),
+				new TrackSpotQualityFeatureAnalyzer(),
+				new TrackMotilityAnalyzer() );
+
+		final List< String > features = new ArrayList<>();
+		for ( final BufferedTrackAnalyzer analyzer : analyzers )
+			features.addAll( analyzer.getFeatures() );
+
+		// Standalone.
+		for ( final BufferedTrackAnalyzer analyzer : analyzers )
+			analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		final double[] expected = new double[ features.size() ];
+		for ( int i = 0; i < expected.length; i++ )
+		{
+			final Double val = model.getFeatureModel().getTrackFeature( trackID, features.get( i ) );
+			expected[ i ] = ( null == val ) ? Double.NaN : val.doubleValue();
+			model.getFeatureModel().removeTrackFeature( trackID, features.get( i ) );
+		}
+
+		// Fused.
+		TrackBufferPipeline.process( model.getTrackModel().trackIDs( false ), model, analyzers, 2 );
+		for ( int i = 0; i < expected.length; i++ )
+		{
+			final Double val = model.getFeatureModel().getTrackFeature( trackID, features.get( i ) );
+			assertEquals( "Unexpected value for " + features.get( i ), expected[ i ], ( null == val ) ? Double.NaN : val.doubleValue(), 0. );
+		}
+	}
+}
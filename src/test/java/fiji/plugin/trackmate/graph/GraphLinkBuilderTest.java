@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+public class GraphLinkBuilderTest
+{
+
+	@Test
+	public void testMergeInOrder()
+	{
+		final List< String > a = Arrays.asList( "a0", "a1", "a2" );
+		final List< String > b = Arrays.asList( "b0", "b1" );
+		final List< String > c = Arrays.asList( "c0", "c1", "c2" );
+
+		final GraphLinkBuilder< String > builder = new GraphLinkBuilder<>( 3 );
+		// Register out of order, and leave one buffer unused.
+		final GraphLinkBuilder.Links< String > bc = builder.links( 1, b, c, 1 );
+		bc.add( 0, 2, 3. );
+		bc.add( 1, 0, 4. );
+		final GraphLinkBuilder.Links< String > ab = builder.links( 0, a, b, 0 );
+		ab.add( 2, 0, 1. );
+		ab.add( 0, 1, 2. );
+		assertEquals( 4, builder.getNLinks() );
+
+		final SimpleWeightedGraph< String, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		builder.addTo( graph );
+		assertEquals( 6, graph.vertexSet().size() );
+		assertEquals( 4, graph.edgeSet().size() );
+		assertEquals( 1., graph.getEdgeWeight( graph.getEdge( "a2", "b0" ) ), 0. );
+		assertEquals( 2., graph.getEdgeWeight( graph.getEdge( "a0", "b1" ) ), 0. );
+		assertEquals( 3., graph.getEdgeWeight( graph.getEdge( "b0", "c2" ) ), 0. );
+		assertEquals( 4., graph.getEdgeWeight( graph.getEdge( "b1", "c0" ) ), 0. );
+
+		// Edges are added in buffer order.
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( graph.edgeSet() );
+		assertEquals( "a2", graph.getEdgeSource( edges.get( 0 ) ) );
+		assertEquals( "b1", graph.getEdgeSource( edges.get( 3 ) ) );
+	}
+
+	@Test
+	public void testConcurrentTasks() throws Exception
+	{
+		final int nTasks = 50;
+		final int nPerFrame = 100;
+		final List< List< Integer > > frames = new ArrayList<>();
+		for ( int t = 0; t <= nTasks; t++ )
+		{
+			final List< Integer > frame = new ArrayList<>();
+			for ( int i = 0; i < nPerFrame; i++ )
+				frame.add( Integer.valueOf( t * nPerFrame + i ) );
+			frames.add( frame );
+		}
+
+		final GraphLinkBuilder< Integer > builder = new GraphLinkBuilder<>( nTasks );
+		final ExecutorService executors = Executors.newFixedThreadPool( 4 );
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final int index = t;
+			futures.add( executors.submit( () -> {
+				// Grows past the initial capacity.
+				final GraphLinkBuilder.Links< Integer > links = builder.links( index, frames.get( index ), frames.get( index + 1 ), 1 );
+				for ( int i = 0; i < nPerFrame; i++ )
+					links.add( i, nPerFrame - 1 - i, i );
+			} ) );
+		}
+		for ( final Future< ? > future : futures )
+			future.get();
+		executors.shutdown();
+
+		assertEquals( nTasks * nPerFrame, builder.getNLinks() );
+		final SimpleWeightedGraph< Integer, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		builder.addTo( graph );
+		assertEquals( ( nTasks + 1 ) * nPerFrame, graph.vertexSet().size() );
+		assertEquals( nTasks * nPerFrame, graph.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			final int source = Math.min( graph.getEdgeSource( edge ), graph.getEdgeTarget( edge ) );
+			final int target = Math.max( graph.getEdgeSource( edge ), graph.getEdgeTarget( edge ) );
+			final int i = source % nPerFrame;
+			assertEquals( source / nPerFrame + 1, target / nPerFrame );
+			assertEquals( nPerFrame - 1 - i, target % nPerFrame );
+			assertEquals( i, graph.getEdgeWeight( edge ), 0. );
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AsciiDoubleParserTest
+{
+
+	@Test
+	public void testSameAsParseDouble()
+	{
+		final String[] strs = new String[] {
+				"0", "0.0", "-0.0", "+1", "1.", ".5", "-.5", "00012.50", "1.0E-5", "1e22", "1e23", "-2.5E+3",
+				"123456789012345.6", "9007199254740993", "0.1", "0.30000000000000004", "4.9E-324", "1.7976931348623157E308",
+				"NaN", "Infinity", "-Infinity", " 1.5 ", "1.5d", "0x1p3" };
+		for ( final String str : strs )
+			assertSame( str );
+
+		final Random ran = new Random( 1l );
+		for ( int i = 0; i < 100000; i++ )
+		{
+			assertSame( Double.toString( 1000. * ran.nextDouble() ) );
+			assertSame( Double.toString( ran.nextGaussian() * Math.pow( 10., ran.nextInt( 40 ) - 20 ) ) );
+			assertSame( Double.toString( ran.nextInt( 100000 ) ) );
+			assertSame( Double.toString( Double.longBitsToDouble( ran.nextLong() ) ) );
+			assertSame( String.format( Locale.ROOT, "%.3f", 100. * ran.nextDouble() ) );
+		}
+	}
+
+	@Test( expected = NumberFormatException.class )
+	public void testMalformed()
+	{
+		AsciiDoubleParser.parseDouble( "1.2.3" );
+	}
+
+	@Test( expected = NumberFormatException.class )
+	public void testEmpty()
+	{
+		AsciiDoubleParser.parseDouble( "" );
+	}
+
+	private static void assertSame( final String str )
+	{
+		assertEquals( str, Double.doubleToRawLongBits( Double.parseDouble( str ) ), Double.doubleToRawLongBits( AsciiDoubleParser.parseDouble( str ) ) );
+	}
+}
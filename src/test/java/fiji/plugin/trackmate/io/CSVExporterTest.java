@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class CSVExporterTest
+{
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSpots() throws IOException
+	{
+		final Model model = TestModels.createModel();
+		final Spot lonely = new Spot( 1., 2., 3., 1., 1., "lonely, \"unlinked\"" );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( lonely, Integer.valueOf( 3 ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final File all = folder.newFile( "all.csv" );
+		CSVExporter.exportSpots( all.getAbsolutePath(), model, false );
+		final List< String > lines = read( all );
+		final int nHeaderLines = lines.size() - model.getSpots().getNSpots( false );
+		assertTrue( nHeaderLines >= 2 && nHeaderLines <= 4 );
+		assertTrue( lines.get( 0 ).startsWith( "ID,LABEL,TRACK_ID,TRACK_NAME,TRACK_VISIBLE," ) );
+
+		// Spot not in a track is last, with its separators escaped.
+		final String last = lines.get( lines.size() - 1 );
+		final String label = lonely.ID() + ",lonely\", \"\"unlinked\"\",";
+		assertTrue( last.startsWith( label ) );
+		final String[] trackColumns = last.substring( label.length() ).split( "," );
+		assertEquals( trackColumns[ 0 ], trackColumns[ 1 ] );
+		assertEquals( "0", trackColumns[ 2 ] );
+
+		// Spots in tracks are written track by track, sorted by frame.
+		final String[] first = lines.get( nHeaderLines ).split( "," );
+		final Integer trackID = Integer.valueOf( first[ 2 ] );
+		final Spot spot = model.getSpots().search( Integer.parseInt( first[ 0 ] ) );
+		assertEquals( trackID, model.getTrackModel().trackIDOf( spot ) );
+		assertEquals( 0, spot.getFeature( Spot.FRAME ).intValue() );
+
+		final File visible = folder.newFile( "visible.csv" );
+		CSVExporter.exportSpots( visible.getAbsolutePath(), model, true );
+		assertEquals( lines.size() - 1, read( visible ).size() );
+	}
+
+	@Test
+	public void testParallelSameAsSerial() throws IOException
+	{
+		final Model model = TestModels.createModel();
+		assertSameExport( model, ( f, n ) -> CSVExporter.exportSpots( f, model, false, n ) );
+		assertSameExport( model, ( f, n ) -> CSVExporter.exportEdges( f, model, false, n ) );
+	}
+
+	@Test
+	public void testTracks() throws IOException
+	{
+		final Model model = TestModels.createModel();
+		final File file = folder.newFile( "tracks.csv" );
+		CSVExporter.exportTracks( file.getAbsolutePath(), model, false );
+		final List< String > lines = read( file );
+		final int nTracks = model.getTrackModel().nTracks( false );
+		assertTrue( lines.get( 0 ).startsWith( "LABEL,TRACK_VISIBLE," ) );
+		final int column = lines.get( 0 ).split( "," ).length - 1;
+		assertEquals( "TRACK_TEST_FEATURE", lines.get( 0 ).split( "," )[ column ] );
+		int i = lines.size() - nTracks;
+		for ( final Integer id : model.getTrackModel().trackIDs( false ) )
+		{
+			final String[] row = lines.get( i++ ).split( "," );
+			assertEquals( model.getTrackModel().name( id ), row[ 0 ] );
+			assertEquals( Integer.toString( id.intValue() * 10 ), row[ column ] );
+		}
+	}
+
+	private void assertSameExport( final Model model, final Exporter exporter ) throws IOException
+	{
+		final File serial = folder.newFile();
+		exporter.export( serial.getAbsolutePath(), 1 );
+		final File parallel = folder.newFile();
+		exporter.export( parallel.getAbsolutePath(), 4 );
+		assertEquals( read( serial ), read( parallel ) );
+	}
+
+	/**
+	 * The CSV files are written with the platform charset.
+	 */
+	private static List< String > read( final File file ) throws IOException
+	{
+		return Files.readAllLines( file.toPath(), Charset.defaultCharset() );
+	}
+
+	@FunctionalInterface
+	private static interface Exporter
+	{
+		public void export( String csvFile, int numThreads ) throws IOException;
+	}
+}
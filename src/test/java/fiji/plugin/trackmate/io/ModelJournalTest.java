@@ -0,0 +1,329 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackBranchingAnalyzer;
+
+public class ModelJournalTest
+{
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReplay() throws IOException
+	{
+		final File file = save( TestModels.createModel() );
+		final Model model = new TmXmlReader( file ).getModel();
+		final ModelJournal journal = ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		edit( model );
+		journal.close();
+
+		final Model recovered = new TmXmlReader( file ).getModel();
+		ModelJournal.resume( recovered, file, Logger.VOID_LOGGER ).close();
+		assertSameSpotsAndEdges( model, recovered );
+	}
+
+	@Test
+	public void testCompaction() throws IOException
+	{
+		final File file = save( TestModels.createModel() );
+		final Model model = new TmXmlReader( file ).getModel();
+		final ModelJournal journal = ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		journal.setCompactionThreshold( 2 );
+		edit( model );
+		edit( model );
+		journal.close();
+
+		final Model recovered = new TmXmlReader( file ).getModel();
+		ModelJournal.resume( recovered, file, Logger.VOID_LOGGER ).close();
+		assertSameSpotsAndEdges( model, recovered );
+	}
+
+	@Test
+	public void testRestartOnSameFile() throws IOException
+	{
+		final File file = save( TestModels.createModel() );
+		final Model model = new TmXmlReader( file ).getModel();
+		ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		edit( model );
+
+		// Saving again restarts the journal without waiting for the first one.
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendModel( model );
+		writer.writeToFile();
+		final ModelJournal journal = ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		edit( model );
+		journal.close();
+
+		final Model recovered = new TmXmlReader( file ).getModel();
+		ModelJournal.resume( recovered, file, Logger.VOID_LOGGER ).close();
+		assertSameSpotsAndEdges( model, recovered );
+	}
+
+	@Test
+	public void testTruncatedRecord() throws IOException
+	{
+		final File file = save( TestModels.createModel() );
+		final Model model = new TmXmlReader( file ).getModel();
+		final ModelJournal journal = ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		edit( model );
+		journal.close();
+		ModelJournal.awaitPendingWrites();
+
+		// A record cut short by a crash.
+		final File journalFile = ModelJournal.journalFileFor( file );
+		final long length = journalFile.length();
+		try (FileOutputStream out = new FileOutputStream( journalFile, true ))
+		{
+			out.write( new byte[] { 0, 0, 1, 0, 1, 2, 3 } );
+		}
+
+		final Model recovered = new TmXmlReader( file ).getModel();
+		ModelJournal.resume( recovered, file, Logger.VOID_LOGGER ).close();
+		assertSameSpotsAndEdges( model, recovered );
+		assertEquals( length, journalFile.length() );
+	}
+
+	@Test
+	public void testJournalOfAnotherSave() throws IOException
+	{
+		final File file = save( TestModels.createModel() );
+		final Model model = new TmXmlReader( file ).getModel();
+		final ModelJournal journal = ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		edit( model );
+		journal.close();
+
+		// The file is overwritten without the journal being restarted.
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendLog( "Another save, with a longer log." );
+		writer.appendModel( TestModels.createModel() );
+		writer.writeToFile();
+
+		final Model expected = new TmXmlReader( file ).getModel();
+		final Model recovered = new TmXmlReader( file ).getModel();
+		final ModelJournal resumed = ModelJournal.resume( recovered, file, Logger.VOID_LOGGER );
+		resumed.close();
+		assertFalse( resumed.hasReplayed() );
+		assertSameSpotsAndEdges( expected, recovered );
+	}
+
+	@Test
+	public void testFeaturesAfterReplay() throws IOException
+	{
+		final Settings settings = new Settings();
+		settings.addEdgeAnalyzer( new EdgeTargetAnalyzer() );
+		settings.addTrackAnalyzer( new TrackBranchingAnalyzer() );
+
+		final File file = save( TestModels.createModel() );
+		final Model model = new TmXmlReader( file ).getModel();
+		final ModelJournal journal = ModelJournal.start( model, file, Logger.VOID_LOGGER );
+		edit( model );
+		journal.close();
+		final TrackMate expected = new TrackMate( model, settings );
+		assertTrue( expected.computeEdgeFeatures( false ) );
+		assertTrue( expected.computeTrackFeatures( false ) );
+
+		// Recover the edits and recompute the features like the loader does.
+		final Model recovered = new TmXmlReader( file ).getModel();
+		final ModelJournal resumed = ModelJournal.resume( recovered, file, Logger.VOID_LOGGER );
+		resumed.close();
+		assertTrue( resumed.hasReplayed() );
+		final TrackMate trackmate = new TrackMate( recovered, settings );
+		assertTrue( trackmate.computeEdgeFeatures( false ) );
+		assertTrue( trackmate.computeTrackFeatures( false ) );
+
+		assertSameSpotsAndEdges( model, recovered );
+		final Map< Integer, Spot > spots = new HashMap<>();
+		for ( final Spot spot : recovered.getSpots().iterable( false ) )
+			spots.put( spot.ID(), spot );
+		final TrackModel etm = model.getTrackModel();
+		final TrackModel atm = recovered.getTrackModel();
+		for ( final DefaultWeightedEdge e : etm.edgeSet() )
+		{
+			final DefaultWeightedEdge a = atm.getEdge( spots.get( etm.getEdgeSource( e ).ID() ), spots.get( etm.getEdgeTarget( e ).ID() ) );
+			for ( final String feature : EdgeTargetAnalyzer.FEATURES )
+			{
+				assertNotNull( recovered.getFeatureModel().getEdgeFeature( a, feature ) );
+				assertEquals( model.getFeatureModel().getEdgeFeature( e, feature ), recovered.getFeatureModel().getEdgeFeature( a, feature ) );
+			}
+		}
+		assertEquals( etm.nTracks( false ), atm.nTracks( false ) );
+		for ( final Integer id : etm.trackIDs( false ) )
+		{
+			final Spot first = etm.trackSpots( id ).iterator().next();
+			final Integer recoveredID = atm.trackIDOf( spots.get( first.ID() ) );
+			for ( final String feature : TrackBranchingAnalyzer.FEATURES )
+			{
+				assertNotNull( recovered.getFeatureModel().getTrackFeature( recoveredID, feature ) );
+				assertEquals( model.getFeatureModel().getTrackFeature( id, feature ), recovered.getFeatureModel().getTrackFeature( recoveredID, feature ) );
+			}
+		}
+	}
+
+	private File save( final Model model ) throws IOException
+	{
+		final File file = folder.newFile( "TrackMate.xml" );
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendLog( "Some log." );
+		writer.appendModel( model );
+		writer.writeToFile();
+		return file;
+	}
+
+	/**
+	 * Edits the model in several transactions.
+	 */
+	private static void edit( final Model model )
+	{
+		final TrackModel tm = model.getTrackModel();
+
+		// Add a spot with a ROI, linked to a spot of the previous frame.
+		model.beginUpdate();
+		try
+		{
+			final Spot previous = model.getSpots().iterable( 4, false ).iterator().next();
+			final Spot spot = new Spot( 10., 20., 0., 2., 1., "added" );
+			spot.setRoi( new SpotRoi( new double[] { -2., 2., 0. }, new double[] { -1., -1., 2. } ) );
+			model.addSpotTo( spot, 5 );
+			model.addEdge( previous, spot, 3. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Remove a spot and its edges.
+		model.beginUpdate();
+		try
+		{
+			model.removeSpot( model.getSpots().iterable( 10, false ).iterator().next() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Move a spot to another frame, and change its position.
+		model.beginUpdate();
+		try
+		{
+			final Spot spot = model.getSpots().iterable( 20, false ).iterator().next();
+			model.moveSpotFrom( spot, 20, 21 );
+			spot.putFeature( Spot.POSITION_X, 55. );
+			model.updateFeatures( spot );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Remove an edge, change the weight of another.
+		model.beginUpdate();
+		try
+		{
+			final Iterator< DefaultWeightedEdge > it = tm.edgeSet().iterator();
+			final DefaultWeightedEdge toRemove = it.next();
+			final DefaultWeightedEdge toChange = it.next();
+			model.removeEdge( toRemove );
+			model.setEdgeWeight( toChange, 42. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Remove a spot and add it back in the same transaction.
+		model.beginUpdate();
+		try
+		{
+			final Spot spot = model.getSpots().iterable( 15, false ).iterator().next();
+			model.removeSpot( spot );
+			model.addSpotTo( spot, 16 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	private static void assertSameSpotsAndEdges( final Model expected, final Model actual )
+	{
+		assertEquals( expected.getSpots().getNSpots( false ), actual.getSpots().getNSpots( false ) );
+		final Map< Integer, Spot > spots = new HashMap<>();
+		for ( final Spot spot : actual.getSpots().iterable( false ) )
+			spots.put( spot.ID(), spot );
+		for ( final Spot e : expected.getSpots().iterable( false ) )
+		{
+			final Spot a = spots.get( e.ID() );
+			assertNotNull( a );
+			assertEquals( e.getName(), a.getName() );
+			assertEquals( e.getFeatures(), a.getFeatures() );
+			if ( null == e.getRoi() )
+			{
+				assertNull( a.getRoi() );
+			}
+			else
+			{
+				assertArrayEquals( e.getRoi().x, a.getRoi().x, 0. );
+				assertArrayEquals( e.getRoi().y, a.getRoi().y, 0. );
+			}
+		}
+
+		final TrackModel etm = expected.getTrackModel();
+		final TrackModel atm = actual.getTrackModel();
+		assertEquals( etm.edgeSet().size(), atm.edgeSet().size() );
+		for ( final DefaultWeightedEdge e : etm.edgeSet() )
+		{
+			final DefaultWeightedEdge a = atm.getEdge( spots.get( etm.getEdgeSource( e ).ID() ), spots.get( etm.getEdgeTarget( e ).ID() ) );
+			assertNotNull( a );
+			assertEquals( etm.getEdgeWeight( e ), atm.getEdgeWeight( a ), 0. );
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ParallelGZIPOutputStreamTest
+{
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		// Compressible data spanning several blocks.
+		final Random ran = new Random( 1l );
+		final StringBuilder str = new StringBuilder();
+		while ( str.length() < 5_000_000 )
+			str.append( "<Spot ID=\"" ).append( ran.nextInt() ).append( "\" POSITION_X=\"" ).append( ran.nextDouble() ).append( "\" />\n" );
+		final byte[] data = str.toString().getBytes( "UTF-8" );
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try (final ParallelGZIPOutputStream gzos = new ParallelGZIPOutputStream( bos, numThreads ))
+			{
+				// Mix single bytes and chunks of various sizes.
+				int offset = 0;
+				while ( offset < data.length )
+				{
+					if ( ran.nextInt( 10 ) == 0 )
+					{
+						gzos.write( data[ offset++ ] );
+						continue;
+					}
+					final int length = Math.min( data.length - offset, ran.nextInt( 100_000 ) );
+					gzos.write( data, offset, length );
+					offset += length;
+				}
+			}
+			assertArrayEquals( data, gunzip( bos.toByteArray() ) );
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new ParallelGZIPOutputStream( bos, 2 ).close();
+		assertArrayEquals( new byte[ 0 ], gunzip( bos.toByteArray() ) );
+	}
+
+	private static byte[] gunzip( final byte[] compressed ) throws IOException
+	{
+		try (final InputStream is = new GZIPInputStream( new ByteArrayInputStream( compressed ) ))
+		{
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 8192 ];
+			int n;
+			while ( ( n = is.read( buffer ) ) > 0 )
+				bos.write( buffer, 0, n );
+			return bos.toByteArray();
+		}
+	}
+}
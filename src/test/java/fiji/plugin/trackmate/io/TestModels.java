@@ -0,0 +1,240 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * Models shared by the IO tests, and their comparison.
+ */
+final class TestModels
+{
+
+	static final String EDGE_FEATURE = "EDGE_TEST_FEATURE";
+
+	static final String TRACK_FEATURE = "TRACK_TEST_FEATURE";
+
+	private static final int N_TRACKS = 20;
+
+	private static final int DEPTH = 30;
+
+	private TestModels()
+	{}
+
+	/**
+	 * Creates a model with linear tracks, a few spot ROIs, and declared edge
+	 * and track features.
+	 */
+	static Model createModel()
+	{
+		final Random ran = new Random( 1l );
+		final Model source = new Model();
+		source.setPhysicalUnits( "µm", "min" );
+		source.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int t = 0; t < DEPTH; t++ )
+				{
+					final Spot spot = new Spot( 100. * ran.nextDouble(), 100. * ran.nextDouble(), 0., 1. + ran.nextDouble(), ran.nextDouble() );
+					if ( t % 7 == 0 )
+						spot.setRoi( new SpotRoi( new double[] { -1., 1., 1. }, new double[] { -1., -1., 1. } ) );
+					source.addSpotTo( spot, Integer.valueOf( t ) );
+					if ( null != previous )
+						source.addEdge( previous, spot, ran.nextDouble() );
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			source.endUpdate();
+		}
+
+		final FeatureModel fm = source.getFeatureModel();
+		fm.declareEdgeFeatures( Collections.singleton( EDGE_FEATURE ), Collections.singletonMap( EDGE_FEATURE, "Edge feature" ),
+				Collections.singletonMap( EDGE_FEATURE, "E" ), Collections.singletonMap( EDGE_FEATURE, Dimension.LENGTH ),
+				Collections.singletonMap( EDGE_FEATURE, Boolean.FALSE ) );
+		fm.declareTrackFeatures( Collections.singleton( TRACK_FEATURE ), Collections.singletonMap( TRACK_FEATURE, "Track feature" ),
+				Collections.singletonMap( TRACK_FEATURE, "T" ), Collections.singletonMap( TRACK_FEATURE, Dimension.NONE ),
+				Collections.singletonMap( TRACK_FEATURE, Boolean.TRUE ) );
+		final TrackModel tm = source.getTrackModel();
+		for ( final DefaultWeightedEdge edge : tm.edgeSet() )
+			fm.putEdgeFeature( edge, EDGE_FEATURE, ran.nextDouble() );
+		for ( final Integer id : tm.trackIDs( false ) )
+			fm.putTrackFeature( id, TRACK_FEATURE, Double.valueOf( id.intValue() * 10 ) );
+		return source;
+	}
+
+	/**
+	 * Creates a model with spot ROIs, spot and track names that need
+	 * escaping, empty frames, a track without edges and a filtered-out track.
+	 */
+	static Model createCornerCaseModel()
+	{
+		final Random ran = new Random( 3l );
+		final String[] spotNames = new String[] { "<a & b>", "\"quoted\" 'twice'", "tab\tand\nnew line\r", "ø µm", "plain" };
+
+		final SpotCollection spots = new SpotCollection();
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final Map< Integer, Set< Spot > > trackSpots = new HashMap<>();
+		final Map< Integer, Set< DefaultWeightedEdge > > trackEdges = new HashMap<>();
+		final Map< Integer, Boolean > visibility = new HashMap<>();
+		final Map< Integer, String > names = new HashMap<>();
+		for ( int i = 0; i < 4; i++ )
+		{
+			final Set< Spot > tSpots = new HashSet<>();
+			final Set< DefaultWeightedEdge > tEdges = new HashSet<>();
+			Spot previous = null;
+			for ( int t = 0; t < 7; t++ )
+			{
+				// Frame 3 is empty.
+				if ( t == 3 )
+					continue;
+				final Spot spot = new Spot( 100. * ran.nextDouble(), 100. * ran.nextDouble(), 0., 1. + ran.nextDouble(), ran.nextDouble() );
+				spot.setName( spotNames[ ( i + t ) % spotNames.length ] );
+				spot.putFeature( "UNDECLARED", Double.valueOf( ran.nextInt( 10 ) ) );
+				if ( ( i + t ) % 3 == 0 )
+					spot.setRoi( new SpotRoi( new double[] { -1., 1., 1.5 }, new double[] { -1., -1., 1e-7 } ) );
+				spots.add( spot, Integer.valueOf( t ) );
+				graph.addVertex( spot );
+				tSpots.add( spot );
+
+				// The last track is a single spot, without edge.
+				if ( i == 3 )
+					break;
+
+				if ( null != previous )
+				{
+					final DefaultWeightedEdge edge = graph.addEdge( previous, spot );
+					graph.setEdgeWeight( edge, ran.nextDouble() );
+					tEdges.add( edge );
+				}
+				previous = spot;
+			}
+			final Integer id = Integer.valueOf( i );
+			trackSpots.put( id, tSpots );
+			trackEdges.put( id, tEdges );
+			visibility.put( id, Boolean.valueOf( i != 1 ) );
+			names.put( id, "Track <" + i + "> & \"co\"" );
+		}
+		spots.put( 3, Collections.emptyList() );
+		spots.put( 9, Collections.emptyList() );
+
+		final Model model = new Model();
+		model.setPhysicalUnits( "µm", "min" );
+		model.setSpots( spots, false );
+		model.getTrackModel().from( graph, trackSpots, trackEdges, visibility, names );
+
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareEdgeFeatures( Collections.singleton( EDGE_FEATURE ), Collections.singletonMap( EDGE_FEATURE, "Edge <feature>" ),
+				Collections.singletonMap( EDGE_FEATURE, "E" ), Collections.singletonMap( EDGE_FEATURE, Dimension.LENGTH ),
+				Collections.singletonMap( EDGE_FEATURE, Boolean.FALSE ) );
+		fm.declareTrackFeatures( Collections.singleton( TRACK_FEATURE ), Collections.singletonMap( TRACK_FEATURE, "Track & feature" ),
+				Collections.singletonMap( TRACK_FEATURE, "T" ), Collections.singletonMap( TRACK_FEATURE, Dimension.NONE ),
+				Collections.singletonMap( TRACK_FEATURE, Boolean.TRUE ) );
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+			fm.putEdgeFeature( edge, EDGE_FEATURE, ran.nextDouble() );
+		for ( final Integer id : model.getTrackModel().trackIDs( false ) )
+			fm.putTrackFeature( id, TRACK_FEATURE, Double.valueOf( id.intValue() * 10 + 0.7 ) );
+		return model;
+	}
+
+	/**
+	 * Checks that two models have the same units, spots, tracks, edges and
+	 * feature values.
+	 */
+	static void assertSameModel( final Model expected, final Model actual )
+	{
+		assertNotNull( actual );
+		assertEquals( expected.getSpaceUnits(), actual.getSpaceUnits() );
+		assertEquals( expected.getTimeUnits(), actual.getTimeUnits() );
+
+		// Spots.
+		assertEquals( expected.getSpots().getNSpots( false ), actual.getSpots().getNSpots( false ) );
+		final Map< Integer, Spot > spots = new HashMap<>();
+		for ( final Spot spot : actual.getSpots().iterable( false ) )
+			spots.put( spot.ID(), spot );
+		for ( final Spot e : expected.getSpots().iterable( false ) )
+		{
+			final Spot a = spots.get( e.ID() );
+			assertNotNull( a );
+			assertEquals( e.getName(), a.getName() );
+			assertEquals( e.getFeatures(), a.getFeatures() );
+			if ( null == e.getRoi() )
+			{
+				assertEquals( null, a.getRoi() );
+			}
+			else
+			{
+				assertArrayEquals( e.getRoi().x, a.getRoi().x, 0. );
+				assertArrayEquals( e.getRoi().y, a.getRoi().y, 0. );
+			}
+		}
+
+		// Tracks and edges.
+		final TrackModel etm = expected.getTrackModel();
+		final TrackModel atm = actual.getTrackModel();
+		assertEquals( etm.trackIDs( false ), atm.trackIDs( false ) );
+		assertEquals( etm.trackIDs( true ), atm.trackIDs( true ) );
+		for ( final Integer id : etm.trackIDs( false ) )
+		{
+			assertEquals( etm.name( id ), atm.name( id ) );
+			assertEquals( etm.trackEdges( id ).size(), atm.trackEdges( id ).size() );
+			for ( final String feature : expected.getFeatureModel().getTrackFeatures() )
+				assertEquals( expected.getFeatureModel().getTrackFeature( id, feature ), actual.getFeatureModel().getTrackFeature( id, feature ) );
+		}
+		assertEquals( etm.edgeSet().size(), atm.edgeSet().size() );
+		for ( final DefaultWeightedEdge e : etm.edgeSet() )
+		{
+			final Spot source = spots.get( etm.getEdgeSource( e ).ID() );
+			final Spot target = spots.get( etm.getEdgeTarget( e ).ID() );
+			final DefaultWeightedEdge a = atm.getEdge( source, target );
+			assertNotNull( a );
+			assertEquals( etm.getEdgeWeight( e ), atm.getEdgeWeight( a ), 0. );
+			for ( final String feature : expected.getFeatureModel().getEdgeFeatures() )
+				assertEquals( expected.getFeatureModel().getEdgeFeature( e, feature ), actual.getFeatureModel().getEdgeFeature( a, feature ) );
+		}
+	}
+}
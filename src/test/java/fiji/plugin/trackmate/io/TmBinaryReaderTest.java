@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TestModels.assertSameModel;
+import static fiji.plugin.trackmate.io.TestModels.createModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+
+public class TmBinaryReaderTest
+{
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final Model source = createModel();
+
+		final File file = File.createTempFile( "TrackMate-", "." + TmBinaryKeys.EXTENSION );
+		file.deleteOnExit();
+		final TmBinaryWriter writer = new TmBinaryWriter( file );
+		writer.appendLog( "Some log." );
+		writer.appendModel( source );
+		writer.writeToFile();
+
+		final TmBinaryReader reader = new TmBinaryReader( file );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( "Some log.", reader.getLog() );
+		final Model model = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertSameModel( source, model );
+
+		// Models can be read several times.
+		assertSameModel( source, reader.getModel() );
+	}
+
+	@Test
+	public void testConvert() throws IOException
+	{
+		final File xmlFile = File.createTempFile( "TrackMate-", ".xml" );
+		xmlFile.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( xmlFile );
+		writer.appendLog( "Some log." );
+		writer.appendModel( createModel() );
+		writer.writeToFile();
+
+		final File binaryFile = File.createTempFile( "TrackMate-", "." + TmBinaryKeys.EXTENSION );
+		binaryFile.deleteOnExit();
+		assertTrue( TmBinaryWriter.convert( xmlFile, binaryFile, Logger.VOID_LOGGER ) );
+
+		final TmXmlReader expectedReader = new TmXmlReader( xmlFile );
+		final TmBinaryReader reader = new TmBinaryReader( binaryFile );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( expectedReader.getVersion(), reader.getVersion() );
+		assertEquals( expectedReader.getLog(), reader.getLog() );
+		assertSameModel( expectedReader.getModel(), reader.getModel() );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+	}
+
+	@Test
+	public void testNoModel() throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate-", "." + TmBinaryKeys.EXTENSION );
+		file.deleteOnExit();
+		final TmBinaryWriter writer = new TmBinaryWriter( file );
+		writer.appendLog( "Some log." );
+		writer.writeToFile();
+
+		final TmBinaryReader reader = new TmBinaryReader( file );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertNull( reader.getModel() );
+	}
+
+	@Test
+	public void testNotABinaryFile() throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate-", "." + TmBinaryKeys.EXTENSION );
+		file.deleteOnExit();
+		try (final FileOutputStream fos = new FileOutputStream( file ))
+		{
+			fos.write( "<TrackMate version=\"7.0.0\" />".getBytes( "UTF-8" ) );
+		}
+
+		final TmBinaryReader reader = new TmBinaryReader( file );
+		assertFalse( reader.isReadingOk() );
+	}
+
+	@Test
+	public void testColumnTooLarge() throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate-", "." + TmBinaryKeys.EXTENSION );
+		file.deleteOnExit();
+		final TmBinaryWriter writer = new TmBinaryWriter( file );
+		writer.appendModel( createModel() );
+		writer.writeToFile();
+
+		// Make the spot ID column larger than what can be mapped.
+		final byte[] name = ( "\0\u0008" + TmBinaryKeys.SPOT_ID_COLUMN ).getBytes( StandardCharsets.UTF_8 );
+		final int index = indexOf( Files.readAllBytes( file.toPath() ), name );
+		assertTrue( index > 0 );
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+		{
+			raf.seek( index + name.length + 8 );
+			raf.writeLong( TmBinaryKeys.MAX_COLUMN_SIZE + 8 );
+		}
+
+		final TmBinaryReader reader = new TmBinaryReader( file );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertNull( reader.getModel() );
+		assertFalse( reader.isReadingOk() );
+		assertTrue( reader.getErrorMessage(), reader.getErrorMessage().contains( TmBinaryKeys.SPOT_ID_COLUMN ) );
+	}
+
+	@Test
+	public void testCorruptMetadata() throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate-", "." + TmBinaryKeys.EXTENSION );
+		file.deleteOnExit();
+		final TmBinaryWriter writer = new TmBinaryWriter( file );
+		writer.appendModel( createModel() );
+		writer.writeToFile();
+		final byte[] bytes = Files.readAllBytes( file.toPath() );
+
+		// Unknown feature dimension.
+		final byte[] dimension = "\0\u0006LENGTH".getBytes( StandardCharsets.UTF_8 );
+		final int index = indexOf( bytes, dimension );
+		assertTrue( index > 0 );
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+		{
+			raf.seek( index + 2 );
+			raf.write( "LENGTX".getBytes( StandardCharsets.UTF_8 ) );
+		}
+		TmBinaryReader reader = new TmBinaryReader( file );
+		assertFalse( reader.isReadingOk() );
+		assertTrue( reader.getErrorMessage(), reader.getErrorMessage().contains( "LENGTX" ) );
+
+		// Metadata block larger than the file.
+		Files.write( file.toPath(), bytes );
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+		{
+			raf.seek( 24 );
+			raf.writeLong( Long.MAX_VALUE );
+		}
+		reader = new TmBinaryReader( file );
+		assertFalse( reader.isReadingOk() );
+		assertTrue( reader.getErrorMessage(), reader.getErrorMessage().contains( "metadata" ) );
+	}
+
+	private static int indexOf( final byte[] bytes, final byte[] pattern )
+	{
+		for ( int i = 0; i < bytes.length - pattern.length; i++ )
+			if ( Arrays.equals( pattern, Arrays.copyOfRange( bytes, i, i + pattern.length ) ) )
+				return i;
+		return -1;
+	}
+}
@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TestModels.assertSameModel;
+import static fiji.plugin.trackmate.io.TestModels.createModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+
+public class TmXmlReaderTest
+{
+
+	@Test
+	public void testParallelSpotParsing() throws IOException
+	{
+		final Model source = createModel();
+		final File file = File.createTempFile( "TrackMate-", ".xml" );
+		file.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendModel( source );
+		writer.writeToFile();
+
+		final TmXmlReader serialReader = new TmXmlReader( file );
+		serialReader.setNumThreads( 1 );
+		final Model expected = serialReader.getModel();
+		assertTrue( serialReader.getErrorMessage(), serialReader.isReadingOk() );
+
+		final TmXmlReader parallelReader = new TmXmlReader( file );
+		parallelReader.setNumThreads( 4 );
+		final Model actual = parallelReader.getModel();
+		assertTrue( parallelReader.getErrorMessage(), parallelReader.isReadingOk() );
+
+		assertSameModel( expected, actual );
+		assertSameModel( source, actual );
+	}
+
+	@Test
+	public void testCompressedFile() throws IOException
+	{
+		final Model source = createModel();
+		final File file = File.createTempFile( "TrackMate-", "." + IOUtils.XML_GZ_EXTENSION );
+		file.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendLog( "Some log." );
+		writer.appendModel( source );
+		writer.writeToFile();
+		assertTrue( IOUtils.isGzipFile( file ) );
+
+		final TmXmlReader reader = new TmXmlReader( file );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( "Some log.", reader.getLog() );
+		assertSameModel( source, reader.getModel() );
+
+		final TmXmlStreamReader streamReader = new TmXmlStreamReader( file );
+		assertTrue( streamReader.getErrorMessage(), streamReader.isReadingOk() );
+		assertSameModel( source, streamReader.getModel() );
+	}
+}
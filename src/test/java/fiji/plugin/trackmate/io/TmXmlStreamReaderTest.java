@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TestModels.TRACK_FEATURE;
+import static fiji.plugin.trackmate.io.TestModels.assertSameModel;
+import static fiji.plugin.trackmate.io.TestModels.createModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+public class TmXmlStreamReaderTest
+{
+
+	@Test
+	public void testSameModelAsJDOMReader() throws IOException
+	{
+		final Model source = createModel();
+		final File file = File.createTempFile( "TrackMate-", ".xml" );
+		file.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendLog( "Some log." );
+		writer.appendModel( source );
+		writer.writeToFile();
+
+		final TmXmlReader expectedReader = new TmXmlReader( file );
+		final Model expected = expectedReader.getModel();
+		final TmXmlStreamReader reader = new TmXmlStreamReader( file );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( expectedReader.getVersion(), reader.getVersion() );
+		assertEquals( expectedReader.getLog(), reader.getLog() );
+
+		final Model model = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertSameModel( expected, model );
+
+		// Second call streams the file again.
+		assertSameModel( expected, reader.getModel() );
+	}
+
+	@Test
+	public void testSubsetOfFramesAndTracks() throws IOException
+	{
+		final Model source = createModel();
+		final File file = writeIndexed( source );
+		final List< Integer > trackIDs = new ArrayList<>( source.getTrackModel().trackIDs( false ) ).subList( 0, 3 );
+		final ModelSubset subset = new ModelSubset().frames( 5, 14 ).tracks( trackIDs );
+
+		final TmXmlStreamReader reader = new TmXmlStreamReader( file, subset );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( "Some log.", reader.getLog() );
+		final Model model = reader.getModel();
+		assertEquals( 30, model.getSpots().getNSpots( false ) );
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+		{
+			final int frame = spot.getFeature( Spot.FRAME ).intValue();
+			assertTrue( frame >= 5 && frame <= 14 );
+		}
+		final TrackModel tm = model.getTrackModel();
+		assertEquals( trackIDs.size(), tm.nTracks( false ) );
+		for ( final Integer id : trackIDs )
+		{
+			assertEquals( 9, tm.trackEdges( id ).size() );
+			assertEquals( source.getTrackModel().name( id ), tm.name( id ) );
+			assertEquals( source.getFeatureModel().getTrackFeature( id, TRACK_FEATURE ), model.getFeatureModel().getTrackFeature( id, TRACK_FEATURE ) );
+		}
+
+		// Without a valid index, the file is streamed.
+		assertTrue( file.setLastModified( file.lastModified() - 10000l ) );
+		assertSameModel( model, new TmXmlStreamReader( file, subset ).getModel() );
+	}
+
+	@Test
+	public void testSubsetOfBox() throws IOException
+	{
+		final Model source = createModel();
+		final File file = writeIndexed( source );
+		final ModelSubset subset = new ModelSubset().box( 0., 0., -1., 50., 100., 1. );
+
+		final Model model = new TmXmlStreamReader( file, subset ).getModel();
+		int nspots = 0;
+		for ( final Spot spot : source.getSpots().iterable( false ) )
+			if ( spot.getDoublePosition( 0 ) <= 50. )
+				nspots++;
+		assertEquals( nspots, model.getSpots().getNSpots( false ) );
+
+		// Tracks cut by the box are split in pieces.
+		final TrackModel tm = model.getTrackModel();
+		assertTrue( tm.nTracks( false ) > source.getTrackModel().nTracks( false ) );
+		for ( final Integer id : tm.trackIDs( false ) )
+			assertEquals( tm.trackSpots( id ).size() - 1, tm.trackEdges( id ).size() );
+
+		assertTrue( TmXmlIndex.indexFileFor( file ).delete() );
+		assertSameModel( model, new TmXmlStreamReader( file, subset ).getModel() );
+	}
+
+	private static File writeIndexed( final Model model ) throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate-", ".xml" );
+		file.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendLog( "Some log." );
+		writer.appendModel( model );
+		writer.writeToFile();
+
+		final File indexFile = TmXmlIndex.indexFileFor( file );
+		indexFile.deleteOnExit();
+		assertTrue( indexFile.exists() );
+		return file;
+	}
+}
@@ -0,0 +1,303 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DIMENSION_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ISINT_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.PLUGIN_VERSION_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdom2.Attribute;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+public class TmXmlWriterTest
+{
+
+	/**
+	 * The model section is streamed by {@link TmXmlModelWriter}. Its output
+	 * must be byte-identical to what {@link XMLOutputter} writes in the pretty
+	 * format for the JDOM tree TrackMate used to build for the same model.
+	 */
+	@Test
+	public void testSameBytesAsJDOMTree() throws IOException
+	{
+		final Model model = TestModels.createCornerCaseModel();
+
+		final File file = File.createTempFile( "TrackMate-", ".xml" );
+		file.deleteOnExit();
+		TmXmlIndex.indexFileFor( file ).deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendModel( model );
+		writer.writeToFile();
+		final byte[] actual = Files.readAllBytes( file.toPath() );
+
+		final Element root = new Element( ROOT_ELEMENT_KEY );
+		root.setAttribute( PLUGIN_VERSION_ATTRIBUTE_NAME, TrackMate.PLUGIN_NAME_VERSION );
+		root.addContent( echoModel( model ) );
+		final Document document = new Document( root );
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		new XMLOutputter( Format.getPrettyFormat() ).output( document, expected );
+
+		assertEquals( new String( expected.toByteArray(), StandardCharsets.UTF_8 ), new String( actual, StandardCharsets.UTF_8 ) );
+		assertArrayEquals( expected.toByteArray(), actual );
+
+		// Same thing when printing to a string.
+		final TmXmlWriter stringWriter = new TmXmlWriter( file );
+		stringWriter.appendModel( model );
+		assertEquals( new XMLOutputter( Format.getPrettyFormat() ).outputString( document ), stringWriter.toString() );
+	}
+
+	/*
+	 * The JDOM tree TmXmlWriter built for the model before it was streamed.
+	 */
+
+	private static Element echoModel( final Model model )
+	{
+		final Element modelElement = new Element( MODEL_ELEMENT_KEY );
+		modelElement.setAttribute( SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits() );
+		modelElement.setAttribute( TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits() );
+		modelElement.addContent( echoFeaturesDeclaration( model ) );
+		modelElement.addContent( echoSpots( model ) );
+		modelElement.addContent( echoTracks( model ) );
+		modelElement.addContent( echoFilteredTracks( model ) );
+		return modelElement;
+	}
+
+	private static Element echoTracks( final Model model )
+	{
+		final Element allTracksElement = new Element( TRACK_COLLECTION_ELEMENT_KEY );
+
+		final List< String > trackFeatures = new ArrayList<>( model.getFeatureModel().getTrackFeatures() );
+		trackFeatures.remove( TrackIndexAnalyzer.TRACK_ID );
+		final List< String > edgeFeatures = new ArrayList<>( model.getFeatureModel().getEdgeFeatures() );
+		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_SOURCE_ID );
+		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_TARGET_ID );
+
+		for ( final int trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			final Element trackElement = new Element( TRACK_ELEMENT_KEY );
+			trackElement.setAttribute( TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name( trackID ) );
+			trackElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, Integer.toString( trackID ) );
+			for ( final String feature : trackFeatures )
+			{
+				final Double val = model.getFeatureModel().getTrackFeature( trackID, feature );
+				if ( null == val )
+					continue;
+				final String str;
+				if ( model.getFeatureModel().getTrackFeatureIsInt().get( feature ).booleanValue() )
+					str = Integer.toString( val.intValue() );
+				else
+					str = val.toString();
+				trackElement.setAttribute( feature, str );
+			}
+
+			final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
+			if ( track.isEmpty() )
+				continue;
+
+			for ( final DefaultWeightedEdge edge : track )
+			{
+				final Element edgeElement = new Element( TRACK_EDGE_ELEMENT_KEY );
+				final int sourceFrame = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
+				final int targetFrame = model.getTrackModel().getEdgeTarget( edge ).getFeature( Spot.FRAME ).intValue();
+				final int sourceID;
+				final int targetID;
+				if ( targetFrame >= sourceFrame )
+				{
+					sourceID = model.getTrackModel().getEdgeSource( edge ).ID();
+					targetID = model.getTrackModel().getEdgeTarget( edge ).ID();
+				}
+				else
+				{
+					sourceID = model.getTrackModel().getEdgeTarget( edge ).ID();
+					targetID = model.getTrackModel().getEdgeSource( edge ).ID();
+				}
+				edgeElement.setAttribute( EdgeTargetAnalyzer.SPOT_SOURCE_ID, Integer.toString( sourceID ) );
+				edgeElement.setAttribute( EdgeTargetAnalyzer.SPOT_TARGET_ID, Integer.toString( targetID ) );
+				for ( final String feature : edgeFeatures )
+				{
+					final Double val = model.getFeatureModel().getEdgeFeature( edge, feature );
+					if ( null == val )
+						continue;
+					final String str;
+					if ( model.getFeatureModel().getEdgeFeatureIsInt().get( feature ).booleanValue() )
+						str = Integer.toString( val.intValue() );
+					else
+						str = val.toString();
+					edgeElement.setAttribute( feature, str );
+				}
+				trackElement.addContent( edgeElement );
+			}
+			allTracksElement.addContent( trackElement );
+		}
+		return allTracksElement;
+	}
+
+	private static Element echoFilteredTracks( final Model model )
+	{
+		final Element filteredTracksElement = new Element( FILTERED_TRACK_ELEMENT_KEY );
+		for ( final int trackID : model.getTrackModel().trackIDs( true ) )
+		{
+			final Element trackIDElement = new Element( TRACK_ID_ELEMENT_KEY );
+			trackIDElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, "" + trackID );
+			filteredTracksElement.addContent( trackIDElement );
+		}
+		return filteredTracksElement;
+	}
+
+	private static Element echoSpots( final Model model )
+	{
+		final SpotCollection spots = model.getSpots();
+		final Element spotCollectionElement = new Element( SPOT_COLLECTION_ELEMENT_KEY );
+		spotCollectionElement.setAttribute( SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + spots.getNSpots( false ) );
+		for ( final int frame : spots.keySet() )
+		{
+			final Element frameSpotsElement = new Element( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
+			frameSpotsElement.setAttribute( FRAME_ATTRIBUTE_NAME, "" + frame );
+			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
+				frameSpotsElement.addContent( marshalSpot( it.next(), model.getFeatureModel() ) );
+			spotCollectionElement.addContent( frameSpotsElement );
+		}
+		return spotCollectionElement;
+	}
+
+	private static Element echoFeaturesDeclaration( final Model model )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final Element featuresElement = new Element( FEATURE_DECLARATIONS_ELEMENT_KEY );
+		featuresElement.addContent( echoFeatures( SPOT_FEATURES_ELEMENT_KEY, fm.getSpotFeatures(), fm.getSpotFeatureNames(),
+				fm.getSpotFeatureShortNames(), fm.getSpotFeatureDimensions(), fm.getSpotFeatureIsInt() ) );
+		featuresElement.addContent( echoFeatures( EDGE_FEATURES_ELEMENT_KEY, fm.getEdgeFeatures(), fm.getEdgeFeatureNames(),
+				fm.getEdgeFeatureShortNames(), fm.getEdgeFeatureDimensions(), fm.getEdgeFeatureIsInt() ) );
+		featuresElement.addContent( echoFeatures( TRACK_FEATURES_ELEMENT_KEY, fm.getTrackFeatures(), fm.getTrackFeatureNames(),
+				fm.getTrackFeatureShortNames(), fm.getTrackFeatureDimensions(), fm.getTrackFeatureIsInt() ) );
+		return featuresElement;
+	}
+
+	private static Element echoFeatures( final String key, final Collection< String > features, final Map< String, String > featureNames,
+			final Map< String, String > featureShortNames, final Map< String, Dimension > featureDimensions, final Map< String, Boolean > featureIsInt )
+	{
+		final Element el = new Element( key );
+		for ( final String feature : features )
+		{
+			final Element fel = new Element( FEATURE_ELEMENT_KEY );
+			fel.setAttribute( FEATURE_ATTRIBUTE, feature );
+			fel.setAttribute( FEATURE_NAME_ATTRIBUTE, featureNames.get( feature ) );
+			fel.setAttribute( FEATURE_SHORT_NAME_ATTRIBUTE, featureShortNames.get( feature ) );
+			fel.setAttribute( FEATURE_DIMENSION_ATTRIBUTE, featureDimensions.get( feature ).name() );
+			fel.setAttribute( FEATURE_ISINT_ATTRIBUTE, featureIsInt.get( feature ).toString() );
+			el.addContent( fel );
+		}
+		return el;
+	}
+
+	private static Element marshalSpot( final Spot spot, final FeatureModel fm )
+	{
+		final Collection< Attribute > attributes = new ArrayList<>();
+		attributes.add( new Attribute( SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID() ) );
+		attributes.add( new Attribute( SPOT_NAME_ATTRIBUTE_NAME, spot.getName() ) );
+		for ( final String feature : spot.getFeatures().keySet() )
+		{
+			final Double val = spot.getFeature( feature );
+			if ( null == val )
+				continue;
+			final String str;
+			if ( fm.getSpotFeatureIsInt().getOrDefault( feature, Boolean.FALSE ).booleanValue() )
+				str = Integer.toString( val.intValue() );
+			else
+				str = val.toString();
+			attributes.add( new Attribute( feature, str ) );
+		}
+		final Element spotElement = new Element( SPOT_ELEMENT_KEY );
+		final SpotRoi roi = spot.getRoi();
+		if ( roi != null )
+		{
+			final int nPoints = roi.x.length;
+			attributes.add( new Attribute( ROI_N_POINTS_ATTRIBUTE_NAME, Integer.toString( nPoints ) ) );
+			final StringBuilder str = new StringBuilder();
+			for ( int i = 0; i < nPoints; i++ )
+			{
+				str.append( Double.toString( roi.x[ i ] ) );
+				str.append( ' ' );
+				str.append( Double.toString( roi.y[ i ] ) );
+				str.append( ' ' );
+			}
+			spotElement.setText( str.toString() );
+		}
+		spotElement.setAttributes( attributes );
+		return spotElement;
+	}
+}
@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class OnlineLAPTrackerTest
+{
+
+	private static final int N_FRAMES = 40;
+
+	/**
+	 * Particles with a random walk, close enough to compete for links.
+	 */
+	private static SpotCollection crowded( final Random ran )
+	{
+		final SpotCollection spots = new SpotCollection();
+		final int nParticles = 60;
+		final double[][] pos = new double[ nParticles ][ 2 ];
+		for ( final double[] p : pos )
+		{
+			p[ 0 ] = 50. * ran.nextDouble();
+			p[ 1 ] = 50. * ran.nextDouble();
+		}
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			for ( final double[] p : pos )
+			{
+				p[ 0 ] += ran.nextGaussian();
+				p[ 1 ] += ran.nextGaussian();
+				if ( ran.nextDouble() < 0.1 )
+					continue;
+				spots.add( new Spot( p[ 0 ], p[ 1 ], 0., 0.5, 1. ), t );
+			}
+		}
+		return spots;
+	}
+
+	/**
+	 * Particles far apart, missing in some frames.
+	 */
+	private static SpotCollection sparse( final Random ran )
+	{
+		final SpotCollection spots = new SpotCollection();
+		final int nParticles = 30;
+		for ( int i = 0; i < nParticles; i++ )
+		{
+			final double x0 = 100. * i;
+			int lastMissed = -10;
+			for ( int t = 0; t < N_FRAMES; t++ )
+			{
+				// Never miss 2 frames in a row, nor right after the segment
+				// start.
+				if ( t > 1 && t < N_FRAMES - 2 && t - lastMissed > 3 && ran.nextDouble() < 0.2 )
+				{
+					lastMissed = t;
+					continue;
+				}
+				spots.add( new Spot( x0 + 0.5 * ran.nextGaussian(), 0.5 * ran.nextGaussian(), 0., 0.5, 1. ), t );
+			}
+		}
+		return spots;
+	}
+
+	private static Map< String, Object > settings( final boolean gapClosing )
+	{
+		final Map< String, Object > settings = new SparseLAPTrackerFactory().getDefaultSettings();
+		settings.put( KEY_LINKING_MAX_DISTANCE, 3. );
+		settings.put( KEY_ALLOW_GAP_CLOSING, gapClosing );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, 5. );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, 2 );
+		return settings;
+	}
+
+	private static SimpleWeightedGraph< Spot, DefaultWeightedEdge > batch( final SpotCollection spots, final Map< String, Object > settings )
+	{
+		final SparseLAPTracker tracker = new SparseLAPTracker( spots, settings );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		return tracker.getResult();
+	}
+
+	private static SimpleWeightedGraph< Spot, DefaultWeightedEdge > online( final SpotCollection spots, final Map< String, Object > settings, final int maxOpenTracks )
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final OnlineLAPTracker tracker = new OnlineLAPTracker( settings, ( segment, costs ) -> {
+			assertEquals( segment.size() - 1, costs.length );
+			for ( int i = 0; i < costs.length; i++ )
+			{
+				graph.addVertex( segment.get( i ) );
+				graph.addVertex( segment.get( i + 1 ) );
+				final DefaultWeightedEdge edge = graph.addEdge( segment.get( i ), segment.get( i + 1 ) );
+				graph.setEdgeWeight( edge, costs[ i ] );
+			}
+		} );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() );
+		for ( final int frame : spots.keySet() )
+		{
+			final List< Spot > frameSpots = new ArrayList<>();
+			for ( final Spot spot : spots.iterable( frame, true ) )
+				frameSpots.add( spot );
+			assertTrue( tracker.getErrorMessage(), tracker.processFrame( frame, frameSpots ) );
+			assertTrue( tracker.getNOpenTracks() <= maxOpenTracks );
+		}
+		tracker.finish();
+		assertEquals( 0, tracker.getNOpenTracks() );
+		return graph;
+	}
+
+	private static void assertSameLinks( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual )
+	{
+		assertEquals( expected.edgeSet().size(), actual.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.edgeSet() )
+		{
+			final Spot source = expected.getEdgeSource( edge );
+			final Spot target = expected.getEdgeTarget( edge );
+			final DefaultWeightedEdge other = actual.getEdge( source, target );
+			assertTrue( "Missing link " + source + " → " + target, other != null );
+			assertEquals( expected.getEdgeWeight( edge ), actual.getEdgeWeight( other ), 1e-9 );
+		}
+	}
+
+	@Test
+	public void testFrameToFrameLinksAreIdentical()
+	{
+		final SpotCollection spots = crowded( new Random( 1l ) );
+		final Map< String, Object > settings = settings( false );
+		// Without gap-closing, tracks are held for 2 frames at most.
+		assertSameLinks( batch( spots, settings ), online( spots, settings, 2 * 60 ) );
+	}
+
+	@Test
+	public void testGapClosingLinksAreIdentical()
+	{
+		final SpotCollection spots = sparse( new Random( 2l ) );
+		final Map< String, Object > settings = settings( true );
+		/*
+		 * The alternative cost of gap-closing is computed over all the
+		 * candidates in batch, and over the candidates of one frame online.
+		 * Make it high enough to never reject a closing.
+		 */
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, 100. );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = batch( spots, settings );
+		// Every particle is a single track.
+		assertEquals( spots.getNSpots( true ) - 30, expected.edgeSet().size() );
+		// Ends are held for the gap-closing window.
+		assertSameLinks( expected, online( spots, settings, 4 * 30 ) );
+	}
+
+	@Test
+	public void testMergingIsRejected()
+	{
+		final Map< String, Object > settings = new HashMap<>( settings( true ) );
+		settings.put( KEY_ALLOW_TRACK_MERGING, true );
+		final OnlineLAPTracker tracker = new OnlineLAPTracker( settings, ( segment, costs ) -> {} );
+		assertTrue( !tracker.checkInput() );
+	}
+}
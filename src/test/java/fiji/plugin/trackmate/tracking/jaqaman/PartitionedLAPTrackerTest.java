@@ -0,0 +1,371 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class PartitionedLAPTrackerTest
+{
+
+	private static final int N_FRAMES = 40;
+
+	/**
+	 * Particles with a random walk, close enough to compete for links.
+	 */
+	private static SpotCollection crowded( final Random ran )
+	{
+		final SpotCollection spots = new SpotCollection();
+		final int nParticles = 60;
+		final double[][] pos = new double[ nParticles ][ 2 ];
+		for ( final double[] p : pos )
+		{
+			p[ 0 ] = 50. * ran.nextDouble();
+			p[ 1 ] = 50. * ran.nextDouble();
+		}
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			for ( final double[] p : pos )
+			{
+				p[ 0 ] += ran.nextGaussian();
+				p[ 1 ] += ran.nextGaussian();
+				if ( ran.nextDouble() < 0.1 )
+					continue;
+				spots.add( new Spot( p[ 0 ], p[ 1 ], 0., 0.5, 1. ), t );
+			}
+		}
+		return spots;
+	}
+
+	/**
+	 * Particles far apart, missing in some frames.
+	 */
+	private static SpotCollection sparse( final Random ran )
+	{
+		final SpotCollection spots = new SpotCollection();
+		final int nParticles = 30;
+		for ( int i = 0; i < nParticles; i++ )
+		{
+			final double x0 = 100. * i;
+			int lastMissed = -10;
+			for ( int t = 0; t < N_FRAMES; t++ )
+			{
+				// Never miss 2 frames in a row, nor right after the segment
+				// start.
+				if ( t > 1 && t < N_FRAMES - 2 && t - lastMissed > 3 && ran.nextDouble() < 0.2 )
+				{
+					lastMissed = t;
+					continue;
+				}
+				spots.add( new Spot( x0 + 0.5 * ran.nextGaussian(), 0.5 * ran.nextGaussian(), 0., 0.5, 1. ), t );
+			}
+		}
+		return spots;
+	}
+
+	private static Map< String, Object > settings( final boolean gapClosing )
+	{
+		final Map< String, Object > settings = new SparseLAPTrackerFactory().getDefaultSettings();
+		settings.put( KEY_LINKING_MAX_DISTANCE, 3. );
+		settings.put( KEY_ALLOW_GAP_CLOSING, gapClosing );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, 5. );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, 2 );
+		return settings;
+	}
+
+	private static SimpleWeightedGraph< Spot, DefaultWeightedEdge > batch( final SpotCollection spots, final Map< String, Object > settings )
+	{
+		final SparseLAPTracker tracker = new SparseLAPTracker( spots, settings );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		return tracker.getResult();
+	}
+
+	private static void assertSameLinks( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected, final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual )
+	{
+		assertEquals( expected.edgeSet().size(), actual.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.edgeSet() )
+		{
+			final Spot source = expected.getEdgeSource( edge );
+			final Spot target = expected.getEdgeTarget( edge );
+			final DefaultWeightedEdge other = actual.getEdge( source, target );
+			assertTrue( "Missing link " + source + " → " + target, other != null );
+			assertEquals( expected.getEdgeWeight( edge ), actual.getEdgeWeight( other ), 1e-9 );
+		}
+	}
+
+	private static SimpleWeightedGraph< Spot, DefaultWeightedEdge > partitioned( final PartitionedLAPTracker tracker )
+	{
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		return tracker.getResult();
+	}
+
+	private static void delete( final File folder )
+	{
+		for ( final File file : folder.listFiles() )
+			file.delete();
+		folder.delete();
+	}
+
+	@Test
+	public void testFrameToFrameLinksAreIdentical() throws IOException
+	{
+		final SpotCollection spots = crowded( new Random( 3l ) );
+		final Map< String, Object > settings = settings( false );
+		final File folder = Files.createTempDirectory( "partitioned" ).toFile();
+		try
+		{
+			final PartitionedLAPTracker tracker = new PartitionedLAPTracker( spots, settings, folder, 12, 4 );
+			assertEquals( 5, tracker.getNChunks() );
+			assertSameLinks( batch( spots, settings ), partitioned( tracker ) );
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testGapClosingLinksAreIdentical() throws IOException
+	{
+		final SpotCollection spots = sparse( new Random( 2l ) );
+		final Map< String, Object > settings = settings( true );
+		/*
+		 * The alternative cost of gap-closing is computed over the candidates
+		 * of each chunk. Make it high enough to never reject a closing.
+		 */
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, 100. );
+		final File folder = Files.createTempDirectory( "partitioned" ).toFile();
+		try
+		{
+			// Overlap larger than twice the max frame gap.
+			final PartitionedLAPTracker tracker = new PartitionedLAPTracker( spots, settings, folder, 16, 8 );
+			assertEquals( 4, tracker.getNChunks() );
+			assertSameLinks( batch( spots, settings ), partitioned( tracker ) );
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testResume() throws IOException
+	{
+		final SpotCollection spots = crowded( new Random( 4l ) );
+		final Map< String, Object > settings = settings( false );
+		final File folder = Files.createTempDirectory( "partitioned" ).toFile();
+		try
+		{
+			final PartitionedLAPTracker tracker = new PartitionedLAPTracker( spots, settings, folder, 12, 4 );
+			assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.prepare() );
+
+			// Chunks tracked by another process, one of them failed.
+			for ( final int chunk : new int[] { 0, 2, 4 } )
+				assertEquals( null, PartitionedLAPTracker.trackChunk( folder, chunk, 1 ) );
+			final File tracked = PartitionedLAPTracker.getLinksFile( folder, 2 );
+			assertTrue( tracked.setLastModified( 0l ) );
+			Files.write( new File( folder, PartitionedLAPTracker.getLinksFile( folder, 3 ).getName() + ".tmp" ).toPath(), new byte[] { 1, 2, 3 } );
+
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual = partitioned( tracker );
+			assertEquals( 0l, tracked.lastModified() );
+			for ( int chunk = 0; chunk < tracker.getNChunks(); chunk++ )
+				assertTrue( PartitionedLAPTracker.getLinksFile( folder, chunk ).exists() );
+			assertSameLinks( batch( spots, settings ), actual );
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testCancel() throws IOException
+	{
+		final SpotCollection spots = crowded( new Random( 6l ) );
+		final Map< String, Object > settings = settings( false );
+		final File folder = Files.createTempDirectory( "partitioned" ).toFile();
+		try
+		{
+			final PartitionedLAPTracker tracker = new PartitionedLAPTracker( spots, settings, folder, 12, 4 );
+			// Cancel as soon as the chunks are about to be tracked.
+			tracker.setLogger( new Logger()
+			{
+				@Override
+				public void log( final String message, final Color color )
+				{
+					tracker.cancel( "Test" );
+				}
+
+				@Override
+				public void error( final String message )
+				{}
+
+				@Override
+				public void setProgress( final double val )
+				{}
+
+				@Override
+				public void setStatus( final String status )
+				{}
+			} );
+			assertTrue( tracker.getErrorMessage(), tracker.checkInput() );
+			assertFalse( tracker.process() );
+			assertNotNull( tracker.getErrorMessage() );
+			assertNull( tracker.getResult() );
+
+			// Resuming tracks the chunks that were skipped.
+			tracker.setLogger( Logger.VOID_LOGGER );
+			assertSameLinks( batch( spots, settings ), partitioned( tracker ) );
+		}
+		finally
+		{
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testClaimedChunksAreWaitedFor() throws Exception
+	{
+		final SpotCollection spots = crowded( new Random( 7l ) );
+		final Map< String, Object > settings = settings( false );
+		final File folder = Files.createTempDirectory( "partitioned" ).toFile();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			final PartitionedLAPTracker tracker = new PartitionedLAPTracker( spots, settings, folder, 12, 4 );
+			assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.prepare() );
+
+			// A worker claims chunk 1.
+			final File lockFile = PartitionedLAPTracker.getLockFile( folder, 1 );
+			final Future< SimpleWeightedGraph< Spot, DefaultWeightedEdge > > result;
+			try (final FileChannel channel = FileChannel.open( lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+					final FileLock lock = channel.lock())
+			{
+				assertNull( PartitionedLAPTracker.trackChunk( folder, 1, 1 ) );
+				assertFalse( PartitionedLAPTracker.getLinksFile( folder, 1 ).exists() );
+
+				result = executor.submit( () -> partitioned( tracker ) );
+				Thread.sleep( 1000l );
+				assertFalse( result.isDone() );
+				assertFalse( PartitionedLAPTracker.getLinksFile( folder, 1 ).exists() );
+			}
+
+			// The worker dies: the coordinator tracks the chunk itself.
+			assertSameLinks( batch( spots, settings ), result.get() );
+		}
+		finally
+		{
+			executor.shutdown();
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testConcurrentTrackersShareOneFolder() throws Exception
+	{
+		final SpotCollection spots = crowded( new Random( 8l ) );
+		final Map< String, Object > settings = settings( false );
+		final File folder = Files.createTempDirectory( "partitioned" ).toFile();
+		final ExecutorService executor = Executors.newFixedThreadPool( 5 );
+		try
+		{
+			final int nChunks = new PartitionedLAPTracker( spots, settings, folder, 12, 4 ).getNChunks();
+			final List< Callable< SimpleWeightedGraph< Spot, DefaultWeightedEdge > > > tasks = new ArrayList<>();
+
+			// Two coordinators, and one that only stitches.
+			for ( int i = 0; i < 3; i++ )
+			{
+				final PartitionedLAPTracker tracker = new PartitionedLAPTracker( spots, settings, folder, 12, 4 );
+				tracker.setNumThreads( 2 );
+				tracker.setStitchOnly( i == 2 );
+				tasks.add( () -> partitioned( tracker ) );
+			}
+			// Two workers, tracking the chunks in opposite orders.
+			for ( int i = 0; i < 2; i++ )
+			{
+				final boolean reverse = i == 1;
+				tasks.add( () -> {
+					while ( !new File( folder, PartitionedLAPTracker.SETTINGS_FILE_NAME ).exists()
+							|| !PartitionedLAPTracker.getSpotsFile( folder, nChunks - 1 ).exists() )
+						Thread.sleep( 10l );
+					for ( int c = 0; c < nChunks; c++ )
+						assertNull( PartitionedLAPTracker.trackChunk( folder, reverse ? nChunks - 1 - c : c, 1 ) );
+					return null;
+				} );
+			}
+
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = batch( spots, settings );
+			for ( final Future< SimpleWeightedGraph< Spot, DefaultWeightedEdge > > future : executor.invokeAll( tasks ) )
+			{
+				final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual = future.get();
+				if ( null != actual )
+					assertSameLinks( expected, actual );
+			}
+			for ( final File file : folder.listFiles() )
+				assertFalse( "Leftover temporary file " + file, file.getName().endsWith( ".tmp" ) );
+		}
+		finally
+		{
+			executor.shutdown();
+			delete( folder );
+		}
+	}
+
+	@Test
+	public void testOverlapIsChecked()
+	{
+		final PartitionedLAPTracker tracker = new PartitionedLAPTracker( crowded( new Random( 5l ) ), settings( false ), new File( "." ), 4, 4 );
+		assertTrue( !tracker.checkInput() );
+	}
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costfunction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class FeaturePenaltyCostFunctionTest
+{
+
+	private static final String F1 = "F1";
+
+	private static final String F2 = "F2";
+
+	private static List< Spot > randomSpots( final Random ran, final int n )
+	{
+		final List< Spot > spots = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final Spot spot = new Spot( 10. * ran.nextDouble(), 10. * ran.nextDouble(), ran.nextDouble(), 1., 1. );
+			spot.putFeature( F1, Double.valueOf( 1. + 100. * ran.nextDouble() ) );
+			spot.putFeature( F2, Double.valueOf( ran.nextDouble() - 0.5 ) );
+			spots.add( spot );
+		}
+		return spots;
+	}
+
+	@Test
+	public void testIndexedCostsAreIdentical()
+	{
+		final Random ran = new Random( 42l );
+		final List< Spot > sources = randomSpots( ran, 50 );
+		final List< Spot > targets = randomSpots( ran, 60 );
+		// Coincident spots.
+		final Spot copy = new Spot( sources.get( 0 ).getDoublePosition( 0 ), sources.get( 0 ).getDoublePosition( 1 ), sources.get( 0 ).getDoublePosition( 2 ), 1., 1. );
+		copy.putFeature( F1, sources.get( 0 ).getFeature( F1 ) );
+		copy.putFeature( F2, Double.valueOf( -sources.get( 0 ).getFeature( F2 ).doubleValue() ) );
+		targets.add( copy );
+
+		final Map< String, Double > penalties = new HashMap<>();
+		penalties.put( F1, Double.valueOf( 1. ) );
+		penalties.put( F2, Double.valueOf( 0.3 ) );
+
+		final List< CostFunction< Spot, Spot > > costFunctions = new ArrayList<>();
+		costFunctions.add( new SquareDistCostFunction() );
+		costFunctions.add( new FeaturePenaltyCostFunction( penalties ) );
+		for ( final CostFunction< Spot, Spot > costFunction : costFunctions )
+		{
+			final IndexedCostFunction indexed = costFunction.indexed( sources, targets );
+			for ( int s = 0; s < sources.size(); s++ )
+				for ( int t = 0; t < targets.size(); t++ )
+					assertEquals( costFunction.linkingCost( sources.get( s ), targets.get( t ) ), indexed.linkingCost( s, t ), 0. );
+		}
+	}
+
+	@Test
+	public void testMissingFeatureIsIgnored()
+	{
+		final Random ran = new Random( 1l );
+		final List< Spot > sources = randomSpots( ran, 10 );
+		final List< Spot > targets = randomSpots( ran, 10 );
+
+		final Map< String, Double > penalties = new HashMap<>();
+		penalties.put( F1, Double.valueOf( 2. ) );
+		final Map< String, Double > penaltiesWithMissing = new HashMap<>( penalties );
+		penaltiesWithMissing.put( "MISSING", Double.valueOf( 5. ) );
+
+		final FeaturePenaltyCostFunction costFunction = new FeaturePenaltyCostFunction( penalties );
+		final IndexedCostFunction indexed = new FeaturePenaltyCostFunction( penaltiesWithMissing ).indexed( sources, targets );
+		for ( int s = 0; s < sources.size(); s++ )
+			for ( int t = 0; t < targets.size(); t++ )
+				assertEquals( costFunction.linkingCost( sources.get( s ), targets.get( t ) ), indexed.linkingCost( s, t ), 0. );
+	}
+}
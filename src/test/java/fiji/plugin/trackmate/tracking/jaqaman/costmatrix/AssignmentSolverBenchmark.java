@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
+
+/**
+ * Compares the time taken by the {@link AssignmentSolvers} to solve full LAP
+ * cost matrices, as built by the JaqamanLinker, on the whole matrix and on its
+ * independent components.
+ * <p>
+ * Real cost matrices can be recorded with {@link #write(SparseCostMatrix, File)},
+ * for instance from a debugger in the linker, and are then benchmarked by
+ * passing their paths as arguments. Without arguments, the benchmark runs on
+ * frame-to-frame linking matrices of 10k and 100k spots, at a density of about
+ * 3 candidates per spot.
+ */
+public class AssignmentSolverBenchmark
+{
+
+	private static final int[] SIZES = new int[] { 10_000, 100_000 };
+
+	private static final double MAX_DISTANCE = 5.;
+
+	private static final double DENSITY = 3.;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final List< SparseCostMatrix > matrices = new ArrayList<>();
+		final List< String > names = new ArrayList<>();
+		if ( args.length > 0 )
+		{
+			for ( final String path : args )
+			{
+				matrices.add( read( new File( path ) ) );
+				names.add( new File( path ).getName() );
+			}
+		}
+		else
+		{
+			final Random ran = new Random( 1l );
+			for ( final int n : SIZES )
+			{
+				matrices.add( linkingMatrix( n, ran ) );
+				names.add( n + " spots" );
+			}
+		}
+
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		for ( int m = 0; m < matrices.size(); m++ )
+		{
+			final SparseCostMatrix full = matrices.get( m );
+			System.out.println( String.format( "%s: %d x %d, %d costs.", names.get( m ), full.nRows, full.nCols, full.cardinality ) );
+			for ( final AssignmentSolvers type : AssignmentSolvers.values() )
+			{
+				final AssignmentSolver solver = type.create( full, numThreads );
+				run( "  " + type + ", whole matrix", full, solver );
+
+				final ComponentLAPJV componentSolver = new ComponentLAPJV( full, type );
+				componentSolver.setNumThreads( numThreads );
+				run( "  " + type + ", by components", full, componentSolver );
+			}
+		}
+	}
+
+	private static void run( final String name, final SparseCostMatrix cm, final AssignmentSolver solver )
+	{
+		final long start = System.nanoTime();
+		if ( !solver.checkInput() || !solver.process() )
+		{
+			System.out.println( name + ": " + solver.getErrorMessage() );
+			return;
+		}
+		final long end = System.nanoTime();
+		System.out.println( String.format( "%-40s %10.1f ms, total cost %.6f", name + ':', ( end - start ) / 1e6, cm.totalAssignmentCost( solver.getResult() ) ) );
+	}
+
+	private static SparseCostMatrix linkingMatrix( final int n, final Random ran )
+	{
+		final double size = Math.sqrt( n * Math.PI * MAX_DISTANCE * MAX_DISTANCE / DENSITY );
+		final List< Spot > sources = new ArrayList<>( n );
+		final List< Spot > targets = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final double x = size * ran.nextDouble();
+			final double y = size * ran.nextDouble();
+			sources.add( new Spot( x, y, 0., 1., 1. ) );
+			if ( ran.nextDouble() < 0.95 )
+				targets.add( new Spot( x + ran.nextGaussian(), y + ran.nextGaussian(), 0., 1., 1. ) );
+		}
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>(
+				sources, targets, new SquareDistCostFunction(), MAX_DISTANCE * MAX_DISTANCE, 1.05, 1d, MAX_DISTANCE );
+		creator.process();
+		return ComponentLAPJVTest.fullMatrix( creator.getResult(), creator.getAlternativeCostForSource( null ) );
+	}
+
+	/**
+	 * Writes the specified cost matrix to a binary file.
+	 *
+	 * @param cm
+	 *            the cost matrix.
+	 * @param file
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void write( final SparseCostMatrix cm, final File file ) throws IOException
+	{
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ))
+		{
+			out.writeInt( cm.nRows );
+			out.writeInt( cm.nCols );
+			out.writeInt( cm.cardinality );
+			for ( final int number : cm.number )
+				out.writeInt( number );
+			for ( final int k : cm.kk )
+				out.writeInt( k );
+			for ( final double c : cm.cc )
+				out.writeDouble( c );
+		}
+	}
+
+	/**
+	 * Reads a cost matrix written with {@link #write(SparseCostMatrix, File)}.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return a new cost matrix.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static SparseCostMatrix read( final File file ) throws IOException
+	{
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ))
+		{
+			final int nRows = in.readInt();
+			final int nCols = in.readInt();
+			final int cardinality = in.readInt();
+			final int[] number = new int[ nRows ];
+			for ( int i = 0; i < nRows; i++ )
+				number[ i ] = in.readInt();
+			final int[] kk = new int[ cardinality ];
+			for ( int i = 0; i < cardinality; i++ )
+				kk[ i ] = in.readInt();
+			final double[] cc = new double[ cardinality ];
+			for ( int i = 0; i < cardinality; i++ )
+				cc[ i ] = in.readDouble();
+			return new SparseCostMatrix( cc, kk, number, nCols );
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AuctionLAPTest
+{
+
+	/**
+	 * A random square sparse matrix with a few costs per row, always
+	 * containing the diagonal so that it has a solution.
+	 */
+	static SparseCostMatrix randomMatrix( final int n, final int costsPerRow, final Random ran )
+	{
+		final double[] cc = new double[ n * costsPerRow ];
+		final int[] kk = new int[ n * costsPerRow ];
+		final int[] number = new int[ n ];
+		int index = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			final int first = index;
+			kk[ index++ ] = i;
+			while ( index - first < Math.min( n, costsPerRow ) )
+			{
+				final int j = ran.nextInt( n );
+				boolean found = false;
+				for ( int k = first; k < index; k++ )
+					found |= ( kk[ k ] == j );
+				if ( !found )
+					kk[ index++ ] = j;
+			}
+			Arrays.sort( kk, first, index );
+			for ( int k = first; k < index; k++ )
+				cc[ k ] = 1. + 100. * ran.nextDouble();
+			number[ i ] = index - first;
+		}
+		return new SparseCostMatrix( Arrays.copyOf( cc, index ), Arrays.copyOf( kk, index ), number, n );
+	}
+
+	@Test
+	public void testSameAsLAPJV()
+	{
+		final Random ran = new Random( 4l );
+		for ( final int n : new int[] { 2, 10, 200, 3000 } )
+		{
+			final SparseCostMatrix cm = randomMatrix( n, 6, ran );
+
+			final LAPJV lapjv = new LAPJV( cm );
+			assertTrue( lapjv.checkInput() && lapjv.process() );
+
+			for ( final int numThreads : new int[] { 1, 3 } )
+			{
+				final AuctionLAP auction = new AuctionLAP( cm );
+				auction.setNumThreads( numThreads );
+				assertTrue( auction.checkInput() );
+				assertTrue( auction.getErrorMessage(), auction.process() );
+				assertEquals( cm.totalAssignmentCost( lapjv.getResult() ), cm.totalAssignmentCost( auction.getResult() ), 1e-6 );
+				assertArrayEquals( lapjv.getResult(), auction.getResult() );
+			}
+		}
+	}
+
+	@Test
+	public void testNonSquare()
+	{
+		final SparseCostMatrix cm = new SparseCostMatrix( new double[] { 1., 2. }, new int[] { 0, 1 }, new int[] { 2 }, 2 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertFalse( auction.checkInput() );
+		assertNotNull( auction.getErrorMessage() );
+	}
+
+	@Test
+	public void testInfeasible()
+	{
+		// Rows 0 and 1 both can only go to column 0.
+		final int[] kk = new int[] { 0, 0, 1, 2 };
+		final double[] cc = new double[] { 1., 1., 1., 1. };
+		final int[] number = new int[] { 1, 1, 2 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 3 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertTrue( auction.checkInput() );
+		assertFalse( auction.process() );
+		assertNotNull( auction.getErrorMessage() );
+	}
+
+	@Test
+	public void testLargeCostOffset()
+	{
+		/*
+		 * Costs far larger than their range: the reduced costs are rounded
+		 * to a step much larger than the relative precision. The auction
+		 * must still end, and find the optimum within this step.
+		 */
+		final SparseCostMatrix cm = randomMatrix( 500, 6, new Random( 6l ) );
+		final double offset = 1e15;
+		final double[] cc = new double[ cm.cc.length ];
+		for ( int k = 0; k < cc.length; k++ )
+			cc[ k ] = cm.cc[ k ] + offset;
+		final SparseCostMatrix offsetCm = new SparseCostMatrix( cc, cm.kk, cm.number, cm.nCols );
+
+		final LAPJV lapjv = new LAPJV( cm );
+		assertTrue( lapjv.checkInput() && lapjv.process() );
+		final AuctionLAP auction = new AuctionLAP( offsetCm );
+		assertTrue( auction.checkInput() );
+		assertTrue( auction.getErrorMessage(), auction.process() );
+		// The total cost is within n times the final bid step.
+		final double tolerance = cm.nRows * 4. * Math.ulp( offset );
+		assertEquals( cm.totalAssignmentCost( lapjv.getResult() ), cm.totalAssignmentCost( auction.getResult() ), tolerance );
+	}
+
+	@Test
+	public void testEmptyRow()
+	{
+		// Row 0 has no cost.
+		final int[] kk = new int[] { 0, 1, 2 };
+		final double[] cc = new double[] { 1., 1., 1. };
+		final int[] number = new int[] { 0, 2, 1 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 3 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertFalse( auction.checkInput() );
+		assertNotNull( auction.getErrorMessage() );
+	}
+
+	@Test
+	public void testFromSolverType()
+	{
+		final SparseCostMatrix cm = randomMatrix( 50, 4, new Random( 5l ) );
+		final AssignmentSolver lapjv = AssignmentSolvers.LAPJV.create( cm, 1 );
+		final AssignmentSolver auction = AssignmentSolvers.AUCTION.create( cm, 2 );
+		assertTrue( lapjv instanceof LAPJV );
+		assertTrue( auction instanceof AuctionLAP );
+		assertTrue( lapjv.checkInput() && lapjv.process() );
+		assertTrue( auction.checkInput() && auction.process() );
+		assertArrayEquals( lapjv.getResult(), auction.getResult() );
+	}
+}
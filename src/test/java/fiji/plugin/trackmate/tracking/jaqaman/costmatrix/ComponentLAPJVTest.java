@@ -0,0 +1,248 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import net.imglib2.RealPoint;
+
+public class ComponentLAPJVTest
+{
+
+	private static final class Point extends RealPoint implements Comparable< Point >
+	{
+
+		private final int id;
+
+		private Point( final int id, final double... position )
+		{
+			super( position );
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo( final Point o )
+		{
+			return Integer.compare( id, o.id );
+		}
+	}
+
+	private static final CostFunction< Point, Point > SQUARE_DISTANCE = ( s, t ) -> {
+		double d2 = 0.;
+		for ( int d = 0; d < s.numDimensions(); d++ )
+		{
+			final double dx = s.getDoublePosition( d ) - t.getDoublePosition( d );
+			d2 += dx * dx;
+		}
+		return d2 == 0 ? Double.MIN_NORMAL : d2;
+	};
+
+	/**
+	 * Points in well separated colonies, moving a bit between the source and
+	 * target lists.
+	 */
+	private static void colonies( final int nColonies, final int nPerColony, final List< Point > sources, final List< Point > targets, final Random ran )
+	{
+		int id = 0;
+		for ( int c = 0; c < nColonies; c++ )
+		{
+			final double cx = 100. * c;
+			final double cy = 100. * ran.nextInt( nColonies );
+			for ( int i = 0; i < nPerColony; i++ )
+			{
+				final double x = cx + 20. * ran.nextDouble();
+				final double y = cy + 20. * ran.nextDouble();
+				sources.add( new Point( id++, x, y ) );
+				if ( ran.nextDouble() < 0.9 )
+					targets.add( new Point( id++, x + ran.nextGaussian(), y + ran.nextGaussian() ) );
+			}
+		}
+	}
+
+	/**
+	 * Builds the full cost matrix the way the JaqamanLinker does.
+	 */
+	static SparseCostMatrix fullMatrix( final SparseCostMatrix tl, final double alternativeCost )
+	{
+		final int nRows = tl.getNRows();
+		final int nCols = tl.getNCols();
+
+		final double[] cctr = new double[ nRows ];
+		final int[] kktr = new int[ nRows ];
+		final int[] numbertr = new int[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			kktr[ i ] = i;
+			cctr[ i ] = alternativeCost;
+			numbertr[ i ] = 1;
+		}
+		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
+
+		final double[] ccbl = new double[ nCols ];
+		final int[] kkbl = new int[ nCols ];
+		final int[] numberbl = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			kkbl[ j ] = j;
+			ccbl[ j ] = alternativeCost;
+			numberbl[ j ] = 1;
+		}
+		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
+
+		final SparseCostMatrix br = tl.transpose();
+		br.fillWith( alternativeCost );
+		return ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
+	}
+
+	/**
+	 * Returns the source to target links of an assignment of the full matrix,
+	 * -1 for no link. The rest of the assignment is degenerate: all the
+	 * alternative costs are equal.
+	 */
+	private static int[] links( final int[] assignment, final SparseCostMatrix tl )
+	{
+		final int[] links = new int[ tl.getNRows() ];
+		for ( int i = 0; i < links.length; i++ )
+			links[ i ] = assignment[ i ] < tl.getNCols() ? assignment[ i ] : -1;
+		return links;
+	}
+
+	@Test
+	public void testSameAsLAPJV()
+	{
+		final Random ran = new Random( 3l );
+		final List< Point > sources = new ArrayList<>();
+		final List< Point > targets = new ArrayList<>();
+		colonies( 50, 30, sources, targets, ran );
+		final JaqamanLinkingCostMatrixCreator< Point, Point > creator = new JaqamanLinkingCostMatrixCreator<>( sources, targets, SQUARE_DISTANCE, 25., 1.05, 1., 5. );
+		assertTrue( creator.checkInput() && creator.process() );
+		final SparseCostMatrix tl = creator.getResult();
+		final SparseCostMatrix full = fullMatrix( tl, creator.getAlternativeCostForSource( null ) );
+
+		final LAPJV lapjv = new LAPJV( full );
+		assertTrue( lapjv.checkInput() && lapjv.process() );
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final ComponentLAPJV solver = new ComponentLAPJV( full );
+			solver.setNumThreads( numThreads );
+			assertTrue( solver.checkInput() );
+			assertTrue( solver.getErrorMessage(), solver.process() );
+			assertTrue( "Expected the matrix to split in several components.", solver.getNComponents() >= 50 );
+			assertEquals( full.totalAssignmentCost( lapjv.getResult() ), full.totalAssignmentCost( solver.getResult() ), 1e-9 );
+			assertArrayEquals( links( lapjv.getResult(), tl ), links( solver.getResult(), tl ) );
+		}
+	}
+
+	@Test
+	public void testSingleComponent()
+	{
+		final int[] kk = new int[] { 0, 1, 0, 1 };
+		final double[] cc = new double[] { 1., 2., 2., 5. };
+		final int[] number = new int[] { 2, 2 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 2 );
+		final ComponentLAPJV solver = new ComponentLAPJV( cm );
+		assertTrue( solver.checkInput() && solver.process() );
+		assertEquals( 1, solver.getNComponents() );
+		assertArrayEquals( new int[] { 1, 0 }, solver.getResult() );
+	}
+
+	@Test
+	public void testSolvedByColumnReduction()
+	{
+		// Each column has its minimum on a different row.
+		final int[] kk = new int[] { 0, 1, 0, 1 };
+		final double[] cc = new double[] { 1., 5., 5., 1. };
+		final int[] number = new int[] { 2, 2 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 2 );
+
+		final LAPJV lapjv = new LAPJV( cm );
+		assertTrue( lapjv.checkInput() && lapjv.process() );
+		assertArrayEquals( new int[] { 0, 1 }, lapjv.getResult() );
+
+		final ComponentLAPJV solver = new ComponentLAPJV( cm );
+		assertTrue( solver.checkInput() && solver.process() );
+		assertArrayEquals( new int[] { 0, 1 }, solver.getResult() );
+	}
+
+	@Test
+	public void testInfeasibleComponent()
+	{
+		// Rows 0 and 1 both can only go to column 0.
+		final int[] kk = new int[] { 0, 0, 1, 2 };
+		final double[] cc = new double[] { 1., 1., 1., 1. };
+		final int[] number = new int[] { 1, 1, 2 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 3 );
+		final ComponentLAPJV solver = new ComponentLAPJV( cm );
+		assertFalse( solver.checkInput() && solver.process() );
+		assertNotNull( solver.getErrorMessage() );
+	}
+
+	@Test
+	public void testAuctionOnNonSquareComponents()
+	{
+		// Square matrix, but with a 1 x 2 and a 2 x 1 component.
+		final int[] kk = new int[] { 0, 1, 2, 2 };
+		final double[] cc = new double[] { 1., 2., 1., 1. };
+		final int[] number = new int[] { 2, 1, 1 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 3 );
+		assertTrue( new AuctionLAP( cm ).checkInput() );
+
+		final ComponentLAPJV solver = new ComponentLAPJV( cm, AssignmentSolvers.AUCTION );
+		assertFalse( solver.checkInput() );
+		assertNotNull( solver.getErrorMessage() );
+	}
+
+	@Test
+	public void testEmptyRow()
+	{
+		final int[] kk = new int[] { 0, 1 };
+		final double[] cc = new double[] { 1., 1. };
+		final int[] number = new int[] { 0, 1, 1 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 2 );
+		final ComponentLAPJV solver = new ComponentLAPJV( cm );
+		assertFalse( solver.checkInput() );
+		assertNotNull( solver.getErrorMessage() );
+	}
+
+	@Test
+	public void testNumThreadsClamped()
+	{
+		final SparseCostMatrix cm = new SparseCostMatrix( new double[] { 1. }, new int[] { 0 }, new int[] { 1 }, 1 );
+		final ComponentLAPJV solver = new ComponentLAPJV( cm );
+		solver.setNumThreads( 0 );
+		assertEquals( 1, solver.getNumThreads() );
+		assertTrue( solver.checkInput() && solver.process() );
+		assertArrayEquals( new int[] { 0 }, solver.getResult() );
+	}
+}
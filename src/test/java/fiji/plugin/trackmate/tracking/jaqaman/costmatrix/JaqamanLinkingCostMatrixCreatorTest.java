@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import net.imglib2.RealPoint;
+
+public class JaqamanLinkingCostMatrixCreatorTest
+{
+
+	private static final class Point extends RealPoint implements Comparable< Point >
+	{
+
+		private final int id;
+
+		private Point( final int id, final double... position )
+		{
+			super( position );
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo( final Point o )
+		{
+			return Integer.compare( id, o.id );
+		}
+	}
+
+	private static final CostFunction< Point, Point > SQUARE_DISTANCE = ( s, t ) -> {
+		double d2 = 0.;
+		for ( int d = 0; d < s.numDimensions(); d++ )
+		{
+			final double dx = s.getDoublePosition( d ) - t.getDoublePosition( d );
+			d2 += dx * dx;
+		}
+		return d2 == 0 ? Double.MIN_NORMAL : d2;
+	};
+
+	private static List< Point > randomPoints( final int n, final int nDims, final double size, final int firstID, final Random ran )
+	{
+		final List< Point > points = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final double[] pos = new double[ nDims ];
+			for ( int d = 0; d < nDims; d++ )
+				pos[ d ] = size * ran.nextDouble();
+			points.add( new Point( firstID + i, pos ) );
+		}
+		return points;
+	}
+
+	private static void assertSameResult( final int nDims, final double maxDistance )
+	{
+		final Random ran = new Random( 42l + nDims );
+		final List< Point > sources = randomPoints( 2000, nDims, 100., 0, ran );
+		final List< Point > targets = randomPoints( 2000, nDims, 100., 2000, ran );
+		final double costThreshold = maxDistance * maxDistance;
+
+		final JaqamanLinkingCostMatrixCreator< Point, Point > all = new JaqamanLinkingCostMatrixCreator<>( sources, targets, SQUARE_DISTANCE, costThreshold, 1.05, 1d );
+		final JaqamanLinkingCostMatrixCreator< Point, Point > inRadius = new JaqamanLinkingCostMatrixCreator<>( sources, targets, SQUARE_DISTANCE, costThreshold, 1.05, 1d, maxDistance );
+		assertEquals( true, all.checkInput() && all.process() );
+		assertEquals( true, inRadius.checkInput() && inRadius.process() );
+
+		final SparseCostMatrix expected = all.getResult();
+		final SparseCostMatrix actual = inRadius.getResult();
+		assertNotNull( expected );
+		assertNotNull( actual );
+		assertEquals( all.getSourceList(), inRadius.getSourceList() );
+		assertEquals( all.getTargetList(), inRadius.getTargetList() );
+		assertEquals( expected.nCols, actual.nCols );
+		assertArrayEquals( expected.number, actual.number );
+		assertArrayEquals( expected.kk, actual.kk );
+		assertArrayEquals( expected.cc, actual.cc, 0. );
+		assertEquals( all.getAlternativeCostForSource( null ), inRadius.getAlternativeCostForSource( null ), 0. );
+	}
+
+	@Test
+	public void testRadiusSearch2D()
+	{
+		assertSameResult( 2, 3. );
+	}
+
+	@Test
+	public void testRadiusSearch3D()
+	{
+		assertSameResult( 3, 7.5 );
+	}
+
+	@Test
+	public void testNoLinkInRadius()
+	{
+		final List< Point > sources = new ArrayList<>();
+		sources.add( new Point( 0, 0., 0. ) );
+		final List< Point > targets = new ArrayList<>();
+		targets.add( new Point( 1, 10., 10. ) );
+		final JaqamanLinkingCostMatrixCreator< Point, Point > creator = new JaqamanLinkingCostMatrixCreator<>( sources, targets, SQUARE_DISTANCE, 1., 1.05, 1d, 1. );
+		assertEquals( true, creator.checkInput() && creator.process() );
+		assertEquals( null, creator.getResult() );
+		assertEquals( 0, creator.getSourceList().size() );
+	}
+}
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
+
+/**
+ * Measures the time taken by the {@link JaqamanLinkingCostMatrixCreator} to
+ * generate the cost matrix between two frames of 10k, 100k and 1M spots, with
+ * the max distance radius search and, for the smallest size, with the
+ * evaluation of all pairs. The spot density is constant, with about 3
+ * candidates per spot within the max distance. Each case is run with the
+ * square distance cost and with a cost penalized by two features.
+ */
+public class LinkingCostMatrixBenchmark
+{
+
+	private static final int[] SIZES = new int[] { 10_000, 100_000, 1_000_000 };
+
+	private static final int MAX_SIZE_ALL_PAIRS = 10_000;
+
+	private static final double MAX_DISTANCE = 5.;
+
+	/** Mean number of spots in a disk of radius MAX_DISTANCE. */
+	private static final double DENSITY = 3.;
+
+	public static void main( final String[] args )
+	{
+		final Random ran = new Random( 1l );
+		final Map< String, Double > penalties = new HashMap<>();
+		penalties.put( Spot.QUALITY, Double.valueOf( 1. ) );
+		penalties.put( Spot.RADIUS, Double.valueOf( 1. ) );
+		final List< CostFunction< Spot, Spot > > costFunctions = new ArrayList<>();
+		costFunctions.add( new SquareDistCostFunction() );
+		costFunctions.add( new FeaturePenaltyCostFunction( penalties ) );
+		for ( final int n : SIZES )
+		{
+			final double size = Math.sqrt( n * Math.PI * MAX_DISTANCE * MAX_DISTANCE / DENSITY );
+			final List< Spot > sources = new ArrayList<>( n );
+			final List< Spot > targets = new ArrayList<>( n );
+			for ( int i = 0; i < n; i++ )
+			{
+				final double x = size * ran.nextDouble();
+				final double y = size * ran.nextDouble();
+				final double quality = 10. + ran.nextDouble();
+				final double radius = 1. + 0.1 * ran.nextDouble();
+				sources.add( new Spot( x, y, 0., radius, quality ) );
+				targets.add( new Spot( x + ran.nextGaussian(), y + ran.nextGaussian(), 0., radius * ( 1. + 0.05 * ran.nextGaussian() ), quality + ran.nextGaussian() ) );
+			}
+
+			for ( final CostFunction< Spot, Spot > costFunction : costFunctions )
+			{
+				final String name = costFunction.getClass().getSimpleName();
+				for ( int rep = 0; rep < 3; rep++ )
+				{
+					final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>(
+							sources, targets, costFunction, MAX_DISTANCE * MAX_DISTANCE, 1.05, 1d, MAX_DISTANCE );
+					final long start = System.nanoTime();
+					creator.process();
+					final long end = System.nanoTime();
+					System.out.println( String.format( "%8d spots, %s, radius search: %9.1f ms, %d links.",
+							n, name, ( end - start ) / 1e6, creator.getResult().getCosts().length ) );
+				}
+
+				if ( n > MAX_SIZE_ALL_PAIRS )
+					continue;
+
+				final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>(
+						sources, targets, costFunction, MAX_DISTANCE * MAX_DISTANCE, 1.05, 1d );
+				final long start = System.nanoTime();
+				creator.process();
+				final long end = System.nanoTime();
+				System.out.println( String.format( "%8d spots, %s, all pairs:     %9.1f ms, %d links.",
+						n, name, ( end - start ) / 1e6, creator.getResult().getCosts().length ) );
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class SpaceTimeIndexTest
+{
+
+	private static List< Spot > randomSpots( final int n, final int nFrames, final double size, final Random ran )
+	{
+		final List< Spot > spots = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			final Spot spot = new Spot( size * ran.nextDouble(), size * ran.nextDouble(), size * ran.nextDouble(), 1., 1. );
+			spot.putFeature( Spot.FRAME, Double.valueOf( 2 + ran.nextInt( nFrames ) ) );
+			spots.add( spot );
+		}
+		return spots;
+	}
+
+	private static int[] found( final SpaceTimeIndex index, final SpaceTimeIndex.Query query )
+	{
+		final int[] found = new int[ query.size() ];
+		for ( int i = 0; i < found.length; i++ )
+			found[ i ] = index.get( query.get( i ) ).ID();
+		Arrays.sort( found );
+		return found;
+	}
+
+	private static int[] bruteForce( final List< Spot > spots, final Spot source, final int frame, final double radius )
+	{
+		final List< Integer > ids = new ArrayList<>();
+		for ( final Spot spot : spots )
+		{
+			if ( spot.getFeature( Spot.FRAME ).intValue() != frame )
+				continue;
+			if ( spot.squareDistanceTo( source ) <= radius * radius )
+				ids.add( spot.ID() );
+		}
+		return ids.stream().mapToInt( Integer::intValue ).sorted().toArray();
+	}
+
+	@Test
+	public void testFindInRadius()
+	{
+		final Random ran = new Random( 1l );
+		final int nFrames = 10;
+		final double radius = 4.;
+		final List< Spot > spots = randomSpots( 5000, nFrames, 50., ran );
+		final List< Spot > sources = randomSpots( 200, nFrames, 50., ran );
+
+		final SpaceTimeIndex index = new SpaceTimeIndex( spots, radius );
+		assertEquals( spots.size(), index.size() );
+		final SpaceTimeIndex.Query query = index.query();
+		for ( final Spot source : sources )
+		{
+			// Include frames out of the index range.
+			for ( int frame = 0; frame < nFrames + 4; frame++ )
+			{
+				query.find( source, frame, radius );
+				assertArrayEquals( bruteForce( spots, source, frame, radius ), found( index, query ) );
+			}
+		}
+	}
+
+	@Test
+	public void testInfiniteRadiusReturnsWholeFrame()
+	{
+		final Random ran = new Random( 2l );
+		final int nFrames = 5;
+		final List< Spot > spots = randomSpots( 500, nFrames, 50., ran );
+		final SpaceTimeIndex index = new SpaceTimeIndex( spots, 4. );
+		final SpaceTimeIndex.Query query = index.query();
+		final Spot source = spots.get( 0 );
+		for ( int frame = 2; frame < 2 + nFrames; frame++ )
+		{
+			query.find( source, frame, Double.POSITIVE_INFINITY );
+			assertArrayEquals( bruteForce( spots, source, frame, Double.POSITIVE_INFINITY ), found( index, query ) );
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		final SpaceTimeIndex index = new SpaceTimeIndex( new ArrayList<>(), 4. );
+		assertEquals( 0, index.size() );
+		assertEquals( 0, index.query().find( new Spot( 0., 0., 0., 1., 1. ), 0, 4. ) );
+	}
+}
@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import Jama.Matrix;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class KalmanTrackerTest
+{
+
+	private static final int N_FRAMES = 20;
+
+	/**
+	 * The textbook implementation of the constant-velocity Kalman filter, on
+	 * 6×6 matrices.
+	 */
+	private static class MatrixKalmanFilter
+	{
+
+		private final Matrix A = Matrix.identity( 6, 6 );
+
+		private final Matrix H = Matrix.identity( 3, 6 );
+
+		private final Matrix Q = Matrix.identity( 6, 6 );
+
+		private final Matrix R;
+
+		private Matrix P;
+
+		private Matrix X;
+
+		private Matrix Xp;
+
+		private MatrixKalmanFilter( final double[] X0, final double initStateCovariance, final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+		{
+			X = new Matrix( X0, 6 );
+			for ( int i = 0; i < 3; i++ )
+			{
+				A.set( i, 3 + i, 1 );
+				Q.set( i, i, positionProcessStd * positionProcessStd );
+				Q.set( 3 + i, 3 + i, velocityProcessStd * velocityProcessStd );
+			}
+			P = Matrix.identity( 6, 6 ).times( initStateCovariance );
+			R = Matrix.identity( 3, 3 ).times( positionMeasurementStd * positionMeasurementStd );
+		}
+
+		private double[] predict()
+		{
+			Xp = A.times( X );
+			P = A.times( P.times( A.transpose() ) ).plus( Q );
+			return Xp.getColumnPackedCopy();
+		}
+
+		private void update( final double[] Xm )
+		{
+			if ( null == Xm )
+			{
+				X = Xp;
+				return;
+			}
+			final Matrix S = H.times( P.times( H.transpose() ) ).plus( R );
+			final Matrix K = P.times( H.transpose() ).times( S.inverse() );
+			X = Xp.plus( K.times( new Matrix( Xm, 3 ).minus( H.times( Xp ) ) ) );
+			P = ( Matrix.identity( 6, 6 ).minus( K.times( H ) ) ).times( P );
+		}
+	}
+
+	/**
+	 * Particles moving in straight lines at constant speed, in random
+	 * directions so that their paths cross. The quality stores the particle
+	 * index.
+	 */
+	private static SpotCollection lines( final Random ran, final int nPerSide )
+	{
+		final SpotCollection spots = new SpotCollection();
+		for ( int i = 0; i < nPerSide; i++ )
+		{
+			for ( int j = 0; j < nPerSide; j++ )
+			{
+				final double angle = 2. * Math.PI * ran.nextDouble();
+				final double vx = 3. * Math.cos( angle );
+				final double vy = 3. * Math.sin( angle );
+				for ( int t = 0; t < N_FRAMES; t++ )
+					spots.add( new Spot( 30. * i + vx * t, 30. * j + vy * t, 0., 1., i * nPerSide + j ), t );
+			}
+		}
+		return spots;
+	}
+
+	private static SimpleWeightedGraph< Spot, DefaultWeightedEdge > track( final SpotCollection spots, final int numThreads )
+	{
+		final KalmanTracker tracker = new KalmanTracker( spots, 2., 2, 4., null );
+		tracker.setNumThreads( numThreads );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		return tracker.getResult();
+	}
+
+	@Test
+	public void testFilterMatchesMatrixImplementation()
+	{
+		final Random ran = new Random( 1l );
+		final double[] X0 = new double[] { 1., 2., 3., 0.5, -0.2, 0.1 };
+		final CVMKalmanFilter kf = new CVMKalmanFilter( X0, 1e-2, 2., 1., 0.3 );
+		final MatrixKalmanFilter expected = new MatrixKalmanFilter( X0, 1e-2, 2., 1., 0.3 );
+		final double[] truth = new double[] { 1., 2., 3. };
+		for ( int t = 0; t < 100; t++ )
+		{
+			assertArrayEquals( expected.predict(), kf.predict(), 1e-9 );
+			truth[ 0 ] += 0.5;
+			truth[ 1 ] -= 0.2;
+			truth[ 2 ] += 0.1;
+			final double[] measurement = ran.nextDouble() < 0.2 ? null : new double[] {
+					truth[ 0 ] + 0.3 * ran.nextGaussian(),
+					truth[ 1 ] + 0.3 * ran.nextGaussian(),
+					truth[ 2 ] + 0.3 * ran.nextGaussian() };
+			expected.update( measurement );
+			kf.update( measurement );
+			final Matrix P = expected.P;
+			assertEquals( Math.sqrt( ( P.get( 0, 0 ) + P.get( 1, 1 ) + P.get( 2, 2 ) ) / 3d ), kf.getPositionError(), 1e-9 );
+			assertEquals( Math.sqrt( ( P.get( 3, 3 ) + P.get( 4, 4 ) + P.get( 5, 5 ) ) / 3d ), kf.getVelocityError(), 1e-9 );
+		}
+	}
+
+	@Test
+	public void testTracksKeepTheirIdentity()
+	{
+		final SpotCollection spots = lines( new Random( 2l ), 10 );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = track( spots, 1 );
+		assertEquals( 100 * ( N_FRAMES - 1 ), graph.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+			assertEquals( graph.getEdgeSource( edge ).getFeature( Spot.QUALITY ), graph.getEdgeTarget( edge ).getFeature( Spot.QUALITY ) );
+	}
+
+	@Test
+	public void testThreadsGiveTheSameLinks()
+	{
+		// Enough filters for predictions and updates to run in parallel.
+		final SpotCollection spots = lines( new Random( 3l ), 50 );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = track( spots, 1 );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual = track( spots, 4 );
+		assertEquals( expected.edgeSet().size(), actual.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.edgeSet() )
+			assertTrue( actual.containsEdge( expected.getEdgeSource( edge ), expected.getEdgeTarget( edge ) ) );
+	}
+}
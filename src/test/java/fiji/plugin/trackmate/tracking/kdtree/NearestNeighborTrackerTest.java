@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.kdtree;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+public class NearestNeighborTrackerTest
+{
+
+	private static final double MAX_DISTANCE = 3.;
+
+	@Test
+	public void testLinksAreGreedyNearestNeighbors()
+	{
+		final Random ran = new Random( 1l );
+		final SpotCollection spots = new SpotCollection();
+		final int nFrames = 5;
+		for ( int t = 0; t < nFrames; t++ )
+			for ( int i = 0; i < 3000; i++ )
+				spots.add( new Spot( 200. * ran.nextDouble(), 200. * ran.nextDouble(), 0., 1., 1. ), t );
+
+		final NearestNeighborTracker tracker = new NearestNeighborTracker( spots, Collections.singletonMap( KEY_LINKING_MAX_DISTANCE, MAX_DISTANCE ) );
+		tracker.setNumThreads( 2 );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = tracker.getResult();
+
+		/*
+		 * Reference: each source, in iteration order, takes its nearest
+		 * target not taken yet, if it is within the max distance.
+		 */
+		int nLinks = 0;
+		for ( int t = 0; t < nFrames - 1; t++ )
+		{
+			final List< Spot > targets = new ArrayList<>();
+			for ( final Spot target : spots.iterable( t + 1, true ) )
+				targets.add( target );
+			final boolean[] taken = new boolean[ targets.size() ];
+			for ( final Spot source : spots.iterable( t, true ) )
+			{
+				int best = -1;
+				double bestD2 = MAX_DISTANCE * MAX_DISTANCE;
+				for ( int i = 0; i < targets.size(); i++ )
+				{
+					final double d2 = source.squareDistanceTo( targets.get( i ) );
+					if ( !taken[ i ] && d2 <= bestD2 )
+					{
+						bestD2 = d2;
+						best = i;
+					}
+				}
+				if ( best < 0 )
+					continue;
+
+				taken[ best ] = true;
+				nLinks++;
+				final DefaultWeightedEdge edge = graph.getEdge( source, targets.get( best ) );
+				assertTrue( "Missing link " + source + " → " + targets.get( best ), edge != null );
+				assertEquals( bestD2, graph.getEdgeWeight( edge ), 1e-12 );
+			}
+		}
+		assertEquals( nLinks, graph.edgeSet().size() );
+	}
+}
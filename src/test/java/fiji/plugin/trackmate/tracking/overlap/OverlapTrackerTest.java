@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2024 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.overlap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.overlap.OverlapTracker.IoUCalculation;
+
+public class OverlapTrackerTest
+{
+
+	private static final double MIN_IOU = 0.1;
+
+	private static double boxIoU( final Spot a, final Spot b )
+	{
+		final double ra = a.getFeature( Spot.RADIUS );
+		final double rb = b.getFeature( Spot.RADIUS );
+		final double w = Math.min( a.getDoublePosition( 0 ) + ra, b.getDoublePosition( 0 ) + rb ) - Math.max( a.getDoublePosition( 0 ) - ra, b.getDoublePosition( 0 ) - rb );
+		final double h = Math.min( a.getDoublePosition( 1 ) + ra, b.getDoublePosition( 1 ) + rb ) - Math.max( a.getDoublePosition( 1 ) - ra, b.getDoublePosition( 1 ) - rb );
+		if ( w <= 0. || h <= 0. )
+			return 0.;
+		final double intersection = w * h;
+		return intersection / ( 4. * ra * ra + 4. * rb * rb - intersection );
+	}
+
+	@Test
+	public void testFastLinksAreTheBestOverlaps()
+	{
+		final Random ran = new Random( 1l );
+		final SpotCollection spots = new SpotCollection();
+		final List< Spot > sources = new ArrayList<>();
+		final List< Spot > targets = new ArrayList<>();
+		for ( int i = 0; i < 2000; i++ )
+		{
+			final Spot source = new Spot( 500. * ran.nextDouble(), 500. * ran.nextDouble(), 0., 1. + 4. * ran.nextDouble(), 1. );
+			sources.add( source );
+			spots.add( source, 0 );
+			final Spot target = new Spot( 500. * ran.nextDouble(), 500. * ran.nextDouble(), 0., 1. + 4. * ran.nextDouble(), 1. );
+			targets.add( target );
+			spots.add( target, 1 );
+		}
+
+		final OverlapTracker tracker = new OverlapTracker( spots, IoUCalculation.FAST, MIN_IOU, 1. );
+		tracker.setNumThreads( 3 );
+		assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = tracker.getResult();
+
+		int nLinks = 0;
+		for ( final Spot target : targets )
+		{
+			double best = MIN_IOU;
+			for ( final Spot source : sources )
+				best = Math.max( best, boxIoU( source, target ) );
+			if ( best == MIN_IOU )
+			{
+				assertTrue( !graph.containsVertex( target ) || graph.edgesOf( target ).isEmpty() );
+				continue;
+			}
+
+			nLinks++;
+			assertEquals( 1, graph.edgesOf( target ).size() );
+			final DefaultWeightedEdge edge = graph.edgesOf( target ).iterator().next();
+			assertEquals( 1. - best, graph.getEdgeWeight( edge ), 1e-12 );
+			assertEquals( best, boxIoU( graph.getEdgeSource( edge ), target ), 1e-12 );
+		}
+		assertEquals( nLinks, graph.edgeSet().size() );
+		assertTrue( nLinks > 100 );
+	}
+}